@@ -0,0 +1,228 @@
+package com.dilatush.monitor.agent;
+
+import com.dilatush.monitor.monitors.JVM;
+import com.dilatush.mop.PostOffice;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.dilatush.util.General.getLogger;
+import static com.dilatush.util.Strings.isEmpty;
+
+/**
+ * The working half of the {@link JVMAgent}: runs the {@link JVM} monitor on its own thread, publishing through its own MOP post office.  This class, the
+ * monitor, and the libraries they use (MOP, org.json, and Util) are all loaded by the agent's own isolated class loader, never from the application's
+ * class path; see {@link JVMAgent} for the arguments.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public final class AgentRunner {
+
+    private static final Logger LOGGER = getLogger();
+
+    private static final String   THREAD_NAME      = "JVMMonitor agent";
+    private static final Duration DEFAULT_INTERVAL = Duration.ofMinutes( 10 );
+    private static final int      MAX_TOP_THREADS  = 20;
+
+    private static final AtomicLong RUNS = new AtomicLong();  // the number of samples taken since the agent started...
+
+    private static ScheduledThreadPoolExecutor executor;      // the agent's single thread, or null if the agent isn't running...
+    private static JVM                         monitor;       // the monitor, or null if the agent isn't running or hasn't yet created it...
+    private static Thread                      shutdownHook;  // stops the agent when the application exits...
+
+
+    private AgentRunner() {}
+
+
+    /**
+     * Start the agent with the given arguments, if it isn't already running.  The first sample is taken after the given delay.
+     *
+     * @param _args The agent arguments, as described in {@link JVMAgent}.
+     * @param _delay The delay before the first sample.
+     */
+    public static synchronized void start( final String _args, final Duration _delay ) {
+
+        if( executor != null ) {
+            LOGGER.info( "JVMMonitor agent is already running" );
+            return;
+        }
+
+        // we never want to throw anything back at the application...
+        try {
+            var params   = parseArgs( _args );
+            var name     = params.get( "name"     );
+            var poName   = params.get( "poName"   );
+            var poSecret = params.get( "poSecret" );
+            var cpoHost  = params.get( "cpoHost"  );
+            if( isEmpty( name ) || isEmpty( poName ) || isEmpty( poSecret ) || isEmpty( cpoHost ) )
+                throw new IllegalArgumentException( "name, poName, poSecret, and cpoHost must all be supplied" );
+            var interval = params.containsKey( "intervalSeconds" ) ? Duration.ofSeconds( Long.parseLong( params.get( "intervalSeconds" ) ) ) : DEFAULT_INTERVAL;
+
+            // the parameters for the monitor itself...
+            var monitorParams = new HashMap<String,Object>();
+            monitorParams.put( "name", name );
+            if( params.containsKey( "jfr" ) )
+                monitorParams.put( "jfr", Boolean.parseBoolean( params.get( "jfr" ) ) );
+            if( params.containsKey( "topThreads" ) )
+                monitorParams.put( "topThreads", Math.min( MAX_TOP_THREADS, Integer.parseInt( params.get( "topThreads" ) ) ) );
+            if( params.containsKey( "heapHorizonHours" ) )
+                monitorParams.put( "heapHorizonHours", Double.parseDouble( params.get( "heapHorizonHours" ) ) );
+
+            // our single, low-priority, daemon thread...
+            var agentExecutor = new ScheduledThreadPoolExecutor( 1, (r) -> {
+                var thread = new Thread( r, THREAD_NAME );
+                thread.setDaemon( true );
+                thread.setPriority( Thread.MIN_PRIORITY );
+                return thread;
+            } );
+            agentExecutor.setRemoveOnCancelPolicy( true );
+            executor = agentExecutor;
+
+            // make sure the monitor is closed, and its last interval published, when the application exits...
+            shutdownHook = new Thread( AgentRunner::stop, THREAD_NAME + " shutdown" );
+            Runtime.getRuntime().addShutdownHook( shutdownHook );
+
+            // set up our post office and monitor on our own thread, then start sampling...
+            agentExecutor.execute( () -> {
+                try {
+                    var poc = new PostOffice.PostOfficeConfig();
+                    poc.name    = poName;
+                    poc.secret  = poSecret;
+                    poc.cpoHost = cpoHost;
+                    var mailbox = new PostOffice( poc ).createMailbox( "jvmmonitor" );
+                    var jvm = new JVM( mailbox, monitorParams, interval );
+                    synchronized( AgentRunner.class ) {
+                        if( executor != agentExecutor ) {  // stopped while we were getting started...
+                            jvm.close();
+                            return;
+                        }
+                        monitor = jvm;
+                        Runnable sample = () -> { jvm.run(); RUNS.incrementAndGet(); };
+                        agentExecutor.scheduleAtFixedRate( sample, _delay.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS );
+                    }
+                    LOGGER.info( "JVMMonitor agent started for " + name + ", sampling every " + interval );
+                }
+                catch( Exception _e ) {
+                    LOGGER.log( Level.SEVERE, "JVMMonitor agent could not start: " + _e.getMessage(), _e );
+                    stop();
+                }
+            } );
+        }
+        catch( Exception _e ) {
+            LOGGER.log( Level.SEVERE, "JVMMonitor agent could not start: " + _e.getMessage(), _e );
+            stop();
+        }
+    }
+
+
+    /**
+     * Stop the agent, if it's running.  Any sample in progress is allowed a few seconds to finish; then the monitor is closed (which stops its JFR
+     * recording stream and flushes what it had accumulated) and takes one last sample, so the final partial interval isn't lost.  If the sample in
+     * progress doesn't finish in time, the last sample is skipped, as it would otherwise run on the monitor at the same time.
+     */
+    public static void stop() {
+
+        // take the agent's thread, so nobody else will use or stop it...
+        ScheduledThreadPoolExecutor stopping;
+        synchronized( AgentRunner.class ) {
+            stopping = executor;
+            executor = null;
+            if( stopping == null ) return;
+
+            // if we're not being called from the shutdown hook itself, we don't need it anymore...
+            if( (shutdownHook != null) && (Thread.currentThread() != shutdownHook) ) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook( shutdownHook );
+                }
+                catch( IllegalStateException _e ) {
+                    // naught to do; the JVM is already shutting down...
+                }
+            }
+            shutdownHook = null;
+        }
+
+        // cancel the sampling, and let any sample in progress finish (unless we ARE the agent's thread, having failed to start, so none can be)...
+        stopping.shutdown();
+        var finished = true;
+        if( !THREAD_NAME.equals( Thread.currentThread().getName() ) ) {
+            try {
+                finished = stopping.awaitTermination( 5, TimeUnit.SECONDS );
+            }
+            catch( InterruptedException _e ) {
+                Thread.currentThread().interrupt();
+                finished = false;
+            }
+        }
+
+        // then close the monitor and publish its last interval, but only if no sample is still running on it...
+        JVM closing;
+        synchronized( AgentRunner.class ) {
+            closing = monitor;
+            monitor = null;
+        }
+        if( closing == null ) return;
+        if( !finished ) {
+            LOGGER.warning( "JVMMonitor agent's sample did not finish; skipping the last sample" );
+            return;
+        }
+        closing.close();
+        closing.run();
+    }
+
+
+    /**
+     * Return the number of samples the agent has taken since it was loaded.
+     *
+     * @return The number of samples taken.
+     */
+    public static long runs() {
+        return RUNS.get();
+    }
+
+
+    /**
+     * Parse the agent arguments into a map.  If there is a {@code file} argument, the properties in that file are read first, and the other arguments
+     * override them.
+     *
+     * @param _args The agent arguments.
+     * @return The map of argument names to values.
+     * @throws IOException On any problem reading the properties file.
+     */
+    private static Map<String,String> parseArgs( final String _args ) throws IOException {
+
+        // first the arguments on the command line...
+        var args = new HashMap<String,String>();
+        if( !isEmpty( _args ) ) {
+            for( String pair : _args.split( "," ) ) {
+                var eq = pair.indexOf( '=' );
+                if( eq < 1 ) throw new IllegalArgumentException( "Agent argument is not key=value: " + pair );
+                args.put( pair.substring( 0, eq ).trim(), pair.substring( eq + 1 ).trim() );
+            }
+        }
+
+        // then the properties file, if there is one...
+        var result = new HashMap<String,String>();
+        var file = args.get( "file" );
+        if( file != null ) {
+            var props = new Properties();
+            try( var reader = new FileReader( file ) ) {
+                props.load( reader );
+            }
+            for( String key : props.stringPropertyNames() ) result.put( key, props.getProperty( key ).trim() );
+        }
+
+        // command line wins...
+        result.putAll( args );
+        result.remove( "file" );
+        return result;
+    }
+}
@@ -0,0 +1,150 @@
+package com.dilatush.monitor.agent;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.time.Duration;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A Java agent that runs the {@link com.dilatush.monitor.monitors.JVM} monitor inside any JVM, with no changes to the application.  Add it to the
+ * application's command line:
+ * <pre>
+ *     java -javaagent:JVMMonitorAgent.jar=file=/apps/myapp/jvmmonitor.properties -jar MyApp.jar
+ * </pre>
+ * or load it into a running JVM through the Attach API.  The agent arguments are comma-separated {@code key=value} pairs; a {@code file} argument names a
+ * properties file whose entries are read first (so that secrets need not appear on the command line), and any other arguments override it.  The keys are:
+ * <ul>
+ *     <li>{@code name}: required; the monitor publishes {@code <name>_jvm.monitor} messages.</li>
+ *     <li>{@code poName}, {@code poSecret}, {@code cpoHost}: required; the MOP post office configuration for the agent's own post office.</li>
+ *     <li>{@code intervalSeconds}: optional; the interval between samples (default 600).</li>
+ *     <li>{@code jfr}, {@code topThreads}, {@code heapHorizonHours}: optional; passed through to the monitor.</li>
+ * </ul>
+ * The JVM puts the agent jar on the application's class path, and the applications we monitor are mostly MOP applications themselves, so the agent must
+ * not bring its own MOP (or org.json, or Util) along with it there.  So the agent is packaged in its own jar (the JVMMonitorAgent artifact; the
+ * JVMMonitor artifact stays a plain library jar), whose root holds just this package's classes: this class and the benchmark, which use nothing but the
+ * JDK (and a copy of {@code AgentRunner}, which is never loaded from there).  Everything else, the monitor and the libraries it uses included, is packaged
+ * in the jar under {@value #IMPL_DIR}, and loaded from there by the agent's own class loader, whose parent is the platform class loader; the
+ * application's classes and the agent's never meet.  If this class wasn't loaded from a jar (in development, say), the agent's classes are loaded from
+ * wherever this class came from.
+ * <p>
+ * The agent samples on a single low-priority daemon thread, which also connects to the post office.  The post office runs threads of its own for its
+ * connection; they're started from the agent's daemon thread, and so are daemon threads too.  So the agent never delays the application's startup or
+ * prevents it from exiting, and a failure in the agent is logged rather than thrown into the application.  The monitor's retained state is fixed-size,
+ * so the agent's memory use doesn't grow with the application's.  When the application exits, the agent publishes one last sample.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public final class JVMAgent {
+
+    private static final Logger LOGGER = Logger.getLogger( JVMAgent.class.getName() );
+
+    private static final String   IMPL_DIR     = "impl/";                                   // where the agent's own classes are in the jar...
+    private static final String   RUNNER_CLASS = "com.dilatush.monitor.agent.AgentRunner"; // the class that does the work...
+    private static final Duration START_DELAY  = Duration.ofSeconds( 30 );                  // let the application get started before we add any load...
+
+    private static Class<?> runner;  // the AgentRunner class, loaded by the agent's class loader, or null if it hasn't been loaded yet...
+
+
+    private JVMAgent() {}
+
+
+    /**
+     * Called by the JVM when the agent is named on the command line, before the application's main method.
+     *
+     * @param _args The agent arguments.
+     * @param _instrumentation Not used.
+     */
+    public static void premain( final String _args, @SuppressWarnings( "unused" ) final Instrumentation _instrumentation ) {
+        start( _args, START_DELAY );
+    }
+
+
+    /**
+     * Called by the JVM when the agent is loaded into a running JVM through the Attach API.
+     *
+     * @param _args The agent arguments.
+     * @param _instrumentation Not used.
+     */
+    public static void agentmain( final String _args, @SuppressWarnings( "unused" ) final Instrumentation _instrumentation ) {
+        start( _args, Duration.ZERO );
+    }
+
+
+    /**
+     * Start the agent with the given arguments, if it isn't already running.  The first sample is taken after the given delay.
+     *
+     * @param _args The agent arguments, as described in the class comment.
+     * @param _delay The delay before the first sample.
+     */
+    public static void start( final String _args, final Duration _delay ) {
+        invoke( "start", new Class<?>[] { String.class, Duration.class }, _args, _delay );
+    }
+
+
+    /**
+     * Stop the agent, if it's running, after it publishes one last sample.
+     */
+    public static void stop() {
+        invoke( "stop", new Class<?>[0] );
+    }
+
+
+    /**
+     * Return the number of samples the agent has taken since it was loaded, or zero if it couldn't be loaded.
+     *
+     * @return The number of samples taken.
+     */
+    public static long runs() {
+        var runs = invoke( "runs", new Class<?>[0] );
+        return (runs instanceof Long count) ? count : 0;
+    }
+
+
+    /**
+     * Invoke the given static method of the agent's runner, loading the agent's classes first if need be.  We never want to throw anything back at the
+     * application, so any problem is logged, and null returned.
+     *
+     * @param _method The name of the method to invoke.
+     * @param _types The method's parameter types.
+     * @param _args The arguments for the method.
+     * @return The method's result, or null if it has none or if there was a problem.
+     */
+    private static Object invoke( final String _method, final Class<?>[] _types, final Object... _args ) {
+        try {
+            Method method = runner().getMethod( _method, _types );
+            return method.invoke( null, _args );
+        }
+        catch( Exception | LinkageError _e ) {
+            LOGGER.log( Level.SEVERE, "JVMMonitor agent problem in " + _method + ": " + _e.getMessage(), _e );
+            return null;
+        }
+    }
+
+
+    /**
+     * Return the agent's runner class, loading it (and the rest of the agent's classes) with the agent's own class loader the first time.
+     *
+     * @return The runner class.
+     * @throws Exception On any problem loading the runner class.
+     */
+    private static synchronized Class<?> runner() throws Exception {
+
+        if( runner != null ) return runner;
+
+        // if we came from a jar, our classes are in its implementation directory; otherwise they're right next to us...
+        var location = JVMAgent.class.getProtectionDomain().getCodeSource().getLocation();
+        ClassLoader loader;
+        if( location.getPath().endsWith( ".jar" ) ) {
+            var impl = new URL( "jar:" + location + "!/" + IMPL_DIR );
+            loader = new URLClassLoader( "JVMMonitor agent", new URL[] { impl }, ClassLoader.getPlatformClassLoader() );
+        }
+        else
+            loader = JVMAgent.class.getClassLoader();
+
+        runner = Class.forName( RUNNER_CLASS, true, loader );
+        return runner;
+    }
+}
@@ -0,0 +1,204 @@
+package com.dilatush.monitor.agent;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the overhead of the {@link JVMAgent} on a busy application.  A synthetic workload (allocating, hashing, and contending for a few locks) is run
+ * for a while without the agent, then for the same time with the agent sampling once a second (far more often than it would in production).  By default
+ * the workload uses one thread fewer than there are CPUs, so the agent's work can't hide in a saturated process.
+ * <p>
+ * For each phase the report shows the workload's throughput, and the CPU time and bytes allocated by the whole process, and by everything in it
+ * <i>other</i> than the workload threads: the agent's own thread, the post office's threads, JFR's threads, and the JVM's compiler and GC threads.  The
+ * increase in that "other" share from one phase to the next is the agent's real cost, including the work it causes in threads it doesn't own.  The
+ * allocation figures come from the JVM's per-thread counters, so they miss any thread that both starts and ends within a phase.  Run it from the agent
+ * jar, with the same arguments the agent takes:
+ * <pre>
+ *     java -jar JVMMonitorAgent.jar file=/path/to/jvmmonitor.properties [seconds per phase] [workload threads]
+ * </pre>
+ * The agent really sends its messages, so the post office it's configured for must be reachable.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class JVMAgentBenchmark {
+
+    private static final Object[] LOCKS = { new Object(), new Object(), new Object(), new Object() };
+
+    private static final com.sun.management.ThreadMXBean          THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final com.sun.management.OperatingSystemMXBean OS      =
+            (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+
+    public static void main( final String[] _args ) throws InterruptedException {
+
+        if( _args.length < 1 ) {
+            System.out.println( "Usage: java -jar JVMMonitorAgent.jar <agent arguments> [seconds per phase] [workload threads]" );
+            System.exit( 1 );
+        }
+        var phase   = Duration.ofSeconds( (_args.length > 1) ? Long.parseLong( _args[1] ) : 60 );
+        var threads = (_args.length > 2) ? Integer.parseInt( _args[2] ) : Math.max( 1, Runtime.getRuntime().availableProcessors() - 1 );
+
+        // warm up, then measure without the agent...
+        runWorkload( Duration.ofSeconds( 10 ), threads );
+        var baseline = runWorkload( phase, threads );
+
+        // start the agent, sampling every second, and wait for its first sample so we're not measuring its startup...
+        JVMAgent.start( _args[0] + ",intervalSeconds=1", Duration.ZERO );
+        var waitUntil = System.currentTimeMillis() + 30_000;
+        while( (JVMAgent.runs() == 0) && (System.currentTimeMillis() < waitUntil) ) Thread.sleep( 100 );
+        if( JVMAgent.runs() == 0 ) {
+            System.out.println( "The agent did not start sampling; check its log" );
+            System.exit( 2 );
+        }
+
+        // measure with the agent...
+        var startRuns = JVMAgent.runs();
+        var withAgent = runWorkload( phase, threads );
+        var runs      = JVMAgent.runs() - startRuns;
+        JVMAgent.stop();
+
+        // and tell the world...
+        var seconds  = (double) phase.toSeconds();
+        var extraCPU = withAgent.otherCPU() - baseline.otherCPU();
+        var extraMem = withAgent.otherAlloc() - baseline.otherAlloc();
+        System.out.printf( "CPUs:                        %d%n",           Runtime.getRuntime().availableProcessors() );
+        System.out.printf( "Workload threads:            %d%n",           threads );
+        System.out.printf( "Phase duration:              %d s%n",         phase.toSeconds() );
+        System.out.printf( "Agent samples:               %d%n",           runs );
+        System.out.printf( "%n%-28s %18s %18s%n", "", "without agent", "with agent" );
+        System.out.printf( "%-28s %,18.0f %,18.0f%n", "Throughput (ops/s)",        baseline.ops() / seconds,          withAgent.ops() / seconds          );
+        System.out.printf( "%-28s %,18.1f %,18.1f%n", "Process CPU (ms)",          baseline.processCPU() / 1e6,       withAgent.processCPU() / 1e6       );
+        System.out.printf( "%-28s %,18.1f %,18.1f%n", "Non-workload CPU (ms)",     baseline.otherCPU() / 1e6,         withAgent.otherCPU() / 1e6         );
+        System.out.printf( "%-28s %,18.2f %,18.2f%n", "Workload CPU per op (us)",  baseline.cpuPerOp() / 1e3,         withAgent.cpuPerOp() / 1e3         );
+        System.out.printf( "%-28s %,18d %,18d%n",     "Process allocation (bytes)", baseline.processAlloc(),          withAgent.processAlloc()           );
+        System.out.printf( "%-28s %,18d %,18d%n",     "Non-workload allocation",   baseline.otherAlloc(),             withAgent.otherAlloc()             );
+        System.out.printf( "%n" );
+        System.out.printf( "Throughput change:           %+.2f%%%n",      100D * (withAgent.ops() - baseline.ops()) / baseline.ops() );
+        System.out.printf( "Agent CPU:                   %.1f ms total, %.3f ms/sample, %.4f%% of one CPU%n",
+                extraCPU / 1e6, (runs == 0) ? 0 : extraCPU / 1e6 / runs, 100D * extraCPU / phase.toNanos() );
+        System.out.printf( "Agent allocation:            %,d bytes total, %,d bytes/sample%n", extraMem, (runs == 0) ? 0 : extraMem / runs );
+        System.exit( 0 );
+    }
+
+
+    /**
+     * The measurements from one phase of the benchmark.
+     *
+     * @param ops The number of operations completed by the workload threads.
+     * @param processCPU The CPU time used by the whole process, in nanoseconds.
+     * @param workloadCPU The CPU time used by the workload threads, in nanoseconds.
+     * @param processAlloc The bytes allocated by all the process's threads.
+     * @param workloadAlloc The bytes allocated by the workload threads.
+     */
+    private record Phase( long ops, long processCPU, long workloadCPU, long processAlloc, long workloadAlloc ) {
+
+        private long otherCPU()   { return processCPU - workloadCPU;     }
+        private long otherAlloc() { return processAlloc - workloadAlloc; }
+        private double cpuPerOp() { return (ops == 0) ? 0 : (double) workloadCPU / ops; }
+    }
+
+
+    /**
+     * Run the synthetic workload for the given time on the given number of threads, measuring the whole process as well as the workload.  The workload
+     * threads are held until the process has been measured, so that their allocation is still counted.
+     *
+     * @param _duration How long to run the workload.
+     * @param _threads The number of workload threads.
+     * @return The measurements for this run.
+     * @throws InterruptedException If interrupted while waiting for the workload threads.
+     */
+    private static Phase runWorkload( final Duration _duration, final int _threads ) throws InterruptedException {
+
+        var ops         = new LongAdder();
+        var workloadCPU = new LongAdder();
+        var stop        = new AtomicBoolean();
+        var stopped     = new CountDownLatch( _threads );
+        var measured    = new CountDownLatch( 1 );
+        var workers     = new ArrayList<Thread>();
+
+        var startCPU   = OS.getProcessCpuTime();
+        var startAlloc = allocatedByThread();
+        for( int i = 0; i < _threads; i++ ) {
+            var thread = new Thread( () -> {
+                work( ops, stop );
+                workloadCPU.add( THREADS.getCurrentThreadCpuTime() );
+                stopped.countDown();
+                awaitQuietly( measured );
+            }, "workload-" + i );
+            thread.start();
+            workers.add( thread );
+        }
+        Thread.sleep( _duration.toMillis() );
+        stop.set( true );
+        stopped.await();
+
+        // measure the process while the workload threads are still alive...
+        var processCPU = OS.getProcessCpuTime() - startCPU;
+        var endAlloc   = allocatedByThread();
+        long processAlloc  = 0;
+        long workloadAlloc = 0;
+        for( Map.Entry<Long,Long> entry : endAlloc.entrySet() ) {
+            var delta = entry.getValue() - startAlloc.getOrDefault( entry.getKey(), 0L );
+            processAlloc += delta;
+            for( Thread worker : workers ) if( worker.getId() == entry.getKey() ) workloadAlloc += delta;
+        }
+        measured.countDown();
+        for( Thread worker : workers ) worker.join();
+
+        return new Phase( ops.sum(), processCPU, workloadCPU.sum(), processAlloc, workloadAlloc );
+    }
+
+
+    /**
+     * Return the bytes allocated so far by each live thread in the process.
+     *
+     * @return The map of thread IDs to bytes allocated.
+     */
+    private static Map<Long,Long> allocatedByThread() {
+        var ids    = THREADS.getAllThreadIds();
+        var bytes  = THREADS.getThreadAllocatedBytes( ids );
+        var result = new HashMap<Long,Long>();
+        for( int i = 0; i < ids.length; i++ ) if( bytes[i] >= 0 ) result.put( ids[i], bytes[i] );
+        return result;
+    }
+
+
+    /**
+     * One workload thread: build a short-lived map, hash its contents, and fold the result into a shared counter under one of a few locks.
+     *
+     * @param _ops The counter of operations completed.
+     * @param _stop Set when the thread should stop.
+     */
+    private static void work( final LongAdder _ops, final AtomicBoolean _stop ) {
+        var random = ThreadLocalRandom.current();
+        long sink = 0;
+        while( !_stop.get() ) {
+            var map = new HashMap<Integer,List<String>>();
+            for( int i = 0; i < 64; i++ ) map.computeIfAbsent( random.nextInt( 16 ), (k) -> new ArrayList<>() ).add( Integer.toString( i ) );
+            var hash = map.hashCode();
+            synchronized( LOCKS[ random.nextInt( LOCKS.length ) ] ) {
+                sink += hash;
+            }
+            _ops.increment();
+        }
+        if( sink == 42 ) System.out.print( "" );  // keep the JIT from discarding the work...
+    }
+
+
+    private static void awaitQuietly( final CountDownLatch _latch ) {
+        try {
+            _latch.await();
+        }
+        catch( InterruptedException _e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.dilatush.monitor.monitors;
+
+import org.json.JSONObject;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size, log-linear histogram of non-negative long values (durations, sizes, rates, and the like).  Each power of two is divided into eight
+ * equal-width buckets, so any percentile is reported within 12.5% of its true value, while the whole histogram occupies a fixed 513 counters no matter
+ * how many values are recorded or how large they are.  Recording is O(1) and never allocates.  Instances of this class are threadsafe, so values may be
+ * recorded on one thread and summarized on another.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class Histogram {
+
+    private static final int SUB_BITS    = 3;              // log2 of the number of buckets per power of two...
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;  // number of buckets per power of two...
+
+    private final long[] counts = new long[ 1 + 64 * SUB_BUCKETS ];  // bucket zero is for values less than one...
+
+    private long count;   // the number of values recorded...
+    private long sum;     // the sum of the values recorded...
+    private long min;     // the smallest value recorded...
+    private long max;     // the largest value recorded...
+
+
+    /**
+     * Creates a new, empty instance of this class.
+     */
+    public Histogram() {
+        reset();
+    }
+
+
+    /**
+     * Record the given value.  Negative values are recorded as zero.
+     *
+     * @param _value The value to record.
+     */
+    public synchronized void record( final long _value ) {
+        var value = Math.max( 0, _value );
+        counts[ bucketOf( value ) ]++;
+        count++;
+        sum += value;
+        if( value < min ) min = value;
+        if( value > max ) max = value;
+    }
+
+
+    /**
+     * Return the given percentile of the recorded values, or zero if no values have been recorded.  The result is the upper bound of the bucket containing
+     * the percentile, limited to the largest value actually recorded.
+     *
+     * @param _percentile The percentile desired, in [0..100].
+     * @return The value at the given percentile.
+     */
+    public synchronized long percentile( final double _percentile ) {
+
+        if( count == 0 ) return 0;
+
+        // figure out how many values must be at or below the percentile...
+        var target = Math.max( 1, (long) Math.ceil( count * Math.min( 100D, Math.max( 0D, _percentile ) ) / 100D ) );
+
+        // find the bucket where we reach that number...
+        var seen = 0L;
+        for( int i = 0; i < counts.length; i++ ) {
+            seen += counts[i];
+            if( seen >= target ) return Math.max( min, Math.min( max, upperBoundOf( i ) ) );
+        }
+        return max;
+    }
+
+
+    /**
+     * Return the number of values recorded since this histogram was created or last reset.
+     *
+     * @return The number of values recorded.
+     */
+    public synchronized long count() {
+        return count;
+    }
+
+
+    /**
+     * Return the largest value recorded, or zero if no values have been recorded.
+     *
+     * @return The largest value recorded.
+     */
+    public synchronized long max() {
+        return (count == 0) ? 0 : max;
+    }
+
+
+    /**
+     * Return the sum of the values recorded.
+     *
+     * @return The sum of the values recorded.
+     */
+    public synchronized long sum() {
+        return sum;
+    }
+
+
+    /**
+     * Return a JSON object summarizing this histogram, with the count, min, mean, 50th, 95th, and 99th percentiles, and max.
+     *
+     * @return The summary JSON object.
+     */
+    public synchronized JSONObject toJSON() {
+        var summary = new JSONObject();
+        summary.put( "count", count                                                );
+        summary.put( "min",   (count == 0) ? 0 : min                               );
+        summary.put( "mean",  (count == 0) ? 0 : Math.round( (double) sum / count ) );
+        summary.put( "p50",   percentile( 50 )                                     );
+        summary.put( "p95",   percentile( 95 )                                     );
+        summary.put( "p99",   percentile( 99 )                                     );
+        summary.put( "max",   max()                                                );
+        return summary;
+    }
+
+
+    /**
+     * Discard all recorded values.
+     */
+    public synchronized void reset() {
+        Arrays.fill( counts, 0 );
+        count = 0;
+        sum   = 0;
+        min   = Long.MAX_VALUE;
+        max   = Long.MIN_VALUE;
+    }
+
+
+    /**
+     * Return the index of the bucket holding the given non-negative value.
+     *
+     * @param _value The value.
+     * @return The index of the bucket holding the value.
+     */
+    private static int bucketOf( final long _value ) {
+
+        if( _value < 1 ) return 0;
+
+        // the power of two, and the sub-bucket within it...
+        var exp = 63 - Long.numberOfLeadingZeros( _value );
+        var sub = (exp >= SUB_BITS) ? (int)(_value >>> (exp - SUB_BITS)) : (int)(_value << (SUB_BITS - exp));
+        return 1 + exp * SUB_BUCKETS + (sub & (SUB_BUCKETS - 1));
+    }
+
+
+    /**
+     * Return the largest value that falls into the bucket with the given index.
+     *
+     * @param _bucket The bucket index.
+     * @return The largest value that falls into the bucket.
+     */
+    private static long upperBoundOf( final int _bucket ) {
+
+        if( _bucket == 0 ) return 0;
+
+        var exp = (_bucket - 1) / SUB_BUCKETS;
+        var sub = (_bucket - 1) % SUB_BUCKETS;
+
+        // buckets below the first full power of two hold just one value each...
+        if( exp < SUB_BITS ) return (SUB_BUCKETS + sub) >> (SUB_BITS - exp);
+
+        var lower = ((long) SUB_BUCKETS + sub) << (exp - SUB_BITS);
+        var width = 1L << (exp - SUB_BITS);
+        return lower + width - 1;
+    }
+}
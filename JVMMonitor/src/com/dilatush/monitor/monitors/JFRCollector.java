@@ -0,0 +1,144 @@
+package com.dilatush.monitor.monitors;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+import org.json.JSONObject;
+
+import java.time.Duration;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.dilatush.util.General.getLogger;
+
+/**
+ * Instances of this class stream JDK Flight Recorder (JFR) events from the JVM they're running in, continuously aggregating GC pauses, safepoint stalls,
+ * contended monitor entries, thread parks, and sampled allocations into fixed-size histograms.  This catches what a point-in-time snapshot misses between
+ * monitor runs.  The overhead is kept low by enabling only these few events, with thresholds on the lock events and a throttle on allocation sampling,
+ * and by bounding the on-disk stream buffer.  The JFR events are delivered on the recording stream's own thread.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+class JFRCollector {
+
+    private static final Logger LOGGER = getLogger();
+
+    private static final Duration LOCK_THRESHOLD      = Duration.ofMillis( 10 );  // ignore monitor entries and parks shorter than this...
+    private static final String   ALLOCATION_THROTTLE = "100/s";                  // maximum allocation samples per second...
+    private static final Duration MAX_AGE             = Duration.ofMinutes( 1 );  // maximum age of buffered event data...
+    private static final long     MAX_SIZE            = 10_000_000;               // maximum size of buffered event data, in bytes...
+
+    private final RecordingStream stream;
+
+    // durations are recorded in microseconds, allocation rates in bytes per second...
+    private final Histogram gcPauses       = new Histogram();
+    private final Histogram safepoints     = new Histogram();
+    private final Histogram safepointSyncs = new Histogram();
+    private final Histogram monitorEnters  = new Histogram();
+    private final Histogram threadParks    = new Histogram();
+    private final Histogram allocationRate = new Histogram();
+
+    // the allocation sample weights accumulated during the current second...
+    private long allocationSecond;   // the epoch second we're accumulating for...
+    private long allocationBytes;    // the bytes accumulated so far in that second...
+
+
+    /**
+     * Creates a new instance of this class and starts streaming events.
+     */
+    JFRCollector() {
+
+        stream = new RecordingStream();
+        stream.setMaxAge( MAX_AGE );
+        stream.setMaxSize( MAX_SIZE );
+
+        stream.enable( "jdk.GCPhasePause"                  );
+        stream.enable( "jdk.ExecuteVMOperation"            );
+        stream.enable( "jdk.SafepointStateSynchronization" );
+        stream.enable( "jdk.JavaMonitorEnter"              ).withThreshold( LOCK_THRESHOLD );
+        stream.enable( "jdk.ThreadPark"                    ).withThreshold( LOCK_THRESHOLD );
+        stream.enable( "jdk.ObjectAllocationSample"        ).with( "throttle", ALLOCATION_THROTTLE );
+
+        stream.onEvent( "jdk.GCPhasePause",                  (e) -> gcPauses.record(       micros( e ) ) );
+        stream.onEvent( "jdk.SafepointStateSynchronization", (e) -> safepointSyncs.record( micros( e ) ) );
+        stream.onEvent( "jdk.JavaMonitorEnter",              (e) -> monitorEnters.record(  micros( e ) ) );
+        stream.onEvent( "jdk.ThreadPark",                    (e) -> threadParks.record(    micros( e ) ) );
+        stream.onEvent( "jdk.ExecuteVMOperation",            this::onVMOperation );
+        stream.onEvent( "jdk.ObjectAllocationSample",        this::onAllocation  );
+        stream.onError( (e) -> LOGGER.log( Level.WARNING, "Problem streaming JFR events: " + e.getMessage(), e ) );
+
+        stream.startAsync();
+        LOGGER.info( "Started JFR event streaming" );
+    }
+
+
+    /**
+     * Return a JSON object summarizing the events received since the last call to this method, and start a new interval.
+     *
+     * @return The summary.
+     */
+    JSONObject summarize() {
+
+        var summary = new JSONObject();
+        summary.put( "gcPausesUs",        summarize( gcPauses       ) );
+        summary.put( "safepointsUs",      summarize( safepoints     ) );
+        summary.put( "safepointSyncsUs",  summarize( safepointSyncs ) );
+        summary.put( "monitorEntersUs",   summarize( monitorEnters  ) );
+        summary.put( "threadParksUs",     summarize( threadParks    ) );
+        summary.put( "allocationRateBps", summarize( allocationRate ) );
+        return summary;
+    }
+
+
+    /**
+     * Stop streaming events, and record the allocations accumulated in the last (partial) second, so the final summary includes them.
+     */
+    void close() {
+        stream.close();
+        synchronized( this ) {
+            if( allocationBytes > 0 ) allocationRate.record( allocationBytes );
+            allocationBytes = 0;
+        }
+    }
+
+
+    private JSONObject summarize( final Histogram _histogram ) {
+        synchronized( _histogram ) {
+            var summary = _histogram.toJSON();
+            _histogram.reset();
+            return summary;
+        }
+    }
+
+
+    /**
+     * Record the duration of a VM operation, if it was performed at a safepoint (when all Java threads are stopped).  The time it took to bring the threads
+     * to the safepoint is recorded separately, from the safepoint synchronization events.
+     *
+     * @param _event The VM operation event.
+     */
+    private void onVMOperation( final RecordedEvent _event ) {
+        if( _event.getBoolean( "safepoint" ) ) safepoints.record( micros( _event ) );
+    }
+
+
+    /**
+     * Accumulate an allocation sample's weight (the bytes it stands for) into the current second; when a new second starts, record the previous second's
+     * total as an allocation rate, so that bursts show up in the upper percentiles.
+     *
+     * @param _event The allocation sample event.
+     */
+    private synchronized void onAllocation( final RecordedEvent _event ) {
+        var second = _event.getStartTime().getEpochSecond();
+        if( second != allocationSecond ) {
+            if( allocationBytes > 0 ) allocationRate.record( allocationBytes );
+            allocationSecond = second;
+            allocationBytes  = 0;
+        }
+        allocationBytes += _event.getLong( "weight" );
+    }
+
+
+    private static long micros( final RecordedEvent _event ) {
+        return _event.getDuration().toNanos() / 1000;
+    }
+}
@@ -2,13 +2,30 @@ package com.dilatush.monitor.monitors;
 
 import com.dilatush.mop.Mailbox;
 import com.dilatush.mop.Message;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.json.JSONArray;
+import org.json.JSONObject;
 
+import javax.management.JMException;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.*;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static com.dilatush.util.General.getLogger;
-import static com.dilatush.util.General.isNotNull;
 
 /**
  * Implements a simple monitor for the health of a com.dilatush.monitor.monitors.JVM.
@@ -19,7 +36,45 @@ public class JVM extends AMonitor {
 
     private static final Logger LOGGER = getLogger();
 
-    private final String name;
+    private static final int      DEFAULT_TOP_THREADS            = 5;
+    private static final String   VIRTUAL_SCHEDULER_NAME         = "jdk.management:type=VirtualThreadScheduler";  // only registered in JDKs that expose it...
+    private static final double   DEFAULT_HEAP_HORIZON_HOURS     = 24;                     // warn if heap exhaustion is predicted sooner than this...
+    private static final int      HEAP_TREND_SAMPLES             = 144;                    // live set samples in the heap trend window...
+    private static final int      MIN_HEAP_TREND_SAMPLES         = 6;                      // don't predict anything with fewer samples than this...
+    private static final double   MIN_HEAP_TREND_R_SQUARED       = 0.5;                    // don't predict anything from a trend that explains less than this...
+    private static final Duration HEAP_EXHAUSTION_EVENT_INTERVAL = Duration.ofHours( 6 );  // minimum interval between heap exhaustion events...
+
+    private final String       name;
+    private final int          topThreadsCount;   // the number of threads to report CPU and allocation for...
+    private final JFRCollector jfr;               // the JFR event collector, or null if JFR streaming isn't enabled...
+    private final NotificationListener gcListener = this::onGC;  // our garbage collection listener, kept so we can remove it...
+    private final double       heapHorizonHours;  // warn if heap exhaustion is predicted sooner than this...
+    private final TrendLine    heapTrend;         // the trend of the post-GC live set, in bytes, over hours since we started...
+    private final long         startMillis;       // when this monitor was created, as the time base for the heap trend...
+
+    // the platform MXBeans we sample; these are fixed for the life of the JVM...
+    private final MemoryMXBean                 memoryBean;
+    private final List<MemoryPoolMXBean>       poolBeans;
+    private final Set<String>                  heapPoolNames;   // the names of the heap memory pools...
+    private final List<MemoryPoolMXBean>       oldPoolBeans;    // the old generation's pools (none for collectors that don't have one)...
+    private final List<BufferPoolMXBean>       bufferBeans;
+    private final List<GarbageCollectorMXBean> gcBeans;
+    private final ThreadMXBean                 threadBean;
+    private final com.sun.management.ThreadMXBean extThreadBean;   // the HotSpot extension, with bulk CPU and allocation queries; null if unavailable...
+
+    // the garbage collector counts and times from the previous run, for computing per-interval deltas...
+    private final Map<String,Long> lastGCCounts;   // collector name -> collection count at last run...
+    private final Map<String,Long> lastGCTimes;    // collector name -> accumulated collection time (ms) at last run...
+
+    // the per-thread CPU times and allocations from the previous run, and the maps we're filling on this run; swapped after each run so they're reused...
+    private Map<Long,Long> lastThreadCPU;     // thread ID -> CPU time (ns) at last run...
+    private Map<Long,Long> lastThreadAlloc;   // thread ID -> allocated bytes at last run...
+    private Map<Long,Long> nextThreadCPU;
+    private Map<Long,Long> nextThreadAlloc;
+
+    // working buffers for finding the top threads, reused on every run...
+    private final int[]  topIndices;   // indices (into the thread ID array) of the top threads, in descending order of CPU time used since last run...
+    private final long[] topCPU;       // CPU time (ns) used since last run by each of the top threads...
 
     private long usedBytes;            // memory allocated and actually being used, both code and data...
     private long freeBytes;            // memory allocated by not currently in use...
@@ -34,6 +89,36 @@ public class JVM extends AMonitor {
     private int  waitingThreads;       // threads waiting for another thread...
     private int  timedWaitingThreads;  // threads waiting for another thread, up to a certain time...
     private int  terminatedThreads;    // threads that have terminated...
+    private int  peakThreads;          // peak number of live threads since the JVM started...
+    private int  daemonThreads;        // live daemon threads...
+    private long totalStartedThreads;  // threads started since the JVM started...
+    private int  deadlockedThreads;    // threads that are deadlocked on monitors or ownable synchronizers...
+    private JSONArray  topThreads;     // the threads that used the most CPU since the last run...
+    private JSONObject virtualThreads; // virtual thread scheduler statistics, or null if the JDK doesn't expose them...
+    private long   liveSetGrowthBytesPerHour;  // the trend in the post-GC live set...
+    private double hoursToHeapExhaustion;      // hours until the live set is predicted to reach the maximum heap, or -1 if there's no such prediction...
+
+    private long heapCommittedBytes;     // heap memory committed by the JVM...
+    private long nonHeapUsedBytes;       // non-heap memory (metaspace, code cache, etc.) in use...
+    private long nonHeapCommittedBytes;  // non-heap memory committed by the JVM...
+    private long edenUsedBytes;          // young generation eden space in use...
+    private long survivorUsedBytes;      // young generation survivor space in use...
+    private long oldUsedBytes;           // old (tenured) generation in use...
+    private long metaspaceUsedBytes;     // metaspace (class metadata) in use...
+    private long codeCacheUsedBytes;     // code cache (all code heap segments) in use...
+    private volatile long liveSetBytes = -1;  // the heap's live set, as of the most recent collection that measured it, or -1 if none has yet...
+    private long oldCollectionUsedBytes = -1; // the old generation's collection usage as of the previous collection notification...
+    private long trendSampleBytes       = -1; // the smallest live set measured since the last run, or -1 if none was, guarded by heapTrend...
+    private long trendSampleMillis;           // when the collection that measured it ended, guarded by heapTrend...
+    private long directBufferCount;      // number of direct byte buffers...
+    private long directBufferBytes;      // memory used by direct byte buffers...
+    private long mappedBufferCount;      // number of memory-mapped byte buffers...
+    private long mappedBufferBytes;      // memory used by memory-mapped byte buffers...
+    private long gcCount;                // total collections, all collectors, since the JVM started...
+    private long gcTimeMs;               // total time spent collecting, all collectors, since the JVM started...
+    private long gcCountDelta;           // collections, all collectors, since the last run...
+    private long gcTimeMsDelta;          // time spent collecting, all collectors, since the last run...
+    private JSONObject gcs;              // per-collector counts, times, and deltas...
 
 
     /**
@@ -46,6 +131,63 @@ public class JVM extends AMonitor {
     public JVM( final Mailbox _mailbox, final Map<String,Object> _params, final Duration _interval ) {
         super( _mailbox, _interval );
         name = (String) _params.get( "name" );
+        var top = (Integer) _params.get( "topThreads" );
+        topThreadsCount = (top == null) ? DEFAULT_TOP_THREADS : top;
+        var horizon = (Number) _params.get( "heapHorizonHours" );
+        heapHorizonHours = (horizon == null) ? DEFAULT_HEAP_HORIZON_HOURS : horizon.doubleValue();
+        heapTrend   = new TrendLine( HEAP_TREND_SAMPLES );
+        startMillis = System.currentTimeMillis();
+
+        memoryBean   = ManagementFactory.getMemoryMXBean();
+        poolBeans    = ManagementFactory.getMemoryPoolMXBeans();
+        bufferBeans  = ManagementFactory.getPlatformMXBeans( BufferPoolMXBean.class );
+        gcBeans      = ManagementFactory.getGarbageCollectorMXBeans();
+        lastGCCounts = new HashMap<>();
+        lastGCTimes  = new HashMap<>();
+        heapPoolNames = new HashSet<>();
+        oldPoolBeans  = new ArrayList<>();
+        for( MemoryPoolMXBean pool : poolBeans ) {
+            if( pool.getType() != MemoryType.HEAP ) continue;
+            heapPoolNames.add( pool.getName() );
+            if( classifyPool( pool.getName() ) == PoolKind.OLD ) oldPoolBeans.add( pool );
+        }
+
+        // the live set can only be measured right after a collection, so we listen for them...
+        for( GarbageCollectorMXBean gc : gcBeans )
+            if( gc instanceof NotificationEmitter emitter )
+                emitter.addNotificationListener( gcListener,
+                        (n) -> GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals( n.getType() ), null );
+
+        threadBean      = ManagementFactory.getThreadMXBean();
+        extThreadBean   = (threadBean instanceof com.sun.management.ThreadMXBean ext) ? ext : null;
+        lastThreadCPU   = new HashMap<>();
+        lastThreadAlloc = new HashMap<>();
+        nextThreadCPU   = new HashMap<>();
+        nextThreadAlloc = new HashMap<>();
+        topIndices      = new int[ topThreadsCount ];
+        topCPU          = new long[ topThreadsCount ];
+
+        // if we've been asked to, start streaming JFR events...
+        jfr = Boolean.TRUE.equals( _params.get( "jfr" ) ) ? startJFR() : null;
+    }
+
+
+    /**
+     * Stop listening for garbage collections, and stop streaming JFR events (if we were).  This monitor may still be run afterwards, to publish the
+     * final interval's results, but its live set and JFR data won't be updated again.
+     */
+    public void close() {
+
+        for( GarbageCollectorMXBean gc : gcBeans ) {
+            if( !(gc instanceof NotificationEmitter emitter) ) continue;
+            try {
+                emitter.removeNotificationListener( gcListener );
+            }
+            catch( ListenerNotFoundException _e ) {
+                // naught to do; it wasn't listening...
+            }
+        }
+        if( jfr != null ) jfr.close();
     }
 
 
@@ -57,6 +199,7 @@ public class JVM extends AMonitor {
 
         // first run the monitor...
         capture();
+        analyzeHeapTrend();
 
         Message msg = mailbox.createPublishMessage( name + "_jvm.monitor" );
 
@@ -77,6 +220,36 @@ public class JVM extends AMonitor {
         msg.putDotted( "monitor.jvm.waitingThreads",       waitingThreads      );
         msg.putDotted( "monitor.jvm.timedWaitingThreads",  timedWaitingThreads );
         msg.putDotted( "monitor.jvm.terminatedThreads",    terminatedThreads   );
+        msg.putDotted( "monitor.jvm.peakThreads",          peakThreads         );
+        msg.putDotted( "monitor.jvm.daemonThreads",        daemonThreads       );
+        msg.putDotted( "monitor.jvm.totalStartedThreads",  totalStartedThreads );
+        msg.putDotted( "monitor.jvm.deadlockedThreads",    deadlockedThreads   );
+        msg.putDotted( "monitor.jvm.topThreads",           topThreads          );
+        if( virtualThreads != null )
+            msg.putDotted( "monitor.jvm.virtualThreads",   virtualThreads      );
+        if( jfr != null )
+            msg.putDotted( "monitor.jvm.jfr",              jfr.summarize()     );
+
+        msg.putDotted( "monitor.jvm.heapCommittedBytes",    heapCommittedBytes    );
+        msg.putDotted( "monitor.jvm.nonHeapUsedBytes",      nonHeapUsedBytes      );
+        msg.putDotted( "monitor.jvm.nonHeapCommittedBytes", nonHeapCommittedBytes );
+        msg.putDotted( "monitor.jvm.edenUsedBytes",         edenUsedBytes         );
+        msg.putDotted( "monitor.jvm.survivorUsedBytes",     survivorUsedBytes     );
+        msg.putDotted( "monitor.jvm.oldUsedBytes",          oldUsedBytes          );
+        msg.putDotted( "monitor.jvm.metaspaceUsedBytes",    metaspaceUsedBytes    );
+        msg.putDotted( "monitor.jvm.codeCacheUsedBytes",    codeCacheUsedBytes    );
+        msg.putDotted( "monitor.jvm.liveSetBytes",          liveSetBytes          );
+        msg.putDotted( "monitor.jvm.directBufferCount",     directBufferCount     );
+        msg.putDotted( "monitor.jvm.directBufferBytes",     directBufferBytes     );
+        msg.putDotted( "monitor.jvm.mappedBufferCount",     mappedBufferCount     );
+        msg.putDotted( "monitor.jvm.mappedBufferBytes",     mappedBufferBytes     );
+        msg.putDotted( "monitor.jvm.gcCount",               gcCount               );
+        msg.putDotted( "monitor.jvm.gcTimeMs",              gcTimeMs              );
+        msg.putDotted( "monitor.jvm.gcCountDelta",          gcCountDelta          );
+        msg.putDotted( "monitor.jvm.gcTimeMsDelta",         gcTimeMsDelta         );
+        msg.putDotted( "monitor.jvm.gcs",                   gcs                   );
+        msg.putDotted( "monitor.jvm.liveSetGrowthBytesPerHour", liveSetGrowthBytesPerHour );
+        msg.putDotted( "monitor.jvm.hoursToHeapExhaustion",     hoursToHeapExhaustion     );
 
         // send it!
         mailbox.send( msg );
@@ -86,33 +259,241 @@ public class JVM extends AMonitor {
 
     private void capture() {
 
-        // first we investigate memory, running the gc first to eliminate dead objects...
-        Runtime runtime = Runtime.getRuntime();
-        runtime.gc();
-        long free = runtime.freeMemory();
-        long max = runtime.maxMemory();
-        long total = runtime.totalMemory();
-
-        usedBytes      = total - free;
-        freeBytes      = free;
-        allocatedBytes = total;
-        availableBytes = max - total;
-        maxBytes       = max;
+        // first we investigate memory, without forcing a garbage collection...
+        captureMemory();
+        captureBuffers();
+        captureGC();
 
         // now we see how many CPUs we can use...
-        cpus = runtime.availableProcessors();
+        cpus = Runtime.getRuntime().availableProcessors();
+
+        // now we see how many threads we're running, what state they're in, and what they're up to...
+        captureThreads();
+        captureDeadlocks();
+        captureVirtualThreads();
+    }
+
+
+    /**
+     * Add the live set measured since the last run (if a collection measured it) to the heap trend, and from the trend predict how long it will be until
+     * the live set reaches the maximum heap size.  If that's sooner than our horizon, send a (rate-limited) event.  This is meant to catch slow leaks well
+     * before the JVM runs out of memory.
+     */
+    private void analyzeHeapTrend() {
+
+        // the live set is only measured by collections, so we have a new sample only if one happened since the last run; it goes in at its own time...
+        var now = (System.currentTimeMillis() - startMillis) / 3_600_000D;  // hours since we started...
+        synchronized( heapTrend ) {
+            if( trendSampleBytes >= 0 ) heapTrend.add( (trendSampleMillis - startMillis) / 3_600_000D, trendSampleBytes );
+            trendSampleBytes = -1;
+        }
+
+        liveSetGrowthBytesPerHour = Math.round( heapTrend.slope() );
+        hoursToHeapExhaustion     = -1;
+
+        // if we don't have a convincing upward trend, there's nothing to predict...
+        if( (heapTrend.count() < MIN_HEAP_TREND_SAMPLES) || (heapTrend.slope() <= 0) || (heapTrend.rSquared() < MIN_HEAP_TREND_R_SQUARED) )
+            return;
+
+        // extrapolate to the maximum heap size...
+        hoursToHeapExhaustion = Math.max( 0, (maxBytes - heapTrend.valueAt( now )) / heapTrend.slope() );
+        if( hoursToHeapExhaustion >= heapHorizonHours ) return;
+
+        var hours = String.format( "%.1f", hoursToHeapExhaustion );
+        LOGGER.warning( "Heap exhaustion predicted in " + hours + " hours for " + name );
+        sendEvent( HEAP_EXHAUSTION_EVENT_INTERVAL, "JVM.heapExhaustion", name, "Heap exhaustion predicted in " + hours + " hours for " + name,
+                "The live heap in " + name + " is growing by about " + liveSetGrowthBytesPerHour + " bytes/hour; at that rate it will reach its " +
+                "maximum of " + maxBytes + " bytes in about " + hours + " hours.", 8 );
+    }
+
+
+    /**
+     * Capture heap, non-heap, and memory pool usage from the memory MXBeans.  We never force a garbage collection to do this; the live set is measured as
+     * collections happen (see {@link #onGC(Notification, Object)}).
+     */
+    private void captureMemory() {
+
+        // the heap as a whole...
+        var heap = memoryBean.getHeapMemoryUsage();
+        var max  = heap.getMax();
+        usedBytes          = heap.getUsed();
+        allocatedBytes     = heap.getCommitted();
+        freeBytes          = allocatedBytes - usedBytes;
+        maxBytes           = (max < 0) ? Runtime.getRuntime().maxMemory() : max;
+        availableBytes     = maxBytes - allocatedBytes;
+        heapCommittedBytes = allocatedBytes;
+
+        // and non-heap...
+        var nonHeap = memoryBean.getNonHeapMemoryUsage();
+        nonHeapUsedBytes      = nonHeap.getUsed();
+        nonHeapCommittedBytes = nonHeap.getCommitted();
+
+        // now the individual pools, whose names depend on the collector in use...
+        edenUsedBytes = survivorUsedBytes = oldUsedBytes = metaspaceUsedBytes = codeCacheUsedBytes = 0;
+        for( MemoryPoolMXBean pool : poolBeans ) {
+
+            var usage = pool.getUsage();
+            if( usage == null ) continue;  // the pool is no longer valid...
+            var used     = usage.getUsed();
+            var poolName = pool.getName();
+            var kind     = classifyPool( poolName );
+
+            switch( kind ) {
+                case EDEN       -> edenUsedBytes      += used;
+                case SURVIVOR   -> survivorUsedBytes  += used;
+                case OLD        -> oldUsedBytes       += used;
+                case METASPACE  -> metaspaceUsedBytes += used;
+                case CODE_CACHE -> codeCacheUsedBytes += used;
+                case OTHER      -> { }
+            }
+        }
+    }
+
+
+    /**
+     * Called (on a JMX notification thread) at the end of each garbage collection, to measure the live set from the heap's usage right after it.  Only
+     * a collection that actually collected the old generation tells us anything: a young collection just promotes survivors into the old generation,
+     * garbage and all.  Under G1 a mixed collection is reported as just another "end of minor GC", but the JVM updates the old generation's
+     * {@link MemoryPoolMXBean#getCollectionUsage()} only for collections that included it (mixed and full ones), so a change there is how we tell.
+     * The live set is then the old generation's usage after that collection.  For collectors with no old generation (ZGC and Shenandoah), every
+     * collection is of the whole heap, so the live set is the whole heap's usage after any collection.
+     *
+     * @param _notification The garbage collection notification.
+     * @param _handback Not used.
+     */
+    private void onGC( final Notification _notification, @SuppressWarnings( "unused" ) final Object _handback ) {
+
+        var info  = GarbageCollectionNotificationInfo.from( (CompositeData) _notification.getUserData() );
+        var after = info.getGcInfo().getMemoryUsageAfterGc();
+
+        // total up the heap, and the old generation, after the collection...
+        long heapAfter = 0;
+        long oldAfter  = 0;
+        for( Map.Entry<String,MemoryUsage> pool : after.entrySet() ) {
+            if( !heapPoolNames.contains( pool.getKey() ) ) continue;
+            var used = pool.getValue().getUsed();
+            heapAfter += used;
+            if( classifyPool( pool.getKey() ) == PoolKind.OLD ) oldAfter += used;
+        }
+
+        // with no old generation, every collection measures the live set...
+        if( oldPoolBeans.isEmpty() ) {
+            recordLiveSet( heapAfter );
+            return;
+        }
+
+        // otherwise only a collection that included the old generation does; those are the ones that changed its collection usage...
+        long oldCollectionUsed = 0;
+        for( MemoryPoolMXBean pool : oldPoolBeans ) {
+            var usage = pool.getCollectionUsage();
+            if( usage != null ) oldCollectionUsed += usage.getUsed();
+        }
+        var collectedOld = "end of major GC".equals( info.getGcAction() ) || ((oldCollectionUsedBytes >= 0) && (oldCollectionUsed != oldCollectionUsedBytes));
+        oldCollectionUsedBytes = oldCollectionUsed;
+        if( collectedOld ) recordLiveSet( oldAfter );
+    }
+
+
+    /**
+     * Record a measurement of the live set.  The smallest one since the last run becomes that interval's sample for the heap trend; G1's mixed collections
+     * come in runs that each collect only part of the old generation's garbage, so the smallest is the nearest to the real live set.
+     *
+     * @param _bytes The live set, in bytes.
+     */
+    private void recordLiveSet( final long _bytes ) {
+        liveSetBytes = _bytes;
+        synchronized( heapTrend ) {
+            if( (trendSampleBytes < 0) || (_bytes < trendSampleBytes) ) {
+                trendSampleBytes  = _bytes;
+                trendSampleMillis = System.currentTimeMillis();
+            }
+        }
+    }
+
+
+    /**
+     * Capture the direct and mapped byte buffer usage from the buffer pool MXBeans.
+     */
+    private void captureBuffers() {
+
+        directBufferCount = directBufferBytes = mappedBufferCount = mappedBufferBytes = 0;
+        for( BufferPoolMXBean buffers : bufferBeans ) {
+            switch( buffers.getName() ) {
+                case "direct" -> { directBufferCount = buffers.getCount(); directBufferBytes = buffers.getMemoryUsed(); }
+                case "mapped" -> { mappedBufferCount = buffers.getCount(); mappedBufferBytes = buffers.getMemoryUsed(); }
+                default       -> { }
+            }
+        }
+    }
+
+
+    /**
+     * Capture the collection counts and times from the garbage collector MXBeans, along with the change in each since the last run.
+     */
+    private void captureGC() {
+
+        gcCount = gcTimeMs = gcCountDelta = gcTimeMsDelta = 0;
+        gcs = new JSONObject();
+        for( GarbageCollectorMXBean gc : gcBeans ) {
+
+            // a count or time of -1 means the collector doesn't provide it...
+            var count = Math.max( 0, gc.getCollectionCount() );
+            var time  = Math.max( 0, gc.getCollectionTime()  );
+            var countDelta = count - lastGCCounts.getOrDefault( gc.getName(), count );
+            var timeDelta  = time  - lastGCTimes.getOrDefault(  gc.getName(), time  );
+            lastGCCounts.put( gc.getName(), count );
+            lastGCTimes.put(  gc.getName(), time  );
+
+            gcCount       += count;
+            gcTimeMs      += time;
+            gcCountDelta  += countDelta;
+            gcTimeMsDelta += timeDelta;
+
+            var gcObj = new JSONObject();
+            gcObj.put( "count",       count      );
+            gcObj.put( "timeMs",      time       );
+            gcObj.put( "countDelta",  countDelta );
+            gcObj.put( "timeMsDelta", timeDelta  );
+            gcs.put( gc.getName(), gcObj );
+        }
+    }
+
+
+    /**
+     * Classify the memory pool with the given name.  The pool names vary by garbage collector (for instance, "G1 Eden Space", "PS Eden Space", and
+     * "Eden Space"), but they all contain a recognizable word.
+     *
+     * @param _poolName The name of the memory pool.
+     * @return The kind of memory pool.
+     */
+    private static PoolKind classifyPool( final String _poolName ) {
+        if( _poolName.contains( "Eden"      ) ) return PoolKind.EDEN;
+        if( _poolName.contains( "Survivor"  ) ) return PoolKind.SURVIVOR;
+        if( _poolName.contains( "Old"       ) || _poolName.contains( "Tenured" ) ) return PoolKind.OLD;
+        if( _poolName.equals(   "Metaspace" ) ) return PoolKind.METASPACE;
+        if( _poolName.contains( "CodeHeap"  ) || _poolName.contains( "Code Cache" ) ) return PoolKind.CODE_CACHE;
+        return PoolKind.OTHER;
+    }
+
+
+    private enum PoolKind { EDEN, SURVIVOR, OLD, METASPACE, CODE_CACHE, OTHER }
+
+
+    /**
+     * Capture the thread counts by state, and the CPU time and allocations of the busiest threads, from the thread MXBean.  Note that the thread MXBean
+     * only sees platform threads; virtual threads are covered by {@link #captureVirtualThreads()}.
+     */
+    private void captureThreads() {
+
+        // get the state of all live threads, without their stack traces...
+        var ids   = threadBean.getAllThreadIds();
+        var infos = threadBean.getThreadInfo( ids, 0 );
 
-        // now we see how many threads we're running and what state they're in...
         totalThreads = newThreads = runningThreads = blockedThreads = waitingThreads = timedWaitingThreads = terminatedThreads = 0;
-        ThreadGroup group = Thread.currentThread().getThreadGroup();
-        while( isNotNull( group.getParent() ) )
-            group = group.getParent();
-        Thread[] threads = new Thread[ group.activeCount() * 4 / 3 ];
-        int count = group.enumerate( threads );
-        for( int i =  0; i < count; i++ ) {
-            Thread t = threads[i];
+        for( ThreadInfo info : infos ) {
+            if( info == null ) continue;  // the thread died after we got its ID...
             totalThreads++;
-            switch( t.getState() ) {
+            switch( info.getThreadState() ) {
                 case NEW -> newThreads++;
                 case BLOCKED -> blockedThreads++;
                 case WAITING -> waitingThreads++;
@@ -121,5 +502,138 @@ public class JVM extends AMonitor {
                 case TIMED_WAITING -> timedWaitingThreads++;
             }
         }
+        peakThreads         = threadBean.getPeakThreadCount();
+        daemonThreads       = threadBean.getDaemonThreadCount();
+        totalStartedThreads = threadBean.getTotalStartedThreadCount();
+
+        // get the CPU time and allocated bytes for all the threads, in bulk if we can...
+        var cpuEnabled   = threadBean.isThreadCpuTimeSupported() && threadBean.isThreadCpuTimeEnabled();
+        var allocEnabled = (extThreadBean != null) && extThreadBean.isThreadAllocatedMemorySupported() && extThreadBean.isThreadAllocatedMemoryEnabled();
+        long[] cpus   = null;
+        long[] allocs = null;
+        if( cpuEnabled && (extThreadBean != null) ) cpus = extThreadBean.getThreadCpuTime( ids );
+        else if( cpuEnabled ) {
+            cpus = new long[ ids.length ];
+            for( int i = 0; i < ids.length; i++ ) cpus[i] = threadBean.getThreadCpuTime( ids[i] );
+        }
+        if( allocEnabled ) allocs = extThreadBean.getThreadAllocatedBytes( ids );
+
+        // find the threads that used the most CPU since the last run (a thread we haven't seen before is charged its entire CPU time)...
+        var topCount = 0;
+        for( int i = 0; i < ids.length; i++ ) {
+
+            // if the thread died, or we can't get its CPU time, skip it...
+            if( (infos[i] == null) || (cpus == null) || (cpus[i] < 0) ) continue;
+
+            // remember this thread's CPU and allocations for the next run...
+            nextThreadCPU.put( ids[i], cpus[i] );
+            if( (allocs != null) && (allocs[i] >= 0) ) nextThreadAlloc.put( ids[i], allocs[i] );
+
+            // find where this thread belongs in the top list, if anywhere...
+            var cpuDelta = cpus[i] - lastThreadCPU.getOrDefault( ids[i], 0L );
+            var pos = topCount;
+            while( (pos > 0) && (topCPU[pos - 1] < cpuDelta) ) pos--;
+            if( pos >= topThreadsCount ) continue;
+
+            // insert it, dropping the last thread if the list is full...
+            var moving = Math.min( topCount, topThreadsCount - 1 ) - pos;
+            System.arraycopy( topIndices, pos, topIndices, pos + 1, moving );
+            System.arraycopy( topCPU,     pos, topCPU,     pos + 1, moving );
+            topIndices[pos] = i;
+            topCPU[pos]     = cpuDelta;
+            if( topCount < topThreadsCount ) topCount++;
+        }
+
+        // report on the top threads...
+        topThreads = new JSONArray();
+        for( int t = 0; t < topCount; t++ ) {
+            var i = topIndices[t];
+            var thread = new JSONObject();
+            thread.put( "id",         ids[i]                            );
+            thread.put( "name",       infos[i].getThreadName()          );
+            thread.put( "state",      infos[i].getThreadState().name()  );
+            thread.put( "cpuMs",      cpus[i] / 1_000_000               );
+            thread.put( "cpuMsDelta", topCPU[t] / 1_000_000             );
+            if( (allocs != null) && (allocs[i] >= 0) ) {
+                thread.put( "allocatedBytes",      allocs[i]                                             );
+                thread.put( "allocatedBytesDelta", allocs[i] - lastThreadAlloc.getOrDefault( ids[i], 0L ) );
+            }
+            topThreads.put( thread );
+        }
+
+        // this run's values become the last run's values, and the old maps get reused...
+        var swap = lastThreadCPU;
+        lastThreadCPU = nextThreadCPU;
+        nextThreadCPU = swap;
+        nextThreadCPU.clear();
+        swap = lastThreadAlloc;
+        lastThreadAlloc = nextThreadAlloc;
+        nextThreadAlloc = swap;
+        nextThreadAlloc.clear();
+    }
+
+
+    /**
+     * Look for deadlocked threads, and send an event (at most once an hour) naming them if there are any.
+     */
+    private void captureDeadlocks() {
+
+        // find deadlocks on ownable synchronizers as well as monitors, if the JVM supports that...
+        var deadlocked = threadBean.isSynchronizerUsageSupported() ? threadBean.findDeadlockedThreads() : threadBean.findMonitorDeadlockedThreads();
+        deadlockedThreads = (deadlocked == null) ? 0 : deadlocked.length;
+        if( deadlockedThreads == 0 ) return;
+
+        // get the names of the deadlocked threads...
+        var names = new StringBuilder();
+        for( ThreadInfo info : threadBean.getThreadInfo( deadlocked, 0 ) ) {
+            if( info == null ) continue;
+            if( !names.isEmpty() ) names.append( ", " );
+            names.append( info.getThreadName() );
+            if( info.getLockName() != null ) names.append( " (waiting on " ).append( info.getLockName() ).append( ")" );
+        }
+        LOGGER.warning( "Deadlocked threads in " + name + ": " + names );
+        sendEvent( Duration.ofHours( 1 ), "JVM.deadlock", name, "Deadlocked threads in " + name,
+                deadlockedThreads + " threads are deadlocked in " + name + ": " + names, 8 );
+    }
+
+
+    /**
+     * Capture the virtual thread scheduler statistics, if this JDK exposes them (through the "jdk.management:type=VirtualThreadScheduler" MBean).  We read
+     * the MBean's attributes by name, so that we don't depend on a JDK new enough to have its interface.
+     */
+    private void captureVirtualThreads() {
+
+        virtualThreads = null;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            var schedulerName = new ObjectName( VIRTUAL_SCHEDULER_NAME );
+            if( !server.isRegistered( schedulerName ) ) return;
+
+            var stats = new JSONObject();
+            stats.put( "parallelism",    server.getAttribute( schedulerName, "Parallelism"               ) );
+            stats.put( "poolSize",       server.getAttribute( schedulerName, "PoolSize"                  ) );
+            stats.put( "mountedThreads", server.getAttribute( schedulerName, "MountedVirtualThreadCount" ) );
+            stats.put( "queuedThreads",  server.getAttribute( schedulerName, "QueuedVirtualThreadCount"  ) );
+            virtualThreads = stats;
+        }
+        catch( JMException _e ) {
+            LOGGER.finest( "Could not read virtual thread scheduler statistics: " + _e.getMessage() );
+        }
+    }
+
+
+    /**
+     * Start streaming JFR events.  If JFR isn't available in this JVM, log it and carry on without it.
+     *
+     * @return The JFR collector, or null if it couldn't be started.
+     */
+    private static JFRCollector startJFR() {
+        try {
+            return new JFRCollector();
+        }
+        catch( Exception _e ) {
+            LOGGER.log( Level.WARNING, "Could not start JFR event streaming: " + _e.getMessage(), _e );
+            return null;
+        }
     }
 }
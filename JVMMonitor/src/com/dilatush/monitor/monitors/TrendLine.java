@@ -0,0 +1,145 @@
+package com.dilatush.monitor.monitors;
+
+/**
+ * Maintains a least-squares linear regression over a sliding window of the most recent (time, value) samples.  The window is a fixed-size ring, and the
+ * regression's means and centered sums (of squared and cross deviations from the means) are updated Welford-style as each sample is added and the oldest
+ * is evicted, so adding a sample and reading the fit are both O(1) with fixed memory.  Working with deviations from the means, rather than raw sums of
+ * squares, keeps the fit precise even when the values are large (a heap's size in bytes, say) and vary little; each time the ring wraps the sums are
+ * recomputed from the samples, so rounding errors can't accumulate.  Instances of this class are not threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class TrendLine {
+
+    private final double[] times;    // ring of sample times...
+    private final double[] values;   // ring of sample values...
+
+    private int    next;     // index in the rings where the next sample goes...
+    private int    count;    // number of samples in the rings...
+    private double meanT;    // means of the samples in the rings...
+    private double meanV;
+    private double sumTT;    // sums of the products of the samples' deviations from the means...
+    private double sumTV;
+    private double sumVV;
+
+
+    /**
+     * Creates a new instance of this class with a window of the given number of samples.
+     *
+     * @param _capacity The maximum number of samples in the window; must be at least 2.
+     */
+    public TrendLine( final int _capacity ) {
+        if( _capacity < 2 ) throw new IllegalArgumentException( "_capacity must be at least 2: " + _capacity );
+        times  = new double[ _capacity ];
+        values = new double[ _capacity ];
+    }
+
+
+    /**
+     * Add the given sample, evicting the oldest sample if the window is full.  Times should be non-decreasing.
+     *
+     * @param _time The time of the sample.
+     * @param _value The value of the sample.
+     */
+    public void add( final double _time, final double _value ) {
+
+        // if the window is full, take the oldest sample out of the sums...
+        if( count == times.length ) {
+            var t  = times[next];
+            var v  = values[next];
+            count--;
+            var dt = t - meanT;
+            var dv = v - meanV;
+            meanT -= dt / count;
+            meanV -= dv / count;
+            sumTT -= dt * (t - meanT);
+            sumTV -= dt * (v - meanV);
+            sumVV -= dv * (v - meanV);
+        }
+
+        // put the new sample in...
+        times[next]  = _time;
+        values[next] = _value;
+        next = (next + 1) % times.length;
+        count++;
+        var dt = _time - meanT;
+        var dv = _value - meanV;
+        meanT += dt / count;
+        meanV += dv / count;
+        sumTT += dt * (_time - meanT);
+        sumTV += dt * (_value - meanV);
+        sumVV += dv * (_value - meanV);
+
+        // once per trip around the ring, recompute the sums exactly...
+        if( (next == 0) && (count == times.length) ) recompute();
+    }
+
+
+    /**
+     * Recompute the means and sums from the samples in the rings, in two passes, discarding any rounding errors accumulated by the running updates.
+     */
+    private void recompute() {
+
+        meanT = 0;
+        meanV = 0;
+        for( int i = 0; i < count; i++ ) {
+            meanT += times[i];
+            meanV += values[i];
+        }
+        meanT /= count;
+        meanV /= count;
+
+        sumTT = sumTV = sumVV = 0;
+        for( int i = 0; i < count; i++ ) {
+            var dt = times[i] - meanT;
+            var dv = values[i] - meanV;
+            sumTT += dt * dt;
+            sumTV += dt * dv;
+            sumVV += dv * dv;
+        }
+    }
+
+
+    /**
+     * Return the number of samples in the window.
+     *
+     * @return The number of samples in the window.
+     */
+    public int count() {
+        return count;
+    }
+
+
+    /**
+     * Return the slope of the fitted line, in value units per time unit, or zero if there are too few samples (or too little time spread) to fit a line.
+     *
+     * @return The slope of the fitted line.
+     */
+    public double slope() {
+        return ((count < 2) || (sumTT <= 0)) ? 0 : sumTV / sumTT;
+    }
+
+
+    /**
+     * Return the value of the fitted line at the given time, or the mean of the samples if there are too few to fit a line.
+     *
+     * @param _time The time to evaluate the fitted line at.
+     * @return The fitted value at the given time.
+     */
+    public double valueAt( final double _time ) {
+        if( count == 0 ) return 0;
+        return meanV + slope() * (_time - meanT);
+    }
+
+
+    /**
+     * Return the coefficient of determination (r²) of the fitted line, from 0 (the line explains none of the variation in the samples) to 1 (the samples are
+     * exactly on the line).  Returns zero if a line can't be fitted, or if the samples don't vary at all.
+     *
+     * @return The coefficient of determination.
+     */
+    public double rSquared() {
+        if( (count < 2) || (sumTT <= 0) || (sumVV <= 0) ) return 0;
+        return Math.min( 1, (sumTV * sumTV) / (sumTT * sumVV) );
+    }
+}
@@ -0,0 +1,142 @@
+package com.dilatush.monitor.monitors;
+
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compares the cost of parsing the TF-1006-PRO NTP server's status pages with {@link NTPScraper} (streaming, reused) against the way NTPServer used to
+ * do it: join the pages into one string, then build a fresh DocumentBuilderFactory, DocumentBuilder, DOM, and XPathFactory, and compile and evaluate an
+ * XPath expression per field on every run.  The pages are the sample pages at the end of NTPServer.java, held in memory, so only parsing is measured.  Each
+ * way is warmed up, then timed over many iterations; the report shows the time and bytes allocated per scrape for each.  It's in the checks test source
+ * folder, so it isn't in Monitor.jar; run it, from the project directory, with:
+ * <pre>
+ *     java -cp Monitor.jar:out/test/Monitor com.dilatush.monitor.monitors.NTPScrapingBenchmark [iterations]
+ * </pre>
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class NTPScrapingBenchmark {
+
+    private static final String TIME =
+            "<time><rtime>106 Day 17:34:26</rtime><ctime>2023/04/17 15:41:08</ctime><ltime>2023/04/17 08:41:08</ltime><temp>43</temp>" +
+            "<holdtime>0 Day 00:00:00</holdtime></time>";
+    private static final String STATE =
+            "<state><syncsrc>GPS+GLONASS+Galileo</syncsrc><loppstate>Locked</loppstate><tie>-40</tie><control>31446</control>" +
+            "<ntpstate>ACTIVE</ntpstate><color>green</color></state>";
+    private static final String GNSS =
+            "<gnss><ant>OK</ant><const>GPS+GLONASS+Galileo</const><svused>20</svused><gpsinfo>9/10</gpsinfo><bdinfo>0/0</bdinfo><glinfo>7/9</glinfo>" +
+            "<gainfo>4/9</gainfo><lat>N 4134.9827</lat><long>W 11150.3990</long><alt>1471.9 m</alt></gnss>";
+
+    // the pages' bytes, in the order of NTPScraper.Page...
+    private static final byte[][] PAGES = { TIME.getBytes( StandardCharsets.UTF_8 ), STATE.getBytes( StandardCharsets.UTF_8 ),
+            GNSS.getBytes( StandardCharsets.UTF_8 ) };
+
+
+    public static void main( final String[] _args ) throws Exception {
+
+        var iterations = (_args.length > 0) ? Integer.parseInt( _args[0] ) : 20_000;
+        var threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var parser     = new NTPScraper();
+        var scraping   = new NTPScraper.Scraping();
+
+        // make sure the two ways agree before we time them...
+        var legacy = legacy();
+        streaming( parser, scraping );
+        if( (legacy.uptime != scraping.uptime) || (legacy.tie != scraping.tie) || (legacy.satsUsed != scraping.satsUsed) ||
+                (legacy.satsTotal != scraping.satsTotal) || (legacy.referenceUp != scraping.referenceUp) || (legacy.ntpUp != scraping.ntpUp) ||
+                (legacy.antennaOK != scraping.antennaOK) || (legacy.lat != scraping.lat) || (legacy.lon != scraping.lon) ||
+                (legacy.altitude != scraping.altitude) ) {
+            System.out.println( "The streaming and DOM/XPath scrapings differ!" );
+            System.exit( 1 );
+        }
+
+        // warm up...
+        for( int i = 0; i < iterations / 4; i++ ) {
+            legacy();
+            streaming( parser, scraping );
+        }
+
+        // time the old way...
+        var startAlloc = threadBean.getCurrentThreadAllocatedBytes();
+        var start = System.nanoTime();
+        for( int i = 0; i < iterations; i++ ) legacy();
+        var legacyNs    = (System.nanoTime() - start) / (double) iterations;
+        var legacyBytes = (threadBean.getCurrentThreadAllocatedBytes() - startAlloc) / iterations;
+
+        // and the new...
+        startAlloc = threadBean.getCurrentThreadAllocatedBytes();
+        start = System.nanoTime();
+        for( int i = 0; i < iterations; i++ ) streaming( parser, scraping );
+        var streamingNs    = (System.nanoTime() - start) / (double) iterations;
+        var streamingBytes = (threadBean.getCurrentThreadAllocatedBytes() - startAlloc) / iterations;
+
+        // and tell the world...
+        System.out.printf( "Iterations:                  %,d%n",                  iterations );
+        System.out.printf( "DOM/XPath:                   %,.1f us/scrape, %,d bytes/scrape%n", legacyNs / 1000,    legacyBytes    );
+        System.out.printf( "Streaming:                   %,.1f us/scrape, %,d bytes/scrape%n", streamingNs / 1000, streamingBytes );
+        System.out.printf( "Speedup:                     %.1fx%n",               legacyNs / streamingNs );
+        System.exit( 0 );
+    }
+
+
+    /**
+     * Scrape the sample pages the streaming way.
+     *
+     * @param _parser The parser to use.
+     * @param _scraping The scraping to parse into.
+     * @throws Exception On any problem parsing.
+     */
+    private static void streaming( final NTPScraper _parser, final NTPScraper.Scraping _scraping ) throws Exception {
+        _scraping.clear();
+        for( NTPScraper.Page page : NTPScraper.Page.values() ) _parser.parse( page, new ByteArrayInputStream( PAGES[page.ordinal()] ), _scraping );
+    }
+
+
+    /**
+     * Scrape the sample pages the way NTPServer used to.
+     *
+     * @return The scraping.
+     * @throws Exception On any problem parsing.
+     */
+    private static NTPScraper.Scraping legacy() throws Exception {
+
+        var xml = "<ntp>" + TIME + STATE + GNSS + "</ntp>";
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse( new InputSource( new StringReader( xml ) ) );
+        XPath xPath = XPathFactory.newInstance().newXPath();
+
+        var result = new NTPScraper.Scraping();
+        var uptime = ((String) xPath.compile( "//ntp/time/rtime" ).evaluate( doc, XPathConstants.STRING )).split( " Day " );
+        result.uptime      = Integer.parseInt( uptime[0] ) * 24 + Integer.parseInt( uptime[1].split( ":" )[0] );
+        result.referenceUp = "Locked".equals( xPath.compile( "//ntp/state/loppstate" ).evaluate( doc, XPathConstants.STRING ) );
+        result.ntpUp       = "ACTIVE".equals( xPath.compile( "//ntp/state/ntpstate" ).evaluate( doc, XPathConstants.STRING ) );
+        result.tie         = (int) Math.round( (double) xPath.compile( "//ntp/state/tie" ).evaluate( doc, XPathConstants.NUMBER ) );
+        result.antennaOK   = "OK".equals( xPath.compile( "//ntp/gnss/ant" ).evaluate( doc, XPathConstants.STRING ) );
+        result.satsUsed    = (int) Math.round( (double) xPath.compile( "//ntp/gnss/svused" ).evaluate( doc, XPathConstants.NUMBER ) );
+        for( String path : new String[] { "//ntp/gnss/gpsinfo", "//ntp/gnss/glinfo", "//ntp/gnss/gainfo" } )
+            result.satsTotal += Integer.parseInt( ((String) xPath.compile( path ).evaluate( doc, XPathConstants.STRING )).split( "/" )[1] );
+        result.lat         = legacyLatLon( (String) xPath.compile( "//ntp/gnss/lat" ).evaluate( doc, XPathConstants.STRING ) );
+        result.lon         = legacyLatLon( (String) xPath.compile( "//ntp/gnss/long" ).evaluate( doc, XPathConstants.STRING ) );
+        result.altitude    = 3.28084F * Float.parseFloat( ((String) xPath.compile( "//ntp/gnss/alt" ).evaluate( doc, XPathConstants.STRING )).split( " " )[0] );
+        return result;
+    }
+
+
+    private static float legacyLatLon( final String _fld ) {
+        var parts = _fld.split( " " );
+        var negate = "S".equals( parts[0] ) || "W".equals( parts[0] );
+        var latlon = Double.parseDouble( parts[1] );
+        var intDeg = Math.floor( latlon / 100D );
+        var frcDeg = (latlon / 100D - intDeg) * 100D / 60D;
+        var deg = intDeg + frcDeg;
+        return (float)(negate ? -deg : deg);
+    }
+}
@@ -0,0 +1,274 @@
+package com.dilatush.monitor.monitors;
+
+import com.dilatush.util.ip.IPAddress;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+
+/**
+ * Checks {@link ProtocolProber} against local stand-in servers: an HTTP server that keeps connections alive even when asked not to, the same over TLS
+ * with a freshly made self-signed certificate, a UDP echo server, a server that accepts connections and then says nothing, and a port nobody listens on.
+ * All the probes run at once in a single call, as LAN runs them, and each result is compared with what it should be: passed or failed, why, and (for the
+ * keep-alive servers) that the probe didn't wait for the server to close the connection.  The self-signed certificate is made with the JDK's keytool.
+ * It's in the checks test source folder, so it isn't in Monitor.jar; run it, from the project directory, with:
+ * <pre>
+ *     java -cp Monitor.jar:out/test/Monitor com.dilatush.monitor.monitors.ProtocolProberCheck
+ * </pre>
+ * It prints a line for each probe, and exits with status 1 if any of them didn't do what it should.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class ProtocolProberCheck {
+
+    private static final int      TIMEOUT_MS = 5000;                     // the timeout for each probe...
+    private static final Duration DEADLINE   = Duration.ofSeconds( 2 );  // the deadline for the run; only the silent server should reach it...
+    private static final long     QUICK_NS   = 1_000_000_000L;           // the most a probe of a keep-alive server should take...
+    private static final String   PASSWORD   = "standin";
+    private static final String   BODY       = "<html><body>All is well</body></html>";
+
+
+    public static void main( final String[] _args ) throws Exception {
+
+        var localhost = IPAddress.fromString( "127.0.0.1" ).info();
+
+        // start our stand-in servers...
+        var keyStore = selfSignedKeyStore();
+        var pin      = fingerprint( keyStore );
+        var http     = new ServerSocket( 0, 50, InetAddress.getLoopbackAddress() );
+        var https    = tlsContext( keyStore ).getServerSocketFactory().createServerSocket( 0, 50, InetAddress.getLoopbackAddress() );
+        var silent   = new ServerSocket( 0, 50, InetAddress.getLoopbackAddress() );
+        var udp      = new DatagramSocket( 0, InetAddress.getLoopbackAddress() );
+        var closed   = new ServerSocket( 0, 50, InetAddress.getLoopbackAddress() );
+        var closedPort = closed.getLocalPort();
+        closed.close();
+        daemon( () -> serveHTTP( http ) );
+        daemon( () -> serveHTTP( https ) );
+        daemon( () -> serveSilence( silent ) );
+        daemon( () -> serveEcho( udp ) );
+
+        // what we'll probe, and what should happen...
+        var expectations = new ArrayList<Expectation>();
+        expectations.add( new Expectation( "HTTP status, keep-alive", new ProtocolProber.HTTPProbe( "/", false, 200, null ),
+                http.getLocalPort(), true, null, true ) );
+        expectations.add( new Expectation( "HTTP body, keep-alive", new ProtocolProber.HTTPProbe( "/", false, 200, "All is w.ll" ),
+                http.getLocalPort(), true, null, true ) );
+        expectations.add( new Expectation( "HTTP body mismatch", new ProtocolProber.HTTPProbe( "/", false, 200, "On fire" ),
+                http.getLocalPort(), false, "body does not match", true ) );
+        expectations.add( new Expectation( "HTTP wrong status", new ProtocolProber.HTTPProbe( "/missing", false, 200, null ),
+                http.getLocalPort(), false, "got 404", true ) );
+        expectations.add( new Expectation( "TLS self-signed", new ProtocolProber.TLSProbe( null ),
+                https.getLocalPort(), false, "certificate problem", false ) );
+        expectations.add( new Expectation( "TLS pinned", new ProtocolProber.TLSProbe( null, pin ),
+                https.getLocalPort(), true, null, true ) );
+        expectations.add( new Expectation( "TLS wrong pin", new ProtocolProber.TLSProbe( null, "00".repeat( 32 ) ),
+                https.getLocalPort(), false, "certificate problem", false ) );
+        expectations.add( new Expectation( "HTTPS pinned, keep-alive", new ProtocolProber.HTTPProbe( "/", true, 200, "All is well", pin ),
+                https.getLocalPort(), true, null, true ) );
+        expectations.add( new Expectation( "UDP echo", new ProtocolProber.UDPProbe( "cafe0001", "cafe" ),
+                udp.getLocalPort(), true, null, true ) );
+        expectations.add( new Expectation( "UDP wrong response", new ProtocolProber.UDPProbe( "cafe0001", "beef" ),
+                udp.getLocalPort(), false, "does not start with", true ) );
+        expectations.add( new Expectation( "TCP nobody listening", new ProtocolProber.HTTPProbe( "/", false, 200, null ),
+                closedPort, false, "connection refused", true ) );
+        expectations.add( new Expectation( "Silent server", new ProtocolProber.HTTPProbe( "/", false, 200, null ),
+                silent.getLocalPort(), false, "deadline expired", false ) );
+
+        // probe them all at once...
+        var jobs = new ArrayList<ProtocolProber.Job>();
+        for( Expectation expectation : expectations )
+            jobs.add( new ProtocolProber.Job( expectation.probe, localhost, expectation.port, TIMEOUT_MS ) );
+        var results = new ProtocolProber.Result[ jobs.size() ];
+        var start = System.nanoTime();
+        ProtocolProber.probe( jobs, 8, DEADLINE, (index, result) -> results[index] = result );
+        System.out.printf( "Probed %d stand-ins in %.0f ms%n%n", jobs.size(), (System.nanoTime() - start) / 1e6 );
+
+        // and see how they did...
+        var failures = 0;
+        for( int i = 0; i < results.length; i++ ) {
+            var expectation = expectations.get( i );
+            var result      = results[i];
+            var problem     = expectation.problem( result );
+            if( problem != null ) failures++;
+            System.out.printf( "%-4s %-26s passed=%-5b connect=%6.2f tls=%6.2f firstByte=%6.2f total=%7.2f ms  %s%n",
+                    (problem == null) ? "ok" : "BAD", expectation.name, (result != null) && result.passed(),
+                    (result == null) ? 0 : result.connectNanos() / 1e6, (result == null) ? 0 : result.tlsNanos() / 1e6,
+                    (result == null) ? 0 : result.firstByteNanos() / 1e6, (result == null) ? 0 : result.totalNanos() / 1e6,
+                    (problem != null) ? problem : ((result.reason() == null) ? "" : result.reason()) );
+        }
+        System.out.println( (failures == 0) ? "\nAll probes did what they should." : "\n" + failures + " probes did not do what they should!" );
+        System.exit( (failures == 0) ? 0 : 1 );
+    }
+
+
+    /**
+     * A probe to run against a stand-in server, and what its result should be.
+     *
+     * @param name The name of the check, for the report.
+     * @param probe The probe to run.
+     * @param port The stand-in server's port.
+     * @param passes True if the probe should pass.
+     * @param reason If the probe should fail, something its reason should contain; "connection refused" if it should be refused.
+     * @param quick True if the probe should finish well before its timeout.
+     */
+    private record Expectation( String name, ProtocolProber.Probe probe, int port, boolean passes, String reason, boolean quick ) {
+
+        /**
+         * Return what's wrong with the given result, or null if it's what it should be.
+         *
+         * @param _result The result of the probe.
+         * @return What's wrong with the result, or null if nothing is.
+         */
+        private String problem( final ProtocolProber.Result _result ) {
+            if( _result == null ) return "no result";
+            if( _result.passed() != passes ) return "should have " + (passes ? "passed" : "failed") + ": " + _result.reason();
+            if( (reason != null) && ((_result.reason() == null) || !_result.reason().contains( reason )) )
+                return "reason should contain \"" + reason + "\": " + _result.reason();
+            if( _result.refused() != "connection refused".equals( reason ) ) return (_result.refused() ? "shouldn't" : "should") + " be refused";
+            if( quick && (_result.totalNanos() > QUICK_NS) ) return "took " + _result.totalNanos() / 1_000_000 + " ms";
+            return null;
+        }
+    }
+
+
+    /**
+     * Make a key store holding a new self-signed certificate, with the JDK's keytool.
+     *
+     * @return The key store.
+     */
+    private static KeyStore selfSignedKeyStore() throws Exception {
+        var dir  = Files.createTempDirectory( "standin" );
+        var file = dir.resolve( "standin.p12" );
+        var keytool = Path.of( System.getProperty( "java.home" ), "bin", "keytool" ).toString();
+        var process = new ProcessBuilder( keytool, "-genkeypair", "-alias", "standin", "-keyalg", "EC", "-groupname", "secp256r1", "-dname", "CN=standin",
+                "-validity", "2", "-storetype", "PKCS12", "-keystore", file.toString(), "-storepass", PASSWORD, "-keypass", PASSWORD )
+                .redirectErrorStream( true ).start();
+        var output = new String( process.getInputStream().readAllBytes(), StandardCharsets.UTF_8 );
+        if( process.waitFor() != 0 ) throw new IOException( "keytool failed: " + output );
+        var keyStore = KeyStore.getInstance( "PKCS12" );
+        try( FileInputStream in = new FileInputStream( file.toFile() ) ) {
+            keyStore.load( in, PASSWORD.toCharArray() );
+        }
+        Files.delete( file );
+        Files.delete( dir );
+        return keyStore;
+    }
+
+
+    private static String fingerprint( final KeyStore _keyStore ) throws Exception {
+        var digest = MessageDigest.getInstance( "SHA-256" ).digest( _keyStore.getCertificate( "standin" ).getEncoded() );
+        return HexFormat.ofDelimiter( ":" ).withUpperCase().formatHex( digest );
+    }
+
+
+    private static SSLContext tlsContext( final KeyStore _keyStore ) throws Exception {
+        var keys = KeyManagerFactory.getInstance( KeyManagerFactory.getDefaultAlgorithm() );
+        keys.init( _keyStore, PASSWORD.toCharArray() );
+        var context = SSLContext.getInstance( "TLS" );
+        context.init( keys.getKeyManagers(), null, null );
+        return context;
+    }
+
+
+    private static void daemon( final Runnable _runnable ) {
+        var thread = new Thread( _runnable, "stand-in" );
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+
+    /**
+     * Serve HTTP on the given server socket, the way an embedded web server might: every response says the connection is kept alive (whatever the request
+     * asked for), and the connection is left open after the response, until the client closes it.
+     *
+     * @param _server The server socket.
+     */
+    private static void serveHTTP( final ServerSocket _server ) {
+        while( true ) {
+            try {
+                var socket = _server.accept();
+                daemon( () -> {
+                    try( Socket s = socket ) {
+                        InputStream in = s.getInputStream();
+                        var request = new StringBuilder();
+                        while( !request.toString().endsWith( "\r\n\r\n" ) ) {
+                            var b = in.read();
+                            if( b < 0 ) return;
+                            request.append( (char) b );
+                        }
+                        var found = request.toString().startsWith( "GET / " );
+                        var body  = found ? BODY : "Not found";
+                        var response = "HTTP/1.1 " + (found ? "200 OK" : "404 Not Found") + "\r\nContent-Type: text/html\r\nContent-Length: " +
+                                body.length() + "\r\nConnection: keep-alive\r\n\r\n" + body;
+                        OutputStream out = s.getOutputStream();
+                        out.write( response.getBytes( StandardCharsets.US_ASCII ) );
+                        out.flush();
+                        while( in.read() >= 0 ) {
+                            // naught to do; we're just keeping the connection open until the client closes it...
+                        }
+                    }
+                    catch( IOException _e ) {
+                        // naught to do; the client went away...
+                    }
+                } );
+            }
+            catch( IOException _e ) {
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Accept connections on the given server socket, then say nothing at all.
+     *
+     * @param _server The server socket.
+     */
+    private static void serveSilence( final ServerSocket _server ) {
+        var sockets = new ArrayList<Socket>();  // held so they stay open...
+        while( true ) {
+            try {
+                sockets.add( _server.accept() );
+            }
+            catch( IOException _e ) {
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Echo every datagram received on the given socket back to its sender.
+     *
+     * @param _socket The datagram socket.
+     */
+    private static void serveEcho( final DatagramSocket _socket ) {
+        var packet = new DatagramPacket( new byte[2048], 2048 );
+        while( true ) {
+            try {
+                packet.setLength( 2048 );
+                _socket.receive( packet );
+                _socket.send( new DatagramPacket( packet.getData(), packet.getLength(), packet.getSocketAddress() ) );
+            }
+            catch( IOException _e ) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.dilatush.monitor.monitors;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Checks {@link StarlinkDish}'s hand-rolled gRPC-web and protobuf decoding against responses encoded here the way the dish encodes them: a full status
+ * (with fields the decoder doesn't know about, which it must skip), a history with its outage ring out of order, trailers with good and bad gRPC
+ * statuses, and truncated or malformed responses.  Then it polls a stand-in dish (an HTTP server on the loopback interface answering with those
+ * responses) a few times, to check that the client works end to end and keeps its connection to the dish alive between polls.  It's in the checks test
+ * source folder, so it isn't in Monitor.jar; run it, from the project directory, with:
+ * <pre>
+ *     java -cp Monitor.jar:out/test/Monitor com.dilatush.monitor.monitors.StarlinkDishCheck
+ * </pre>
+ * It prints a line for each check, and exits with status 1 if any of them didn't do what it should.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class StarlinkDishCheck {
+
+    private static final int VARINT  = 0;
+    private static final int LENGTH  = 2;
+    private static final int FIXED32 = 5;
+
+    private static int failures = 0;
+
+
+    public static void main( final String[] _args ) throws Exception {
+
+        var status  = statusResponse();
+        var history = historyResponse();
+
+        // decode a full status...
+        var parsed = StarlinkDish.parse( frame( 0, status ) );
+        check( "status decodes", parsed.ok(), parsed.msg() );
+        if( parsed.ok() ) {
+            var s = parsed.info();
+            check( "device info",   "ut01-dish".equals( s.id() ) && "rev3_proto2".equals( s.hardwareVersion() )
+                    && "2024.05.0.mr1".equals( s.softwareVersion() ), s.toString() );
+            check( "uptime",        s.uptimeS() == 86_461, "uptimeS=" + s.uptimeS() );
+            check( "link quality",  near( s.popPingDropRate(), 0.025 ) && near( s.popPingLatencyMs(), 38.5 ) && near( s.fractionObstructed(), 0.0125 )
+                    && s.currentlyObstructed(), s.toString() );
+            check( "throughput",    near( s.downlinkBps(), 151_000_000 ) && near( s.uplinkBps(), 12_500_000 ), s.toString() );
+            check( "signal",        s.snrAboveNoiseFloor() && !s.snrPersistentlyLow(), s.toString() );
+            check( "alerts",        List.of( "thermalThrottle", "roaming" ).equals( s.alerts() ), "alerts=" + s.alerts() );
+            check( "current outage", (s.outage() != null) && "obstructed".equals( s.outage().cause() ) && (s.outage().startNs() == 1_000_000_000_000L)
+                    && (s.outage().durationNs() == 2_500_000_000L) && s.outage().didSwitch(), "outage=" + s.outage() );
+        }
+
+        // decode a history, with the outage ring out of order...
+        var outages = StarlinkDish.parseHistory( frame( 0, history ) );
+        check( "history decodes", outages.ok(), outages.msg() );
+        if( outages.ok() ) {
+            var o = outages.info();
+            check( "outage ring sorted", (o.size() == 3) && (o.get( 0 ).startNs() == 100) && (o.get( 1 ).startNs() == 200)
+                    && (o.get( 2 ).startNs() == 300), "outages=" + o );
+            check( "outage causes", (o.size() == 3) && "no pings".equals( o.get( 0 ).cause() ) && "booting".equals( o.get( 1 ).cause() )
+                    && "cause 99".equals( o.get( 2 ).cause() ), "outages=" + o );
+            check( "outage durations", (o.size() == 3) && (o.get( 0 ).durationNs() == 1_500_000_000L) && (o.get( 2 ).durationNs() == 4_000_000_000L),
+                    "outages=" + o );
+        }
+
+        // trailers, and broken responses...
+        var goodTrailers = "grpc-status: 0\r\ngrpc-message: \r\n".getBytes( StandardCharsets.US_ASCII );
+        var badTrailers  = "grpc-status: 14\r\n".getBytes( StandardCharsets.US_ASCII );
+        var ok = StarlinkDish.parse( concat( frame( 0, status ), frame( 0x80, goodTrailers ) ) );
+        check( "good trailers", ok.ok(), ok.msg() );
+        var bad = StarlinkDish.parse( concat( frame( 0, status ), frame( 0x80, badTrailers ) ) );
+        check( "bad trailers", bad.notOk() && bad.msg().contains( "gRPC status 14" ), bad.msg() );
+        var full = frame( 0, status );
+        var truncated = new byte[full.length - 10];
+        System.arraycopy( full, 0, truncated, 0, truncated.length );
+        var trunc = StarlinkDish.parse( truncated );
+        check( "truncated frame", trunc.notOk() && trunc.msg().contains( "Truncated" ), trunc.msg() );
+        var malformed = new ByteArrayOutputStream();
+        tag( malformed, 2004, LENGTH );
+        varint( malformed, 50 );        // claims 50 bytes, but there are only 3...
+        tag( malformed, 1, VARINT );
+        varint( malformed, 300 );
+        var mal = StarlinkDish.parse( frame( 0, malformed.toByteArray() ) );
+        check( "malformed message", mal.notOk() && mal.msg().contains( "Malformed" ), mal.msg() );
+        var other = new ByteArrayOutputStream();
+        message( other, 2001, new byte[0] );
+        var none = StarlinkDish.parse( frame( 0, other.toByteArray() ) );
+        check( "no status", none.notOk() && none.msg().contains( "no status" ), none.msg() );
+        var noHistory = StarlinkDish.parseHistory( frame( 0, status ) );
+        check( "no history", noHistory.notOk() && noHistory.msg().contains( "no history" ), noHistory.msg() );
+        var empty = StarlinkDish.parse( new byte[0] );
+        check( "empty body", empty.notOk() && empty.msg().contains( "No response message" ), empty.msg() );
+
+        // poll a stand-in dish...
+        var clientPorts = ConcurrentHashMap.<Integer>newKeySet();
+        var server = standIn( frame( 0, status ), frame( 0, history ), clientPorts );
+        var dish = new StarlinkDish( "http://127.0.0.1:" + server.getAddress().getPort() + "/SpaceX.API.Device.Device/Handle", Duration.ofSeconds( 5 ) );
+        var polls = 0;
+        for( int i = 0; i < 3; i++ ) {
+            var polled = dish.getStatus();
+            var polledOutages = dish.getOutages();
+            if( polled.ok() && polledOutages.ok() && (polledOutages.info().size() == 3) ) polls++;
+            else System.out.println( "     " + polled.msg() + " / " + polledOutages.msg() );
+        }
+        check( "stand-in polls", polls == 3, polls + " of 3 polls worked" );
+        check( "connection kept alive", clientPorts.size() == 1, clientPorts.size() + " connections for 6 requests" );
+        server.stop( 0 );
+
+        System.out.println( (failures == 0) ? "\nAll checks did what they should." : "\n" + failures + " checks did not do what they should!" );
+        System.exit( (failures == 0) ? 0 : 1 );
+    }
+
+
+    private static void check( final String _name, final boolean _ok, final String _detail ) {
+        if( !_ok ) failures++;
+        System.out.printf( "%-4s %-22s %s%n", _ok ? "ok" : "BAD", _name, _ok ? "" : _detail );
+    }
+
+
+    private static boolean near( final double _a, final double _b ) {
+        return Math.abs( _a - _b ) <= Math.abs( _b ) * 1e-6;
+    }
+
+
+    /**
+     * Start a stand-in dish: an HTTP server on the loopback interface that answers requests for the status or the history (telling them apart by the
+     * request's field number, as the dish does) with the given response bodies, and notes the client port of each request.
+     *
+     * @param _status The response body for a status request.
+     * @param _history The response body for a history request.
+     * @param _clientPorts Where to note the client port of each request.
+     * @return The running server.
+     */
+    private static HttpServer standIn( final byte[] _status, final byte[] _history, final Set<Integer> _clientPorts ) throws IOException {
+        var server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), 0 ), 0 );
+        server.createContext( "/SpaceX.API.Device.Device/Handle", (exchange) -> {
+            _clientPorts.add( exchange.getRemoteAddress().getPort() );
+            var request = exchange.getRequestBody().readAllBytes();
+            var body = ((request.length > 6) && ((request[5] & 0xFF) == 0xFA)) ? _history : _status;
+            exchange.getResponseHeaders().add( "Content-Type", "application/grpc-web+proto" );
+            exchange.sendResponseHeaders( 200, body.length );
+            exchange.getResponseBody().write( body );
+            exchange.close();
+        } );
+        server.start();
+        return server;
+    }
+
+
+    /**
+     * Encode a status response the way the dish does, with a few fields the decoder doesn't know about mixed in.
+     *
+     * @return The encoded Response message.
+     */
+    private static byte[] statusResponse() {
+
+        var info = new ByteArrayOutputStream();
+        string( info, 1, "ut01-dish" );
+        string( info, 2, "rev3_proto2" );
+        string( info, 3, "2024.05.0.mr1" );
+        string( info, 7, "an unknown string" );
+
+        var state = new ByteArrayOutputStream();
+        field( state, 1, 86_461 );
+
+        var obstruction = new ByteArrayOutputStream();
+        float32( obstruction, 1, 0.0125f );
+        float32( obstruction, 3, 0.5f );   // unknown...
+        field( obstruction, 5, 1 );
+
+        var alerts = new ByteArrayOutputStream();
+        field( alerts, 3, 1 );
+        field( alerts, 5, 0 );
+        field( alerts, 7, 1 );
+        field( alerts, 42, 1 );  // unknown...
+
+        var outage = new ByteArrayOutputStream();
+        field( outage, 1, 6 );
+        field( outage, 2, 1_000_000_000_000L );
+        field( outage, 3, 2_500_000_000L );
+        field( outage, 4, 1 );
+
+        var status = new ByteArrayOutputStream();
+        message( status, 1, info.toByteArray() );
+        message( status, 2, state.toByteArray() );
+        field( status, 3, 12345 );  // unknown...
+        float32( status, 1003, 0.025f );
+        message( status, 1004, obstruction.toByteArray() );
+        message( status, 1005, alerts.toByteArray() );
+        float32( status, 1007, 151_000_000f );
+        float32( status, 1008, 12_500_000f );
+        float32( status, 1009, 38.5f );
+        message( status, 1014, outage.toByteArray() );
+        message( status, 1015, new byte[] { 8, 1 } );  // unknown...
+        field( status, 1018, 1 );
+        field( status, 1022, 0 );
+
+        var response = new ByteArrayOutputStream();
+        field( response, 1, 77 );  // unknown...
+        message( response, 2004, status.toByteArray() );
+        return response.toByteArray();
+    }
+
+
+    /**
+     * Encode a history response the way the dish does: its rings of samples (packed floats, which the decoder skips), and its outage ring, which is
+     * out of order as the dish's ring wraps.
+     *
+     * @return The encoded Response message.
+     */
+    private static byte[] historyResponse() {
+
+        var samples = new ByteArrayOutputStream();
+        for( int i = 0; i < 16; i++ ) fixed32( samples, Float.floatToIntBits( i * 0.5f ) );
+
+        var history = new ByteArrayOutputStream();
+        field( history, 1, 123_456 );
+        message( history, 1001, samples.toByteArray() );
+        message( history, 1002, samples.toByteArray() );
+        message( history, 1009, outage( 99, 300, 4_000_000_000L ) );  // a cause newer than our list...
+        message( history, 1009, outage( 1, 200, 500_000_000L ) );
+        message( history, 1009, outage( 8, 100, 1_500_000_000L ) );
+
+        var response = new ByteArrayOutputStream();
+        message( response, 2006, history.toByteArray() );
+        return response.toByteArray();
+    }
+
+
+    private static byte[] outage( final int _cause, final long _startNs, final long _durationNs ) {
+        var outage = new ByteArrayOutputStream();
+        field( outage, 1, _cause );
+        field( outage, 2, _startNs );
+        field( outage, 3, _durationNs );
+        return outage.toByteArray();
+    }
+
+
+    private static byte[] frame( final int _flags, final byte[] _payload ) {
+        var frame = new byte[_payload.length + 5];
+        frame[0] = (byte) _flags;
+        frame[1] = (byte) (_payload.length >>> 24);
+        frame[2] = (byte) (_payload.length >>> 16);
+        frame[3] = (byte) (_payload.length >>> 8);
+        frame[4] = (byte) _payload.length;
+        System.arraycopy( _payload, 0, frame, 5, _payload.length );
+        return frame;
+    }
+
+
+    private static byte[] concat( final byte[] _a, final byte[] _b ) {
+        var result = new byte[_a.length + _b.length];
+        System.arraycopy( _a, 0, result, 0, _a.length );
+        System.arraycopy( _b, 0, result, _a.length, _b.length );
+        return result;
+    }
+
+
+    private static void field( final ByteArrayOutputStream _out, final int _field, final long _value ) {
+        tag( _out, _field, VARINT );
+        varint( _out, _value );
+    }
+
+
+    private static void float32( final ByteArrayOutputStream _out, final int _field, final float _value ) {
+        tag( _out, _field, FIXED32 );
+        fixed32( _out, Float.floatToIntBits( _value ) );
+    }
+
+
+    private static void string( final ByteArrayOutputStream _out, final int _field, final String _value ) {
+        message( _out, _field, _value.getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+
+    private static void message( final ByteArrayOutputStream _out, final int _field, final byte[] _value ) {
+        tag( _out, _field, LENGTH );
+        varint( _out, _value.length );
+        _out.writeBytes( _value );
+    }
+
+
+    private static void tag( final ByteArrayOutputStream _out, final int _field, final int _wireType ) {
+        varint( _out, ((long) _field << 3) | _wireType );
+    }
+
+
+    private static void varint( final ByteArrayOutputStream _out, final long _value ) {
+        var value = _value;
+        while( (value & ~0x7FL) != 0 ) {
+            _out.write( (int) ((value & 0x7F) | 0x80) );
+            value >>>= 7;
+        }
+        _out.write( (int) value );
+    }
+
+
+    private static void fixed32( final ByteArrayOutputStream _out, final int _bits ) {
+        for( int i = 0; i < 4; i++ ) _out.write( (_bits >>> (8 * i)) & 0xFF );
+    }
+}
@@ -7,6 +7,7 @@ import com.dilatush.monitor.monitors.JVM;
 import com.dilatush.monitor.monitors.JVMs;
 import com.dilatush.monitor.monitors.LAN;
 import com.dilatush.monitor.monitors.LAN.Check;
+import com.dilatush.monitor.monitors.Starlink;
 import com.dilatush.monitor.monitors.yolink.YoLink;
 import com.dilatush.monitor.monitors.yolink.YoLinkTriggerDef;
 import com.dilatush.monitor.monitors.yolink.YoLinkTriggerField;
@@ -110,16 +111,30 @@ public class MonitorConfigurator implements Configurator {
                 "Events:Events service,CPO:Central Post Office service,ace:Ubiquiti Unifi service");
         config.monitors.add( new MonitorInstance( JVMs.class, params, Duration.ofMinutes( 60 ) ) );
 
+        // Starlink dish telemetry, shared by the ISP and Starlink monitors...
+        var starlink = new Starlink.Telemetry();
+
         // ISP configuration...
+        var providers = new ArrayList<ISP.Provider>();
+        providers.add( new ISP.Provider( "Starlink", IPv4Address.fromString( "208.67.220.220" ).info(), 53, List.of( "starlink", "spacex" ) ) );
+        providers.add( new ISP.Provider( "Verizon",  IPv4Address.fromString( "208.67.222.222" ).info(), 53, List.of( "verizon" ) ) );
         params = new HashMap<>();
+        params.put( "providers", providers );
+        params.put( "starlink", starlink );
         config.monitors.add( new MonitorInstance( ISP.class, params, Duration.ofSeconds( 15 ) ) );
 
+        // Starlink dish configuration...
+        params = new HashMap<>();
+        params.put( "url", "http://192.168.100.1:9201/SpaceX.API.Device.Device/Handle" );
+        params.put( "telemetry", starlink );
+        config.monitors.add( new MonitorInstance( Starlink.class, params, Duration.ofMinutes( 1 ) ) );
+
         // LAN configuration...
         var checks = new ArrayList<Check>();
-        checks.add( new Check( "barnswitch",  IPv4Address.fromString( "10.2.4.254"   ).info(), 80,  50 ) );
-        checks.add( new Check( "barnrouter",  IPv4Address.fromString( "10.2.4.1"     ).info(), 80,  50 ) );
-        checks.add( new Check( "barnradio",   IPv4Address.fromString( "10.1.100.101" ).info(), 80, 250 ) );
-        checks.add( new Check( "barnnano",    IPv4Address.fromString( "10.2.100.2"   ).info(), 80, 250 ) );
+        checks.add( new Check( "barnswitch",  IPv4Address.fromString( "10.2.4.254"   ).info(), 80,  50, null, "barnradio" ) );
+        checks.add( new Check( "barnrouter",  IPv4Address.fromString( "10.2.4.1"     ).info(), 80,  50, null, "barnradio" ) );
+        checks.add( new Check( "barnradio",   IPv4Address.fromString( "10.1.100.101" ).info(), 80, 250, null, "houseradio" ) );
+        checks.add( new Check( "barnnano",    IPv4Address.fromString( "10.2.100.2"   ).info(), 80, 250, null, "barnradio" ) );
         checks.add( new Check( "houseradio",  IPv4Address.fromString( "10.1.100.100" ).info(), 80, 250 ) );
         checks.add( new Check( "houserouter", IPv4Address.fromString( "10.1.4.1"     ).info(), 80,  50 ) );
         checks.add( new Check( "houseswitch", IPv4Address.fromString( "10.1.4.254"   ).info(), 80,  50 ) );
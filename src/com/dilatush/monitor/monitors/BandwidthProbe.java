@@ -0,0 +1,410 @@
+package com.dilatush.monitor.monitors;
+
+import com.dilatush.util.Outcome;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import static com.dilatush.util.General.getLogger;
+
+/**
+ * Measures the throughput of our Internet connection, and how much its latency rises under load (bufferbloat), against a configurable HTTP endpoint.  A
+ * measurement first takes the idle round-trip time (as the median of a few TCP connects to the endpoint's host), then downloads and uploads a configured
+ * number of bytes while continuously measuring round-trip time the same way.  The rise from idle to loaded round-trip time is the bufferbloat.
+ * <p>Measurements cost data, so they only run during a configured off-peak period, no more often than a configured interval, and only while a daily data
+ * budget has room for them.  The budget's state (the data used today, and when the last measurement started) can be saved with {@link #budget()} and
+ * restored with {@link #restore(Budget)}, so that a restart doesn't reset it.  Apart from those and {@link #usedToday()}, instances of this class are not
+ * threadsafe; the ISP monitor runs measurements on a single thread of its own, and only checks whether one is due when none is running.</p>
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class BandwidthProbe {
+
+    private static final Logger LOGGER = getLogger();
+
+    private static final Outcome.Forge<Measurement> FORGE_MEASUREMENT = new Outcome.Forge<>();
+
+    private static final int IDLE_PINGS       = 5;    // round-trip times taken for the idle measurement...
+    private static final int PING_INTERVAL_MS = 100;  // time between round-trip time measurements...
+    private static final int CHUNK_SIZE       = 64 * 1024;
+
+    private final Config config;
+    private final String host;
+    private final int    port;
+    private final byte[] chunk;            // what we upload, repeated; random, so that nothing on the path can compress it...
+
+    // our budget's state, guarded by this instance, as the ISP monitor saves it while a measurement runs...
+    private LocalDate     budgetDate;      // the day our data used is for...
+    private volatile long usedToday;       // bytes used by measurements today...
+    private Instant       lastRun;         // when we last started a measurement, or null if we never have...
+
+
+    /**
+     * Creates a new instance of this class with the given configuration.
+     *
+     * @param _config The configuration.
+     * @throws IllegalArgumentException If the download URL isn't valid.
+     */
+    public BandwidthProbe( final Config _config ) {
+        config = _config;
+        try {
+            var url = new URL( _config.downloadURL );
+            host = url.getHost();
+            port = (url.getPort() < 0) ? url.getDefaultPort() : url.getPort();
+        }
+        catch( IOException _e ) {
+            throw new IllegalArgumentException( "Invalid bandwidth probe download URL: " + _config.downloadURL, _e );
+        }
+        chunk = new byte[CHUNK_SIZE];
+        new Random().nextBytes( chunk );
+    }
+
+
+    /**
+     * Return true if a measurement may be started now: we're in the off-peak period, it's been long enough since the last one, and today's data budget has
+     * room for it.
+     *
+     * @param _now The current local time.
+     * @return True if a measurement may be started.
+     */
+    public boolean due( final ZonedDateTime _now ) {
+
+        // are we in the off-peak period (which may span midnight)?
+        var time  = _now.toLocalTime();
+        var start = config.offPeakStart;
+        var end   = config.offPeakEnd;
+        var offPeak = start.isBefore( end ) ? (!time.isBefore( start ) && time.isBefore( end )) : (!time.isBefore( start ) || time.isBefore( end ));
+        if( !offPeak ) return false;
+
+        // has it been long enough, and does our budget have room?
+        synchronized( this ) {
+            if( (lastRun != null) && _now.toInstant().isBefore( lastRun.plus( config.minInterval ) ) ) return false;
+            rollBudget( _now.toLocalDate() );
+            return usedToday + cost() <= config.dailyBudgetBytes;
+        }
+    }
+
+
+    /**
+     * Run a measurement, blocking until it's complete.  The data it uses is charged to today's budget whether it succeeds or not.
+     *
+     * @param _isp The name of the ISP the measurement is for.
+     * @param _now The current local time.
+     * @return The outcome of the measurement.  If ok, contains the measurement.  If not ok, contains an explanatory message and possibly the exception that
+     * caused the problem.
+     */
+    public Outcome<Measurement> measure( final String _isp, final ZonedDateTime _now ) {
+
+        var startedAt = _now.toInstant();
+        synchronized( this ) {
+            lastRun = startedAt;
+            rollBudget( _now.toLocalDate() );
+        }
+        var used = new long[1];
+        try {
+
+            // first, how long does a round trip take when we're not loading the connection?
+            var idle = new ArrayList<Double>();
+            for( int i = 0; i < IDLE_PINGS; i++ ) {
+                var rtt = ping();
+                if( rtt >= 0 ) idle.add( rtt );
+                Thread.sleep( PING_INTERVAL_MS );
+            }
+            if( idle.isEmpty() ) return FORGE_MEASUREMENT.notOk( "Could not reach bandwidth probe endpoint " + host + ":" + port );
+
+            // then download, and (if we can) upload, watching round-trip times while we do...
+            var down = transfer( false, used );
+            var up = (config.uploadURL == null) ? null : transfer( true, used );
+            var measurement = new Measurement( _isp, startedAt, down.mbps, down.rttMs, (up == null) ? 0 : up.mbps, (up == null) ? 0 : up.rttMs,
+                    median( idle ), used[0] );
+            LOGGER.info( "Bandwidth on " + _isp + ": " + measurement );
+            return FORGE_MEASUREMENT.ok( measurement );
+        }
+        catch( IOException _e ) {
+            return FORGE_MEASUREMENT.notOk( "Problem measuring bandwidth: " + _e.getMessage(), _e );
+        }
+        catch( InterruptedException _e ) {
+            Thread.currentThread().interrupt();
+            return FORGE_MEASUREMENT.notOk( "Interrupted while measuring bandwidth" );
+        }
+        finally {
+            synchronized( this ) {
+                usedToday += used[0];
+            }
+        }
+    }
+
+
+    /**
+     * Return the number of bytes measurements have used today.
+     *
+     * @return The number of bytes used today.
+     */
+    public long usedToday() {
+        return usedToday;
+    }
+
+
+    /**
+     * Return our budget's state, for persisting.
+     *
+     * @return Our budget's state.
+     */
+    public synchronized Budget budget() {
+        return new Budget( budgetDate, usedToday, lastRun );
+    }
+
+
+    /**
+     * Restore our budget's state from what {@link #budget()} returned, presumably before a restart.
+     *
+     * @param _budget The budget's state to restore.
+     */
+    public synchronized void restore( final Budget _budget ) {
+        budgetDate = _budget.date;
+        usedToday  = _budget.usedBytes;
+        lastRun    = _budget.lastRun;
+    }
+
+
+    /**
+     * Download or upload our configured number of bytes, measuring round-trip times on a separate thread while we do.
+     *
+     * @param _upload True to upload, false to download.
+     * @param _used Where to add the number of bytes transferred.
+     * @return The throughput and loaded round-trip time.
+     * @throws IOException On any problem with the transfer.
+     */
+    private Transfer transfer( final boolean _upload, final long[] _used ) throws IOException {
+
+        var pinger = new Pinger();
+        var thread = new Thread( pinger, "Bandwidth ping" );
+        thread.setDaemon( true );
+        thread.start();
+        try {
+            var con = (HttpURLConnection) new URL( _upload ? config.uploadURL : config.downloadURL ).openConnection();
+            con.setConnectTimeout( config.timeoutMs );
+            con.setReadTimeout( config.timeoutMs );
+            con.setInstanceFollowRedirects( false );
+            try {
+                long bytes = 0;
+                long startedAt;
+                if( _upload ) {
+                    con.setRequestMethod( "POST" );
+                    con.setDoOutput( true );
+                    con.setFixedLengthStreamingMode( (long) config.testBytes );
+                    con.setRequestProperty( "Content-Type", "application/octet-stream" );
+                    startedAt = System.nanoTime();
+                    try( OutputStream out = con.getOutputStream() ) {
+                        while( bytes < config.testBytes ) {
+                            var n = (int) Math.min( chunk.length, config.testBytes - bytes );
+                            out.write( chunk, 0, n );
+                            bytes += n;
+                            _used[0] += n;
+                        }
+                    }
+                    var status = con.getResponseCode();
+                    if( (status / 100) != 2 ) throw new IOException( "upload HTTP status was not ok (2xx): " + status );
+                }
+                else {
+                    var status = con.getResponseCode();
+                    if( status != 200 ) throw new IOException( "download HTTP status was not ok (200): " + status );
+                    var buffer = new byte[CHUNK_SIZE];
+                    try( InputStream in = con.getInputStream() ) {
+                        startedAt = System.nanoTime();  // from the start of the body, so that connect and request time don't count...
+                        int n;
+                        while( (bytes < config.testBytes) && ((n = in.read( buffer )) > 0) ) {
+                            bytes += n;
+                            _used[0] += n;
+                        }
+                    }
+                }
+                var seconds = Math.max( 1e-6, (System.nanoTime() - startedAt) / 1e9 );
+                return new Transfer( bytes * 8 / seconds / 1e6, pinger.stop( thread ) );
+            }
+            finally {
+                con.disconnect();
+            }
+        }
+        finally {
+            pinger.stop( thread );
+        }
+    }
+
+
+    /**
+     * Return the time it takes to make a TCP connection to the endpoint's host, in milliseconds, or -1 if it couldn't be made.
+     *
+     * @return The round-trip time in milliseconds, or -1.
+     */
+    private double ping() {
+        var startedAt = System.nanoTime();
+        try( Socket socket = new Socket() ) {
+            socket.connect( new InetSocketAddress( host, port ), config.timeoutMs );
+            return (System.nanoTime() - startedAt) / 1e6;
+        }
+        catch( IOException _e ) {
+            LOGGER.finest( "Bandwidth probe ping failed: " + _e.getMessage() );
+            return -1;
+        }
+    }
+
+
+    private long cost() {
+        return (config.uploadURL == null) ? config.testBytes : 2L * config.testBytes;
+    }
+
+
+    private synchronized void rollBudget( final LocalDate _today ) {
+        if( _today.equals( budgetDate ) ) return;
+        budgetDate = _today;
+        usedToday  = 0;
+    }
+
+
+    private static double median( final List<Double> _values ) {
+        if( _values.isEmpty() ) return 0;
+        var sorted = new ArrayList<>( _values );
+        Collections.sort( sorted );
+        return sorted.get( sorted.size() / 2 );
+    }
+
+
+    /**
+     * Measures round-trip times continuously until stopped.
+     */
+    private class Pinger implements Runnable {
+
+        private final List<Double> rtts = new ArrayList<>();
+        private volatile boolean   running = true;
+
+        @Override
+        public void run() {
+            while( running ) {
+                var rtt = ping();
+                synchronized( this ) {
+                    if( rtt >= 0 ) rtts.add( rtt );
+                }
+                try {
+                    Thread.sleep( PING_INTERVAL_MS );
+                }
+                catch( InterruptedException _e ) {
+                    return;
+                }
+            }
+        }
+
+
+        /**
+         * Stop measuring, and return the median round-trip time measured.
+         *
+         * @param _thread The thread we're running on.
+         * @return The median round-trip time, in milliseconds, or zero if none were measured.
+         */
+        private double stop( final Thread _thread ) {
+            running = false;
+            _thread.interrupt();
+            synchronized( this ) {
+                return median( rtts );
+            }
+        }
+    }
+
+
+    private record Transfer( double mbps, double rttMs ) {}
+
+
+    /**
+     * The configuration of a bandwidth probe.
+     *
+     * @param downloadURL The URL to download from; it must return at least the test number of bytes.  Its host is also where round-trip times are measured.
+     * @param uploadURL The URL to upload (POST) to, or null to measure only downloads.
+     * @param testBytes The number of bytes to transfer in each direction.
+     * @param dailyBudgetBytes The maximum number of bytes measurements may use in a day.
+     * @param offPeakStart The local time the off-peak period starts.
+     * @param offPeakEnd The local time the off-peak period ends; if before the start, the period spans midnight.
+     * @param minInterval The minimum time between the starts of measurements.
+     * @param timeoutMs The connect and read timeout for transfers and round-trip time measurements, in milliseconds.
+     */
+    public record Config( String downloadURL, String uploadURL, int testBytes, long dailyBudgetBytes, LocalTime offPeakStart, LocalTime offPeakEnd,
+                          Duration minInterval, int timeoutMs ) {}
+
+
+    /**
+     * The state of the daily data budget.
+     *
+     * @param date The day the data used is for, or null if no measurement has been made.
+     * @param usedBytes The bytes used by measurements on that day.
+     * @param lastRun When the last measurement started, or null if none has.
+     */
+    public record Budget( LocalDate date, long usedBytes, Instant lastRun ) {}
+
+
+    /**
+     * The result of a measurement.
+     *
+     * @param isp The name of the ISP the measurement was made on.
+     * @param at When the measurement started.
+     * @param downMbps The download throughput, in megabits per second.
+     * @param downRttMs The median round-trip time while downloading, in milliseconds.
+     * @param upMbps The upload throughput, in megabits per second, or zero if uploads weren't measured.
+     * @param upRttMs The median round-trip time while uploading, in milliseconds, or zero if uploads weren't measured.
+     * @param idleRttMs The median round-trip time before loading the connection, in milliseconds.
+     * @param bytes The number of bytes the measurement used.
+     */
+    public record Measurement( String isp, Instant at, double downMbps, double downRttMs, double upMbps, double upRttMs, double idleRttMs, long bytes ) {
+
+        /**
+         * Return the rise in round-trip time while downloading, over the idle round-trip time, in milliseconds.
+         *
+         * @return The download bufferbloat, in milliseconds.
+         */
+        public double downBloatMs() {
+            return Math.max( 0, downRttMs - idleRttMs );
+        }
+
+
+        /**
+         * Return the rise in round-trip time while uploading, over the idle round-trip time, in milliseconds.
+         *
+         * @return The upload bufferbloat, in milliseconds, or zero if uploads weren't measured.
+         */
+        public double upBloatMs() {
+            return (upRttMs == 0) ? 0 : Math.max( 0, upRttMs - idleRttMs );
+        }
+
+
+        /**
+         * Return this measurement as a JSON object.
+         *
+         * @return This measurement as a JSON object.
+         */
+        public JSONObject toJSON() {
+            var result = new JSONObject();
+            result.put( "at",          at.toEpochMilli() );
+            result.put( "downMbps",    downMbps          );
+            result.put( "upMbps",      upMbps            );
+            result.put( "idleRttMs",   idleRttMs         );
+            result.put( "downBloatMs", downBloatMs()     );
+            result.put( "upBloatMs",   upBloatMs()       );
+            result.put( "bytes",       bytes             );
+            return result;
+        }
+    }
+}
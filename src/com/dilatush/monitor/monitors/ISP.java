@@ -1,34 +1,46 @@
 package com.dilatush.monitor.monitors;
 
-import com.dilatush.monitor.Monitor;
 import com.dilatush.mop.Mailbox;
 import com.dilatush.mop.Message;
 import com.dilatush.util.Files;
 import com.dilatush.util.Outcome;
-import com.dilatush.util.Strings;
 import com.dilatush.util.Time;
 import com.dilatush.util.ip.IPAddress;
-import com.dilatush.util.networkingengine.TCPConnectionTest;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static com.dilatush.util.General.getLogger;
 import static com.dilatush.util.HTTP.requestJSONText;
-import static com.dilatush.util.HTTP.requestText;
 
 /**
- * Implements monitoring of primary and secondary ISP.  It is hardwired for ISP characteristics at the author's (Tom Dilatush's) house, and should run
- * every 15 seconds.  It sends status messages, events, and statistics.
+ * Implements monitoring of ISPs: any number of them, configured in order of preference, each with a probe target that's only reachable through it and the
+ * strings that identify it in the registry.  By default, it's configured for the ISPs at the author's (Tom Dilatush's) house: Starlink, with Verizon as a
+ * backup.  It should run every 15 seconds.  It sends status messages, events, and statistics.  For each ISP, the time it was up and the time it was the
+ * effective ISP are kept over rolling windows of the last hour, day, week, and month.  Alongside the ISP.switched, ISP.wentUp, and ISP.wentDown events,
+ * the first two ISPs also get the original primary and secondary events (ISP.toPrimary, ISP.primaryWentUp, and so on).
  */
 public class ISP extends AMonitor {
 
@@ -37,113 +49,215 @@ public class ISP extends AMonitor {
     private static final DateTimeFormatter localDateTimeFormat = DateTimeFormatter.ofPattern( "LLL dd, uuuu hh:mm:ss.SSS" );
 
     private static final Outcome.Forge<IPAddress> FORGE_IP       = new Outcome.Forge<>();
+    private static final Outcome.Forge<Boolean>   FORGE_BOOLEAN  = new Outcome.Forge<>();
     private static final Outcome.Forge<ISPInfo>   FORGE_ISP_INFO = new Outcome.Forge<>();
 
-    private static final IPAddress STARLINK_ONLY_IP = IPAddress.fromString( "208.67.220.220" ).info();
-    private static final IPAddress VERIZON_ONLY_IP  = IPAddress.fromString( "208.67.222.222" ).info();
-    private static final IPAddress EDGE_ROUTER_IP   = IPAddress.fromString( "10.1.4.1"       ).info();
-    private static final File      PERSISTENCE_FILE = new File( "isp.data" );
+    private static final IPAddress EDGE_ROUTER_IP   = IPAddress.fromString( "10.1.4.1" ).info();
+    private static final File      STATS_FILE       = new File( "isp.stats" );
+    private static final File      ISP_CACHE_FILE   = new File( "isp.cache" );
+    private static final File      LEGACY_PERSISTENCE_FILE = new File( "isp.data" );
+    private static final String    UNKNOWN          = "Unknown";
+    private static final String[]  ROLES            = { "primary", "secondary" };  // the first two ISPs, as the original events named them...
 
     private static final int DNS_PORT           = 53;
     private static final int ROUTER_PORT        = 80;
     private static final int CONNECT_TIMEOUT_MS = 1000;
+    private static final int CONNECT_TRIES      = 3;
+
+    private static final Duration DEFAULT_DEADLINE   = Duration.ofSeconds( 12 );  // default maximum time for a run's probes...
+    private static final int      DEFAULT_RACE_WIDTH = 2;                         // default number of public IP resolvers raced at once...
+    private static final Duration DEFAULT_CACHE_TTL  = Duration.ofSeconds( 60 );  // default time a public IP address is cached...
+    private static final Duration DEFAULT_ISP_CACHE_TTL     = Duration.ofDays( 30 );  // default time an ISP classification is good for...
+    private static final int      DEFAULT_ISP_CACHE_ENTRIES = 256;                  // default maximum number of ISP classifications cached...
+    private static final Duration DEFAULT_STATS_SYNC        = Duration.ofMinutes( 1 );  // default minimum interval between forcing statistics to disk...
+    private static final Duration DEFAULT_PROBE_INTERVAL    = Duration.ofSeconds( 1 );  // default interval between continuous probes of a path...
+    private static final Duration DEFAULT_PROBE_WINDOW      = Duration.ofMinutes( 5 );  // default window for continuous probing's statistics...
+    private static final Duration STARLINK_MAX_AGE          = Duration.ofMinutes( 2 );  // oldest Starlink dish telemetry we'll include in our status...
+    private static final int      DEFAULT_PROBE_DOWN_AFTER  = 3;                        // default consecutive lost probes for a path to be down...
+    private static final int      DEFAULT_PROBE_UP_AFTER    = 2;                        // default consecutive good probes for a path to be up...
+
+    private static final int STATS_VERSION     = 3;   // version of the layout of our persisted statistics...
+    private static final int MAX_STRING_BYTES  = 64;  // longest string (name or IP address) persisted in our statistics...
+    private static final int MAX_GAP_INTERVALS = 4;   // more than this many intervals between captures is a gap, not time observed...
+
+    // index of the edge router probe in the list of TCP probe targets; each ISP's probe follows it, in order...
+    private static final int EDGE_PROBE = 0;
+
+    private final List<Provider>    providers;     // the ISPs we monitor, most preferred first...
+    private final Duration          deadline;      // maximum time for a run's probes...
+    private final PublicIPResolvers resolvers;     // finds our public IP address...
+    private final ExecutorService   probeThread;   // runs the public IP query while the TCP probes run...
+    private final PathWatcher       watcher;       // watches each ISP's path between runs, or null if we're not...
+    private final BandwidthProbe    bandwidth;     // measures throughput and bufferbloat, or null if we're not...
+    private final ExecutorService   bandwidthThread;  // runs bandwidth measurements, which take far longer than a run, or null if we're not...
+    private final Starlink.Telemetry starlink;     // the Starlink dish's telemetry, shared with the Starlink monitor, or null if none...
+
+    // bandwidth measurements...
+    private final Map<String,BandwidthProbe.Measurement> lastBandwidth = new HashMap<>();  // the latest measurement for each ISP...
+    private Future<Outcome<BandwidthProbe.Measurement>>  bandwidthRun;                     // the measurement running, or null if none is...
 
     // statistics...
-    private Duration  onPrimaryTime;      // amount of time on primary ISP...
-    private Duration  onSecondaryTime;    // amount of time on secondary ISP...
-    private double    onPrimaryPct;       // percent of time on primary ISP...
-    private long      onSecondaryCount;   // number of times on secondary ISP...
-    private Duration  downPrimaryTime;    // amount of time primary ISP is down...
-    private Duration  downSecondaryTime;  // amount of time secondary ISP is down...
-    private Instant   lastSecondaryTime;  // last time on secondary ISP started...
-    private Instant   lastCaptureTime;    // last time we captured ISP data...
-    private ISPRank   lastRank;           // the ISP rank last captured...
-    private boolean   primaryUp;          // true if primary ISP is up...
-    private boolean   secondaryUp;        // true if secondary ISP is up...
-    private IPAddress ipAddress;          // the public IP address...
-
-    // cache of ISP information by public IP...
-    private final Map<IPAddress,ISPInfo> isps = new HashMap<>();
+    private RollingTotals   observedMs;       // time we've been capturing ISP data...
+    private ProviderStats[] stats;            // statistics for each ISP, in the same order as providers...
+    private int             current;          // index of the effective ISP, or -1 if it's not one of ours...
+    private Instant         lastSwitchTime;   // when the effective ISP last changed...
+    private Instant         lastCaptureTime;  // last time we captured ISP data...
+    private IPAddress       ipAddress;        // the public IP address...
+
+    // lifetime statistics for the first (primary) and second (secondary) ISPs, for the fields we've always reported...
+    private long            onPrimaryMs;        // time the primary ISP was our effective ISP...
+    private long            onSecondaryMs;      // time the secondary ISP was our effective ISP...
+    private long            onSecondaryCount;   // number of times we switched to the secondary ISP...
+    private Instant         lastSecondaryTime;  // when we last switched to the secondary ISP, or null if never...
+
+    // cache of ISP information by public IP address block...
+    private final ISPCache isps;
+
+    // where our statistics persist, or null if the file couldn't be opened...
+    private final ISPStatsFile statsFile;
 
     /**
      * Creates a new instance of this class with the given Mailbox.
      *
      * @param _mailbox  The mailbox for this monitor to use.
-     * @param _params The parameters for this monitor (none).
+     * @param _params The parameters for this monitor: optionally "providers" (a list of Provider instances, the ISPs to monitor with the most preferred
+     *                first, default {@link #defaultProviders()}), "deadline" (a Duration, the maximum time for a run's probes, default 12 seconds),
+     *                "publicIPResolvers" (a list of PublicIPResolver instances, default {@link PublicIPResolvers#defaults()}), "publicIPRaceWidth" (the
+     *                number of resolvers raced at once, default 2), and "publicIPCacheTTL" (a Duration, how long a public IP address is cached, default 60
+     *                seconds; the cache is also cleared whenever an ISP goes up or down), "ispCacheTTL" (a Duration, how long an ISP classification is
+     *                good for, default 30 days), "ispCacheMaxEntries" (the maximum number of ISP classifications cached, default 256),
+     *                "statsSyncInterval" (a Duration, the minimum interval between forcing the persisted statistics to disk, default 1 minute),
+     *                "continuousProbing" (a Boolean, true to watch each ISP's path continuously between runs, default true),
+     *                "probeInterval" (a Duration, the interval between continuous probes of each path, default 1 second), "probeWindow" (a Duration, the
+     *                window continuous probing's loss and latency are reported for, default 5 minutes), "probeDownAfter" (the number of consecutive lost
+     *                probes that mean a path is down, default 3, as a single lost probe is routine), "probeUpAfter" (the number of consecutive successful
+     *                probes that mean a path is up, default 2), and "bandwidthProbe" (a BandwidthProbe.Config, the endpoint, data budget, and schedule
+     *                for throughput and bufferbloat measurements of the effective ISP, default none; the data it has used today is persisted with our
+     *                statistics, so a restart doesn't reset its budget), and "starlink" (a Starlink.Telemetry, shared with a Starlink monitor, whose
+     *                telemetry is included in our status, default none).
      * @param _interval The interval between runs for this monitor.
      */
-    public ISP( final Mailbox _mailbox, @SuppressWarnings( "unused" ) final Map<String,Object> _params, final Duration _interval ) {
+    public ISP( final Mailbox _mailbox, final Map<String,Object> _params, final Duration _interval ) {
         super( _mailbox, _interval );
 
-        // initialize our statistics...
-        onPrimaryTime     = Duration.ZERO;
-        onSecondaryTime   = Duration.ZERO;
-        onPrimaryPct      = 0;
-        onSecondaryCount = 0;
-        downPrimaryTime   = Duration.ZERO;
-        downSecondaryTime = Duration.ZERO;
-        lastSecondaryTime = null;
-        lastCaptureTime   = null;
-        lastRank          = ISPRank.UNKNOWN;
-        primaryUp         = false;
-        secondaryUp       = false;
-        ipAddress         = null;
-
-        // if we have a persistence file, read it to recover the statistics state...
-        if( PERSISTENCE_FILE.exists() )  {
-
-            // read our CSV persistence file...
-            var persistenceFile = Files.readToString( PERSISTENCE_FILE );
-            if( persistenceFile == null ) {
-                LOGGER.warning( "Could not read persistence file: " + PERSISTENCE_FILE );
-                throw new IllegalStateException( "Could not read persistence file: " + PERSISTENCE_FILE );
-            }
+        //noinspection unchecked
+        var pl = (List<Provider>) _params.get( "providers" );
+        providers = (pl == null) ? defaultProviders() : List.copyOf( pl );
+        if( providers.isEmpty() ) throw new IllegalArgumentException( "No ISPs configured" );
+        var dl = (Duration) _params.get( "deadline" );
+        deadline = (dl == null) ? DEFAULT_DEADLINE : dl;
+        //noinspection unchecked
+        var rl = (List<PublicIPResolver>) _params.get( "publicIPResolvers" );
+        var rw = (Integer) _params.get( "publicIPRaceWidth" );
+        var ct = (Duration) _params.get( "publicIPCacheTTL" );
+        resolvers = new PublicIPResolvers( (rl == null) ? PublicIPResolvers.defaults() : rl, (rw == null) ? DEFAULT_RACE_WIDTH : rw,
+                (ct == null) ? DEFAULT_CACHE_TTL : ct );
+        var it = (Duration) _params.get( "ispCacheTTL" );
+        var im = (Integer) _params.get( "ispCacheMaxEntries" );
+        isps = new ISPCache( ISP_CACHE_FILE, (it == null) ? DEFAULT_ISP_CACHE_TTL : it, (im == null) ? DEFAULT_ISP_CACHE_ENTRIES : im );
+        probeThread = Executors.newSingleThreadExecutor( (r) -> {
+            var thread = new Thread( r, "ISP probe" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        var cp = (Boolean) _params.get( "continuousProbing" );
+        var pi = (Duration) _params.get( "probeInterval" );
+        var pw = (Duration) _params.get( "probeWindow" );
+        var pd = (Integer) _params.get( "probeDownAfter" );
+        var pu = (Integer) _params.get( "probeUpAfter" );
+        var paths = new ArrayList<PathWatcher.Path>();
+        for( Provider provider : providers ) paths.add( new PathWatcher.Path( provider.name, provider.probeIP, provider.probePort ) );
+        watcher = ((cp != null) && !cp) ? null : new PathWatcher( paths,
+                (pi == null) ? DEFAULT_PROBE_INTERVAL : pi, (pd == null) ? DEFAULT_PROBE_DOWN_AFTER : pd, (pu == null) ? DEFAULT_PROBE_UP_AFTER : pu,
+                (pw == null) ? DEFAULT_PROBE_WINDOW : pw );
+
+        var bp = (BandwidthProbe.Config) _params.get( "bandwidthProbe" );
+        bandwidth = (bp == null) ? null : new BandwidthProbe( bp );
+        bandwidthThread = (bp == null) ? null : Executors.newSingleThreadExecutor( (r) -> {
+            var thread = new Thread( r, "ISP bandwidth" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+
+        starlink = (Starlink.Telemetry) _params.get( "starlink" );
+
+        // open our statistics file and recover the statistics state from it; failing that, from an older format...
+        initStatistics();
+        var sy = (Duration) _params.get( "statsSyncInterval" );
+        statsFile = openStatsFile( (sy == null) ? DEFAULT_STATS_SYNC : sy );
+        var saved = (statsFile == null) ? null : statsFile.read();
+        if( saved != null )
+            restoreStatistics( saved );
+        else
+            migrateStatistics();
+    }
 
-            // get the individual values and parse them...
-            try {
-                var values = persistenceFile.split( "," );
-                onPrimaryTime     = Duration.ofMillis( Long.parseLong( values[0] ) );
-                onSecondaryTime   = Duration.ofMillis( Long.parseLong( values[1] ) );
-                onPrimaryPct      = Double.parseDouble( values[2] );
-                onSecondaryCount = Long.parseLong( values[3] );
-                downPrimaryTime   = Duration.ofMillis( Long.parseLong( values[4] ) );
-                downSecondaryTime = Duration.ofMillis( Long.parseLong( values[5] ) );
-                lastSecondaryTime = "null".equals( values[6] ) ? null : Instant.ofEpochMilli( Long.parseLong( values[6] ) );
-                lastCaptureTime   = "null".equals( values[7] ) ? null : Instant.ofEpochMilli( Long.parseLong( values[7] ) );
-                lastRank          = ISPRank.valueOf( values[8] );
-                primaryUp         = Boolean.parseBoolean( values[9] );
-                secondaryUp       = Boolean.parseBoolean( values[10] );
-                ipAddress         = "null".equals(values[11]) ? null : IPAddress.fromString( values[11] ).info();
-            }
-            catch( Exception _e ) {
-                LOGGER.log( Level.WARNING, "Problem reading persistence file: " + _e.getMessage(), _e );
-                throw new IllegalArgumentException( "Problem reading persistence file: " + _e.getMessage(), _e );
-            }
-        }
+
+    /**
+     * Return the default ISPs: those at the author's (Tom Dilatush's) house.  Starlink is preferred, with Verizon as a backup.  Each is probed at an OpenDNS
+     * server that the edge router only routes through that ISP.
+     *
+     * @return The default ISPs.
+     */
+    public static List<Provider> defaultProviders() {
+        return List.of(
+                new Provider( "Starlink", IPAddress.fromString( "208.67.220.220" ).info(), DNS_PORT, List.of( "starlink", "spacex" ) ),
+                new Provider( "Verizon",  IPAddress.fromString( "208.67.222.222" ).info(), DNS_PORT, List.of( "verizon" ) ) );
     }
 
 
     /**
-     * Perform the periodic monitoring.  This monitor should  be run every 15 seconds.
+     * Perform the periodic monitoring.  This monitor should  be run every 15 seconds.  The probes are independent of each other, so they all run at once
+     * under a shared deadline: the edge router and each ISP's connects on a single selector on this thread, and the public IP query on our probe thread.  A
+     * run takes about as long as the slowest probe, rather than the sum of them all.  With continuous probing, each ISP's state comes from the path watcher
+     * instead, which knows (to within a probe interval) when it changed, and remembers outages too short for a run to see.
      */
     @Override
     protected void runImpl() {
 
-        var startTime = Instant.now();
+        var startTime  = Instant.now();
+        var deadlineAt = System.nanoTime() + deadline.toNanos();
+
+        // start the public IP query; cancelling its future interrupts the query, which then cancels any resolvers still racing...
+        var publicIPFuture = probeThread.submit( () -> resolvers.resolve( deadline ) );
+
+        // probe the edge router and every ISP all at once...
+        var probeResults = new TCPProber.Result[providers.size() + 1];
+        var targets = new ArrayList<TCPProber.Target>();
+        targets.add( new TCPProber.Target( EDGE_ROUTER_IP, ROUTER_PORT, CONNECT_TIMEOUT_MS, CONNECT_TRIES ) );
+        for( Provider provider : providers )
+            targets.add( new TCPProber.Target( provider.probeIP, provider.probePort, CONNECT_TIMEOUT_MS, CONNECT_TRIES ) );
+        try {
+            TCPProber.probe( targets, targets.size(), deadline, (index, result) -> probeResults[index] = result );
+        }
+        catch( IOException _e ) {
+            LOGGER.log( Level.SEVERE, "Could not run ISP probes: " + _e.getMessage(), _e );
+            publicIPFuture.cancel( true );
+            return;
+        }
 
         // make sure we've got connectivity to our edge router...
-        var edgeOutcome = isEdgeRouterUp();
+        var edgeOutcome = probeOutcome( "edge router", probeResults[EDGE_PROBE] );
         if( edgeOutcome.notOk() ) {
             LOGGER.log( Level.WARNING, "Problem connecting to edge router: " + edgeOutcome.msg(), edgeOutcome.cause() );
+            publicIPFuture.cancel( true );
             return;
         }
         if( !edgeOutcome.info() ) {
-            LOGGER.log( Level.WARNING, "Timed out connecting to edge router" );
+            LOGGER.log( Level.WARNING, probeResults[EDGE_PROBE].refused() ? "Edge router refused connection" : "Timed out connecting to edge router" );
+            publicIPFuture.cancel( true );
             return;
         }
 
+        // if a path went up or down since our last run, the active path may have switched ISPs, so an address from the cache can't be trusted...
+        if( pathsChanged( probeResults ) && resolvers.invalidateBefore( startTime ) ) {
+            publicIPFuture.cancel( true );
+            var remaining = Duration.ofNanos( Math.max( 0, deadlineAt - System.nanoTime() ) );
+            publicIPFuture = probeThread.submit( () -> resolvers.resolve( remaining ) );
+        }
+
         // we have connectivity to our edge router, so now get our public IP address...
-        var publicIPOutcome = getPublicIP();
+        var publicIPOutcome = awaitPublicIP( publicIPFuture, deadlineAt );
         if( publicIPOutcome.notOk() ) {
             LOGGER.log( Level.WARNING, "Problem getting public IP address: " + publicIPOutcome.msg(), publicIPOutcome.cause() );
             return;
@@ -159,48 +273,88 @@ public class ISP extends AMonitor {
         // if we make it here, we've got ISP information, and we're committed to a capture...
         var ispInfo = ispOutcome.info();
         var captureTime = Instant.now();
-        var ipuOutcome = isPrimaryUp();
-        var primaryNowUp = ipuOutcome.ok() ? ipuOutcome.info() : primaryUp;  // update if we got a good reading; otherwise use the last good reading...
-        var isuOutcome = isSecondaryUp();
-        var secondaryNowUp = isuOutcome.ok() ? isuOutcome.info() : secondaryUp;  // update if we got a good reading; otherwise use the last good reading...
-        var toPri = (ispInfo.rank == ISPRank.PRIMARY) && (lastRank != ISPRank.PRIMARY);
-        var toSec = (ispInfo.rank == ISPRank.SECONDARY) && (lastRank != ISPRank.SECONDARY);
-        if( toSec ) lastSecondaryTime = captureTime;
-
-        // and from the captured info, the statistics...
+        var effective = indexOf( ispInfo.name );
+
+        // get each ISP's state from our probes, or (once it knows anything) from the path watcher, which also knows when it changed...
+        var n = providers.size();
+        var nowUp = new boolean[n];
+        var changedAt = new Instant[n];
+        var outages = new ArrayList<List<PathWatcher.Outage>>();
+        for( int i = 0; i < n; i++ ) {
+            var outcome = probeOutcome( providers.get( i ).name, probeResults[i + 1] );
+            nowUp[i] = outcome.ok() ? outcome.info() : stats[i].up;  // update if we got a good reading; otherwise use the last good reading...
+            changedAt[i] = captureTime;
+            outages.add( List.of() );
+            if( watcher == null ) continue;
+            var status = watcher.status( i );
+            if( status.up() != null ) {
+                nowUp[i]     = status.up();
+                changedAt[i] = sinceLastCapture( status.changedAt(), captureTime );
+            }
+            outages.set( i, watcher.drainOutages( i ) );
+        }
+
+        // a switch follows the effective ISP going down, or a more preferred ISP coming back up, so that's our best estimate of when it happened...
+        var switched = (effective != current);
+        var switchTime = captureTime;
+        if( switched ) {
+            if( (current >= 0) && !nowUp[current] )
+                switchTime = changedAt[current];
+            else if( (effective >= 0) && (effective < current) )
+                switchTime = changedAt[effective];
+        }
+
+        // and from the captured info, the statistics; a long gap since our last capture (say, because we weren't running) isn't counted...
         var ipChange = (ipAddress == null) || !ipAddress.equals( ispInfo.ip );
-        var delta = (lastCaptureTime == null) ? Duration.ZERO : Duration.ofMillis( captureTime.toEpochMilli() - lastCaptureTime.toEpochMilli() );
-        if( ispInfo.rank == ISPRank.PRIMARY ) onPrimaryTime = onPrimaryTime.plus( delta );
-        if( ispInfo.rank == ISPRank.SECONDARY ) onSecondaryTime = onSecondaryTime.plus( delta );
-        onPrimaryPct = (onPrimaryTime.toMillis() == 0) ? 100D : 100D * onPrimaryTime.toMillis() / (onPrimaryTime.toMillis() + onSecondaryTime.toMillis() );
-        onSecondaryCount += (toSec ? 1 : 0);
-        if( !primaryNowUp ) downPrimaryTime = downPrimaryTime.plus( delta );
-        if( !secondaryNowUp ) downSecondaryTime = downSecondaryTime.plus( delta );
-        var priWentUp = !primaryUp && primaryNowUp;
-        var priWentDown = primaryUp && !primaryNowUp;
-        primaryUp = primaryNowUp;
-        var secWentUp = !secondaryUp && secondaryNowUp;
-        var secWentDown = secondaryUp && !secondaryNowUp;
-        secondaryUp = secondaryNowUp;
-        lastCaptureTime = captureTime;
-        lastRank = ispInfo.rank;
+        var nowMs = captureTime.toEpochMilli();
+        var delta = (lastCaptureTime == null) ? 0 : nowMs - lastCaptureTime.toEpochMilli();
+        if( (delta < 0) || (delta > MAX_GAP_INTERVALS * interval.toMillis()) ) delta = 0;
+        observedMs.add( nowMs, delta );
+        for( int i = 0; i < n; i++ ) {
+            if( nowUp[i] ) stats[i].upMs.add( nowMs, delta );
+            if( i == effective ) stats[i].onPathMs.add( nowMs, delta );
+        }
+        if( effective == 0 ) onPrimaryMs   += delta;
+        if( effective == 1 ) onSecondaryMs += delta;
+        if( switched && (effective == 1) ) {
+            onSecondaryCount++;
+            lastSecondaryTime = switchTime;
+        }
 
         // and from the statistics, our events...
-        if( toPri       ) sendToPrimaryEvent();
-        if( toSec       ) sendToSecondaryEvent();
-        if( priWentUp   ) sendPrimaryWentUpEvent();
-        if( priWentDown ) sendPrimaryWentDownEvent();
-        if( secWentUp   ) sendSecondaryWentUpEvent();
-        if( secWentDown ) sendSecondaryWentDownEvent();
-        if( ipChange    ) sendIPChangeEvent( ipAddress, ispInfo.ip );
+        if( switched ) {
+            sendSwitchedEvent( current, effective, switchTime );
+            lastSwitchTime = switchTime;
+        }
+        var upOrDown = false;
+        for( int i = 0; i < n; i++ ) {
+            var wentUp   = !stats[i].up && nowUp[i];
+            var wentDown = stats[i].up && !nowUp[i];
+            if( wentUp   ) sendWentUpEvent( i, changedAt[i] );
+            if( wentDown ) sendWentDownEvent( i, changedAt[i] );
+
+            // any outage that ended since the last run, other than the one that just ended, was too short for a run to see...
+            sendBlipEvent( i, wentUp ? allButLast( outages.get( i ) ) : outages.get( i ) );
+            stats[i].up = nowUp[i];
+            upOrDown |= wentUp || wentDown;
+        }
+        if( ipChange ) sendIPChangeEvent( ipAddress, ispInfo.ip );
+
+        current         = effective;
+        lastCaptureTime = captureTime;
+        ipAddress       = ispInfo.ip;
+
+        // if an ISP went up or down, or we switched ISPs, our public IP address may be changing, so don't trust the cached one...
+        if( upOrDown || switched ) resolvers.invalidate();
 
-        ipAddress = ispInfo.ip;
+        // collect any bandwidth measurement that's finished, and start another if it's time...
+        if( bandwidth != null ) checkBandwidth( captureTime );
 
         // send the status message...
         sendStatus();
 
         // send the database update on any change...
-        var dbChange = ipChange || toPri || toSec || priWentUp || priWentDown || secWentDown || secWentUp;
+        var dbChange = ipChange || switched || upOrDown;
         if( dbChange ) sendDbUpdate();
 
         // persist the statistics...
@@ -215,14 +369,22 @@ public class ISP extends AMonitor {
 
         // build our event message...
         Message msg = mailbox.createDirectMessage( "events.post", "event.post", false );
-        msg.putDotted( "tag",                 "ISP_stats"                 );
-        msg.putDotted( "timestamp",           System.currentTimeMillis()  );
-        msg.putDotted( "fields.primaryUp",    primaryUp                   );
-        msg.putDotted( "fields.secondaryUp",  secondaryUp                 );
-        msg.putDotted( "fields.ispRank",      lastRank.toString()         );
-        msg.putDotted( "fields.isp",          isps.get( ipAddress ).name  );
-        msg.putDotted( "fields.publicIP",     ipAddress.toString()        );
-        msg.putDotted( "fields.onPrimaryPct", onPrimaryPct                );
+        msg.putDotted( "tag",                  "ISP_stats"                );
+        msg.putDotted( "timestamp",            System.currentTimeMillis() );
+        msg.putDotted( "fields.primaryUp",     stats[0].up                );
+        msg.putDotted( "fields.secondaryUp",   secondaryUp()              );
+        msg.putDotted( "fields.ispRank",       rankName()                 );
+        msg.putDotted( "fields.isp",           currentName()              );
+        msg.putDotted( "fields.publicIP",      ipAddress.toString()       );
+        msg.putDotted( "fields.onPrimaryPct",  onPrimaryPct()             );
+        msg.putDotted( "fields.ispPreference", current + 1                );
+        var nowMs = lastCaptureTime.toEpochMilli();
+        for( int i = 0; i < providers.size(); i++ ) {
+            var key = providers.get( i ).key();
+            msg.putDotted( "fields." + key + "Up",           stats[i].up                                               );
+            msg.putDotted( "fields." + key + "OnPathPct",    pct( stats[i].onPathMs, RollingTotals.Window.DAY, nowMs ) );
+            msg.putDotted( "fields." + key + "AvailablePct", pct( stats[i].upMs,     RollingTotals.Window.DAY, nowMs ) );
+        }
 
         // send it!
         mailbox.send( msg );
@@ -232,11 +394,30 @@ public class ISP extends AMonitor {
 
     private void sendStatus() {
 
-        // format the last secondary time...
-        String lastSecondaryTimeFormatted = "unknown";
-        if( lastSecondaryTime != null ) {
-            var zs = ZonedDateTime.ofInstant( lastSecondaryTime, ZoneId.of( "America/Denver" ) );
-            lastSecondaryTimeFormatted = localDateTimeFormat.format( zs );
+        // format the last switch times...
+        var lastSwitchTimeFormatted    = (lastSwitchTime    == null) ? "unknown" : format( lastSwitchTime    );
+        var lastSecondaryTimeFormatted = (lastSecondaryTime == null) ? "unknown" : format( lastSecondaryTime );
+
+        // each ISP's state, and its availability and time on path over each of our windows...
+        var nowMs = lastCaptureTime.toEpochMilli();
+        var ispsJSON = new JSONObject();
+        for( int i = 0; i < providers.size(); i++ ) {
+            var available = new JSONObject();
+            var onPath    = new JSONObject();
+            var onPathMs  = new JSONObject();
+            for( RollingTotals.Window window : RollingTotals.Window.values() ) {
+                available.put( window.label, pct( stats[i].upMs,     window, nowMs ) );
+                onPath.put(    window.label, pct( stats[i].onPathMs, window, nowMs ) );
+                onPathMs.put(  window.label, stats[i].onPathMs.total( window, nowMs ) );
+            }
+            var isp = new JSONObject();
+            isp.put( "rank",         i + 1        );
+            isp.put( "up",           stats[i].up  );
+            isp.put( "effective",    i == current );
+            isp.put( "availablePct", available    );
+            isp.put( "onPathPct",    onPath       );
+            isp.put( "onPathMs",     onPathMs     );
+            ispsJSON.put( providers.get( i ).name, isp );
         }
 
         Message msg = mailbox.createPublishMessage( "isp.monitor" );
@@ -245,14 +426,29 @@ public class ISP extends AMonitor {
         msg.putDotted( "monitor.isp.messageIntervalMs", interval.toMillis()                                            );
 
         // fill in our collected data...
-        msg.putDotted( "monitor.isp.publicIP",          ipAddress.toString() + " (" + isps.get( ipAddress ).name + ")" );
-        msg.putDotted( "monitor.isp.primaryUp",         primaryUp                                                      );
-        msg.putDotted( "monitor.isp.secondaryUp",       secondaryUp                                                    );
-        msg.putDotted( "monitor.isp.onPrimaryPct",      onPrimaryPct                                                   );
-        msg.putDotted( "monitor.isp.onSecondaryTimeMs", onSecondaryTime.toMillis()                                     );
+        msg.putDotted( "monitor.isp.publicIP",          ipAddress.toString() + " (" + ispName( ipAddress ) + ")"     );
+        msg.putDotted( "monitor.isp.primaryUp",         stats[0].up                                                    );
+        msg.putDotted( "monitor.isp.secondaryUp",       secondaryUp()                                                  );
+        msg.putDotted( "monitor.isp.onPrimaryPct",      onPrimaryPct()                                                 );
+        msg.putDotted( "monitor.isp.onSecondaryTimeMs", onSecondaryMs                                                  );
         msg.putDotted( "monitor.isp.onSecondaryCount",  onSecondaryCount                                               );
-        msg.putDotted( "monitor.isp.onPrimaryTimeMs",   onPrimaryTime.toMillis()                                       );
+        msg.putDotted( "monitor.isp.onPrimaryTimeMs",   onPrimaryMs                                                    );
         msg.putDotted( "monitor.isp.lastSecondary",     lastSecondaryTimeFormatted                                     );
+        msg.putDotted( "monitor.isp.isp",               currentName()                                                  );
+        msg.putDotted( "monitor.isp.lastSwitch",        lastSwitchTimeFormatted                                        );
+        msg.putDotted( "monitor.isp.isps",              ispsJSON                                                       );
+        msg.putDotted( "monitor.isp.publicIPResolvers", resolvers.toJSON()                                             );
+        if( watcher != null )
+            msg.putDotted( "monitor.isp.paths",         watcher.toJSON()                                               );
+        if( bandwidth != null ) {
+            var bandwidthJSON = new JSONObject();
+            for( BandwidthProbe.Measurement measurement : lastBandwidth.values() ) bandwidthJSON.put( measurement.isp(), measurement.toJSON() );
+            msg.putDotted( "monitor.isp.bandwidth",          bandwidthJSON                                             );
+            msg.putDotted( "monitor.isp.bandwidthUsedToday", bandwidth.usedToday()                                     );
+        }
+        var dish = (starlink == null) ? null : starlink.latest( STARLINK_MAX_AGE );
+        if( dish != null )
+            msg.putDotted( "monitor.isp.starlink",      dish.toJSON()                                                  );
 
         // send it!
         mailbox.send( msg );
@@ -260,203 +456,616 @@ public class ISP extends AMonitor {
     }
 
 
-    private void sendToPrimaryEvent() {
-        var secTime = (lastSecondaryTime == null) ?
-                "an unknown period" :
-                Time.formatDuration( lastCaptureTime.toEpochMilli() - lastSecondaryTime.toEpochMilli() );
-        sendEvent( "ISP.toPrimary", "ISP.toPrimary", "Effective ISP switched to Starlink (primary)",
-                "Switched to Starlink after " + secTime + " on Verizon (secondary).", 9 );
+    /**
+     * Collect the bandwidth measurement that's running, if it's finished, sending its statistics.  Then, if no measurement is running and one is due,
+     * start one on the effective ISP.  Measurements run on their own thread, as they take far longer than a run should.
+     *
+     * @param _captureTime The time of this run's capture.
+     */
+    private void checkBandwidth( final Instant _captureTime ) {
+
+        // if a measurement has finished, collect it...
+        if( (bandwidthRun != null) && bandwidthRun.isDone() ) {
+            try {
+                var outcome = bandwidthRun.get();
+                if( outcome.ok() ) {
+                    lastBandwidth.put( outcome.info().isp(), outcome.info() );
+                    sendBandwidthUpdate( outcome.info() );
+                }
+                else
+                    LOGGER.log( Level.WARNING, "Bandwidth measurement failed: " + outcome.msg(), outcome.cause() );
+            }
+            catch( ExecutionException _e ) {
+                LOGGER.log( Level.WARNING, "Bandwidth measurement failed: " + _e.getCause().getMessage(), _e.getCause() );
+            }
+            catch( InterruptedException _e ) {
+                Thread.currentThread().interrupt();
+            }
+            bandwidthRun = null;
+        }
+
+        // if none is running and one is due, start one on the effective ISP...
+        var now = ZonedDateTime.ofInstant( _captureTime, ZoneId.systemDefault() );
+        if( (bandwidthRun == null) && (current >= 0) && bandwidth.due( now ) ) {
+            var isp = currentName();
+            bandwidthRun = bandwidthThread.submit( () -> bandwidth.measure( isp, now ) );
+        }
     }
 
 
-    private void sendToSecondaryEvent() {
-        var priTime = (lastSecondaryTime == null) ?
-                "an unknown period" :
-                Time.formatDuration( lastCaptureTime.toEpochMilli() - lastSecondaryTime.toEpochMilli() );
-        sendEvent( "ISP.toSecondary", "ISP.toSecondary", "Effective ISP switched to Verizon (secondary)",
-                "Switched to Verizon after about " + priTime + " on Starlink (primary).", 9 );
+    private void sendBandwidthUpdate( final BandwidthProbe.Measurement _measurement ) {
+
+        // build our event message...
+        Message msg = mailbox.createDirectMessage( "events.post", "event.post", false );
+        msg.putDotted( "tag",                "ISP_bandwidth"              );
+        msg.putDotted( "timestamp",          System.currentTimeMillis()   );
+        msg.putDotted( "fields.isp",         _measurement.isp()           );
+        msg.putDotted( "fields.downMbps",    _measurement.downMbps()      );
+        msg.putDotted( "fields.upMbps",      _measurement.upMbps()        );
+        msg.putDotted( "fields.idleRttMs",   _measurement.idleRttMs()     );
+        msg.putDotted( "fields.downBloatMs", _measurement.downBloatMs()   );
+        msg.putDotted( "fields.upBloatMs",   _measurement.upBloatMs()     );
+        msg.putDotted( "fields.bytes",       _measurement.bytes()         );
+
+        // send it!
+        mailbox.send( msg );
+        LOGGER.info( "Sent ISP bandwidth message" );
     }
 
 
-    private void sendPrimaryWentUpEvent() {
-        sendEvent( "ISP.primaryWentUp", "ISP.primaryWentUp", "Starlink (primary ISP) is now up",
-                "Starlink (primary ISP) is now up.", 9 );
+    private void sendSwitchedEvent( final int _from, final int _to, final Instant _at ) {
+        var fromName = (_from < 0) ? "an unknown ISP" : providers.get( _from ).name;
+        var toName   = (_to   < 0) ? "an unknown ISP" : providers.get( _to   ).name;
+        var fromTime = (lastSwitchTime == null) ?
+                "an unknown period" :
+                Time.formatDuration( Math.max( 0, _at.toEpochMilli() - lastSwitchTime.toEpochMilli() ) );
+        sendEvent( "ISP.switched", "ISP.switched", "Effective ISP switched to " + toName,
+                "Switched to " + toName + " at " + format( _at ) + " after " + fromTime + " on " + fromName + ".", 9 );
+
+        // for anything still listening for the original primary/secondary events, send those too...
+        if( (_to >= 0) && (_to < ROLES.length) ) {
+            var role = ROLES[_to];
+            var tag  = (_to == 0) ? "ISP.toPrimary" : "ISP.toSecondary";
+            sendEvent( tag, tag, "Effective ISP switched to " + toName + " (" + role + ")",
+                    "Switched to " + toName + " after " + fromTime + " on " + fromName + ".", 9 );
+        }
     }
 
 
-    private void sendPrimaryWentDownEvent() {
-        sendEvent( "ISP.primaryWentDown", "ISP.primaryWentDown", "Starlink (primary ISP) is now down",
-                "Starlink (primary ISP) is now down.", 9 );
+    private void sendWentUpEvent( final int _isp, final Instant _at ) {
+        var name = providers.get( _isp ).name;
+        sendEvent( "ISP.wentUp", "ISP.wentUp", name + " is now up",
+                name + " is now up, as of " + format( _at ) + ".", 9 );
+
+        // for anything still listening for the original primary/secondary events, send those too...
+        if( _isp < ROLES.length ) {
+            var tag = "ISP." + ROLES[_isp] + "WentUp";
+            sendEvent( tag, tag, name + " (" + ROLES[_isp] + " ISP) is now up", name + " (" + ROLES[_isp] + " ISP) is now up.", 9 );
+        }
     }
 
 
-    private void sendSecondaryWentUpEvent() {
-        sendEvent( "ISP.secondaryWentUp", "ISP.secondaryWentUp", "Verizon (secondary ISP) is now up",
-                "Verizon (secondary ISP) is now up.", 9 );
+    private void sendWentDownEvent( final int _isp, final Instant _at ) {
+        var name = providers.get( _isp ).name;
+        sendEvent( "ISP.wentDown", "ISP.wentDown", name + " is now down",
+                name + " is now down, as of " + format( _at ) + ".", 9 );
+
+        // for anything still listening for the original primary/secondary events, send those too...
+        if( _isp < ROLES.length ) {
+            var tag = "ISP." + ROLES[_isp] + "WentDown";
+            sendEvent( tag, tag, name + " (" + ROLES[_isp] + " ISP) is now down", name + " (" + ROLES[_isp] + " ISP) is now down.", 9 );
+        }
     }
 
 
-    private void sendSecondaryWentDownEvent() {
-        sendEvent( "ISP.secondaryWentDown", "ISP.secondaryWentDown", "Verizon (secondary ISP) is now down",
-                "Verizon (secondary ISP) is now down.", 9 );
+    private void sendBlipEvent( final int _isp, final List<PathWatcher.Outage> _outages ) {
+        if( _outages.isEmpty() ) return;
+        var name = providers.get( _isp ).name;
+        var total = Duration.ZERO;
+        for( PathWatcher.Outage outage : _outages ) total = total.plus( outage.duration() );
+        var first = _outages.get( 0 );
+        var msg = (_outages.size() == 1) ?
+                name + " was down briefly: for " + Time.formatDuration( total.toMillis() ) + " starting at " + format( first.start() ) + "." :
+                name + " was down briefly " + _outages.size() + " times, for " + Time.formatDuration( total.toMillis() ) + " in all, starting at " +
+                        format( first.start() ) + ".";
+        sendEvent( "ISP.blip", "ISP.blip", name + " was down briefly", msg, 7 );
     }
 
 
     private void sendIPChangeEvent( final IPAddress _from, final IPAddress _to ) {
         String msg;
         if( _from == null )
-            msg = "Public IP address was unknown, is now " + _to.toString() + " (" + isps.get( _to ).name + ")";
+            msg = "Public IP address was unknown, is now " + _to.toString() + " (" + ispName( _to ) + ")";
         else
-            msg = "Public IP address was " + _from + " (" + isps.get( _from ).name + "), is now " +
-                    _to.toString() + " (" + isps.get( _to ).name + ")";
+            msg = "Public IP address was " + _from + " (" + ispName( _from ) + "), is now " +
+                    _to.toString() + " (" + ispName( _to ) + ")";
         sendEvent( "ISP.publicIPChange", "ISP.publicIPChange", "Public IP address changed to: " + _to,
                 msg, 6 );
     }
 
 
     /**
-     * Attempts to establish a TCP connection to the edge router's management website.
+     * Turn the result of one of our TCP probes into an outcome, logging it.
      *
-     * @return The outcome of the attempt.  If ok, returns {@code true} for a successful attempt and {@code false} if the attempt timed out an all three attempts.
-     * If not ok, then there is an explanatory message and possibly the exception that caused the problem.
+     * @param _what What was probed, for the log.
+     * @param _result The result of the probe.
+     * @return The outcome of the probe.  If ok, returns {@code true} for a successful connection and {@code false} if the connection was refused or every
+     * try timed out.  If not ok, then there is an explanatory message.
      */
-    private Outcome<Boolean> isEdgeRouterUp() {
-        var outcome = isConnectable( EDGE_ROUTER_IP, ROUTER_PORT );
-        if( outcome.ok() )
-            LOGGER.finest( outcome.info() ? "Connected to edge router" : "Timed out when attempting to connect to edge router" );
-        else
-            LOGGER.info( "Problem connecting to edge router: " + outcome.msg() );
-        return outcome;
+    private Outcome<Boolean> probeOutcome( final String _what, final TCPProber.Result _result ) {
+        if( _result.ok() ) {
+            LOGGER.finest( _result.connected() ? "Connected to " + _what
+                    : (_result.refused() ? "Connection refused by " : "Timed out when attempting to connect to ") + _what );
+            return FORGE_BOOLEAN.ok( _result.connected() );
+        }
+        LOGGER.info( "Problem connecting to " + _what + ": " + _result.error() );
+        return FORGE_BOOLEAN.notOk( _result.error() );
     }
 
 
     /**
-     * Attempts to establish a TCP connection to a DNS server that is accessible only through Starlink.
+     * Returns true if any ISP's path has gone up or down since our last run, according to the path watcher (once it knows anything) or else to the given
+     * probe results.  If so, the active path may have switched ISPs.
      *
-     * @return The outcome of the attempt.  If ok, returns {@code true} for a successful attempt and {@code false} if the attempt timed out an all three attempts.
-     * If not ok, then there is an explanatory message and possibly the exception that caused the problem.
+     * @param _probeResults The results of this run's probes: the edge router's, then each ISP's.
+     * @return True if any ISP's path has gone up or down.
      */
-    private Outcome<Boolean> isPrimaryUp() {
-        var outcome = isConnectable( STARLINK_ONLY_IP, DNS_PORT );
-        if( outcome.ok() )
-            LOGGER.finest( outcome.info() ? "Connected through Starlink" : "Timed out when attempting to connect through Starlink" );
-        else
-            LOGGER.info( "Problem connecting through Starlink: " + outcome.msg() );
-        return outcome;
+    private boolean pathsChanged( final TCPProber.Result[] _probeResults ) {
+        for( int i = 0; i < providers.size(); i++ ) {
+            var up = (watcher == null) ? null : watcher.status( i ).up();
+            if( (up == null) && (_probeResults[i + 1] != null) && _probeResults[i + 1].ok() ) up = _probeResults[i + 1].connected();
+            if( (up != null) && (up != stats[i].up) ) return true;
+        }
+        return false;
     }
 
 
     /**
-     * Attempts to establish a TCP connection to a DNS server that is accessible only through Verizon.
+     * Wait (until the given deadline at most) for the public IP query to complete.
      *
-     * @return The outcome of the attempt.  If ok, returns {@code true} for a successful attempt and {@code false} if the attempt timed out an all three attempts.
-     * If not ok, then there is an explanatory message and possibly the exception that caused the problem.
+     * @param _future The future for the public IP query.
+     * @param _deadlineAt The System.nanoTime() when the run's deadline expires.
+     * @return The outcome of the public IP query.
      */
-    private Outcome<Boolean> isSecondaryUp() {
-        var outcome = isConnectable( VERIZON_ONLY_IP, DNS_PORT );
-        if( outcome.ok() )
-            LOGGER.finest( outcome.info() ? "Connected through Verizon" : "Timed out when attempting to connect through Verizon" );
-        else
-            LOGGER.info( "Problem connecting through Verizon: " + outcome.msg() );
-        return outcome;
+    private Outcome<IPAddress> awaitPublicIP( final Future<Outcome<IPAddress>> _future, final long _deadlineAt ) {
+        try {
+            return _future.get( Math.max( 0, _deadlineAt - System.nanoTime() ), TimeUnit.NANOSECONDS );
+        }
+        catch( TimeoutException _e ) {
+            _future.cancel( true );
+            return FORGE_IP.notOk( "Run deadline expired before public IP query completed" );
+        }
+        catch( ExecutionException _e ) {
+            return FORGE_IP.notOk( "Public IP query failed: " + _e.getCause().getMessage(), _e.getCause() );
+        }
+        catch( InterruptedException _e ) {
+            Thread.currentThread().interrupt();
+            _future.cancel( true );
+            return FORGE_IP.notOk( "Interrupted while waiting for public IP query" );
+        }
     }
 
 
     /**
-     * Attempts to establish a TCP connection to the given IP address and port.  This method will try up to three times to make the connection, then give up.
+     * Queries ISP information for the given public IP address.  Note that this is very limited checker - it merely checks the registry's record for any of
+     * the strings configured for each ISP, in order of preference; if none appear then it returns unknown.  Answers come from our cache when it has an
+     * unexpired entry for the address block the IP address is in; otherwise the registry is queried (with no lock held), and the answer cached for the whole
+     * block the registry reports.  If the registry can't be reached, an expired cache entry is used if there is one.
      *
-     * @param _ip The IP address for the connection attempt.
-     * @param _port The TCP port for the connection attempt.
-     * @return The outcome of the attempt.  If ok, returns {@code true} for a successful attempt and {@code false} if the attempt timed out an all three attempts.
-     * If not ok, then there is an explanatory message and possibly the exception that caused the problem.
+     * @param _ip The IP address to get information for.
+     * @return The outcome of the query.  If ok, contains the ISP information.  If not ok, contains an explanatory message and possibly the exception that
+     * caused the problem.
      */
-    private Outcome<Boolean> isConnectable( final IPAddress _ip, final int _port ) {
+    private Outcome<ISPInfo> getISPInfo( final IPAddress _ip ) {
+
+        // have we seen this IP (or another in its block) recently?
+        var cached = isps.lookup( _ip, false );
+        if( cached != null ) return FORGE_ISP_INFO.ok( cached );
+
+        // no, so query for it in ARIN's registry...
+        @SuppressWarnings( "HttpUrlsUsage" ) var reqOutcome = requestJSONText( "http://rdap.arin.net/registry/ip/" + _ip.toString() );
+        if( reqOutcome.notOk() ) {
+            var stale = isps.lookup( _ip, true );
+            if( stale == null ) return FORGE_ISP_INFO.notOk( reqOutcome );
+            LOGGER.info( "Using expired ISP classification for " + _ip + ": " + reqOutcome.msg() );
+            return FORGE_ISP_INFO.ok( stale );
+        }
+        var response = reqOutcome.info().toLowerCase();
+
+        // make our ISP record...
+        var isp = new ISPInfo( _ip, UNKNOWN );
+        for( Provider provider : providers ) {
+            if( provider.matches( response ) ) {
+                isp = new ISPInfo( _ip, provider.name );
+                break;
+            }
+        }
+
+        // update our cache with the network block the registry told us about...
+        String start = null;
+        String end   = null;
+        try {
+            var network = new JSONObject( reqOutcome.info() );
+            start = network.optString( "startAddress", null );
+            end   = network.optString( "endAddress",   null );
+        }
+        catch( JSONException _e ) {
+            LOGGER.info( "Could not read network block from registry response for " + _ip + ": " + _e.getMessage() );
+        }
+        isps.put( _ip, start, end, isp );
 
-        var tcp = new TCPConnectionTest( Monitor.getNetworkingEngine() );
-        return tcp.isConnectable( CONNECT_TIMEOUT_MS, (ms) -> ms + CONNECT_TIMEOUT_MS, 3, _ip, _port );
+        // return the answer...
+        return FORGE_ISP_INFO.ok( isp );
     }
 
 
     /**
-     * Return the public IP address for requests made from this machine.  This is the IP address provided by the ISP.  It may change from time to time, and it
-     * <i>will</i> change if the ISP changes.
+     * Return the name of the ISP for the given public IP address, as best we know it.
      *
-     * @return The outcome of this operation.  If successful, the outcome will be ok, and will contain the public IP address.  If unsuccessful, the outcome will
-     * contain an explanatory message and possible the exception that caused the problem.
+     * @param _ip The IP address.
+     * @return The name of the ISP.
      */
-    private Outcome<IPAddress> getPublicIP() {
+    private String ispName( final IPAddress _ip ) {
+        var info = isps.lookup( _ip, true );
+        return (info == null) ? UNKNOWN : info.name;
+    }
 
-        @SuppressWarnings( "HttpUrlsUsage" ) var reqOutcome = requestText( "http://checkip.amazonaws.com" );
-        if( reqOutcome.notOk() ) return FORGE_IP.notOk( reqOutcome );
-        return IPAddress.fromString( Strings.stripTrailingNewlines( reqOutcome.info() ) );
+
+    /**
+     * Return the index of the ISP with the given name, or -1 if it isn't one of ours.
+     *
+     * @param _name The name of the ISP.
+     * @return The index of the ISP, or -1.
+     */
+    private int indexOf( final String _name ) {
+        for( int i = 0; i < providers.size(); i++ ) if( providers.get( i ).name.equals( _name ) ) return i;
+        return -1;
+    }
+
+
+    private String currentName() {
+        return (current < 0) ? UNKNOWN : providers.get( current ).name;
     }
 
 
     /**
-     * Queries ISP information for the given public IP address.  Note that this is very limited checker - it merely checks for the presence of words like
-     * "SpaceX" or "Verizon"; if none appear then it returns unknown.
+     * Return the effective ISP's rank as we've always reported it: "PRIMARY" for our first ISP, "SECONDARY" for our second, and "UNKNOWN" otherwise.
      *
-     * @param _ip The IP address to get information for.
-     * @return The outcome of the query.  If ok, contains the ISP information.  If not ok, contains an explanatory message and possibly the exception that
-     * caused the problem.
+     * @return The effective ISP's rank.
      */
-    private Outcome<ISPInfo> getISPInfo( final IPAddress _ip ) {
+    private String rankName() {
+        return (current == 0) ? "PRIMARY" : (current == 1) ? "SECONDARY" : "UNKNOWN";
+    }
+
+
+    private boolean secondaryUp() {
+        return (stats.length > 1) && stats[1].up;
+    }
+
+
+    /**
+     * Return the percentage of the time on the primary or secondary ISP that was on the primary, over our lifetime; 100 if we've not been on either.
+     *
+     * @return The percentage of time on the primary ISP.
+     */
+    private double onPrimaryPct() {
+        return (onPrimaryMs == 0) ? 100D : 100D * onPrimaryMs / (onPrimaryMs + onSecondaryMs);
+    }
+
+
+    /**
+     * Return the given total as a percentage of the time we've been capturing ISP data over the given window.
+     *
+     * @param _totals The totals to get the percentage for.
+     * @param _window The window to get the percentage over.
+     * @param _nowMs The time the window ends, in milliseconds since the epoch.
+     * @return The percentage, or zero if we haven't been capturing over the window.
+     */
+    private double pct( final RollingTotals _totals, final RollingTotals.Window _window, final long _nowMs ) {
+        var observed = observedMs.total( _window, _nowMs );
+        return (observed == 0) ? 0 : 100D * _totals.total( _window, _nowMs ) / observed;
+    }
+
+
+    /**
+     * Return the given time if it's since our last capture (and no later than the given capture time); otherwise return the capture time.  This is how we
+     * decide whether the path watcher's record of when a path changed applies to what we see in this run.
+     *
+     * @param _changedAt When the path watcher saw the change.
+     * @param _captureTime The time of this run's capture.
+     * @return The best estimate of when a change seen in this run happened.
+     */
+    private Instant sinceLastCapture( final Instant _changedAt, final Instant _captureTime ) {
+        if( (_changedAt == null) || _changedAt.isAfter( _captureTime ) ) return _captureTime;
+        if( (lastCaptureTime != null) && !_changedAt.isAfter( lastCaptureTime ) ) return _captureTime;
+        return _changedAt;
+    }
+
+
+    private static List<PathWatcher.Outage> allButLast( final List<PathWatcher.Outage> _outages ) {
+        return _outages.subList( 0, Math.max( 0, _outages.size() - 1 ) );
+    }
+
+
+    private static String format( final Instant _instant ) {
+        return localDateTimeFormat.format( ZonedDateTime.ofInstant( _instant, ZoneId.of( "America/Denver" ) ) );
+    }
+
+
+    /**
+     * Set our statistics to their initial state: nothing observed, and no ISP known to be up.
+     */
+    private void initStatistics() {
+        observedMs = new RollingTotals();
+        stats = new ProviderStats[providers.size()];
+        for( int i = 0; i < stats.length; i++ ) stats[i] = new ProviderStats();
+        current         = -1;
+        lastSwitchTime  = null;
+        lastCaptureTime = null;
+        ipAddress       = null;
+        onPrimaryMs       = 0;
+        onSecondaryMs     = 0;
+        onSecondaryCount  = 0;
+        lastSecondaryTime = null;
+    }
+
+
+    /**
+     * Return the largest our persisted statistics can be, in bytes.
+     *
+     * @return The largest our persisted statistics can be.
+     */
+    private int statsCapacity() {
+        var string = 2 + MAX_STRING_BYTES;
+        return 4 + 8 + 8 + string + string + 4 * 8 + 3 * 8 + RollingTotals.bytes() + 4 + providers.size() * (string + 1 + 2 * RollingTotals.bytes());
+    }
+
+
+    /**
+     * Save statistics to our statistics file.  Each ISP's statistics are saved with its name, so that they're recovered correctly even if the configured
+     * ISPs change.  This is just a few stores into mapped memory; the file is forced to disk no more often than the configured sync interval.
+     */
+    private void saveStatistics() {
 
-        synchronized( isps ) {
+        if( statsFile == null ) return;
+
+        var buffer = ByteBuffer.allocate( statsCapacity() );
+        buffer.putInt( STATS_VERSION );
+        buffer.putLong( (lastCaptureTime == null) ? Long.MIN_VALUE : lastCaptureTime.toEpochMilli() );
+        buffer.putLong( (lastSwitchTime  == null) ? Long.MIN_VALUE : lastSwitchTime.toEpochMilli()  );
+        putString( buffer, (current < 0) ? "" : providers.get( current ).name );
+        putString( buffer, (ipAddress == null) ? "" : ipAddress.toString() );
+        buffer.putLong( onPrimaryMs );
+        buffer.putLong( onSecondaryMs );
+        buffer.putLong( onSecondaryCount );
+        buffer.putLong( (lastSecondaryTime == null) ? Long.MIN_VALUE : lastSecondaryTime.toEpochMilli() );
+        var budget = (bandwidth == null) ? new BandwidthProbe.Budget( null, 0, null ) : bandwidth.budget();
+        buffer.putLong( (budget.date()    == null) ? Long.MIN_VALUE : budget.date().toEpochDay()     );
+        buffer.putLong( budget.usedBytes() );
+        buffer.putLong( (budget.lastRun() == null) ? Long.MIN_VALUE : budget.lastRun().toEpochMilli() );
+        observedMs.write( buffer );
+        buffer.putInt( providers.size() );
+        for( int i = 0; i < providers.size(); i++ ) {
+            putString( buffer, providers.get( i ).name );
+            buffer.put( (byte) (stats[i].up ? 1 : 0) );
+            stats[i].upMs.write( buffer );
+            stats[i].onPathMs.write( buffer );
+        }
+        statsFile.write( buffer.flip() );
+    }
 
-            // have we ever seen this IP before?
-            if( isps.containsKey( _ip ) ) {
 
-                // yes, so return the ISP info we already figured out...
-                return FORGE_ISP_INFO.ok( isps.get( _ip ) );
+    /**
+     * Restore our statistics from what {@link #saveStatistics()} saved.  Statistics for ISPs that are no longer configured are dropped, and ISPs that are
+     * newly configured start fresh.  If there's any problem, all our statistics start fresh.
+     *
+     * @param _saved The saved statistics.
+     */
+    private void restoreStatistics( final ByteBuffer _saved ) {
+
+        try {
+            var version = _saved.getInt();
+            if( (version < 1) || (version > STATS_VERSION) ) {
+                LOGGER.warning( "ISP statistics are version " + version + ", not " + STATS_VERSION + "; starting fresh" );
+                return;
+            }
+            var captured = _saved.getLong();
+            var switched = _saved.getLong();
+            lastCaptureTime  = (captured == Long.MIN_VALUE) ? null : Instant.ofEpochMilli( captured );
+            lastSwitchTime   = (switched == Long.MIN_VALUE) ? null : Instant.ofEpochMilli( switched );
+            current          = indexOf( getString( _saved ) );
+            var ip = getString( _saved );
+            ipAddress        = ip.isEmpty() ? null : IPAddress.fromString( ip ).info();
+            if( version >= 2 ) {
+                onPrimaryMs      = _saved.getLong();
+                onSecondaryMs    = _saved.getLong();
+                onSecondaryCount = _saved.getLong();
+                var secondary    = _saved.getLong();
+                lastSecondaryTime = (secondary == Long.MIN_VALUE) ? null : Instant.ofEpochMilli( secondary );
+            }
+            if( version >= 3 ) {
+                var day     = _saved.getLong();
+                var used    = _saved.getLong();
+                var lastRun = _saved.getLong();
+                if( bandwidth != null )
+                    bandwidth.restore( new BandwidthProbe.Budget( (day == Long.MIN_VALUE) ? null : LocalDate.ofEpochDay( day ), used,
+                            (lastRun == Long.MIN_VALUE) ? null : Instant.ofEpochMilli( lastRun ) ) );
+            }
+            observedMs.read( _saved );
+            var count = _saved.getInt();
+            var discard = new RollingTotals();
+            for( int i = 0; i < count; i++ ) {
+                var index = indexOf( getString( _saved ) );
+                var up = _saved.get() != 0;
+                if( index < 0 ) {
+                    discard.read( _saved );
+                    discard.read( _saved );
+                    continue;
+                }
+                stats[index].up = up;
+                stats[index].upMs.read( _saved );
+                stats[index].onPathMs.read( _saved );
             }
+            LOGGER.info( "Recovered ISP statistics as of " + lastCaptureTime );
+        }
+        catch( RuntimeException _e ) {
+            LOGGER.log( Level.WARNING, "Problem reading ISP statistics; starting fresh: " + _e.getMessage(), _e );
+            initStatistics();
+        }
+    }
+
+
+    /**
+     * Recover our statistics from an older format: a version 1 statistics file, or failing that, the CSV persistence file that came before it.  The
+     * migrated statistics are written to our statistics file, and forced to disk, before the CSV file is renamed (so that it's never read again); if
+     * anything goes wrong before then, the CSV file is still there to migrate from on the next start.
+     */
+    private void migrateStatistics() {
+
+        var legacy = (statsFile == null) ? null : statsFile.version1();
+        var fromCSV = false;
+        if( (legacy == null) && LEGACY_PERSISTENCE_FILE.exists() ) {
+            legacy  = readLegacyStatistics();
+            fromCSV = true;
+        }
+        if( legacy == null ) {
+            LOGGER.info( "No ISP statistics recovered; starting fresh" );
+            return;
+        }
 
-            // no, so query for it in ARIN's registry...
-            @SuppressWarnings( "HttpUrlsUsage" ) var reqOutcome = requestJSONText( "http://rdap.arin.net/registry/ip/" + _ip.toString() );
-            if( reqOutcome.notOk() ) return FORGE_ISP_INFO.notOk( reqOutcome );
-            var response = reqOutcome.info().toLowerCase();
+        // the primary ISP is our first, and the secondary our second...
+        lastCaptureTime = legacy.lastCaptureTime();
+        ipAddress       = (legacy.ipAddress() == null) ? null : IPAddress.fromString( legacy.ipAddress() ).info();
+        current         = "PRIMARY".equals( legacy.lastRank() ) ? 0 : ("SECONDARY".equals( legacy.lastRank() ) && (providers.size() > 1)) ? 1 : -1;
+        lastSwitchTime  = (current == 1) ? legacy.lastSecondaryTime() : null;
+        stats[0].up = legacy.primaryUp();
+        if( providers.size() > 1 ) stats[1].up = legacy.secondaryUp();
+        onPrimaryMs       = legacy.onPrimaryTime().toMillis();
+        onSecondaryMs     = legacy.onSecondaryTime().toMillis();
+        onSecondaryCount  = legacy.onSecondaryCount();
+        lastSecondaryTime = legacy.lastSecondaryTime();
+        LOGGER.info( "Migrated ISP statistics as of " + lastCaptureTime );
+
+        // persist them before we let go of the legacy file...
+        if( statsFile == null ) return;
+        saveStatistics();
+        statsFile.sync();
+        if( fromCSV && !LEGACY_PERSISTENCE_FILE.renameTo( new File( LEGACY_PERSISTENCE_FILE.getPath() + ".old" ) ) )
+            LOGGER.warning( "Could not rename legacy persistence file: " + LEGACY_PERSISTENCE_FILE );
+    }
 
-            // make our ISP record...
-            var isp = (response.contains( "starlink" ) || response.contains( "spacex" )) ?
-                new ISPInfo( _ip, ISPRank.PRIMARY, "Starlink" ) :
-                (response.contains( "verizon" ) ?
-                        new ISPInfo( _ip, ISPRank.SECONDARY, "Verizon" ) :
-                        new ISPInfo( _ip, ISPRank.UNKNOWN, "Unknown" ) );
 
-            // update our cache...
-            isps.put( _ip, isp );
+    /**
+     * Read statistics from the legacy CSV persistence file.
+     *
+     * @return The statistics read, or null if the file couldn't be read.
+     */
+    private ISPStatsFile.Version1.Stats readLegacyStatistics() {
 
-            // return the answer...
-            return FORGE_ISP_INFO.ok( isp );
+        var persistenceFile = Files.readToString( LEGACY_PERSISTENCE_FILE );
+        if( persistenceFile == null ) {
+            LOGGER.warning( "Could not read legacy persistence file: " + LEGACY_PERSISTENCE_FILE );
+            return null;
+        }
+        try {
+            var values = persistenceFile.trim().split( "," );
+            return new ISPStatsFile.Version1.Stats(
+                    Duration.ofMillis( Long.parseLong( values[0] ) ),
+                    Duration.ofMillis( Long.parseLong( values[1] ) ),
+                    Double.parseDouble( values[2] ),
+                    Long.parseLong( values[3] ),
+                    Duration.ofMillis( Long.parseLong( values[4] ) ),
+                    Duration.ofMillis( Long.parseLong( values[5] ) ),
+                    "null".equals( values[6] ) ? null : Instant.ofEpochMilli( Long.parseLong( values[6] ) ),
+                    "null".equals( values[7] ) ? null : Instant.ofEpochMilli( Long.parseLong( values[7] ) ),
+                    values[8],
+                    Boolean.parseBoolean( values[9] ),
+                    Boolean.parseBoolean( values[10] ),
+                    "null".equals( values[11] ) ? null : values[11] );
+        }
+        catch( RuntimeException _e ) {
+            LOGGER.log( Level.WARNING, "Problem reading legacy persistence file: " + _e.getMessage(), _e );
+            return null;
         }
     }
 
 
+    private static void putString( final ByteBuffer _buffer, final String _string ) {
+        var bytes = _string.getBytes( StandardCharsets.UTF_8 );
+        var length = Math.min( bytes.length, MAX_STRING_BYTES );
+        _buffer.putShort( (short) length );
+        _buffer.put( bytes, 0, length );
+    }
+
+
+    private static String getString( final ByteBuffer _buffer ) {
+        var bytes = new byte[_buffer.getShort()];
+        _buffer.get( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+
     /**
-     * Save statistics to a persistent file.
+     * Open our statistics file, returning null (after logging) if it can't be opened.  In that case the monitor still runs, but its statistics won't
+     * survive a restart.
+     *
+     * @param _syncInterval The minimum interval between forcing the statistics file to disk.
+     * @return The statistics file, or null if it couldn't be opened.
      */
-    private void saveStatistics() {
-        var stats = new ArrayList<String>();
-        stats.add( Long.toString( onPrimaryTime.toMillis() ) );
-        stats.add( Long.toString( onSecondaryTime.toMillis() ) );
-        stats.add( Double.toString( onPrimaryPct ) );
-        stats.add( Long.toString( onSecondaryCount ) );
-        stats.add( Long.toString( downPrimaryTime.toMillis() ) );
-        stats.add( Long.toString( downSecondaryTime.toMillis() ) );
-        stats.add( (lastSecondaryTime == null) ? "null" : Long.toString( lastSecondaryTime.toEpochMilli() ) );
-        stats.add( (lastCaptureTime == null) ? "null" : Long.toString( lastCaptureTime.toEpochMilli() ) );
-        stats.add( lastRank.name() );
-        stats.add( Boolean.toString( primaryUp ) );
-        stats.add( Boolean.toString( secondaryUp ) );
-        stats.add( (ipAddress == null) ? "null" : ipAddress.toString() );
-        var statsStr = String.join( ",", stats );
-        if( !Files.writeToFile( PERSISTENCE_FILE, statsStr ) ) {
-            LOGGER.severe( "Failed to write ISP statistics persistence file: " + PERSISTENCE_FILE );
+    private ISPStatsFile openStatsFile( final Duration _syncInterval ) {
+        try {
+            return new ISPStatsFile( STATS_FILE, statsCapacity(), _syncInterval );
+        }
+        catch( IOException _e ) {
+            LOGGER.log( Level.SEVERE, "Could not open ISP statistics file " + STATS_FILE + "; statistics will not persist: " + _e.getMessage(), _e );
+            return null;
         }
     }
 
 
-    public record ISPInfo( IPAddress ip, ISPRank rank, String name ){}
+    /**
+     * An ISP to monitor.
+     *
+     * @param name The name of the ISP, for events, status, and statistics.
+     * @param probeIP An IP address that is only reachable through this ISP (the edge router routes it that way), probed to tell whether the ISP is up.
+     * @param probePort The TCP port to probe at the probe IP address.
+     * @param rdapMatches Strings that, if any of them appears (ignoring case) in the registry's record for our public IP address, mean that this is our
+     *                    effective ISP.
+     */
+    public record Provider( String name, IPAddress probeIP, int probePort, List<String> rdapMatches ) {
+
+        /**
+         * Return true if any of this ISP's match strings appears in the given (lower case) registry record.
+         *
+         * @param _record The registry record, in lower case.
+         * @return True if this ISP matches the record.
+         */
+        private boolean matches( final String _record ) {
+            for( String match : rdapMatches ) if( _record.contains( match.toLowerCase() ) ) return true;
+            return false;
+        }
+
+
+        /**
+         * Return this ISP's name with anything but letters and digits removed, for use in statistics field names.
+         *
+         * @return The key for this ISP.
+         */
+        private String key() {
+            return name.replaceAll( "[^A-Za-z0-9]", "" );
+        }
+    }
+
+
+    /**
+     * The statistics kept for each ISP.
+     */
+    private static class ProviderStats {
+        private final RollingTotals upMs     = new RollingTotals();  // time the ISP was up...
+        private final RollingTotals onPathMs = new RollingTotals();  // time the ISP was our effective ISP...
+        private boolean             up;                              // true if the ISP is up...
+    }
+
 
-    public enum ISPRank { PRIMARY, SECONDARY, UNKNOWN }
+    public record ISPInfo( IPAddress ip, String name ){}
 }
@@ -0,0 +1,233 @@
+package com.dilatush.monitor.monitors;
+
+import com.dilatush.util.ip.IPAddress;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.dilatush.util.General.getLogger;
+
+/**
+ * A cache of ISP classifications by IPv4 address block, persisted to disk so that it survives restarts.  Each entry covers the whole network block that the
+ * registry (RDAP) reported for an address, so a new address in a block we've already seen is classified without asking the registry again.  Entries
+ * expire after a configurable time, but an expired entry can still be used if the registry can't be reached.  The number of entries is bounded; when it's
+ * full, the entries fetched longest ago are evicted first.
+ * <p>Lookups are lock-free: the entries are kept in an immutable array sorted by the start of their block, which is replaced (under a lock) whenever an
+ * entry is added.  Lookups are a binary search of whatever array is current.  The file is a compact binary format, written to a temporary file and then
+ * moved into place, so a crash while writing never leaves a corrupt cache behind.</p>
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class ISPCache {
+
+    private static final Logger LOGGER = getLogger();
+
+    private static final int MAGIC   = 0x49535043;  // "ISPC"...
+    private static final int VERSION = 2;
+
+    private final File     file;
+    private final Duration ttl;
+    private final int      maxEntries;
+
+    private volatile Entry[] entries;  // sorted by start address; never modified once published...
+
+
+    /**
+     * Creates a new instance of this class, reading the given file if it exists.  If the file can't be read, the cache starts out empty.
+     *
+     * @param _file The file the cache is persisted in.
+     * @param _ttl How long an entry is good for.
+     * @param _maxEntries The maximum number of entries to keep.
+     */
+    public ISPCache( final File _file, final Duration _ttl, final int _maxEntries ) {
+        file       = _file;
+        ttl        = _ttl;
+        maxEntries = Math.max( 1, _maxEntries );
+        entries    = read();
+    }
+
+
+    /**
+     * Return the cached ISP information for the given IP address, if we have an entry whose block contains it.
+     *
+     * @param _ip The IP address to look up.
+     * @param _allowExpired True if an expired entry is acceptable (for instance, when the registry can't be reached).
+     * @return The ISP information, or null if there is none.
+     */
+    public ISP.ISPInfo lookup( final IPAddress _ip, final boolean _allowExpired ) {
+
+        var address = toLong( _ip.toString() );
+        if( address < 0 ) return null;
+
+        // find the last entry starting at or before our address...
+        var current = entries;
+        int low = 0;
+        int high = current.length - 1;
+        int found = -1;
+        while( low <= high ) {
+            var mid = (low + high) >>> 1;
+            if( current[mid].start <= address ) {
+                found = mid;
+                low = mid + 1;
+            }
+            else
+                high = mid - 1;
+        }
+
+        // blocks may nest, so look back for the smallest one that contains our address (the cache is small, so this is cheap)...
+        Entry best = null;
+        for( int i = found; i >= 0; i-- ) {
+            var entry = current[i];
+            if( (entry.end >= address) && ((best == null) || (entry.end - entry.start < best.end - best.start)) ) best = entry;
+        }
+        if( best == null ) return null;
+        if( !_allowExpired && (best.fetchedAt + ttl.toMillis() < System.currentTimeMillis()) ) return null;
+        return new ISP.ISPInfo( _ip, best.name );
+    }
+
+
+    /**
+     * Add an entry for the given address block, replacing any entry for exactly the same block, then save the cache.  If the block isn't valid, only the
+     * given address is cached.
+     *
+     * @param _ip The IP address that was looked up.
+     * @param _startAddress The first address of the block the registry reported, or null if it didn't report one.
+     * @param _endAddress The last address of the block the registry reported, or null if it didn't report one.
+     * @param _info The ISP information for the block.
+     */
+    public void put( final IPAddress _ip, final String _startAddress, final String _endAddress, final ISP.ISPInfo _info ) {
+
+        var address = toLong( _ip.toString() );
+        if( address < 0 ) return;
+        var start = (_startAddress == null) ? -1 : toLong( _startAddress );
+        var end   = (_endAddress   == null) ? -1 : toLong( _endAddress   );
+        if( (start < 0) || (end < start) || (address < start) || (address > end) ) {
+            start = address;
+            end   = address;
+        }
+        var entry = new Entry( start, end, _info.name(), System.currentTimeMillis() );
+
+        synchronized( this ) {
+
+            // make our new list of entries, without any for the same block...
+            var list = new ArrayList<Entry>( entries.length + 1 );
+            for( Entry e : entries ) if( (e.start != start) || (e.end != end) ) list.add( e );
+            list.add( entry );
+
+            // if we have too many, evict the ones fetched longest ago...
+            if( list.size() > maxEntries ) {
+                list.sort( Comparator.comparingLong( Entry::fetchedAt ) );
+                list.subList( 0, list.size() - maxEntries ).clear();
+            }
+
+            // publish it...
+            var updated = list.toArray( new Entry[0] );
+            Arrays.sort( updated, Comparator.comparingLong( Entry::start ) );
+            entries = updated;
+            write( updated );
+        }
+    }
+
+
+    /**
+     * Return the number of entries in the cache.
+     *
+     * @return The number of entries in the cache.
+     */
+    public int size() {
+        return entries.length;
+    }
+
+
+    private Entry[] read() {
+
+        if( !file.exists() ) return new Entry[0];
+        try( var in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) ) {
+            if( (in.readInt() != MAGIC) || (in.readInt() != VERSION) ) throw new IOException( "not an ISP cache file, or an older version" );
+            var count = in.readInt();
+            if( (count < 0) || (count > maxEntries * 4) ) throw new IOException( "bad entry count: " + count );
+            var result = new ArrayList<Entry>( count );
+            for( int i = 0; i < count; i++ ) {
+                var start     = in.readInt() & 0xFFFFFFFFL;
+                var end       = in.readInt() & 0xFFFFFFFFL;
+                var name      = in.readUTF();
+                var fetchedAt = in.readLong();
+                result.add( new Entry( start, end, name, fetchedAt ) );
+            }
+            result.sort( Comparator.comparingLong( Entry::fetchedAt ) );
+            if( result.size() > maxEntries ) result.subList( 0, result.size() - maxEntries ).clear();
+            var loaded = result.toArray( new Entry[0] );
+            Arrays.sort( loaded, Comparator.comparingLong( Entry::start ) );
+            LOGGER.info( "Read " + loaded.length + " entries from ISP cache " + file );
+            return loaded;
+        }
+        catch( IOException | RuntimeException _e ) {
+            LOGGER.log( Level.WARNING, "Could not read ISP cache " + file + "; starting with an empty cache: " + _e.getMessage(), _e );
+            return new Entry[0];
+        }
+    }
+
+
+    private void write( final Entry[] _entries ) {
+
+        var temp = new File( file.getPath() + ".tmp" );
+        try {
+            try( var out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temp ) ) ) ) {
+                out.writeInt( MAGIC );
+                out.writeInt( VERSION );
+                out.writeInt( _entries.length );
+                for( Entry entry : _entries ) {
+                    out.writeInt( (int) entry.start );
+                    out.writeInt( (int) entry.end );
+                    out.writeUTF( entry.name );
+                    out.writeLong( entry.fetchedAt );
+                }
+            }
+            Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch( IOException _e ) {
+            LOGGER.log( Level.WARNING, "Could not write ISP cache " + file + ": " + _e.getMessage(), _e );
+        }
+    }
+
+
+    /**
+     * Return the given dotted-decimal IPv4 address as an unsigned 32 bit value, or -1 if it isn't one.
+     *
+     * @param _address The address.
+     * @return The address as an unsigned 32 bit value, or -1.
+     */
+    private static long toLong( final String _address ) {
+        var parts = _address.trim().split( "\\." );
+        if( parts.length != 4 ) return -1;
+        long result = 0;
+        for( String part : parts ) {
+            try {
+                var octet = Integer.parseInt( part );
+                if( (octet < 0) || (octet > 255) ) return -1;
+                result = (result << 8) | octet;
+            }
+            catch( NumberFormatException _e ) {
+                return -1;
+            }
+        }
+        return result;
+    }
+
+
+    private record Entry( long start, long end, String name, long fetchedAt ) {}
+}
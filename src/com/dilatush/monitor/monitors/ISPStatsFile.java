@@ -0,0 +1,340 @@
+package com.dilatush.monitor.monitors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import static com.dilatush.util.General.getLogger;
+
+/**
+ * Persists the ISP monitor's statistics in a small memory-mapped file, so that saving them is just a few stores into memory rather than rewriting a file.
+ * The file holds a header and two fixed-size slots, each holding a sequence number, the statistics (as an opaque payload), and a checksum.  Each save goes
+ * into the slot <i>not</i> holding the latest statistics, so a crash (or power failure) part way through a save can only damage the older copy; on reading,
+ * the valid slot with the highest sequence number wins, and a slot with a bad checksum is simply ignored.  The mapped pages are forced to disk at most once
+ * per configurable interval, which bounds how much is lost if the machine (rather than just this process) goes down.  If the statistics outgrow the slots
+ * (say, because more ISPs were configured), the file is laid out again with larger slots, keeping the latest statistics.  A file in the original (version
+ * 1) layout, with the statistics in fixed fields of two 128 byte slots, is read (see {@link #version1()}) before the file is laid out again, so that its
+ * statistics can be migrated.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class ISPStatsFile implements AutoCloseable {
+
+    private static final Logger LOGGER = getLogger();
+
+    private static final int MAGIC       = 0x49535053;  // "ISPS"...
+    private static final int VERSION     = 2;
+    private static final int HEADER_SIZE = 16;          // magic, version, slot size, and a spare int...
+    private static final int PAGE_SIZE   = 4096;        // slot sizes are rounded up to a multiple of this...
+
+    // offsets of the fields within a slot...
+    private static final int SEQUENCE_OFF  = 0;
+    private static final int LENGTH_OFF    = 8;
+    private static final int PAYLOAD_OFF   = 12;
+    private static final int SLOT_OVERHEAD = PAYLOAD_OFF + 4;  // the checksum is in the last four bytes of the slot, covering everything before it...
+
+    private final FileChannel channel;
+    private final long        syncIntervalMs;
+    private MappedByteBuffer  buffer;
+    private int               slotSize;
+    private long              sequence;     // sequence number of the latest slot written...
+    private long              lastSyncAt;   // System.currentTimeMillis() when we last forced the file to disk...
+    private boolean           dirty;        // true if we've written since we last forced the file to disk...
+    private Version1.Stats    version1;     // the statistics found in a version 1 file, or null if there were none...
+
+
+    /**
+     * Creates a new instance of this class, opening (or creating) the given file.
+     *
+     * @param _file The file to persist the statistics in.
+     * @param _capacity The largest payload that will be written, in bytes.
+     * @param _syncInterval The minimum interval between forcing the file to disk.
+     * @throws IOException On any problem opening or mapping the file.
+     */
+    public ISPStatsFile( final File _file, final int _capacity, final Duration _syncInterval ) throws IOException {
+
+        channel = FileChannel.open( _file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE );
+        syncIntervalMs = _syncInterval.toMillis();
+        lastSyncAt = System.currentTimeMillis();
+
+        // if we have a good header with big enough slots, we're done...
+        var needed = ((SLOT_OVERHEAD + _capacity + PAGE_SIZE - 1) / PAGE_SIZE) * PAGE_SIZE;
+        var existing = existingSlotSize();
+        if( existing >= needed ) {
+            map( existing );
+            return;
+        }
+
+        // otherwise, keep whatever statistics we have, and lay the file out again...
+        ByteBuffer carried = null;
+        if( existing > 0 ) {
+            map( existing );
+            var latest = read();
+            if( latest != null ) carried = ByteBuffer.allocate( latest.remaining() ).put( latest ).flip();  // copied, as the mapping is going away...
+            LOGGER.info( "Enlarging ISP statistics file slots from " + existing + " to " + needed + " bytes" );
+        }
+        else if( (version1 = Version1.read( channel )) != null )
+            LOGGER.info( "Converting ISP statistics file " + _file + " from version 1" );
+        else if( channel.size() > 0 )
+            LOGGER.warning( "ISP statistics file " + _file + " has no valid header; starting a new one" );
+        buffer = null;
+        channel.truncate( 0 );
+        map( needed );
+        buffer.putInt( 0, MAGIC );
+        buffer.putInt( 4, VERSION );
+        buffer.putInt( 8, needed );
+        dirty = true;
+        if( carried != null ) write( carried );
+        sync();
+    }
+
+
+    /**
+     * Read the latest valid statistics from the file.
+     *
+     * @return The payload of the latest valid statistics (a read-only buffer, positioned at zero), or null if neither slot holds valid statistics (for
+     * instance, if the file was just created).
+     */
+    public ByteBuffer read() {
+
+        ByteBuffer result = null;
+        sequence = 0;
+        for( int slot = 0; slot < 2; slot++ ) {
+            var base = HEADER_SIZE + slot * slotSize;
+            var slotSequence = buffer.getLong( base + SEQUENCE_OFF );
+            if( !isValid( base ) ) {
+                if( slotSequence != 0 ) LOGGER.warning( "ISP statistics slot " + slot + " is corrupt; ignoring it" );
+                continue;
+            }
+            if( (result != null) && (slotSequence <= sequence) ) continue;
+            sequence = slotSequence;
+            result   = buffer.slice( base + PAYLOAD_OFF, buffer.getInt( base + LENGTH_OFF ) ).asReadOnlyBuffer();
+        }
+        return result;
+    }
+
+
+    /**
+     * Return the statistics found when this file was opened, if it was in the version 1 layout.  They're not in the file any more (it's been laid out again),
+     * so the caller should migrate them and write them out in the current layout.
+     *
+     * @return The version 1 statistics, or null if the file wasn't in the version 1 layout, or neither of its slots was valid.
+     */
+    public Version1.Stats version1() {
+        return version1;
+    }
+
+
+    /**
+     * Write the given payload (from its position to its limit) into the older slot, forcing the file to disk if it's been long enough since we last did.
+     *
+     * @param _payload The payload to write.
+     * @throws IllegalArgumentException If the payload is larger than the capacity given to the constructor.
+     */
+    public void write( final ByteBuffer _payload ) {
+
+        var length = _payload.remaining();
+        if( length > slotSize - SLOT_OVERHEAD ) throw new IllegalArgumentException( "ISP statistics too large for file: " + length + " bytes" );
+
+        // write into the slot that doesn't hold the latest statistics...
+        sequence++;
+        var base = HEADER_SIZE + (int) (sequence % 2) * slotSize;
+        buffer.putLong( base + SEQUENCE_OFF, sequence );
+        buffer.putInt(  base + LENGTH_OFF,   length   );
+        buffer.put(     base + PAYLOAD_OFF,  _payload, _payload.position(), length );
+
+        // the checksum goes last, so a save that's cut short leaves a slot that doesn't check...
+        buffer.putInt( base + slotSize - 4, crc( base ) );
+        dirty = true;
+
+        // force it to disk, if it's time...
+        var now = System.currentTimeMillis();
+        if( now - lastSyncAt >= syncIntervalMs ) sync();
+    }
+
+
+    /**
+     * Force any unsynchronized writes to disk.
+     */
+    public void sync() {
+        if( !dirty ) return;
+        buffer.force();
+        dirty = false;
+        lastSyncAt = System.currentTimeMillis();
+    }
+
+
+    /**
+     * Force any unsynchronized writes to disk, and close the file.
+     *
+     * @throws IOException On any problem closing the file.
+     */
+    @Override
+    public void close() throws IOException {
+        sync();
+        channel.close();
+    }
+
+
+    /**
+     * Return the slot size recorded in the file's header, or zero if the file doesn't have a valid header.
+     *
+     * @return The slot size, or zero.
+     * @throws IOException On any problem reading the file.
+     */
+    private int existingSlotSize() throws IOException {
+        if( channel.size() < HEADER_SIZE ) return 0;
+        var header = ByteBuffer.allocate( HEADER_SIZE );
+        channel.read( header, 0 );
+        header.flip();
+        if( (header.remaining() < HEADER_SIZE) || (header.getInt() != MAGIC) || (header.getInt() != VERSION) ) return 0;
+        var size = header.getInt();
+        return ((size > SLOT_OVERHEAD) && (channel.size() >= HEADER_SIZE + 2L * size)) ? size : 0;
+    }
+
+
+    private void map( final int _slotSize ) throws IOException {
+        slotSize = _slotSize;
+        buffer   = channel.map( FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + 2L * _slotSize );
+    }
+
+
+    private boolean isValid( final int _base ) {
+        var length = buffer.getInt( _base + LENGTH_OFF );
+        return (length >= 0) && (length <= slotSize - SLOT_OVERHEAD) && (buffer.getInt( _base + slotSize - 4 ) == crc( _base ));
+    }
+
+
+    private int crc( final int _base ) {
+        var crc = new CRC32();
+        crc.update( buffer.slice( _base, slotSize - 4 ) );
+        return (int) crc.getValue();
+    }
+
+
+    /**
+     * Reads a file in the original layout: two 128 byte slots, each holding the magic number, the version, a sequence number, the statistics for a primary
+     * and a secondary ISP in fixed fields, and a checksum in its last four bytes.  The public IP address is the last field, and ends before the checksum;
+     * version 1 files were written allowing a longer address, which could have overrun the checksum (and the next slot), but the IPv4 addresses actually
+     * written never came close.
+     */
+    public static final class Version1 {
+
+        private static final int      VERSION   = 1;
+        private static final int      SLOT_SIZE = 128;
+        private static final long     NULL_TIME = Long.MIN_VALUE;
+        private static final String[] RANKS     = { "PRIMARY", "SECONDARY", "UNKNOWN" };  // ISP ranks, by ordinal...
+
+        // offsets of the fields within a slot...
+        private static final int MAGIC_OFF          = 0;
+        private static final int VERSION_OFF        = 4;
+        private static final int SEQUENCE_OFF       = 8;
+        private static final int ON_PRIMARY_OFF     = 16;
+        private static final int ON_SECONDARY_OFF   = 24;
+        private static final int ON_PRIMARY_PCT_OFF = 32;
+        private static final int SECONDARY_CNT_OFF  = 40;
+        private static final int DOWN_PRIMARY_OFF   = 48;
+        private static final int DOWN_SECONDARY_OFF = 56;
+        private static final int LAST_SECONDARY_OFF = 64;
+        private static final int LAST_CAPTURE_OFF   = 72;
+        private static final int RANK_OFF           = 80;
+        private static final int PRIMARY_UP_OFF     = 81;
+        private static final int SECONDARY_UP_OFF   = 82;
+        private static final int IP_LENGTH_OFF      = 83;
+        private static final int IP_OFF             = 84;
+        private static final int CRC_OFF            = SLOT_SIZE - 4;     // the checksum covers everything before it...
+        private static final int MAX_IP_BYTES       = CRC_OFF - IP_OFF;  // 40 bytes, room for any IPv4 (or full-form IPv6) address...
+
+
+        private Version1() {}
+
+
+        /**
+         * Read the latest valid statistics from the given file, if it's in the version 1 layout.
+         *
+         * @param _channel The file.
+         * @return The latest valid statistics, or null if the file isn't in the version 1 layout, or neither slot holds valid statistics.
+         * @throws IOException On any problem reading the file.
+         */
+        private static Stats read( final FileChannel _channel ) throws IOException {
+
+            if( _channel.size() < 2 * SLOT_SIZE ) return null;
+            var buffer = ByteBuffer.allocate( 2 * SLOT_SIZE );
+            _channel.read( buffer, 0 );
+
+            Stats result = null;
+            long sequence = 0;
+            for( int slot = 0; slot < 2; slot++ ) {
+                var base = slot * SLOT_SIZE;
+                if( (buffer.getInt( base + MAGIC_OFF ) != MAGIC) || (buffer.getInt( base + VERSION_OFF ) != VERSION) ) continue;
+                var crc = new CRC32();
+                crc.update( buffer.slice( base, CRC_OFF ) );
+                if( buffer.getInt( base + CRC_OFF ) != (int) crc.getValue() ) continue;
+                var slotSequence = buffer.getLong( base + SEQUENCE_OFF );
+                if( (result != null) && (slotSequence <= sequence) ) continue;
+                sequence = slotSequence;
+                result   = decode( buffer, base );
+            }
+            return result;
+        }
+
+
+        private static Stats decode( final ByteBuffer _buffer, final int _base ) {
+            var ipLength = _buffer.get( _base + IP_LENGTH_OFF );
+            String ip = null;
+            if( ipLength >= 0 ) {
+                var ipBytes = new byte[ Math.min( ipLength, MAX_IP_BYTES ) ];
+                _buffer.get( _base + IP_OFF, ipBytes );
+                ip = new String( ipBytes, StandardCharsets.US_ASCII );
+            }
+            var rank = _buffer.get( _base + RANK_OFF );
+            return new Stats(
+                    Duration.ofMillis( _buffer.getLong( _base + ON_PRIMARY_OFF ) ),
+                    Duration.ofMillis( _buffer.getLong( _base + ON_SECONDARY_OFF ) ),
+                    _buffer.getDouble( _base + ON_PRIMARY_PCT_OFF ),
+                    _buffer.getLong( _base + SECONDARY_CNT_OFF ),
+                    Duration.ofMillis( _buffer.getLong( _base + DOWN_PRIMARY_OFF ) ),
+                    Duration.ofMillis( _buffer.getLong( _base + DOWN_SECONDARY_OFF ) ),
+                    fromMillis( _buffer.getLong( _base + LAST_SECONDARY_OFF ) ),
+                    fromMillis( _buffer.getLong( _base + LAST_CAPTURE_OFF ) ),
+                    ((rank >= 0) && (rank < RANKS.length)) ? RANKS[rank] : "UNKNOWN",
+                    _buffer.get( _base + PRIMARY_UP_OFF ) != 0,
+                    _buffer.get( _base + SECONDARY_UP_OFF ) != 0,
+                    ip );
+        }
+
+
+        private static Instant fromMillis( final long _millis ) {
+            return (_millis == NULL_TIME) ? null : Instant.ofEpochMilli( _millis );
+        }
+
+
+        /**
+         * The ISP monitor's statistics as they were persisted in version 1 (and in the CSV file before that), for a primary and a secondary ISP.
+         *
+         * @param onPrimaryTime The amount of time on the primary ISP.
+         * @param onSecondaryTime The amount of time on the secondary ISP.
+         * @param onPrimaryPct The percent of time on the primary ISP.
+         * @param onSecondaryCount The number of times on the secondary ISP.
+         * @param downPrimaryTime The amount of time the primary ISP was down.
+         * @param downSecondaryTime The amount of time the secondary ISP was down.
+         * @param lastSecondaryTime When the last time on the secondary ISP started, or null if never.
+         * @param lastCaptureTime When ISP data was last captured, or null if never.
+         * @param lastRank The ISP rank last captured: "PRIMARY", "SECONDARY", or "UNKNOWN".
+         * @param primaryUp True if the primary ISP is up.
+         * @param secondaryUp True if the secondary ISP is up.
+         * @param ipAddress The public IP address, or null if unknown.
+         */
+        public record Stats( Duration onPrimaryTime, Duration onSecondaryTime, double onPrimaryPct, long onSecondaryCount, Duration downPrimaryTime,
+                             Duration downSecondaryTime, Instant lastSecondaryTime, Instant lastCaptureTime, String lastRank, boolean primaryUp,
+                             boolean secondaryUp, String ipAddress ) {}
+    }
+}
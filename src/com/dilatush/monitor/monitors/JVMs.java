@@ -1,11 +1,24 @@
 package com.dilatush.monitor.monitors;
 
 import com.dilatush.mop.Mailbox;
+import com.dilatush.mop.Message;
 import com.dilatush.util.BashExecutor;
+import com.sun.tools.attach.AttachNotSupportedException;
+import com.sun.tools.attach.VirtualMachine;
+import com.sun.tools.attach.VirtualMachineDescriptor;
+import org.json.JSONObject;
 
+import javax.management.MBeanServerConnection;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.IOException;
+import java.lang.management.*;
 import java.time.Duration;
 import java.util.*;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 import static com.dilatush.util.General.getLogger;
 import static com.dilatush.util.Strings.isEmpty;
@@ -17,8 +30,12 @@ public class JVMs extends AMonitor {
     private final static String LIST_JVMS = "ps -ww -eo user,pid,comm,args | grep java | grep -v jsvc | grep -v grep | sed -r \"s:^.*/(.*)\\.jar.*$:\\1:\"";
     private static final Duration INTERVAL_BETWEEN_MISSING_JAR_EVENTS = Duration.ofHours( 12 );
 
+    // extracts the jar name from an Attach API display name like "/apps/weather/Weather.jar arg1 arg2"...
+    private static final Pattern JAR_NAME_PAT = Pattern.compile( "^(?:\\S*/)?([^/\\s]+)\\.jar(?:\\s.*)?$" );
+
     private final List<JVMInfo> expectedJVMs;   // a list of the JVMs we expect to be running...
     private final Set<String> missingJars;  // a set of all the jars that were missing last time we checked...
+    private final Map<String,JVMConnection> connections;  // jar name -> pooled JMX connection to that JVM...
 
     /**
      * Creates a new instance of this class with the given Mailbox.
@@ -32,6 +49,7 @@ public class JVMs extends AMonitor {
         
         missingJars = new HashSet<>();
         expectedJVMs = new ArrayList<>();
+        connections = new HashMap<>();
 
         // JVMs parameter is comma-separated list of colon-separated pairs (JarName:DisplayName)...
         var jvms = (String) _params.get( "JVMs" );
@@ -73,8 +91,227 @@ public class JVMs extends AMonitor {
                         "jar.notRunning", expected.jar, expected.display + " not running", expected.display + " (" + expected.jar + ".jar) is not running", 8 );
             }
         }
+
+        // look inside the expected JVMs that we can attach to, and publish what we see...
+        sendStatus( introspect() );
+    }
+
+
+    /**
+     * Attach to each of the expected JVMs that is running locally (and that we have permission to attach to), and sample its memory, garbage collection,
+     * threads, and class loading through its platform MXBeans.  The JMX connections are kept between runs, and are only reestablished if the JVM's process
+     * changes or the connection fails.
+     *
+     * @return A JSON object with one entry (keyed by jar name) for each JVM that was successfully sampled.
+     */
+    private JSONObject introspect() {
+
+        // map the jar names of the local JVMs we can see to their process IDs...
+        var pids = new HashMap<String,String>();
+        for( VirtualMachineDescriptor vmd : VirtualMachine.list() ) {
+            var matcher = JAR_NAME_PAT.matcher( vmd.displayName() );
+            if( matcher.matches() ) pids.put( matcher.group( 1 ), vmd.id() );
+        }
+
+        var result = new JSONObject();
+        for( JVMInfo expected : expectedJVMs ) {
+
+            // if the JVM has gone away or been restarted, our pooled connection is stale...
+            var pid = pids.get( expected.jar );
+            var connection = connections.get( expected.jar );
+            if( (connection != null) && !connection.pid.equals( pid ) ) {
+                connection.close();
+                connections.remove( expected.jar );
+                connection = null;
+            }
+
+            // if it isn't running, there's nothing to look at...
+            if( pid == null ) continue;
+
+            try {
+                // attach if we haven't already...
+                if( connection == null ) {
+                    connection = JVMConnection.open( pid );
+                    connections.put( expected.jar, connection );
+                    LOGGER.finest( "Attached to " + expected.jar + " (pid " + pid + ")" );
+                }
+
+                // get our sample...
+                var sample = connection.sample();
+                sample.put( "name", expected.display );
+                result.put( expected.jar, sample );
+            }
+            catch( Exception _e ) {
+
+                // drop the connection, so we'll try again on the next run...
+                LOGGER.log( Level.INFO, "Could not introspect " + expected.jar + " (pid " + pid + "): " + _e.getMessage() );
+                if( connection != null ) connection.close();
+                connections.remove( expected.jar );
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Publish a monitor message with the given samples of the expected JVMs.
+     *
+     * @param _jvms The samples, as returned by {@link #introspect()}.
+     */
+    private void sendStatus( final JSONObject _jvms ) {
+
+        Message msg = mailbox.createPublishMessage( "jvms.monitor" );
+
+        // send the message interval...
+        msg.putDotted( "monitor.jvms.messageIntervalMs", interval.toMillis() );
+
+        // fill in our samples...
+        msg.putDotted( "monitor.jvms.jvms",              _jvms               );
+
+        // send it!
+        mailbox.send( msg );
+        LOGGER.info( "Sent JVMs monitor message" );
     }
 
 
     private record JVMInfo( String jar, String display ) {}
+
+
+    /**
+     * A pooled connection to the platform MXBeans of a local JVM, obtained through the Attach API and the JVM's local JMX connector.  The MXBean proxies are
+     * created once, when connecting, so each sample costs only the remote attribute reads.
+     */
+    private static final class JVMConnection {
+
+        private final String                       pid;         // the process ID of the JVM we're connected to...
+        private final JMXConnector                 connector;   // the JMX connector, or null if the JVM is our own...
+        private final MemoryMXBean                 memory;
+        private final ThreadMXBean                 threads;
+        private final ClassLoadingMXBean           classLoading;
+        private final RuntimeMXBean                runtime;
+        private final List<MemoryPoolMXBean>       pools;
+        private final List<GarbageCollectorMXBean> collectors;
+
+
+        private JVMConnection( final String _pid, final JMXConnector _connector, final MBeanServerConnection _server ) throws IOException {
+            pid          = _pid;
+            connector    = _connector;
+            memory       = ManagementFactory.getPlatformMXBean( _server, MemoryMXBean.class );
+            threads      = ManagementFactory.getPlatformMXBean( _server, ThreadMXBean.class );
+            classLoading = ManagementFactory.getPlatformMXBean( _server, ClassLoadingMXBean.class );
+            runtime      = ManagementFactory.getPlatformMXBean( _server, RuntimeMXBean.class );
+            pools        = ManagementFactory.getPlatformMXBeans( _server, MemoryPoolMXBean.class );
+            collectors   = ManagementFactory.getPlatformMXBeans( _server, GarbageCollectorMXBean.class );
+        }
+
+
+        /**
+         * Open a connection to the JVM with the given process ID.  If that JVM is not already running its local management agent, it is started.  A JVM cannot
+         * attach to itself, so if the process ID is our own we just use our own platform MBean server.
+         *
+         * @param _pid The process ID of the JVM to connect to.
+         * @return The new connection.
+         * @throws IOException On any problem attaching or connecting.
+         * @throws AttachNotSupportedException If the JVM doesn't allow us to attach (usually because it belongs to another user).
+         */
+        private static JVMConnection open( final String _pid ) throws IOException, AttachNotSupportedException {
+
+            // if it's us, no attaching needed...
+            if( _pid.equals( Long.toString( ProcessHandle.current().pid() ) ) )
+                return new JVMConnection( _pid, null, ManagementFactory.getPlatformMBeanServer() );
+
+            // attach just long enough to get the local JMX connector address...
+            VirtualMachine vm = VirtualMachine.attach( _pid );
+            String address;
+            try {
+                address = vm.startLocalManagementAgent();
+            }
+            finally {
+                vm.detach();
+            }
+
+            // connect, and build our proxies...
+            var connector = JMXConnectorFactory.connect( new JMXServiceURL( address ) );
+            try {
+                return new JVMConnection( _pid, connector, connector.getMBeanServerConnection() );
+            }
+            catch( IOException | RuntimeException _e ) {
+                connector.close();
+                throw _e;
+            }
+        }
+
+
+        /**
+         * Sample the JVM's memory pools, garbage collectors, threads, and class loading.
+         *
+         * @return A JSON object containing the sample.
+         */
+        private JSONObject sample() {
+
+            var sample = new JSONObject();
+            sample.put( "pid",      pid                  );
+            sample.put( "uptimeMs", runtime.getUptime()  );
+
+            // heap and non-heap totals...
+            var heap    = memory.getHeapMemoryUsage();
+            var nonHeap = memory.getNonHeapMemoryUsage();
+            sample.put( "heapUsedBytes",         heap.getUsed()         );
+            sample.put( "heapCommittedBytes",    heap.getCommitted()    );
+            sample.put( "heapMaxBytes",          heap.getMax()          );
+            sample.put( "nonHeapUsedBytes",      nonHeap.getUsed()      );
+            sample.put( "nonHeapCommittedBytes", nonHeap.getCommitted() );
+
+            // the individual memory pools (eden, survivor, old, metaspace, code cache, etc.)...
+            var poolsObj = new JSONObject();
+            for( MemoryPoolMXBean pool : pools ) {
+                var usage = pool.getUsage();
+                if( usage == null ) continue;  // the pool is no longer valid...
+                var poolObj = new JSONObject();
+                poolObj.put( "type",           pool.getType().name() );
+                poolObj.put( "usedBytes",      usage.getUsed()       );
+                poolObj.put( "committedBytes", usage.getCommitted()  );
+                poolObj.put( "maxBytes",       usage.getMax()        );
+                poolsObj.put( pool.getName(), poolObj );
+            }
+            sample.put( "pools", poolsObj );
+
+            // the garbage collectors...
+            var gcsObj = new JSONObject();
+            for( GarbageCollectorMXBean gc : collectors ) {
+                var gcObj = new JSONObject();
+                gcObj.put( "count",  gc.getCollectionCount() );
+                gcObj.put( "timeMs", gc.getCollectionTime()  );
+                gcsObj.put( gc.getName(), gcObj );
+            }
+            sample.put( "gcs", gcsObj );
+
+            // threads...
+            sample.put( "threads",             threads.getThreadCount()             );
+            sample.put( "peakThreads",         threads.getPeakThreadCount()         );
+            sample.put( "daemonThreads",       threads.getDaemonThreadCount()       );
+            sample.put( "totalStartedThreads", threads.getTotalStartedThreadCount() );
+
+            // class loading...
+            sample.put( "loadedClasses",       classLoading.getLoadedClassCount()      );
+            sample.put( "totalLoadedClasses",  classLoading.getTotalLoadedClassCount() );
+            sample.put( "unloadedClasses",     classLoading.getUnloadedClassCount()    );
+
+            return sample;
+        }
+
+
+        /**
+         * Close this connection, ignoring any problems doing so.
+         */
+        private void close() {
+            if( connector == null ) return;
+            try {
+                connector.close();
+            }
+            catch( IOException _e ) {
+                LOGGER.finest( "Problem closing JMX connection to pid " + pid + ": " + _e.getMessage() );
+            }
+        }
+    }
 }
@@ -2,13 +2,23 @@ package com.dilatush.monitor.monitors;
 
 import com.dilatush.monitor.Monitor;
 import com.dilatush.mop.Mailbox;
+import com.dilatush.mop.Message;
 import com.dilatush.util.ip.IPAddress;
-import com.dilatush.util.networkingengine.TCPConnectionTest;
+import org.json.JSONObject;
 
+import java.io.IOException;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -21,59 +31,616 @@ public class LAN extends AMonitor {
 
     private static final Logger LOGGER = getLogger();
 
+    private static final int      TRIES                 = 5;                        // maximum tries for each check...
+    private static final int      DEFAULT_MAX_IN_FLIGHT = 32;                       // default maximum checks in flight at once...
+    private static final Duration DEFAULT_DEADLINE      = Duration.ofSeconds( 30 ); // default maximum time for a run...
+    private static final Duration DEFAULT_STATS_WINDOW  = Duration.ofHours( 24 );   // default window for latency and loss statistics...
+    private static final double   DEFAULT_LATENCY_HIGH_MS  = 100;                   // default latency above which a target's latency goes high...
+    private static final double   DEFAULT_LATENCY_CLEAR_MS = 50;                    // default latency below which a high latency clears...
+    private static final int      DEFAULT_SWEEP_MAX_IN_FLIGHT = 256;                // default maximum sweep connects in flight at once...
+    private static final int      DEFAULT_SWEEP_RATE          = 1000;               // default maximum sweep connects started per second...
+    private static final int      MAX_LISTED_ENDPOINTS        = 20;                 // maximum endpoints listed in a sweep change event...
+    private static final int      DEFAULT_CERT_WARNING_DAYS   = 14;                 // default days before a certificate expires to start warning...
+    private static final Duration PROBE_GRACE                 = Duration.ofSeconds( 2 ); // extra time to wait for protocol probes past the deadline...
+
     private final List<Check> checks;
+    private final List<List<Check>> levels;   // the checks in topology order: the checks with no parent, then their children, and so on...
+    private final Map<String,List<String>> descendants;  // check name -> names of all the checks that depend on it, directly or not...
+    private final List<String> runUnreachable;  // names of the checks skipped on this run because a parent was down...
     private final Map<String,Boolean> lastStates;
+    private final int         maxInFlight;   // maximum checks in flight at once...
+    private final Duration    deadline;      // maximum time for a run...
+    private final Duration    statsWindow;   // window for latency and loss statistics...
+    private final double      latencyHighMs;   // connect latency above which a target's latency goes high...
+    private final double      latencyClearMs;  // connect latency below which a high latency clears (the hysteresis)...
+    private final Map<String,LatencyWindow>   latencies;     // check name -> latency and loss statistics...
+    private final Map<String,Boolean>         latencyHigh;   // check name -> true if latency is currently high...
+    private final Map<String,TCPProber.Result> runResults;   // check name -> result on this run...
+    private final Map<String,ProtocolProber.Result> runProbes;  // check name -> protocol probe result on this run, for checks with a probe...
+    private final ExecutorService probeThread;     // the thread to run protocol probes on, or null if there are none...
+    private final int            certWarningDays;  // days before a certificate expires to start warning...
+    private final List<SweepSet> sweeps;           // the configured sweeps, and what they found...
+    private final int            sweepMaxInFlight; // maximum sweep connects in flight at once...
+    private final int            sweepRate;        // maximum sweep connects started per second...
+    private final Duration       sweepDeadline;    // maximum time for all the sweeps on a run...
+    private long                 sweepMs;          // how long the sweeps took on the last run...
 
     /**
      * Creates a new instance of this class with the given Mailbox.
      *
      * @param _mailbox  The mailbox for this monitor to use.
-     * @param _params The parameters for this monitor: "checks" which is a list of Check instances.
+     * @param _params The parameters for this monitor: "checks" which is a list of Check instances, and optionally "maxInFlight" (the maximum number of
+     *                checks in flight at once, default 32), "deadline" (a Duration, the maximum time for a run, default 30 seconds), "statsWindow" (a
+     *                Duration, the window for latency and loss statistics, default 24 hours), "latencyHighMs" (connect latency above which a latency high
+     *                event is sent, default 100), and "latencyClearMs" (connect latency below which a latency normal event is sent, default 50).  Optionally
+     *                there may also be "sweeps", a list of Sweep instances, with "sweepMaxInFlight" (the maximum number of sweep connects in flight at once,
+     *                default 256), "sweepRate" (the maximum number of sweep connects started per second, default 1000), and "sweepDeadline" (a Duration, the
+     *                maximum time for all the sweeps on a run, default three quarters of the interval).  For checks with a protocol probe, "certWarningDays"
+     *                (default 14) sets how many days before a server's certificate expires to start sending events about it.  Checks may name a parent
+     *                check that they can only be reached through; the parents must be in the list of checks, and there must be no cycles.
      * @param _interval The interval between runs for this monitor.
      */
     public LAN( final Mailbox _mailbox, final Map<String,Object> _params, final Duration _interval ) {
         super( _mailbox, _interval );
         //noinspection unchecked
-        checks = (List<Check>) _params.get( "checks" );
+        var cl = (List<Check>) _params.get( "checks" );
+        checks = (cl == null) ? List.of() : cl;
+        levels = levels( checks );
+        descendants = new HashMap<>();
+        for( Check check : checks ) descendants.put( check.name, new ArrayList<>() );
+        for( Check check : checks )
+            for( var parent = parentOf( check ); parent != null; parent = parentOf( parent ) )
+                descendants.get( parent.name ).add( check.name );
+        runUnreachable = new ArrayList<>();
         lastStates = new HashMap<>();
+        var mif = (Integer) _params.get( "maxInFlight" );
+        maxInFlight = (mif == null) ? DEFAULT_MAX_IN_FLIGHT : mif;
+        var dl = (Duration) _params.get( "deadline" );
+        deadline = (dl == null) ? DEFAULT_DEADLINE : dl;
+        var sw = (Duration) _params.get( "statsWindow" );
+        statsWindow = (sw == null) ? DEFAULT_STATS_WINDOW : sw;
+        var lh = (Number) _params.get( "latencyHighMs" );
+        latencyHighMs = (lh == null) ? DEFAULT_LATENCY_HIGH_MS : lh.doubleValue();
+        var lc = (Number) _params.get( "latencyClearMs" );
+        latencyClearMs = (lc == null) ? DEFAULT_LATENCY_CLEAR_MS : lc.doubleValue();
+        if( latencyClearMs > latencyHighMs ) throw new IllegalArgumentException( "latencyClearMs must not be greater than latencyHighMs" );
+        latencies   = new HashMap<>();
+        latencyHigh = new HashMap<>();
+        runResults  = new HashMap<>();
+        runProbes   = new HashMap<>();
+        var cwd = (Integer) _params.get( "certWarningDays" );
+        certWarningDays = (cwd == null) ? DEFAULT_CERT_WARNING_DAYS : cwd;
+
+        // if we have any protocol probes, we need a thread to run them on (they're non-blocking, so one is plenty)...
+        var anyProbes = checks.stream().anyMatch( (check) -> check.probe != null );
+        probeThread = !anyProbes ? null : Executors.newSingleThreadExecutor( (r) -> {
+            var thread = new Thread( r, "LAN probe" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+
+        // set up our sweeps, if we have any...
+        sweeps = new ArrayList<>();
+        //noinspection unchecked
+        var sl = (List<Sweep>) _params.get( "sweeps" );
+        if( sl != null ) for( Sweep sweep : sl ) sweeps.add( new SweepSet( sweep ) );
+        var smif = (Integer) _params.get( "sweepMaxInFlight" );
+        sweepMaxInFlight = (smif == null) ? DEFAULT_SWEEP_MAX_IN_FLIGHT : smif;
+        var sr = (Integer) _params.get( "sweepRate" );
+        sweepRate = (sr == null) ? DEFAULT_SWEEP_RATE : sr;
+        var sd = (Duration) _params.get( "sweepDeadline" );
+        sweepDeadline = (sd == null) ? _interval.multipliedBy( 3 ).dividedBy( 4 ) : sd;
+
+        // warn if the sweeps can't finish in time at our rate limit...
+        long endpoints = 0;
+        for( SweepSet sweep : sweeps ) endpoints += sweep.size();
+        if( (sweepRate > 0) && (endpoints / sweepRate > sweepDeadline.toSeconds()) )
+            LOGGER.warning( "LAN sweeps of " + endpoints + " endpoints at " + sweepRate + " per second cannot finish within " + sweepDeadline );
+    }
+
+
+    /**
+     * Sort the given checks into topology order: a list of the checks with no parent, then a list of their children, and so on.
+     *
+     * @param _checks The checks to sort.
+     * @return The checks at each level of the topology.
+     * @throws IllegalArgumentException If a check's parent isn't one of the checks, or if the parents form a cycle.
+     */
+    private static List<List<Check>> levels( final List<Check> _checks ) {
+
+        var names = new HashMap<String,Check>();
+        for( Check check : _checks ) names.put( check.name, check );
+        for( Check check : _checks )
+            if( (check.parent != null) && !names.containsKey( check.parent ) )
+                throw new IllegalArgumentException( "Check " + check.name + " has unknown parent " + check.parent );
+
+        // each level is the checks whose parents are in a previous level...
+        var result = new ArrayList<List<Check>>();
+        var placed = new HashMap<String,Check>();
+        while( placed.size() < _checks.size() ) {
+            var level = new ArrayList<Check>();
+            for( Check check : _checks )
+                if( !placed.containsKey( check.name ) && ((check.parent == null) || placed.containsKey( check.parent )) ) level.add( check );
+            if( level.isEmpty() ) throw new IllegalArgumentException( "LAN check parents form a cycle" );
+            for( Check check : level ) placed.put( check.name, check );
+            result.add( level );
+        }
+        return result;
+    }
+
+
+    private Check parentOf( final Check _check ) {
+        if( _check.parent == null ) return null;
+        for( Check check : checks ) if( check.name.equals( _check.parent ) ) return check;
+        return null;
     }
 
 
     /**
-     * Perform the periodic monitoring.  This monitor should  be run every 15 minutes.
+     * Perform the periodic monitoring.  This monitor should  be run every 15 minutes.  The checks are run in topology order, a level at a time; the checks
+     * at each level are probed concurrently, and each result is handled as soon as it's available.  A check whose parent is definitely down (or was itself
+     * skipped) is skipped and marked unreachable, with no event sent for it; the event for the parent is the root cause.  If we don't know whether the
+     * parent is down (its probe ran out of time, or failed on our end), the check is run anyway.
      */
     @Override
     protected void runImpl() {
 
-        // get our connection tester...
-        var tester = new TCPConnectionTest( Monitor.getNetworkingEngine() );
+        var deadlineAt = System.nanoTime() + deadline.toNanos();
+        runResults.clear();
+        runProbes.clear();
+        runUnreachable.clear();
 
-        // run all the configured checks...
-        for( Check check : checks ) {
+        for( List<Check> level : levels ) {
+
+            // skip anything we can't reach...
+            var reachable = new ArrayList<Check>( level.size() );
+            for( Check check : level ) {
+                if( (check.parent != null) && isDown( check.parent ) ) {
+                    runUnreachable.add( check.name );
+                    LOGGER.info( "LAN check " + check.name + " is unreachable (parent " + check.parent + " is down)" );
+                    continue;
+                }
+                reachable.add( check );
+            }
+
+            // check what we can reach, and leave if something went badly wrong...
+            if( !runChecks( reachable, deadlineAt ) ) return;
+        }
+
+        // run our sweeps...
+        sweep();
+
+        // tell the world what we found...
+        sendStatus();
+        sendStatistics();
+    }
+
+
+    /**
+     * Returns true if the check with the given name is definitely down on this run: it was skipped because its own parent was down, or its probe completed
+     * without reaching the host.  A refused connection doesn't count, as the host answered; nor does a probe that ran out of time or failed on our end, as
+     * then we don't know.  A protocol probe that failed counts only if nothing at all answered it.
+     *
+     * @param _name The name of the check.
+     * @return True if the check is definitely down.
+     */
+    private boolean isDown( final String _name ) {
+        if( runUnreachable.contains( _name ) ) return true;
+        var result = runResults.get( _name );
+        if( (result == null) || !result.ok() || result.connected() || result.refused() ) return false;
+        var probe = runProbes.get( _name );
+        return (probe == null) || ((probe.connectNanos() == 0) && (probe.firstByteNanos() == 0));
+    }
+
+
+    /**
+     * Run the given checks concurrently.  Checks with a protocol probe all run on our probe thread, while the plain TCP checks run on this thread; both
+     * are non-blocking, and bounded by the run's deadline.  The results of the protocol probes are handled on this thread, once the TCP checks are done.
+     *
+     * @param _checks The checks to run.
+     * @param _deadlineAt The System.nanoTime() when the run's deadline expires.
+     * @return True if the checks ran, false if the run should be abandoned.
+     */
+    private boolean runChecks( final List<Check> _checks, final long _deadlineAt ) {
+
+        // start our protocol probes, so they run while the TCP checks do...
+        var probeChecks = new ArrayList<Check>();
+        var jobs        = new ArrayList<ProtocolProber.Job>();
+        for( Check check : _checks ) {
+            if( check.probe == null ) continue;
+            probeChecks.add( check );
+            jobs.add( new ProtocolProber.Job( check.probe, check.ip, check.port, probeTimeoutMs( check ) ) );
+        }
+        var probeResults = new ProtocolProber.Result[ jobs.size() ];
+        Future<?> probes = null;
+        if( !jobs.isEmpty() ) {
+            var remaining = Duration.ofNanos( Math.max( 0, _deadlineAt - System.nanoTime() ) );
+            probes = probeThread.submit( () -> {
+                ProtocolProber.probe( jobs, maxInFlight, remaining, (index, result) -> probeResults[index] = result );
+                return null;
+            } );
+        }
+
+        // make our TCP probe targets...
+        var tcpChecks = new ArrayList<Check>( _checks.size() );
+        var targets   = new ArrayList<TCPProber.Target>( _checks.size() );
+        for( Check check : _checks ) {
+            if( check.probe != null ) continue;
+            tcpChecks.add( check );
+            targets.add( new TCPProber.Target( check.ip, check.port, check.initialTimeoutMs, TRIES ) );
+        }
+
+        // run all the configured TCP checks...
+        try {
+            var remaining = Duration.ofNanos( Math.max( 0, _deadlineAt - System.nanoTime() ) );
+            TCPProber.probe( targets, maxInFlight, remaining, (index, result) -> handleResult( tcpChecks.get( index ), result, null ) );
+        }
+        catch( IOException _e ) {
+            LOGGER.log( Level.SEVERE, "Could not run LAN checks: " + _e.getMessage(), _e );
+            if( probes != null ) probes.cancel( true );
+            return false;
+        }
+
+        // wait for our protocol probes to finish (they end at the deadline, so the grace here is just in case)...
+        if( probes == null ) return true;
+        String failure = null;
+        try {
+            probes.get( Math.max( 0, _deadlineAt - System.nanoTime() ) + PROBE_GRACE.toNanos(), TimeUnit.NANOSECONDS );
+        }
+        catch( TimeoutException _e ) {
+            probes.cancel( true );
+            failure = "protocol probes did not finish";
+        }
+        catch( ExecutionException _e ) {
+            failure = "protocol probes failed: " + _e.getCause();
+        }
+        catch( InterruptedException _e ) {
+            probes.cancel( true );
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if( failure != null ) LOGGER.warning( "LAN " + failure );
+
+        // then handle their results; any probe without one, we know nothing about...
+        for( int i = 0; i < probeChecks.size(); i++ ) {
+            var check  = probeChecks.get( i );
+            var result = probeResults[i];
+            if( result == null )
+                handleResult( check, new TCPProber.Result( false, false, true, 0, 1, (failure == null) ? "no probe result" : failure ), null );
+            else if( result.expired() )
+                handleResult( check, new TCPProber.Result( false, false, true, 0, 1, result.reason() ), null );
+            else
+                handleProbeResult( check, result );
+        }
+        return true;
+    }
+
+
+    /**
+     * Return a phrase listing the checks that depend on the given check, for the event sent when it goes down, or an empty string if there are none.
+     *
+     * @param _check The check.
+     * @return The phrase listing the checks that depend on the given check.
+     */
+    private String dependentsPhrase( final Check _check ) {
+        var names = descendants.get( _check.name );
+        return names.isEmpty() ? "" : "  Checks that depend on it are unreachable: " + String.join( ", ", names ) + ".";
+    }
+
+
+    /**
+     * Probe every endpoint of every configured sweep in a single run, then send an event for each sweep whose set of reachable endpoints changed.  The
+     * rate limit and the bound on connects in flight (and therefore on open sockets) keep even a very large sweep from flooding the network or running out
+     * of file descriptors.
+     */
+    private void sweep() {
+
+        if( sweeps.isEmpty() ) return;
+
+        // the sweeps share a single index space, with each sweep's endpoints following the previous sweep's...
+        var offsets = new int[ sweeps.size() ];
+        var total   = 0;
+        for( int i = 0; i < sweeps.size(); i++ ) {
+            offsets[i] = total;
+            total += sweeps.get( i ).size();
+            sweeps.get( i ).begin();
+        }
+
+        // probe everything...
+        var startedAt = System.currentTimeMillis();
+        try {
+            TCPProber.probe( total,
+                    (index) -> {
+                        var i = sweepOf( offsets, index );
+                        return sweeps.get( i ).target( index - offsets[i] );
+                    },
+                    sweepMaxInFlight, sweepRate, sweepDeadline,
+                    (index, result) -> {
+                        var i = sweepOf( offsets, index );
+                        sweeps.get( i ).record( index - offsets[i], result );
+                    } );
+        }
+        catch( IOException _e ) {
+            LOGGER.log( Level.SEVERE, "Could not run LAN sweeps: " + _e.getMessage(), _e );
+            return;
+        }
+        sweepMs = System.currentTimeMillis() - startedAt;
+
+        // see what changed...
+        for( SweepSet sweep : sweeps ) {
+            var name = sweep.sweep().name();
+            if( sweep.unknownCount() > 0 )
+                LOGGER.warning( "LAN sweep " + name + " ran out of time with " + sweep.unknownCount() + " endpoints not probed" );
+            if( !sweep.finish() ) continue;
+            var subject = String.format( "LAN sweep %s: %d endpoints appeared, %d vanished", name, sweep.appearedCount(), sweep.vanishedCount() );
+            var message = subject + " (" + sweep.reachableCount() + " now reachable).";
+            if( sweep.appearedCount() > 0 ) message += "  Appeared: " + String.join( ", ", sweep.appeared( MAX_LISTED_ENDPOINTS ) )
+                    + ((sweep.appearedCount() > MAX_LISTED_ENDPOINTS) ? ", ..." : "") + ".";
+            if( sweep.vanishedCount() > 0 ) message += "  Vanished: " + String.join( ", ", sweep.vanished( MAX_LISTED_ENDPOINTS ) )
+                    + ((sweep.vanishedCount() > MAX_LISTED_ENDPOINTS) ? ", ..." : "") + ".";
+            sendEvent( "LAN.sweepChanged", name, subject, message, 6 );
+            LOGGER.info( message );
+        }
+    }
 
-            // if we have no last state for this check, default it to true (it connected)...
-            if( !lastStates.containsKey( check.name ) ) lastStates.put( check.name, true );
 
-            // try to connect...
-            var result = tester.isConnectable( check.initialTimeoutMs, (ms) -> ms + check.initialTimeoutMs, 5, check.ip, check.port );
+    /**
+     * Return the index of the sweep that the endpoint with the given index (in the shared index space of all the sweeps) belongs to.
+     *
+     * @param _offsets The index of the first endpoint of each sweep.
+     * @param _index The index of the endpoint.
+     * @return The index of the sweep.
+     */
+    private static int sweepOf( final int[] _offsets, final int _index ) {
+        var i = _offsets.length - 1;
+        while( _offsets[i] > _index ) i--;
+        return i;
+    }
+
+
+    /**
+     * Publish a monitor message with the result of each check on this run, and its latency and loss statistics.
+     */
+    private void sendStatus() {
+
+        Message msg = mailbox.createPublishMessage( "lan.monitor" );
 
-            // if we had a failure, send an event, log it and continue...
-            if( result.notOk() ) {
-                sendEvent( "LAN.problem", check.name, "Problem connecting to " + check.name, result.msg(), 9 );
-                LOGGER.log( Level.WARNING, "TCP connection test failure: " + result.msg(), result.cause() );
+        // send the message interval...
+        msg.putDotted( "monitor.lan.messageIntervalMs", interval.toMillis() );
+
+        // fill in each target...
+        var targets = new JSONObject();
+        msg.putDotted( "monitor.lan.targets", targets );
+        for( Check check : checks ) {
+            if( runUnreachable.contains( check.name ) ) {
+                var target = new JSONObject();
+                target.put( "address",   check.ip.toString() + ":" + check.port  );
+                target.put( "state",     "unreachable (parent down)"             );
+                target.put( "parent",    check.parent                            );
+                targets.put( check.name, target );
                 continue;
             }
+            var result  = runResults.get( check.name );
+            var latency = latencies.get( check.name );
+            if( (result == null) || (latency == null) ) continue;
+            var target = new JSONObject();
+            target.put( "address",   check.ip.toString() + ":" + check.port  );
+            target.put( "state",     result.connected() ? "connected" : "disconnected" );
+            target.put( "connected", result.connected()                       );
+            target.put( "refused",   result.refused()                         );
+            target.put( "rttMs",     result.rttNanos() / 1e6                  );
+            target.put( "p50Ms",     latency.percentileMs( 50 )               );
+            target.put( "p95Ms",     latency.percentileMs( 95 )               );
+            target.put( "maxMs",     latency.maxMs()                          );
+            target.put( "lossPct",   latency.lossPct()                        );
+            target.put( "latencyHigh", latencyHigh.getOrDefault( check.name, false ) );
+            var probe = runProbes.get( check.name );
+            if( probe != null ) {
+                target.put( "probe",       check.probe.getClass().getSimpleName() );
+                target.put( "reason",      probe.reason() );
+                target.put( "connectMs",   probe.connectNanos()   / 1e6 );
+                target.put( "tlsMs",       probe.tlsNanos()       / 1e6 );
+                target.put( "firstByteMs", probe.firstByteNanos() / 1e6 );
+                target.put( "totalMs",     probe.totalNanos()     / 1e6 );
+                if( probe.status() != 0 )
+                    target.put( "status", probe.status() );
+                if( probe.certNotAfter() != null )
+                    target.put( "certDaysLeft", Duration.between( Instant.now(), probe.certNotAfter() ).toDays() );
+            }
+            targets.put( check.name, target );
+        }
 
-            // if we had a change in state, send an event...
-            if( result.info() != lastStates.get( check.name ) ) {
-                var type = result.info() ? "LAN.connected" : "LAN.disconnected";
-                var subject = "Host " + Monitor.getHost() + " is now " + (result.info() ? "connected to " : " disconnected from ") + check.name;
-                var message = subject + " (" + check.ip.toString() + ":" + check.port + ").";
-                sendEvent( type, check.name, subject, message, 8 );
+        // and each sweep...
+        if( !sweeps.isEmpty() ) {
+            var sweepsJSON = new JSONObject();
+            msg.putDotted( "monitor.lan.sweeps", sweepsJSON );
+            msg.putDotted( "monitor.lan.sweepMs", sweepMs );
+            for( SweepSet sweep : sweeps ) {
+                var sweepJSON = new JSONObject();
+                sweepJSON.put( "endpoints", sweep.size()           );
+                sweepJSON.put( "reachable", sweep.reachableCount() );
+                sweepJSON.put( "notProbed", sweep.unknownCount()   );
+                sweepsJSON.put( sweep.sweep().name(), sweepJSON );
             }
         }
+
+        // send it!
+        mailbox.send( msg );
+        LOGGER.info( "Sent LAN monitor message" );
+    }
+
+
+    /**
+     * Send an event for each check with its latency and loss statistics, for insertion into a database.
+     */
+    private void sendStatistics() {
+
+        for( Check check : checks ) {
+
+            var result  = runResults.get( check.name );
+            var latency = latencies.get( check.name );
+            if( (result == null) || (latency == null) ) continue;
+
+            // build our event message...
+            Message msg = mailbox.createDirectMessage( "events.post", "event.post", false );
+            msg.putDotted( "tag",              "LAN_stats"                  );
+            msg.putDotted( "timestamp",        System.currentTimeMillis()   );
+            msg.putDotted( "fields.target",    check.name                   );
+            msg.putDotted( "fields.connected", result.connected()           );
+            msg.putDotted( "fields.rttMs",     result.rttNanos() / 1e6      );
+            msg.putDotted( "fields.p50Ms",     latency.percentileMs( 50 )   );
+            msg.putDotted( "fields.p95Ms",     latency.percentileMs( 95 )   );
+            msg.putDotted( "fields.maxMs",     latency.maxMs()              );
+            msg.putDotted( "fields.lossPct",   latency.lossPct()            );
+
+            // send it!
+            mailbox.send( msg );
+        }
+        LOGGER.info( "Sent LAN statistics messages" );
+    }
+
+
+    /**
+     * Return the timeout for the given check's protocol probe: the same total time the TCP check's tries would take if every one of them timed out.
+     *
+     * @param _check The check.
+     * @return The timeout for the check's protocol probe, in milliseconds.
+     */
+    private static int probeTimeoutMs( final Check _check ) {
+        return _check.initialTimeoutMs * TRIES * (TRIES + 1) / 2;
     }
 
 
-    public record Check( String name, IPAddress ip, int port, int initialTimeoutMs ){}
+    /**
+     * Handle the result of a check's protocol probe.  A probe that passes counts as connected, and one that fails as disconnected (refused, if the host
+     * refused it); the latency recorded is the time to connect (or for a UDP probe, the round trip time).  If the server's certificate expires soon, an
+     * event is sent (at most once a day).
+     *
+     * @param _check The check.
+     * @param _result The result of the check's protocol probe.
+     */
+    private void handleProbeResult( final Check _check, final ProtocolProber.Result _result ) {
+
+        runProbes.put( _check.name, _result );
+        var rtt = (_result.connectNanos() > 0) ? _result.connectNanos() : _result.firstByteNanos();
+        handleResult( _check, new TCPProber.Result( _result.passed(), _result.refused(), false, _result.passed() ? rtt : 0, 1, null ), _result.reason() );
+
+        // warn about certificates about to expire...
+        if( _result.certNotAfter() != null ) {
+            var daysLeft = Duration.between( Instant.now(), _result.certNotAfter() ).toDays();
+            if( daysLeft < certWarningDays ) {
+                var subject = "Certificate for " + _check.name + " expires in " + daysLeft + " days";
+                var message = subject + " (" + _check.ip.toString() + ":" + _check.port + ", at " + _result.certNotAfter() + ").";
+                sendEvent( Duration.ofDays( 1 ), "LAN.certExpiring", _check.name, subject, message, 7 );
+            }
+        }
+    }
+
+
+    /**
+     * Handle the result of a single check, sending an event if there was a problem or if the check's state changed.  A refused connection is a change to
+     * disconnected like any other, but its event says why: the host is up, and it's the service that's down.
+     *
+     * @param _check The check.
+     * @param _result The result of probing the check.
+     * @param _reason If the check has a protocol probe that didn't pass, why not; otherwise null.
+     */
+    private void handleResult( final Check _check, final TCPProber.Result _result, final String _reason ) {
+
+        // if we have no last state for this check, default it to true (it connected)...
+        if( !lastStates.containsKey( _check.name ) ) lastStates.put( _check.name, true );
+
+        // record the result and its latency...
+        runResults.put( _check.name, _result );
+        var latency = latencies.computeIfAbsent( _check.name, (k) -> new LatencyWindow( statsWindow ) );
+        latency.record( _result.connected() ? _result.rttNanos() / 1000 : -1, Math.max( 1, _result.tries() ) );
+
+        // if we had a failure, send an event, log it and leave...
+        if( !_result.ok() ) {
+            sendEvent( "LAN.problem", _check.name, "Problem connecting to " + _check.name, _result.error(), 9 );
+            LOGGER.log( Level.WARNING, "TCP connection test failure: " + _check.name + ": " + _result.error() );
+            return;
+        }
+
+        // if we had a change in state, send an event...
+        if( _result.connected() != lastStates.get( _check.name ) ) {
+            var reason  = ((_reason == null) && _result.refused()) ? "connection refused (the host is up, but nothing is listening on the port)" : _reason;
+            var type = _result.connected() ? "LAN.connected" : "LAN.disconnected";
+            var subject = "Host " + Monitor.getHost() + " is now " + (_result.connected() ? "connected to " : "disconnected from ") + _check.name;
+            var message = subject + " (" + _check.ip.toString() + ":" + _check.port + ")" + ((reason == null) ? "." : ": " + reason + ".")
+                    + (isDown( _check.name ) ? dependentsPhrase( _check ) : "");
+            sendEvent( type, _check.name, subject, message, 8 );
+            lastStates.put( _check.name, _result.connected() );
+        }
+
+        // if we connected, check for latency going high or returning to normal; the gap between the two thresholds keeps us from flapping...
+        if( _result.connected() ) {
+            var rttMs = _result.rttNanos() / 1e6;
+            var high  = latencyHigh.getOrDefault( _check.name, false );
+            if( !high && (rttMs > latencyHighMs) ) {
+                latencyHigh.put( _check.name, true );
+                sendEvent( "LAN.latencyHigh", _check.name, "High latency to " + _check.name,
+                        String.format( "Connect latency from %s to %s is high: %.1f ms (threshold %.1f ms).", Monitor.getHost(), _check.name, rttMs, latencyHighMs ), 7 );
+            }
+            else if( high && (rttMs < latencyClearMs) ) {
+                latencyHigh.put( _check.name, false );
+                sendEvent( "LAN.latencyNormal", _check.name, "Latency to " + _check.name + " is normal",
+                        String.format( "Connect latency from %s to %s is back to normal: %.1f ms.", Monitor.getHost(), _check.name, rttMs ), 6 );
+            }
+        }
+    }
+
+
+    /**
+     * A check of a host's connectivity: by default, that a TCP connection can be established to the given port, or, if the check has a protocol probe,
+     * that the probe passes.
+     *
+     * @param name The name of the check.
+     * @param ip The IP address of the host.
+     * @param port The port to check.
+     * @param initialTimeoutMs The timeout for the first try of a TCP check; each subsequent try's timeout is longer by this much.  A protocol probe gets the
+     *                         total of all the tries' timeouts.
+     * @param probe The protocol probe to run, or null for a plain TCP check.
+     * @param parent The name of the check this check's host can only be reached through, or null if it doesn't depend on another check.
+     */
+    public record Check( String name, IPAddress ip, int port, int initialTimeoutMs, ProtocolProber.Probe probe, String parent ){
+
+        /**
+         * Creates a new instance of this class for a plain TCP check.
+         *
+         * @param name The name of the check.
+         * @param ip The IP address of the host.
+         * @param port The TCP port to check.
+         * @param initialTimeoutMs The timeout for the first try; each subsequent try's timeout is longer by this much.
+         */
+        public Check( String name, IPAddress ip, int port, int initialTimeoutMs ) {
+            this( name, ip, port, initialTimeoutMs, null, null );
+        }
+
+
+        /**
+         * Creates a new instance of this class for a check with a protocol probe, that doesn't depend on another check.
+         *
+         * @param name The name of the check.
+         * @param ip The IP address of the host.
+         * @param port The port to check.
+         * @param initialTimeoutMs The timeout for the first try; the probe gets the total of all the tries' timeouts.
+         * @param probe The protocol probe to run, or null for a plain TCP check.
+         */
+        public Check( String name, IPAddress ip, int port, int initialTimeoutMs, ProtocolProber.Probe probe ) {
+            this( name, ip, port, initialTimeoutMs, probe, null );
+        }
+    }
+
+
+    /**
+     * A sweep of every host address in some CIDR ranges, on each of some TCP ports, looking for changes in which endpoints are reachable.
+     *
+     * @param name The name of the sweep.
+     * @param cidrs The CIDR ranges to sweep, like "10.1.0.0/16".
+     * @param ports The TCP ports to probe on each host.
+     * @param timeoutMs The timeout for the first try at each endpoint; each subsequent try's timeout is longer by this much.
+     * @param tries The maximum number of tries at each endpoint.
+     */
+    public record Sweep( String name, List<String> cidrs, List<Integer> ports, int timeoutMs, int tries ){}
 }
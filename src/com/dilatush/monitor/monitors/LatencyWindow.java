@@ -0,0 +1,117 @@
+package com.dilatush.monitor.monitors;
+
+import java.time.Duration;
+
+/**
+ * Accumulates round-trip latency and loss statistics for a single target over a rolling window of time, in fixed memory.  Two histograms are kept: every
+ * sample goes into both, and every half window the older one is discarded and a fresh one started.  The statistics reported always come from the older
+ * histogram, so they cover between one half and one whole window of samples.  Instances of this class are not threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class LatencyWindow {
+
+    private final long halfWindowMs;  // how often we rotate the histograms...
+
+    private Histogram older;          // samples from the last one to two half windows; this is what we report...
+    private Histogram newer;          // samples from the current half window...
+    private long      olderTries;     // tries and lost tries, for the same periods as the histograms...
+    private long      olderLost;
+    private long      newerTries;
+    private long      newerLost;
+    private long      rotatedAt;      // when we last rotated the histograms...
+
+
+    /**
+     * Creates a new instance of this class for the given window.
+     *
+     * @param _window The window of time to report statistics for.
+     */
+    public LatencyWindow( final Duration _window ) {
+        halfWindowMs = Math.max( 1, _window.toMillis() / 2 );
+        older        = new Histogram();
+        newer        = new Histogram();
+        rotatedAt    = System.currentTimeMillis();
+    }
+
+
+    /**
+     * Record a sample.
+     *
+     * @param _rttMicros The round-trip time of the successful try in microseconds, or a negative value if every try was lost.
+     * @param _tries The number of tries, including the successful one (if any).
+     */
+    public void record( final long _rttMicros, final int _tries ) {
+
+        rotateIfNeeded();
+
+        var lost = (_rttMicros < 0) ? _tries : _tries - 1;
+        olderTries += _tries;
+        newerTries += _tries;
+        olderLost  += lost;
+        newerLost  += lost;
+        if( _rttMicros >= 0 ) {
+            older.record( _rttMicros );
+            newer.record( _rttMicros );
+        }
+    }
+
+
+    /**
+     * Return the given percentile of round-trip time in the window, in milliseconds.
+     *
+     * @param _percentile The percentile desired, in [0..100].
+     * @return The round-trip time at the given percentile, in milliseconds, or zero if there have been no successful tries.
+     */
+    public double percentileMs( final double _percentile ) {
+        return older.percentile( _percentile ) / 1000D;
+    }
+
+
+    /**
+     * Return the maximum round-trip time in the window, in milliseconds.
+     *
+     * @return The maximum round-trip time, in milliseconds, or zero if there have been no successful tries.
+     */
+    public double maxMs() {
+        return older.max() / 1000D;
+    }
+
+
+    /**
+     * Return the percentage of tries that were lost in the window.
+     *
+     * @return The percentage of lost tries, or zero if there have been no tries.
+     */
+    public double lossPct() {
+        return (olderTries == 0) ? 0 : 100D * olderLost / olderTries;
+    }
+
+
+    /**
+     * Return the number of successful samples in the window.
+     *
+     * @return The number of successful samples.
+     */
+    public long samples() {
+        return older.count();
+    }
+
+
+    private void rotateIfNeeded() {
+
+        var now = System.currentTimeMillis();
+        if( now - rotatedAt < halfWindowMs ) return;
+
+        // the newer histogram becomes the older, and the old older one is reused as the newer...
+        var swap = older;
+        older      = newer;
+        newer      = swap;
+        newer.reset();
+        olderTries = newerTries;
+        olderLost  = newerLost;
+        newerTries = 0;
+        newerLost  = 0;
+        rotatedAt  = now;
+    }
+}
@@ -0,0 +1,228 @@
+package com.dilatush.monitor.monitors;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Parses the XML status pages ("time", "state", and "gnss") served by a TF-1006-PRO NTP server straight into a {@link Scraping}, with a streaming (StAX)
+ * parser.  Each page is parsed as it's read, element by element; there's no DOM, no XPath, and no joining of the pages into one document.  The fields are
+ * picked out by element name (which is unique across the three pages), and their values are parsed in place rather than by splitting strings.  One
+ * instance (and one Scraping) can be reused for every run; the factory is created once, as creating it is far more expensive than using it.  Instances of
+ * this class are threadsafe, though a Scraping is not.  See the comment at the end of NTPServer.java for an example of the pages.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class NTPScraper {
+
+    private static final float FEET_PER_METER = 3.28084F;
+
+    // the names of the elements holding the fields we parse...
+    private static final Set<String> FIELDS = Set.of( "rtime", "loppstate", "tie", "ntpstate", "ant", "svused", "gpsinfo", "glinfo", "gainfo", "lat",
+            "long", "alt" );
+
+    private final XMLInputFactory factory;
+
+
+    /**
+     * Creates a new instance of this class.
+     */
+    public NTPScraper() {
+        factory = XMLInputFactory.newFactory();
+        factory.setProperty( XMLInputFactory.SUPPORT_DTD, false );                     // the pages have no DTD, and we don't want any surprises...
+        factory.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false );
+        factory.setProperty( XMLInputFactory.IS_COALESCING, true );
+    }
+
+
+    /**
+     * Parse the given page from the given stream into the given scraping, setting the fields that page holds and leaving the others alone.
+     *
+     * @param _page The page being parsed, for error messages.
+     * @param _in The stream to read the page from; it is read to the end of the page's root element, but not closed.
+     * @param _into The scraping to parse the page into.
+     * @throws XMLStreamException On any problem parsing the page.
+     * @throws NumberFormatException If a field doesn't hold a number where one is expected.
+     */
+    public void parse( final Page _page, final InputStream _in, final Scraping _into ) throws XMLStreamException {
+
+        var reader = factory.createXMLStreamReader( _in );
+        try {
+            var depth = 0;
+            while( reader.hasNext() ) {
+                var event = reader.next();
+                if( event == XMLStreamConstants.END_ELEMENT ) {
+                    if( --depth == 0 ) return;  // end of the page's root element...
+                    continue;
+                }
+                if( event != XMLStreamConstants.START_ELEMENT ) continue;
+                depth++;
+
+                // the fields we want are all children of the root; anything else (at any depth) we just walk past...
+                if( (depth != 2) || !FIELDS.contains( reader.getLocalName() ) ) continue;
+                var name = reader.getLocalName();
+                var text = reader.getElementText().trim();  // this consumes the field's end element...
+                depth--;
+                switch( name ) {
+                    case "rtime"     -> _into.uptime      = parseUptime( text );
+                    case "loppstate" -> _into.referenceUp = "Locked".equals( text );
+                    case "tie"       -> _into.tie         = parseInt( text );
+                    case "ntpstate"  -> _into.ntpUp       = "ACTIVE".equals( text );
+                    case "ant"       -> _into.antennaOK   = "OK".equals( text );
+                    case "svused"    -> _into.satsUsed    = parseInt( text );
+                    case "lat"       -> _into.lat         = parseLatLon( text );
+                    case "long"      -> _into.lon         = parseLatLon( text );
+                    case "alt"       -> _into.altitude    = parseAltitude( text );
+                    default          -> _into.satsTotal  += parseVisible( text );  // "gpsinfo", "glinfo", or "gainfo"...
+                }
+            }
+            throw new XMLStreamException( "Page \"" + _page.file + "\" ended before its root element did" );
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+
+    /**
+     * Parse a number into the nearest integer (the server has been known to report a whole number with a decimal point).
+     *
+     * @param _text The number to parse.
+     * @return The nearest integer.
+     */
+    static int parseInt( final String _text ) {
+        return (int) Math.round( Double.parseDouble( _text ) );
+    }
+
+
+    /**
+     * Parse an uptime like "110 Day 12:03:22" into hours.
+     *
+     * @param _text The uptime to parse.
+     * @return The uptime, in whole hours.
+     */
+    static int parseUptime( final String _text ) {
+        var day   = _text.indexOf( " Day " );
+        var colon = _text.indexOf( ':', day + 5 );
+        if( (day < 0) || (colon < 0) ) throw new NumberFormatException( "Unexpected uptime: " + _text );
+        return Integer.parseInt( _text, 0, day, 10 ) * 24 + Integer.parseInt( _text, day + 5, colon, 10 );
+    }
+
+
+    /**
+     * Parse the number of satellites visible from a constellation's info like "4/6" (4 used, 6 visible).
+     *
+     * @param _text The constellation info to parse.
+     * @return The number of satellites visible.
+     */
+    static int parseVisible( final String _text ) {
+        var slash = _text.indexOf( '/' );
+        if( slash < 0 ) throw new NumberFormatException( "Unexpected satellite info: " + _text );
+        return Integer.parseInt( _text, slash + 1, _text.length(), 10 );
+    }
+
+
+    /**
+     * Parse a latitude or longitude like "W 11154.832" (where 111 is degrees and everything else minutes) into degrees, negative for south or west.
+     *
+     * @param _text The latitude or longitude to parse.
+     * @return The latitude or longitude, in degrees.
+     */
+    static float parseLatLon( final String _text ) {
+        if( (_text.length() < 3) || (_text.charAt( 1 ) != ' ') ) throw new NumberFormatException( "Unexpected latitude or longitude: " + _text );
+        var negate = (_text.charAt( 0 ) == 'S') || (_text.charAt( 0 ) == 'W');  // south latitude and west longitude are negative...
+        var latlon = Double.parseDouble( _text.substring( 2 ) );
+        var intDeg = Math.floor( latlon / 100D );
+        var frcDeg = (latlon / 100D - intDeg) * 100D / 60D;
+        var deg = intDeg + frcDeg;
+        return (float)(negate ? -deg : deg);
+    }
+
+
+    /**
+     * Parse an altitude like "1433.2 m" into feet.
+     *
+     * @param _text The altitude to parse.
+     * @return The altitude, in feet.
+     */
+    static float parseAltitude( final String _text ) {
+        var space = _text.indexOf( ' ' );
+        return FEET_PER_METER * Float.parseFloat( (space < 0) ? _text : _text.substring( 0, space ) );  // convert meters to feet...
+    }
+
+
+    /**
+     * The status pages a TF-1006-PRO NTP server serves, and the fields each holds.
+     */
+    public enum Page {
+
+        TIME(  "time"  ),  // uptime...
+        STATE( "state" ),  // reference and NTP state, and TIE...
+        GNSS(  "gnss"  );  // antenna, satellites, and position...
+
+        /** The page's name, as in its URL (like "time" in "/xml/time.xml"). */
+        public final String file;
+
+
+        Page( final String _file ) {
+            file = _file;
+        }
+    }
+
+
+    /**
+     * Data structure to hold the scraped and processed data from the TF-1006-PRO NTP server.  It's meant to be reused; call {@link #clear()} before
+     * parsing a new set of pages into it.  A page that couldn't be scraped leaves its fields at their initial values, and isn't in {@link #pages}; check
+     * {@link #has(Page)} before using a page's fields.
+     */
+    public static class Scraping {
+
+        final EnumSet<Page> pages     = EnumSet.noneOf( Page.class );  // the pages successfully scraped...
+        final long[]        latencyMs = new long[Page.values().length];  // how long fetching each page took, in milliseconds, or -1 if it failed...
+
+        int     uptime;      // how long the NTP server has been up, in hours...
+        boolean referenceUp; // true if the frequency reference is up (GPS locked and disciplined oscillator locked)...
+        boolean ntpUp;       // true if the NTP server software is up...
+        int     tie;         // time interval error (phase error over an interval) in nanoseconds...
+        int     satsUsed;    // number of satellites used for GPS solution...
+        int     satsTotal;   // number of satellites visible to the NTP server's receiver...
+        float   lat;         // latitude in degrees (+ for north, - for south)...
+        float   lon;         // longitude in degrees (+ for east, - for west)...
+        float   altitude;    // altitude in feet...
+        boolean antennaOK;   // true if the antenna is ok...
+
+
+        /**
+         * Reset all the fields to their initial values.
+         */
+        public void clear() {
+            pages.clear();
+            Arrays.fill( latencyMs, -1 );
+            uptime      = 0;
+            referenceUp = false;
+            ntpUp       = false;
+            tie         = 0;
+            satsUsed    = 0;
+            satsTotal   = 0;
+            lat         = 0;
+            lon         = 0;
+            altitude    = 0;
+            antennaOK   = false;
+        }
+
+
+        /**
+         * Return true if the given page was successfully scraped, so its fields are valid.
+         *
+         * @param _page The page to check.
+         * @return True if the page was successfully scraped.
+         */
+        public boolean has( final Page _page ) {
+            return pages.contains( _page );
+        }
+    }
+}
@@ -2,38 +2,45 @@ package com.dilatush.monitor.monitors;
 
 import com.dilatush.mop.Mailbox;
 import com.dilatush.mop.Message;
-import org.w3c.dom.Document;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.StringReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import com.dilatush.util.Outcome;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static com.dilatush.monitor.monitors.AMonitor.TriState.*;
+import static com.dilatush.monitor.monitors.NTPScraper.Page.*;
 import static com.dilatush.util.General.getLogger;
 import static com.dilatush.util.General.isNull;
 
 
 /**
- * Instances of this class monitor a TF-1006-PRO NTP server.  This server uses GPS clock references and a disciplined oscillator to implement a Stratum 1
- * NTP server.  The monitor produces MOP events for significant status changes, statistics to be recorded in the database, and status reports for the website.
+ * Instances of this class monitor one or more TF-1006-PRO NTP servers.  This server uses GPS clock references and a disciplined oscillator to implement a
+ * Stratum 1 NTP server.  The monitor produces MOP events for significant status changes, statistics to be recorded in the database, and status reports for
+ * the website.  A whole fleet of servers can be monitored by one instance: they're scraped concurrently (at most a configured number at once) over one
+ * shared HTTP client, so its connections to each server are kept alive between runs, and one status message covers them all.  Events and statistics are
+ * per server; an event's type is the name of the server it's about.
  */
 public class NTPServer extends AMonitor {
 
@@ -43,26 +50,64 @@ public class NTPServer extends AMonitor {
     private static final int MIN_SATS_USED    = 6;
     private static final int MIN_SATS_VISIBLE = 10;
 
-    private final String urlStr;
-    private final String basicAuthentication;
+    private static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds( 3 );
+    private static final Duration DEFAULT_PAGE_TIMEOUT    = Duration.ofSeconds( 10 );
+    private static final int      DEFAULT_MAX_CONCURRENT  = 4;  // the most servers scraped (or SNTP probes run) at once...
 
-    // keep track of the last state of variables that we send events for...
-    private TriState lastReferenceUp   = UNKNOWN;
-    private TriState lastNTPUp         = UNKNOWN;
-    private TriState lastTIEOK         = UNKNOWN;
-    private TriState lastSatsUsedOK    = UNKNOWN;
-    private TriState lastSatsVisibleOK = UNKNOWN;
-    private TriState lastAntennaOK     = UNKNOWN;
+    private static final int      DEFAULT_SNTP_BURST         = 4;
+    private static final Duration DEFAULT_SNTP_SPACING       = Duration.ofMillis( 500 );
+    private static final Duration DEFAULT_SNTP_TIMEOUT       = Duration.ofSeconds( 1 );
+    private static final double   DEFAULT_SNTP_OFFSET_MAX_MS = 10;  // maximum allowable offset of a server's clock from ours...
+    private static final double   DEFAULT_SNTP_DELAY_MAX_MS  = 50;  // maximum allowable round-trip delay to a server...
 
-    // synthesized XML document scraped from NTP server...
-    private String xml;
+    private static final List<Integer> DEFAULT_STABILITY_TAUS   = List.of( 1, 10, 60 );  // averaging times, in monitor intervals...
+    private static final Duration      DEFAULT_STABILITY_WINDOW = Duration.ofDays( 1 );
+    private static final Duration      DEFAULT_STABILITY_RECENT = Duration.ofHours( 1 );
+    private static final double        DEFAULT_STABILITY_FACTOR = 3;
+    private static final double        TIE_RESOLUTION_S         = 1e-9;  // the server reports TIE in whole nanoseconds...
+    private static final double        SNTP_RESOLUTION_S        = 1e-4;  // SNTP offsets are good to about a tenth of a millisecond on a LAN...
+
+    // the first server's status fields that are also sent at the top level, as they were when this monitor could only watch one server...
+    private static final List<String> TOP_LEVEL_KEYS = List.of( "uptimeHours", "tieNs", "referenceUp", "ntpUp", "tieStability", "satsUsed",
+            "satsVisible", "antennaOk", "pageLatencyMs", "sntp" );
+
+    private static final Outcome.Forge<SNTPProbe.Result> FORGE_SNTP = new Outcome.Forge<>();
+
+    private final HttpClient client;          // shared by all our fetches, so its connections are kept alive between them...
+    private final Duration   pageTimeout;     // the maximum time to fetch all of a server's pages...
+
+    // parses the scraped pages of every server (it's threadsafe)...
+    private final NTPScraper parser = new NTPScraper();
+
+    // the servers we monitor, in the order they were configured...
+    private final List<Server>    servers;
+    private final ExecutorService scrapeThreads;    // scrapes the servers, at most the configured number at once...
+
+    // SNTP probes of the servers' time service, run alongside the scraping...
+    private final ExecutorService sntpThreads;      // runs the probes, or null if there are none...
+    private final Duration        sntpMaxTime;      // the longest all the probes can take...
+    private final double          sntpOffsetMaxMs;
+    private final double          sntpDelayMaxMs;
 
 
     /**
-     * Create a new instance of this class to monitor a TF-1006-PRO NTP server at the given URL, with the given username and password (contained in the parameters).
+     * Create a new instance of this class to monitor the TF-1006-PRO NTP servers given in the parameters.
      *
      * @param _mailbox The mailbox for this monitor to use.
-     * @param _params The map of parameters, which must include "URL", "username", and "password".
+     * @param _params The map of parameters, which must include either "servers" (a list of maps, one per server, each with "URL" and optionally
+     *                "name" (default the host in the URL), "username", "password", and "sntpServers" (as below)) or "URL" (for a single server), and
+     *                "username" and "password" (the default for servers that don't have their own).  It may include "maxConcurrent" (the most servers
+     *                scraped, or SNTP probes run, at once, default 4), "connectTimeout" (a Duration, the maximum time to connect to a server, default
+     *                3 seconds), "pageTimeout" (a Duration, the maximum time to fetch all of a server's pages, default 10 seconds), "sntpServers" (a
+     *                list of NTP servers, as "host" or "host:port", to measure the time service of with SNTP; default the host in the URL, and an empty
+     *                list disables SNTP), "sntpBurst" (the number of SNTP requests sent to each server per run, default 4), "sntpSpacing" (a Duration,
+     *                the time between a burst's requests, default 500 ms), "sntpTimeout" (a Duration, the maximum time to wait for each reply, default
+     *                1 second), "sntpOffsetMaxMs" (a Double, the largest offset from our clock that's in bounds, default 10 ms), "sntpDelayMaxMs" (a
+     *                Double, the largest round-trip delay that's in bounds, default 50 ms), "stabilityTaus" (a list of Integers, the averaging times to
+     *                compute the Allan deviation and MTIE of the TIE and SNTP offsets at, as multiples of the interval, default 1, 10, and 60),
+     *                "stabilityWindow" (a Duration, how much history those statistics cover, default 1 day), "stabilityRecent" (a Duration, how much
+     *                recent history is compared with the whole window's, default 1 hour), and "stabilityDegradeFactor" (a Double, how many times its
+     *                long-run baseline a recent statistic must be for stability to be degraded, default 3).
      * @param _interval the interval between runs for this monitor.
      */
     public NTPServer( final Mailbox _mailbox, final Map<String,Object> _params, final Duration _interval ) {
@@ -70,14 +115,72 @@ public class NTPServer extends AMonitor {
 
         if( isNull( _params ) ) throw new IllegalArgumentException( "_params must be supplied" );
 
-        var url      = (String) _params.get( "URL"      );
-        var username = (String) _params.get( "username" );
-        var password = (String) _params.get( "password" );
+        var ct = (Duration) _params.get( "connectTimeout" );
+        var pt = (Duration) _params.get( "pageTimeout"    );
+        pageTimeout = (pt == null) ? DEFAULT_PAGE_TIMEOUT : pt;
+        client = HttpClient.newBuilder()
+                .version( HttpClient.Version.HTTP_1_1 )
+                .connectTimeout( (ct == null) ? DEFAULT_CONNECT_TIMEOUT : ct )
+                .followRedirects( HttpClient.Redirect.NEVER )
+                .build();
+
+        var sb = (Integer)  _params.get( "sntpBurst"       );
+        var sp = (Duration) _params.get( "sntpSpacing"     );
+        var st = (Duration) _params.get( "sntpTimeout"     );
+        var so = (Double)   _params.get( "sntpOffsetMaxMs" );
+        var sd = (Double)   _params.get( "sntpDelayMaxMs"  );
+        var burst   = (sb == null) ? DEFAULT_SNTP_BURST   : sb;
+        var spacing = (sp == null) ? DEFAULT_SNTP_SPACING : sp;
+        var timeout = (st == null) ? DEFAULT_SNTP_TIMEOUT : st;
+        sntpOffsetMaxMs = (so == null) ? DEFAULT_SNTP_OFFSET_MAX_MS : so;
+        sntpDelayMaxMs  = (sd == null) ? DEFAULT_SNTP_DELAY_MAX_MS  : sd;
+
+        //noinspection unchecked
+        var ta = (List<Integer>) _params.get( "stabilityTaus" );
+        var sw = (Duration) _params.get( "stabilityWindow"        );
+        var sr = (Duration) _params.get( "stabilityRecent"        );
+        var sf = (Double)   _params.get( "stabilityDegradeFactor" );
+        var taus   = ((ta == null) ? DEFAULT_STABILITY_TAUS : ta).stream().mapToInt( Integer::intValue ).toArray();
+        var window = (int) Math.max( 1, ((sw == null) ? DEFAULT_STABILITY_WINDOW : sw).toMillis() / _interval.toMillis() );
+        var recent = (int) Math.min( window, Math.max( 1, ((sr == null) ? DEFAULT_STABILITY_RECENT : sr).toMillis() / _interval.toMillis() ) );
+        var factor = (sf == null) ? DEFAULT_STABILITY_FACTOR : sf;
+
+        // the servers are either listed, or (the old way) a single server given by the top-level parameters...
+        //noinspection unchecked
+        var list = (List<Map<String,Object>>) _params.get( "servers" );
+        if( list == null ) list = List.of( _params );
+        if( list.isEmpty() ) throw new IllegalArgumentException( "At least one server must be supplied" );
+        servers = new ArrayList<>( list.size() );
+        var sntpCount = 0;
+        for( Map<String,Object> server : list ) {
+
+            var url      = (String) server.get( "URL" );
+            var username = (String) server.getOrDefault( "username", _params.get( "username" ) );
+            var password = (String) server.getOrDefault( "password", _params.get( "password" ) );
+            if( isNull( url, username, password ) ) throw new IllegalArgumentException( "URL, username, and password parameters must all be supplied" );
+            var host = URI.create( url ).getHost();
+            var name = (String) server.getOrDefault( "name", host );
+
+            //noinspection unchecked
+            var ss = (List<String>) server.getOrDefault( "sntpServers", _params.get( "sntpServers" ) );
+            var sntp = new ArrayList<SNTPTarget>();
+            for( SNTPProbe probe : SNTPProbe.of( (ss == null) ? List.of( host ) : ss, burst, spacing, timeout ) )
+                sntp.add( new SNTPTarget( probe, new StabilityStats( _interval, taus, window, recent, factor, SNTP_RESOLUTION_S ) ) );
+            sntpCount += sntp.size();
+
+            servers.add( new Server( name, url, getBasicAuthentication( username, password ), sntp,
+                    new StabilityStats( _interval, taus, window, recent, factor, TIE_RESOLUTION_S ) ) );
+        }
 
-        if( isNull( url, username, password ) ) throw new IllegalArgumentException( "URL, username, and password parameters must all be supplied" );
+        // the threads that scrape the servers and run the SNTP probes, at most maxConcurrent of each at once...
+        var mc = (Integer) _params.get( "maxConcurrent" );
+        var maxConcurrent = Math.max( 1, (mc == null) ? DEFAULT_MAX_CONCURRENT : mc );
+        scrapeThreads = Executors.newFixedThreadPool( Math.min( maxConcurrent, servers.size() ), daemon( "NTPServer scrape" ) );
+        sntpThreads   = (sntpCount == 0) ? null : Executors.newFixedThreadPool( Math.min( maxConcurrent, sntpCount ), daemon( "NTPServer SNTP" ) );
 
-        urlStr = url;
-        basicAuthentication = getBasicAuthentication( username, password );
+        // the probes run in waves, if there are more of them than threads...
+        var waves = (sntpCount == 0) ? 0 : (sntpCount + maxConcurrent - 1) / maxConcurrent;
+        sntpMaxTime = spacing.plus( timeout ).multipliedBy( burst ).plusSeconds( 1 ).multipliedBy( waves );
     }
 
 
@@ -87,49 +190,121 @@ public class NTPServer extends AMonitor {
     @Override
     protected void runImpl() {
 
+        // start probing the time service, while we scrape the current status data from the TF-1006-PRO NTP servers...
+        var probes = startSNTP();
+        var scrapes = new ArrayList<Future<?>>( servers.size() );
+        for( Server server : servers ) scrapes.add( scrapeThreads.submit( server::scrape ) );
+
+        // wait for the scrapes, and then the probes (each scrape is limited by the page timeout, and the probes by their own timeouts)...
+        var sntp = new ArrayList<List<Outcome<SNTPProbe.Result>>>( servers.size() );
         try {
+            for( int i = 0; i < servers.size(); i++ ) {
+                try {
+                    scrapes.get( i ).get();
+                }
+                catch( ExecutionException _e ) {
+                    servers.get( i ).failures.add( "scrape failed: " + _e.getCause() );
+                }
+            }
+            var deadlineNs = System.nanoTime() + sntpMaxTime.toNanos();
+            for( List<Future<Outcome<SNTPProbe.Result>>> serverProbes : probes ) sntp.add( finishSNTP( serverProbes, deadlineNs ) );
+        }
+        catch( InterruptedException _e ) {
+
+            // cancel whatever's still running, so it can't race with the next run's use of the servers' scraping state...
+            for( Future<?> scrape : scrapes ) scrape.cancel( true );
+            for( List<Future<Outcome<SNTPProbe.Result>>> serverProbes : probes )
+                for( Future<Outcome<SNTPProbe.Result>> probe : serverProbes ) probe.cancel( true );
+            Thread.currentThread().interrupt();
+            LOGGER.warning( "Interrupted while monitoring NTP servers" );
+            return;
+        }
 
-            // scrape the current status data from the TF-1006-PRO NTP server...
-            var scraping = scrape();
+        // then report on each server, so that a problem with one doesn't keep us from reporting on the others...
+        var nowMs = System.currentTimeMillis();
+        for( int i = 0; i < servers.size(); i++ ) {
+            var server = servers.get( i );
+            try {
+                report( server, nowMs, sntp.get( i ) );
+            }
 
-            // based on the scraped data, send status, statistics, and any events...
-            sendStatus( scraping );
-            sendStatistics( scraping );
-            sendEvents( scraping );
+            // if we get any exceptions, then we log them and send a rate-limited event...
+            catch( Exception _e ) {
+
+                LOGGER.log( Level.SEVERE, "Problem reading from NTP Server " + server.name, _e );
+
+                var subject = server.name + ": " + _e.getClass().getSimpleName();
+                var message = _e.getMessage();
+                sendEvent( Duration.ofHours( 1 ), "NTPServer.readFailure", server.name, subject, message, 7 );
+            }
         }
 
-        // if we get any exceptions, then we log them and send a rate-limited event...
-        catch( Exception _e ) {
+        // and on the whole fleet...
+        sendStatus( sntp );
+    }
 
-            LOGGER.log( Level.SEVERE, "Problem reading from NTP Server\nXML read:\n" + xml, _e );
 
-            var subject = _e.getClass().getSimpleName();
-            var message = _e.getMessage();
-            sendEvent( Duration.ofHours( 1 ), "NTPServer.readFailure", "NTPServer.readFailure", subject, message, 7 );
+    /**
+     * Send the statistics and events for the given server, from what we scraped and probed on this run.
+     *
+     * @param _server The server to report on.
+     * @param _nowMs The time of this run, in milliseconds since the epoch.
+     * @param _sntp The outcomes of the server's SNTP probes.
+     */
+    private void report( final Server _server, final long _nowMs, final List<Outcome<SNTPProbe.Result>> _sntp ) {
+
+        var scraping = _server.scraping;
+        addStabilitySamples( _server, _nowMs, _sntp );
+        sendSNTP( _server, _sntp );
+
+        // if we couldn't get some (or all) of the pages, log it and send a rate-limited event...
+        if( !_server.failures.isEmpty() ) {
+            var message = String.join( "; ", _server.failures );
+            LOGGER.warning( "Problem reading from NTP Server " + _server.name + ": " + message );
+            if( scraping.pages.isEmpty() ) {
+                sendEvent( Duration.ofHours( 1 ), "NTPServer.readFailure", _server.name, _server.name + ": NTP server could not be read", message, 7 );
+                return;
+            }
+            sendEvent( Duration.ofHours( 1 ), "NTPServer.pageFailure", _server.name, _server.name + ": NTP server could not be completely read", message, 6 );
         }
+
+        // based on the scraped data, send statistics and any events...
+        sendStatistics( _server );
+        sendEvents( _server );
+        sendStabilityEvents( _server );
     }
 
 
     /**
-     * Send a published NTP monitoring message.
+     * Send a published NTP monitoring message covering all the servers: "monitor.ntp.servers" holds each server's status, in the order configured, and
+     * the first server's status fields that existed when this monitor could only watch one server are also at the top level, as they were.
      *
-     * @param _scraping The data scraped from the TF-1006-PRO NTP server.
+     * @param _sntp The outcomes of the SNTP probes, per server.
      */
-    private void sendStatus( final Scraping _scraping ) {
+    private void sendStatus( final List<List<Outcome<SNTPProbe.Result>>> _sntp ) {
 
         Message msg = mailbox.createPublishMessage( "ntp.monitor" );
 
         // send the message interval...
         msg.putDotted( "monitor.ntp.messageIntervalMs",     interval.toMillis()        );
 
-        // fill in our collected data...
-        msg.putDotted( "monitor.ntp.uptimeHours",           _scraping.uptime           );
-        msg.putDotted( "monitor.ntp.tieNs",                 _scraping.tie              );
-        msg.putDotted( "monitor.ntp.referenceUp",           _scraping.referenceUp      );
-        msg.putDotted( "monitor.ntp.ntpUp",                 _scraping.ntpUp            );
-        msg.putDotted( "monitor.ntp.satsUsed",              _scraping.satsUsed         );
-        msg.putDotted( "monitor.ntp.satsVisible",           _scraping.satsTotal        );
-        msg.putDotted( "monitor.ntp.antennaOk",             _scraping.antennaOK        );
+        // each server's status, and how many of them are healthy...
+        var all   = new JSONArray();
+        var ok    = 0;
+        var first = status( servers.get( 0 ), _sntp.get( 0 ) );
+        for( int i = 0; i < servers.size(); i++ ) {
+            var server = servers.get( i );
+            all.put( (i == 0) ? first : status( server, _sntp.get( i ) ) );
+            var scraping = server.scraping;
+            if( scraping.has( STATE ) && scraping.referenceUp && scraping.ntpUp ) ok++;
+        }
+        msg.putDotted( "monitor.ntp.servers",               all                        );
+        msg.putDotted( "monitor.ntp.serverCount",           servers.size()             );
+        msg.putDotted( "monitor.ntp.serversOk",             ok                         );
+
+        // and the first server's at the top level...
+        for( String key : TOP_LEVEL_KEYS )
+            if( first.has( key ) ) msg.putDotted( "monitor.ntp." + key, first.get( key ) );
 
         // send it!
         mailbox.send( msg );
@@ -138,112 +313,215 @@ public class NTPServer extends AMonitor {
 
 
     /**
-     * Send event with current NTP statistics, for insertion in the NTP statistics database...
+     * Return the status of the given server, from what we scraped and probed on this run.
      *
-     * @param _scraping The data scraped from the TF-1006-PRO NTP server.
+     * @param _server The server.
+     * @param _sntp The outcomes of the server's SNTP probes.
+     * @return The server's status.
      */
-    private void sendStatistics( final Scraping _scraping ) {
+    private JSONObject status( final Server _server, final List<Outcome<SNTPProbe.Result>> _sntp ) {
+
+        var scraping = _server.scraping;
+        var result = new JSONObject();
+        result.put( "name", _server.name );
+
+        // fill in our collected data, from whichever pages we got...
+        if( scraping.has( TIME ) ) {
+            result.put( "uptimeHours",  scraping.uptime                        );
+        }
+        if( scraping.has( STATE ) ) {
+            result.put( "tieNs",        scraping.tie                           );
+            result.put( "referenceUp",  scraping.referenceUp                   );
+            result.put( "ntpUp",        scraping.ntpUp                         );
+            result.put( "tieStability", _server.tieStability.toJSON( 1e9 )     );
+        }
+        if( scraping.has( GNSS ) ) {
+            result.put( "satsUsed",     scraping.satsUsed                      );
+            result.put( "satsVisible",  scraping.satsTotal                     );
+            result.put( "antennaOk",    scraping.antennaOK                     );
+        }
+        if( !_server.failures.isEmpty() ) {
+            result.put( "error",        String.join( "; ", _server.failures )  );
+        }
+
+        // and how long each page took to fetch (-1 if we couldn't)...
+        var latency = new JSONObject();
+        for( NTPScraper.Page page : NTPScraper.Page.values() ) latency.put( page.file, scraping.latencyMs[page.ordinal()] );
+        result.put( "pageLatencyMs", latency );
+
+        // and what the SNTP probes saw of the time service...
+        if( !_sntp.isEmpty() ) {
+            var sntp = new JSONObject();
+            for( int i = 0; i < _sntp.size(); i++ ) {
+                var target  = _server.sntp.get( i );
+                var outcome = _sntp.get( i );
+                var json = outcome.ok() ? outcome.info().toJSON() : new JSONObject().put( "error", outcome.msg() );
+                json.put( "stability", target.stability.toJSON( 1e3 ) );
+                sntp.put( target.probe.server(), json );
+            }
+            result.put( "sntp", sntp );
+        }
+        return result;
+    }
+
+
+    /**
+     * Send event with current NTP statistics for the given server, for insertion in the NTP statistics database...
+     *
+     * @param _server The server.
+     */
+    private void sendStatistics( final Server _server ) {
+
+        var scraping  = _server.scraping;
+        var stability = _server.tieStability;
 
         // build our event message...
         Message msg = mailbox.createDirectMessage( "events.post", "event.post", false );
         msg.putDotted( "tag",                          "ntpstats"                 );
         msg.putDotted( "timestamp",                    System.currentTimeMillis() );
-        msg.putDotted( "fields.uptimeHours",           _scraping.uptime           );
-        msg.putDotted( "fields.tieNs",                 _scraping.tie              );
-        msg.putDotted( "fields.referenceUp",           _scraping.referenceUp      );
-        msg.putDotted( "fields.ntpUp",                 _scraping.ntpUp            );
-        msg.putDotted( "fields.satsUsed",              _scraping.satsUsed         );
-        msg.putDotted( "fields.satsVisible",           _scraping.satsTotal        );
-        msg.putDotted( "fields.antennaOk",             _scraping.antennaOK        );
-        msg.putDotted( "fields.latitude",              _scraping.lat              );
-        msg.putDotted( "fields.longitude",             _scraping.lon              );
-        msg.putDotted( "fields.altitudeFeet",          _scraping.altitude         );
+        msg.putDotted( "fields.server",                _server.name               );
+        if( scraping.has( TIME ) ) {
+            msg.putDotted( "fields.uptimeHours",       scraping.uptime            );
+        }
+        if( scraping.has( STATE ) ) {
+            msg.putDotted( "fields.tieNs",             scraping.tie               );
+            msg.putDotted( "fields.referenceUp",       scraping.referenceUp       );
+            msg.putDotted( "fields.ntpUp",             scraping.ntpUp             );
+            for( int t = 0; t < stability.taus(); t++ ) {
+                var adev = stability.adev( t );
+                var mtie = stability.mtie( t );
+                if( !Double.isNaN( adev ) ) msg.putDotted( "fields.tieAdev" + stability.label( t ),         adev       );
+                if( !Double.isNaN( mtie ) ) msg.putDotted( "fields.tieMtie" + stability.label( t ) + "Ns",  mtie * 1e9 );
+            }
+        }
+        if( scraping.has( GNSS ) ) {
+            msg.putDotted( "fields.satsUsed",          scraping.satsUsed          );
+            msg.putDotted( "fields.satsVisible",       scraping.satsTotal         );
+            msg.putDotted( "fields.antennaOk",         scraping.antennaOK         );
+            msg.putDotted( "fields.latitude",          scraping.lat               );
+            msg.putDotted( "fields.longitude",         scraping.lon               );
+            msg.putDotted( "fields.altitudeFeet",      scraping.altitude          );
+        }
+        for( NTPScraper.Page page : NTPScraper.Page.values() )
+            if( scraping.has( page ) )
+                msg.putDotted( "fields." + page.file + "LatencyMs", scraping.latencyMs[page.ordinal()] );
 
         // send it!
         mailbox.send( msg );
-        LOGGER.info( "Sent NTP server statistics message" );
+        LOGGER.info( "Sent NTP server statistics message for " + _server.name );
+    }
+
+
+    /**
+     * Send events when any monitored conditions of the given server change.
+     *
+     * @param _server The server.
+     */
+    private void sendEvents( final Server _server ) {
+
+        // conditions from the state page, if we got it...
+        if( _server.scraping.has( STATE ) ) sendStateEvents( _server );
+
+        // conditions from the GNSS page, if we got it...
+        if( _server.scraping.has( GNSS ) ) sendGNSSEvents( _server );
     }
 
 
     /**
-     * Send events when any monitored conditions change.
+     * Send events when any monitored conditions on the given server's state page change.
      *
-     * @param _scraping The data scraped from the TF-1006-PRO NTP server.
+     * @param _server The server.
      */
-    private void sendEvents( final Scraping _scraping ) {
+    private void sendStateEvents( final Server _server ) {
+
+        var scraping = _server.scraping;
+        var who      = _server.name + ": ";
 
         // handle change in NTP GPS reference up or down...
-        handleChangedCondition( () -> _scraping.referenceUp, () -> lastReferenceUp, (t) -> lastReferenceUp = t,
-                "NTPServer.referenceDown",     "NTP GPS reference is down",      "NTP GPS reference is down",                            7,
-                "NTPServer.referenceUp",       "NTP GPS reference is up",        "NTP GPS reference is up",                              2,
-                "NTPServer.referenceWentDown", "NTP GPS reference went down",    "NTP GPS reference went down after being up",           7,
-                "NTPServer.referenceWentUp",   "NTP GPS reference came back up", "NTP GPS reference came up after being down",           7 );
+        handleChangedCondition( _server.name, () -> scraping.referenceUp, () -> _server.lastReferenceUp, (t) -> _server.lastReferenceUp = t,
+                "NTPServer.referenceDown",     who + "NTP GPS reference is down",      "NTP GPS reference is down",                            7,
+                "NTPServer.referenceUp",       who + "NTP GPS reference is up",        "NTP GPS reference is up",                              2,
+                "NTPServer.referenceWentDown", who + "NTP GPS reference went down",    "NTP GPS reference went down after being up",           7,
+                "NTPServer.referenceWentUp",   who + "NTP GPS reference came back up", "NTP GPS reference came up after being down",           7 );
 
         // handle change in NTP server application up or down...
-        handleChangedCondition( () -> _scraping.ntpUp, () -> lastNTPUp, (t) -> lastNTPUp = t,
-                "NTPServer.ntpDown",     "NTP server application is down",      "NTP server application is down",                            7,
-                "NTPServer.ntpUp",       "NTP server application is up",        "NTP server application is up",                              2,
-                "NTPServer.ntpWentDown", "NTP server application went down",    "NTP server application went down after being up",           7,
-                "NTPServer.ntpWentUp",   "NTP server application came back up", "NTP server application came up after being down",           7 );
+        handleChangedCondition( _server.name, () -> scraping.ntpUp, () -> _server.lastNTPUp, (t) -> _server.lastNTPUp = t,
+                "NTPServer.ntpDown",     who + "NTP server application is down",      "NTP server application is down",                            7,
+                "NTPServer.ntpUp",       who + "NTP server application is up",        "NTP server application is up",                              2,
+                "NTPServer.ntpWentDown", who + "NTP server application went down",    "NTP server application went down after being up",           7,
+                "NTPServer.ntpWentUp",   who + "NTP server application came back up", "NTP server application came up after being down",           7 );
 
         // handle change in time interval error (TIE) in-bounds or out-of-bounds...
-        handleChangedCondition( () -> Math.abs( _scraping.tie ) <= TIE_MAX_ERROR_NS, () -> lastTIEOK, (t) -> lastTIEOK = t,
-                "NTPServer.tieOOB",      "NTP reference TIE is out-of-bounds",    "NTP reference Time Interval Error (TIE) is out-of-bounds: "   + _scraping.tie + "ns", 6,
-                "NTPServer.tieIB",       "NTP reference TIE is in-bounds",        "NTP reference Time Interval Error (TIE) is in-bounds: "       + _scraping.tie + "ns", 5,
-                "NTPServer.tieWentOOB",  "NTP reference TIE went out-of-bounds",  "NTP reference Time Interval Error (TIE) went out-of-bounds: " + _scraping.tie + "ns", 6,
-                "NTPServer.tieWentIB",   "NTP reference TIE came back in-bounds", "NTP reference Time Interval Error (TIE) went in-bounds: "     + _scraping.tie + "ns", 6 );
+        handleChangedCondition( _server.name, () -> Math.abs( scraping.tie ) <= TIE_MAX_ERROR_NS, () -> _server.lastTIEOK, (t) -> _server.lastTIEOK = t,
+                "NTPServer.tieOOB",      who + "NTP reference TIE is out-of-bounds",    "NTP reference Time Interval Error (TIE) is out-of-bounds: "   + scraping.tie + "ns", 6,
+                "NTPServer.tieIB",       who + "NTP reference TIE is in-bounds",        "NTP reference Time Interval Error (TIE) is in-bounds: "       + scraping.tie + "ns", 5,
+                "NTPServer.tieWentOOB",  who + "NTP reference TIE went out-of-bounds",  "NTP reference Time Interval Error (TIE) went out-of-bounds: " + scraping.tie + "ns", 6,
+                "NTPServer.tieWentIB",   who + "NTP reference TIE came back in-bounds", "NTP reference Time Interval Error (TIE) went in-bounds: "     + scraping.tie + "ns", 6 );
+    }
+
+
+    /**
+     * Send events when any monitored conditions on the given server's GNSS page change.
+     *
+     * @param _server The server.
+     */
+    private void sendGNSSEvents( final Server _server ) {
+
+        var scraping = _server.scraping;
+        var who      = _server.name + ": ";
 
         // handle change in number of satellites used for GPS fix being enough or not enough...
-        handleChangedCondition( () -> Math.abs( _scraping.satsUsed ) >= MIN_SATS_USED, () -> lastSatsUsedOK, (t) -> lastSatsUsedOK = t,
-                "NTPServer.satsUsedOOB",      "NTP GPS not enough satellites used",       "NTP GPS not enough satellites used: "       + _scraping.satsUsed, 6,
-                "NTPServer.satsUsedIB",       "NTP GPS enough satellites used",           "NTP GPS enough satellites used: "           + _scraping.satsUsed, 5,
-                "NTPServer.satsUsedWentOOB",  "NTP GPS no longer enough satellites used", "NTP GPS no longer enough satellites used: " + _scraping.satsUsed, 6,
-                "NTPServer.satsUsedWentIB",   "NTP GPS now enough satellites used",       "NTP GPS now enough satellites used: "       + _scraping.satsUsed, 6 );
+        handleChangedCondition( _server.name, () -> Math.abs( scraping.satsUsed ) >= MIN_SATS_USED, () -> _server.lastSatsUsedOK, (t) -> _server.lastSatsUsedOK = t,
+                "NTPServer.satsUsedOOB",      who + "NTP GPS not enough satellites used",       "NTP GPS not enough satellites used: "       + scraping.satsUsed, 6,
+                "NTPServer.satsUsedIB",       who + "NTP GPS enough satellites used",           "NTP GPS enough satellites used: "           + scraping.satsUsed, 5,
+                "NTPServer.satsUsedWentOOB",  who + "NTP GPS no longer enough satellites used", "NTP GPS no longer enough satellites used: " + scraping.satsUsed, 6,
+                "NTPServer.satsUsedWentIB",   who + "NTP GPS now enough satellites used",       "NTP GPS now enough satellites used: "       + scraping.satsUsed, 6 );
 
         // handle change in number of satellites visible for GPS fix being enough or not enough...
-        handleChangedCondition( () -> Math.abs( _scraping.satsTotal ) >= MIN_SATS_VISIBLE, () -> lastSatsVisibleOK, (t) -> lastSatsVisibleOK = t,
-                "NTPServer.satsVisibleOOB",      "NTP GPS not enough satellites visible",       "NTP GPS not enough satellites visible: "       + _scraping.satsTotal, 6,
-                "NTPServer.satsVisibleIB",       "NTP GPS enough satellites visible",           "NTP GPS enough satellites visible: "           + _scraping.satsTotal, 5,
-                "NTPServer.satsVisibleWentOOB",  "NTP GPS no longer enough satellites visible", "NTP GPS no longer enough satellites visible: " + _scraping.satsTotal, 6,
-                "NTPServer.satsVisibleWentIB",   "NTP GPS now enough satellites visible",       "NTP GPS now enough satellites visible: "       + _scraping.satsTotal, 6 );
+        handleChangedCondition( _server.name, () -> Math.abs( scraping.satsTotal ) >= MIN_SATS_VISIBLE, () -> _server.lastSatsVisibleOK, (t) -> _server.lastSatsVisibleOK = t,
+                "NTPServer.satsVisibleOOB",      who + "NTP GPS not enough satellites visible",       "NTP GPS not enough satellites visible: "       + scraping.satsTotal, 6,
+                "NTPServer.satsVisibleIB",       who + "NTP GPS enough satellites visible",           "NTP GPS enough satellites visible: "           + scraping.satsTotal, 5,
+                "NTPServer.satsVisibleWentOOB",  who + "NTP GPS no longer enough satellites visible", "NTP GPS no longer enough satellites visible: " + scraping.satsTotal, 6,
+                "NTPServer.satsVisibleWentIB",   who + "NTP GPS now enough satellites visible",       "NTP GPS now enough satellites visible: "       + scraping.satsTotal, 6 );
 
         // handle change in NTP GPS antenna ok or not ok...
-        handleChangedCondition( () -> _scraping.antennaOK, () -> lastAntennaOK, (t) -> lastAntennaOK = t,
-                "NTPServer.antennaNotOk",     "NTP GPS antenna is not ok",   "NTP GPS antenna is not ok",   7,
-                "NTPServer.antennaOk",        "NTP GPS antenna is ok",       "NTP GPS antenna is ok",       2,
-                "NTPServer.antennaWentNotOk", "NTP GPS antenna went not ok", "NTP GPS antenna went not ok", 7,
-                "NTPServer.antennaWentOk",    "NTP GPS antenna went ok",     "NTP GPS antenna went ok",     7 );
+        handleChangedCondition( _server.name, () -> scraping.antennaOK, () -> _server.lastAntennaOK, (t) -> _server.lastAntennaOK = t,
+                "NTPServer.antennaNotOk",     who + "NTP GPS antenna is not ok",   "NTP GPS antenna is not ok",   7,
+                "NTPServer.antennaOk",        who + "NTP GPS antenna is ok",       "NTP GPS antenna is ok",       2,
+                "NTPServer.antennaWentNotOk", who + "NTP GPS antenna went not ok", "NTP GPS antenna went not ok", 7,
+                "NTPServer.antennaWentOk",    who + "NTP GPS antenna went ok",     "NTP GPS antenna went ok",     7 );
     }
 
 
     /**
      * Send an event on change of a monitored condition.
      *
+     * @param _type Event type: the name of the server the condition is about.
      * @param _current Function to return the current state of the monitored condition: true if ok, false if not.
      * @param _previous Function to return the state of the monitored condition on the previous monitor run: true if ok, false if not, unknown if this is the first monitor run.
      * @param _setPrevious Function to set the previous state of the monitored condition.
-     * @param _tagTypeUF Event tag and type when condition changed from unknown to false.
+     * @param _tagUF Event tag when condition changed from unknown to false.
      * @param _subjectUF Event subject when condition changed from unknown to false.
      * @param _msgUF Event message when condition changed from unknown to false.
      * @param _levelUF Event level when condition changed from unknown to false.
-     * @param _tagTypeUT Event tag and type when condition changed from unknown to true.
+     * @param _tagUT Event tag when condition changed from unknown to true.
      * @param _subjectUT Event subject when condition changed from unknown to true.
      * @param _msgUT Event message when condition changed from unknown to true.
      * @param _levelUT Event level when condition changed from unknown to true.
-     * @param _tagTypeTF Event tag and type when condition changed from true to false.
+     * @param _tagTF Event tag when condition changed from true to false.
      * @param _subjectTF Event subject when condition changed from true to false.
      * @param _msgTF Event message when condition changed from true to false.
      * @param _levelTF Event level when condition changed from true to false.
-     * @param _tagTypeFT Event tag and type when condition changed from false to true.
+     * @param _tagFT Event tag when condition changed from false to true.
      * @param _subjectFT Event subject when condition changed from false to true.
      * @param _msgFT Event message when condition changed from false to true.
      * @param _levelFT Event level when condition changed from false to true.
      */
-    private void handleChangedCondition( final Supplier<Boolean> _current, final Supplier<TriState> _previous, final Consumer<TriState> _setPrevious,
-                                         final String _tagTypeUF, String _subjectUF, String _msgUF, int _levelUF,
-                                         final String _tagTypeUT, String _subjectUT, String _msgUT, int _levelUT,
-                                         final String _tagTypeTF, String _subjectTF, String _msgTF, int _levelTF,
-                                         final String _tagTypeFT, String _subjectFT, String _msgFT, int _levelFT ) {
+    private void handleChangedCondition( final String _type, final Supplier<Boolean> _current, final Supplier<TriState> _previous, final Consumer<TriState> _setPrevious,
+                                         final String _tagUF, String _subjectUF, String _msgUF, int _levelUF,
+                                         final String _tagUT, String _subjectUT, String _msgUT, int _levelUT,
+                                         final String _tagTF, String _subjectTF, String _msgTF, int _levelTF,
+                                         final String _tagFT, String _subjectFT, String _msgFT, int _levelFT ) {
 
         // get the current state as a tri-state...
         var current = from( _current.get() );
@@ -256,9 +534,9 @@ public class NTPServer extends AMonitor {
 
                 // send the appropriate event given the current state...
                 if( current == FALSE )
-                    sendEvent( _tagTypeUF, _tagTypeUF, _subjectUF, _msgUF, _levelUF );
+                    sendEvent( _tagUF, _type, _subjectUF, _msgUF, _levelUF );
                 else
-                    sendEvent( _tagTypeUT, _tagTypeUT, _subjectUT, _msgUT, _levelUT );
+                    sendEvent( _tagUT, _type, _subjectUT, _msgUT, _levelUT );
             }
 
             // if we did know the previous state...
@@ -266,9 +544,9 @@ public class NTPServer extends AMonitor {
 
                 // send the appropriate event given the current state...
                 if( current == FALSE )
-                    sendEvent( _tagTypeTF, _tagTypeTF, _subjectTF, _msgTF, _levelTF );
+                    sendEvent( _tagTF, _type, _subjectTF, _msgTF, _levelTF );
                 else
-                    sendEvent( _tagTypeFT, _tagTypeFT, _subjectFT, _msgFT, _levelFT );
+                    sendEvent( _tagFT, _type, _subjectFT, _msgFT, _levelFT );
             }
 
             // set the previous state to the current state...
@@ -278,206 +556,320 @@ public class NTPServer extends AMonitor {
 
 
     /**
-     * Queries the TF-1006-PRO NTP server for its current status, and returns that data in a ready-to-use form.  See comments at the end of the source file for an example of
-     * the raw scraped data.
+     * Start the SNTP probes of every server.
      *
-     * @return The data scraped from the TF-1006-PRO NTP server, munged into a ready-to-use form.
-     * @throws IOException On any problem reading the data from the TF-1006-PRO NTP server.
-     * @throws ParserConfigurationException On any problem extracting particular information from the scraped data.
-     * @throws SAXException On any problem extracting particular information from the scraped data.
-     * @throws XPathExpressionException On any problem extracting particular information from the scraped data.
+     * @return The futures of the probes, per server (in the order of {@link #servers}), and within a server in the order of its {@link Server#sntp}.
      */
-    private Scraping scrape() throws IOException, ParserConfigurationException, SAXException, XPathExpressionException {
-
-        // get an XML string with all the data scraped from the NTP server...
-         xml =
-                "<ntp>" +
-                scrape( "time"  ) +
-                scrape( "state" ) +
-                scrape( "gnss"  ) +
-                "</ntp>";
-
-        // get ready to use XPath to pull data out of the XML string...
-        DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = builderFactory.newDocumentBuilder();
-        Document doc = builder.parse( new InputSource( new StringReader( xml ) ) );
-        var result = new Scraping();
-        XPath xPath = XPathFactory.newInstance().newXPath();
-
-        // extract the data we need...
-        result.uptime      = extractUptime( doc, xPath );
-        result.referenceUp = "Locked".equals( xPath.compile( "//ntp/state/loppstate" ).evaluate( doc, XPathConstants.STRING ) );
-        result.ntpUp       = "ACTIVE".equals( xPath.compile( "//ntp/state/ntpstate" ).evaluate( doc, XPathConstants.STRING ) );
-        result.tie         = extractInt( doc, xPath, "//ntp/state/tie" );
-        result.antennaOK   = "OK".equals( xPath.compile( "//ntp/gnss/ant" ).evaluate( doc, XPathConstants.STRING ) );
-        result.satsUsed    = extractInt( doc, xPath, "//ntp/gnss/svused" );
-        result.satsTotal   = extractSatellitesVisible( doc, xPath );
-        result.lat         = extractLatLon( doc, xPath, "//ntp/gnss/lat" );
-        result.lon         = extractLatLon( doc, xPath, "//ntp/gnss/long" );
-        result.altitude    = extractAltitude( doc, xPath );
-
+    private List<List<Future<Outcome<SNTPProbe.Result>>>> startSNTP() {
+        var result = new ArrayList<List<Future<Outcome<SNTPProbe.Result>>>>( servers.size() );
+        for( Server server : servers ) {
+            var serverProbes = new ArrayList<Future<Outcome<SNTPProbe.Result>>>( server.sntp.size() );
+            for( SNTPTarget target : server.sntp ) serverProbes.add( sntpThreads.submit( target.probe::probe ) );
+            result.add( serverProbes );
+        }
         return result;
     }
 
 
     /**
-     * Extract the altitude in feet from the given XML document.
+     * Wait for the given SNTP probes to finish, and return their outcomes.
      *
-     * @param _doc The XML document scraped from the TF-1006-PRO NTP server.
-     * @param _xPath The XPath to use.
-     * @return The altitude of the TF-1006-PRO NTP server in feet.
-     * @throws XPathExpressionException On any problem parsing the XPath.
+     * @param _probes The futures of the probes, as returned for one server by {@link #startSNTP()}.
+     * @param _deadlineNs The time (from System.nanoTime()) after which we stop waiting for the probes.
+     * @return The outcomes of the probes, in the same order.
+     * @throws InterruptedException If interrupted while waiting.
      */
-    private float extractAltitude( final Document _doc, final XPath _xPath ) throws XPathExpressionException {
-        var fld = (String)_xPath.compile( "//ntp/gnss/alt" ).evaluate( _doc, XPathConstants.STRING );  // will be something like "1433.2 m"...
-        var parts = fld.split( " " );
-        return 3.28084F * Float.parseFloat( parts[0] );  // convert meters to feet...
+    private List<Outcome<SNTPProbe.Result>> finishSNTP( final List<Future<Outcome<SNTPProbe.Result>>> _probes, final long _deadlineNs )
+            throws InterruptedException {
+
+        var result = new ArrayList<Outcome<SNTPProbe.Result>>( _probes.size() );
+        for( Future<Outcome<SNTPProbe.Result>> probe : _probes ) {
+            try {
+                result.add( probe.get( Math.max( 0, _deadlineNs - System.nanoTime() ), TimeUnit.NANOSECONDS ) );
+            }
+            catch( ExecutionException _e ) {
+                result.add( FORGE_SNTP.notOk( "SNTP probe failed: " + _e.getCause(), _e.getCause() ) );
+            }
+            catch( TimeoutException _e ) {
+                probe.cancel( true );
+                result.add( FORGE_SNTP.notOk( "SNTP probe did not finish in " + sntpMaxTime.toMillis() + " ms" ) );
+            }
+        }
+        return result;
     }
 
 
     /**
-     * Extract the latitude or longitude in degrees from the given XML document and path.
+     * Send statistics for each of the given server's SNTP probes that got a result, for insertion in the database, and events when a probed server's
+     * reachability, offset, or delay changes.
      *
-     * @param _doc The XML document scraped from the TF-1006-PRO NTP server.
-     * @param _xPath The XPath to use.
-     * @param _path The path to the data to extract.
-     * @return The latitude or longitude of the TF-1006-PRO NTP server in degrees.
-     * @throws XPathExpressionException On any problem parsing the XPath.
+     * @param _server The server.
+     * @param _sntp The outcomes of the server's SNTP probes.
      */
-    private float extractLatLon( final Document _doc, final XPath _xPath, final String _path ) throws XPathExpressionException {
-        var fld = (String)_xPath.compile( _path ).evaluate( _doc, XPathConstants.STRING );  // will be something like "W 11154.832", where 111 is degrees and everything else minutes...
-        var parts = fld.split( " " );
-        var negate = "S".equals( parts[0] ) || "W".equals( parts[0] );  // south latitude and west longitude are negative...
-        var latlon = Double.parseDouble( parts[1] );
-        var intDeg = Math.floor( latlon / 100D );
-        var frcDeg = (latlon / 100D - intDeg) * 100D / 60D;
-        var deg = intDeg + frcDeg;
-        return (float)(negate ? -deg : deg);
+    private void sendSNTP( final Server _server, final List<Outcome<SNTPProbe.Result>> _sntp ) {
+
+        for( int i = 0; i < _sntp.size(); i++ ) {
+
+            var target  = _server.sntp.get( i );
+            var server  = target.probe.server();
+            var outcome = _sntp.get( i );
+
+            // handle change in the server answering SNTP or not...
+            handleChangedCondition( _server.name, outcome::ok, () -> target.lastReachable, (t) -> target.lastReachable = t,
+                    "NTPServer.sntpDown",     "NTP server " + server + " is not answering SNTP",    outcome.msg(),                                          7,
+                    "NTPServer.sntpUp",       "NTP server " + server + " is answering SNTP",        "NTP server " + server + " is answering SNTP",        2,
+                    "NTPServer.sntpWentDown", "NTP server " + server + " stopped answering SNTP",   outcome.msg(),                                          7,
+                    "NTPServer.sntpWentUp",   "NTP server " + server + " is answering SNTP again",  "NTP server " + server + " is answering SNTP again",  7 );
+            if( outcome.notOk() ) {
+                LOGGER.warning( outcome.msg() );
+                continue;
+            }
+            var result = outcome.info();
+
+            // handle change in the server's offset from our clock being in-bounds or out-of-bounds...
+            var offset = String.format( "%.3f ms", result.offsetMs() );
+            handleChangedCondition( _server.name, () -> Math.abs( result.offsetMs() ) <= sntpOffsetMaxMs, () -> target.lastOffsetOK,
+                    (t) -> target.lastOffsetOK = t,
+                    "NTPServer.sntpOffsetOOB",     "NTP server " + server + " offset is out-of-bounds",    "SNTP offset is out-of-bounds: "   + offset, 6,
+                    "NTPServer.sntpOffsetIB",      "NTP server " + server + " offset is in-bounds",        "SNTP offset is in-bounds: "       + offset, 5,
+                    "NTPServer.sntpOffsetWentOOB", "NTP server " + server + " offset went out-of-bounds",  "SNTP offset went out-of-bounds: " + offset, 6,
+                    "NTPServer.sntpOffsetWentIB",  "NTP server " + server + " offset came back in-bounds", "SNTP offset went in-bounds: "     + offset, 6 );
+
+            // handle change in the round-trip delay to the server being in-bounds or out-of-bounds...
+            var delay = String.format( "%.3f ms", result.delayMs() );
+            handleChangedCondition( _server.name, () -> result.delayMs() <= sntpDelayMaxMs, () -> target.lastDelayOK,
+                    (t) -> target.lastDelayOK = t,
+                    "NTPServer.sntpDelayOOB",     "NTP server " + server + " delay is out-of-bounds",    "SNTP round-trip delay is out-of-bounds: "   + delay, 6,
+                    "NTPServer.sntpDelayIB",      "NTP server " + server + " delay is in-bounds",        "SNTP round-trip delay is in-bounds: "       + delay, 5,
+                    "NTPServer.sntpDelayWentOOB", "NTP server " + server + " delay went out-of-bounds",  "SNTP round-trip delay went out-of-bounds: " + delay, 6,
+                    "NTPServer.sntpDelayWentIB",  "NTP server " + server + " delay came back in-bounds", "SNTP round-trip delay went in-bounds: "     + delay, 6 );
+
+            // build our statistics message...
+            Message msg = mailbox.createDirectMessage( "events.post", "event.post", false );
+            msg.putDotted( "tag",                          "sntpstats"                );
+            msg.putDotted( "timestamp",                    System.currentTimeMillis() );
+            msg.putDotted( "fields.server",                server                     );
+            msg.putDotted( "fields.offsetMs",              result.offsetMs()          );
+            msg.putDotted( "fields.delayMs",               result.delayMs()           );
+            msg.putDotted( "fields.jitterMs",              result.jitterMs()          );
+            msg.putDotted( "fields.received",              result.received()          );
+            msg.putDotted( "fields.stratum",               result.stratum()           );
+            var stability = target.stability;
+            for( int t = 0; t < stability.taus(); t++ ) {
+                var adev = stability.adev( t );
+                var mtie = stability.mtie( t );
+                if( !Double.isNaN( adev ) ) msg.putDotted( "fields.offsetAdev" + stability.label( t ),         adev       );
+                if( !Double.isNaN( mtie ) ) msg.putDotted( "fields.offsetMtie" + stability.label( t ) + "Ms",  mtie * 1e3 );
+            }
+
+            // send it!
+            mailbox.send( msg );
+        }
     }
 
 
-    /** Extract the total satellites visible by summing the GPS, Galileo, and GLOSNASS satellites visible.
+    /**
+     * Add this run's samples for the given server to its stability statistics: the TIE, if we got the state page, and the offset of each SNTP server
+     * that answered.  A series that misses a sample gets a gap in its history (see {@link StabilityStats}).
      *
-     * @param _doc The XML document scraped from the TF-1006-PRO NTP server.
-     * @param _xPath The XPath to use.
-     * @return The total satellites visible.
-     * @throws XPathExpressionException On any problem parsing the XPath.
+     * @param _server The server.
+     * @param _nowMs The time of this run's samples, in milliseconds since the epoch.
+     * @param _sntp The outcomes of the server's SNTP probes.
      */
-    private int extractSatellitesVisible( final Document _doc, final XPath _xPath ) throws XPathExpressionException {
-        return
-                extractSatellitesVisible( _doc, _xPath, "//ntp/gnss/gpsinfo" ) +  // GPS info...
-                extractSatellitesVisible( _doc, _xPath, "//ntp/gnss/glinfo" ) +   // GLOSNASS info...
-                extractSatellitesVisible( _doc, _xPath, "//ntp/gnss/gainfo" );    // Galileo info...
+    private void addStabilitySamples( final Server _server, final long _nowMs, final List<Outcome<SNTPProbe.Result>> _sntp ) {
+        if( _server.scraping.has( STATE ) ) _server.tieStability.add( _nowMs, _server.scraping.tie * 1e-9 );
+        for( int i = 0; i < _sntp.size(); i++ ) {
+            var outcome = _sntp.get( i );
+            if( outcome.ok() ) _server.sntp.get( i ).stability.add( _nowMs, outcome.info().offsetMs() * 1e-3 );
+        }
     }
 
 
     /**
-     * Extract the satellites visible in the constellation at the given path.
+     * Send events when the stability of the given server's TIE, or of any of its SNTP servers' offsets, degrades or recovers.  A series whose
+     * statistics don't yet have enough history to judge is left alone.
      *
-     * @param _doc The XML document scraped from the TF-1006-PRO NTP server.
-     * @param _xPath The XPath to use.
-     * @param _path The path to the data to extract.
-     * @return The satellites visible in the constellation at the given path.
-     * @throws XPathExpressionException On any problem parsing the XPath.
+     * @param _server The server.
      */
-    private int extractSatellitesVisible( final Document _doc, final XPath _xPath, final String _path ) throws XPathExpressionException {
-        var fld = (String)_xPath.compile( _path ).evaluate( _doc, XPathConstants.STRING );  // will be something like "4/6", 4 used, 6 visible...
-        var parts = fld.split( "/" );
-        return Integer.parseInt( parts[1] );
+    private void sendStabilityEvents( final Server _server ) {
+
+        // handle change in the stability of the TIE...
+        var tieDegraded = _server.tieStability.degraded();
+        if( tieDegraded != null ) {
+            var who   = _server.name + ": ";
+            var stats = _server.tieStability.toJSON( 1e9 ).toString();
+            handleChangedCondition( _server.name, () -> !tieDegraded, () -> _server.lastTIEStable, (t) -> _server.lastTIEStable = t,
+                    "NTPServer.tieStabilityDegraded",     who + "NTP reference TIE stability is degraded", "NTP reference TIE stability is degraded: " + stats, 6,
+                    "NTPServer.tieStabilityOk",           who + "NTP reference TIE stability is ok",       "NTP reference TIE stability is ok: "       + stats, 2,
+                    "NTPServer.tieStabilityWentDegraded", who + "NTP reference TIE stability degraded",    "NTP reference TIE stability degraded: "    + stats, 6,
+                    "NTPServer.tieStabilityWentOk",       who + "NTP reference TIE stability recovered",   "NTP reference TIE stability recovered: "   + stats, 6 );
+        }
+
+        // and of each SNTP server's offset...
+        for( SNTPTarget target : _server.sntp ) {
+            var server   = target.probe.server();
+            var degraded = target.stability.degraded();
+            if( degraded == null ) continue;
+            var stats = target.stability.toJSON( 1e3 ).toString();
+            handleChangedCondition( _server.name, () -> !degraded, () -> target.lastStable, (t) -> target.lastStable = t,
+                    "NTPServer.sntpStabilityDegraded",     "NTP server " + server + " offset stability is degraded", "SNTP offset stability is degraded: " + stats, 6,
+                    "NTPServer.sntpStabilityOk",           "NTP server " + server + " offset stability is ok",       "SNTP offset stability is ok: "       + stats, 2,
+                    "NTPServer.sntpStabilityWentDegraded", "NTP server " + server + " offset stability degraded",    "SNTP offset stability degraded: "    + stats, 6,
+                    "NTPServer.sntpStabilityWentOk",       "NTP server " + server + " offset stability recovered",   "SNTP offset stability recovered: "   + stats, 6 );
+        }
     }
 
 
     /**
-     * Extract an integer from the given path in the given document.
+     * Return a factory for daemon threads with the given name.
      *
-     * @param _doc The XML document scraped from the TF-1006-PRO NTP server.
-     * @param _xPath The XPath to use.
-     * @param _path The path to the data to extract.
-     * @return The extracted integer.
-     * @throws XPathExpressionException On any problem parsing the XPath.
+     * @param _name The name of the threads.
+     * @return The thread factory.
      */
-    private int extractInt( final Document _doc, final XPath _xPath, final String _path ) throws XPathExpressionException {
-        return (int)Math.round( (double)_xPath.compile( _path ).evaluate( _doc, XPathConstants.NUMBER ) );
+    private static ThreadFactory daemon( final String _name ) {
+        return (r) -> {
+            var thread = new Thread( r, _name );
+            thread.setDaemon( true );
+            return thread;
+        };
     }
 
 
     /**
-     * Extract the uptime in hours from the given document.
-     *
-     * @param _doc The XML document scraped from the TF-1006-PRO NTP server.
-     * @param _xPath The XPath to use.
-     * @return The uptime in hours.
-     * @throws XPathExpressionException On any problem parsing the XPath.
+     * The state we keep for each TF-1006-PRO NTP server we monitor: how to reach it, what we scraped from it on this run (reused on every run), and the
+     * last state of the conditions we send events for.
      */
-    private int extractUptime( final Document _doc, final XPath _xPath ) throws XPathExpressionException {
-        var uptime = (String) _xPath.compile( "//ntp/time/rtime" ).evaluate( _doc, XPathConstants.STRING );  // will be something like "110 Day 12:03:22"...
-        var parts = uptime.split( " Day " );
-        var time = parts[1].split( ":" );
-        return Integer.parseInt( parts[0] ) * 24 + Integer.parseInt( time[0] );
+    private class Server {
+
+        private final String               name;
+        private final String               urlStr;
+        private final String               basicAuthentication;
+        private final List<SNTPTarget>     sntp;            // the SNTP probes of this server's time service...
+        private final StabilityStats       tieStability;    // rolling stability statistics of the server's TIE...
+
+        private final NTPScraper.Scraping  scraping = new NTPScraper.Scraping();
+        private final List<String>         failures = new ArrayList<>();  // the problems with any pages we couldn't scrape on this run...
+
+        // keep track of the last state of variables that we send events for...
+        private TriState lastReferenceUp   = UNKNOWN;
+        private TriState lastNTPUp         = UNKNOWN;
+        private TriState lastTIEOK         = UNKNOWN;
+        private TriState lastSatsUsedOK    = UNKNOWN;
+        private TriState lastSatsVisibleOK = UNKNOWN;
+        private TriState lastAntennaOK     = UNKNOWN;
+        private TriState lastTIEStable     = UNKNOWN;
+
+
+        private Server( final String _name, final String _urlStr, final String _basicAuthentication, final List<SNTPTarget> _sntp,
+                        final StabilityStats _tieStability ) {
+            name                = _name;
+            urlStr              = _urlStr;
+            basicAuthentication = _basicAuthentication;
+            sntp                = _sntp;
+            tieStability        = _tieStability;
+        }
+
+
+        /**
+         * Queries this TF-1006-PRO NTP server for its current status, and leaves that data in a ready-to-use form in {@link #scraping}.  See comments at
+         * the end of the source file for an example of the raw scraped data.  The pages are all fetched at once, and each is parsed as it arrives.  A
+         * page that can't be fetched (by the page timeout) or parsed is left out of the scraping, with the problem recorded in {@link #failures}; the
+         * other pages are still good.
+         */
+        private void scrape() {
+
+            scraping.clear();
+            failures.clear();
+
+            // start fetching all the pages at once...
+            var pages    = NTPScraper.Page.values();
+            var requests = new ArrayList<CompletableFuture<HttpResponse<byte[]>>>( pages.length );  // so we can cancel a fetch that's taking too long...
+            var fetches  = new ArrayList<CompletableFuture<Fetched>>( pages.length );
+            var startNs = System.nanoTime();
+            for( NTPScraper.Page page : pages ) {
+
+                // synthesize the right URL for the desired page, like "http://ntpserver.dilatush.com/xml/gnss.xml"...
+                var request = HttpRequest.newBuilder( URI.create( urlStr + "/xml/" + page.file + ".xml" ) )
+                        .timeout( pageTimeout )
+                        .header( "Authorization", "Basic " + basicAuthentication )
+                        .GET()
+                        .build();
+                var sent = client.sendAsync( request, HttpResponse.BodyHandlers.ofByteArray() );
+                requests.add( sent );
+                fetches.add( sent.thenApply( (response) -> new Fetched( response, System.nanoTime() ) ) );
+            }
+
+            // then parse each page as it arrives, giving up on any that haven't by the time the page timeout has passed...
+            var deadlineNs = startNs + pageTimeout.toNanos();
+            for( NTPScraper.Page page : pages ) {
+                var fetch = fetches.get( page.ordinal() );
+                try {
+                    var fetched = fetch.get( Math.max( 0, deadlineNs - System.nanoTime() ), TimeUnit.NANOSECONDS );
+
+                    // if we get anything other than an OK (200), this page is no good...
+                    var status = fetched.response.statusCode();
+                    if( status != 200 ) {
+                        failures.add( page.file + ": HTTP Request status was not ok (200): " + status );
+                        continue;
+                    }
+
+                    parser.parse( page, new ByteArrayInputStream( fetched.response.body() ), scraping );
+                    scraping.latencyMs[page.ordinal()] = (fetched.doneNs - startNs) / 1_000_000;
+                    scraping.pages.add( page );
+                }
+                catch( TimeoutException _e ) {
+                    requests.get( page.ordinal() ).cancel( true );
+                    failures.add( page.file + ": timed out after " + pageTimeout.toMillis() + " ms" );
+                }
+                catch( ExecutionException _e ) {
+                    failures.add( page.file + ": " + _e.getCause() );
+                }
+                catch( XMLStreamException | RuntimeException _e ) {
+                    failures.add( page.file + ": could not parse: " + _e.getMessage() );
+                }
+                catch( InterruptedException _e ) {
+                    Thread.currentThread().interrupt();
+                    failures.add( page.file + ": interrupted" );
+                    break;
+                }
+            }
+        }
     }
 
 
     /**
-     * Return the data scraped from the TF-1006-PRO NTP server at the given page.  The data will be XML; see comment at the end of the source code file for an example.  The valid
-     * pages are "time", "state", and "gnss".
-     *
-     * @param _page The page to scrape; must be one of "time", "state", or "gnss".
-     * @return The scraped XML data.
-     * @throws IOException On any problem reading the data.
+     * An SNTP probe of a server's time service, with the rolling stability statistics of its offset and the last state of the conditions we send
+     * events for.
      */
-    private String scrape( final String _page ) throws IOException {
-
-        // synthesize the right URL for the desired page, like "http://ntpserver.dilatush.com/xml/gnss.xml"...
-        var url = new URL( urlStr + "/xml/" + _page + ".xml" );
-
-        // set up our connection and request...
-        HttpURLConnection con = (HttpURLConnection) url.openConnection();
-        con.setRequestMethod( "GET" );
-        con.setRequestProperty("Content-Type", "text/xml");
-        con.setRequestProperty( "Authorization", "Basic " + basicAuthentication );
-        con.setInstanceFollowRedirects(false);
-
-        // make the request...
-        int status = con.getResponseCode();
-
-        // if we get anything other than an OK (200), error out...
-        if( status != 200 ) throw new IOException( "HTTP Request status was not ok (200): " + status );
-
-        // read the response...
-        BufferedReader in = new BufferedReader( new InputStreamReader( con.getInputStream() ) );
-        String inputLine;
-        StringBuilder content = new StringBuilder();
-        while( (inputLine = in.readLine()) != null ) {
-            content.append( inputLine );
-        }
-        in.close();
+    private static class SNTPTarget {
 
-        // cleanup...
-        con.disconnect();
+        private final SNTPProbe      probe;
+        private final StabilityStats stability;
 
-        return content.toString();
+        private TriState lastReachable = UNKNOWN;
+        private TriState lastOffsetOK  = UNKNOWN;
+        private TriState lastDelayOK   = UNKNOWN;
+        private TriState lastStable    = UNKNOWN;
+
+
+        private SNTPTarget( final SNTPProbe _probe, final StabilityStats _stability ) {
+            probe     = _probe;
+            stability = _stability;
+        }
     }
 
 
     /**
-     * Data structure to hold the scraped and processed data from the TF-1006-PRO NTP server.
+     * A fetched page, with the time (from System.nanoTime()) it finished arriving.
+     *
+     * @param response The response holding the page.
+     * @param doneNs The time the page finished arriving.
      */
-    private static class Scraping {
-        private int     uptime;      // how long the NTP server has been up, in hours...
-        private boolean referenceUp; // true if the frequency reference is up (GPS locked and disciplined oscillator locked)...
-        private boolean ntpUp;       // true if the NTP server software is up...
-        private int     tie;         // time interval error (phase error over an interval) in nanoseconds...
-        private int     satsUsed;    // number of satellites used for GPS solution...
-        private int     satsTotal;   // number of satellites visible to the NTP server's receiver...
-        private float   lat;         // latitude in degrees (+ for north, - for south)...
-        private float   lon;         // longitude in degrees (+ for east, - for west)...
-        private float   altitude;    // altitude in feet...
-        private boolean antennaOK;   // true if the antenna is ok...
-    }
+    private record Fetched( HttpResponse<byte[]> response, long doneNs ) {}
 }
 
 /*
-   Sample synthesized scraped XML blob:
+   Sample scraped XML pages (shown here wrapped in an <ntp> element, though each page is really its own document):
 
    <ntp>
       <time>
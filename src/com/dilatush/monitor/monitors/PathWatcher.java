@@ -0,0 +1,346 @@
+package com.dilatush.monitor.monitors;
+
+import com.dilatush.util.ip.IPAddress;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.dilatush.util.General.getLogger;
+
+/**
+ * Continuously watches a small number of network paths (for instance, one per ISP) with cheap TCP connect probes: one probe per path per probe interval,
+ * all on a single non-blocking selector on a single daemon thread.  A probe that doesn't connect within the probe interval is lost.  Each path's loss and
+ * latency are tracked over a sliding window, and its state (up or down) is decided with a little hysteresis: a path goes down after a configured number of
+ * consecutive lost probes, and comes back up after a configured number of consecutive successful ones.  State changes are timestamped with the start of the
+ * first probe that showed them, so they're accurate to within a probe interval no matter how often the watcher is asked about them.  Outages that begin and
+ * end between two looks are remembered, so that short blips aren't missed.  A refused probe counts as connected, as the far end answered.
+ * <p>All the methods of this class are threadsafe.</p>
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class PathWatcher {
+
+    private static final Logger LOGGER = getLogger();
+
+    private static final int MAX_OUTAGES = 100;  // maximum outages remembered per path between looks...
+
+    private final List<PathState> paths;
+    private final long            intervalNanos;
+    private final int             downAfter;
+    private final int             upAfter;
+
+
+    /**
+     * Creates a new instance of this class, and starts watching the given paths.
+     *
+     * @param _paths The paths to watch.
+     * @param _interval The interval between probes of each path; this is also the time a probe has to connect.
+     * @param _downAfter The number of consecutive lost probes that mean a path is down.
+     * @param _upAfter The number of consecutive successful probes that mean a path is up.
+     * @param _window The window of time to report loss and latency statistics for.
+     */
+    public PathWatcher( final List<Path> _paths, final Duration _interval, final int _downAfter, final int _upAfter, final Duration _window ) {
+
+        if( _paths.isEmpty() ) throw new IllegalArgumentException( "No paths to watch" );
+        intervalNanos = _interval.toNanos();
+        downAfter     = Math.max( 1, _downAfter );
+        upAfter       = Math.max( 1, _upAfter );
+        paths         = new ArrayList<>();
+        for( Path path : _paths ) paths.add( new PathState( path, new LatencyWindow( _window ) ) );
+
+        var thread = new Thread( this::watch, "Path watcher" );
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+
+    /**
+     * Return the current status of the path with the given index.
+     *
+     * @param _path The index of the path, in the order they were given to the constructor.
+     * @return The path's status.
+     */
+    public synchronized Status status( final int _path ) {
+        var state = paths.get( _path );
+        return new Status( state.path.name, state.up, state.changedAt, state.window.lossPct(), state.window.percentileMs( 50 ),
+                state.window.percentileMs( 95 ), state.window.samples(), state.lastError );
+    }
+
+
+    /**
+     * Return the outages of the path with the given index that have ended since the last time this method was called for it, oldest first.
+     *
+     * @param _path The index of the path, in the order they were given to the constructor.
+     * @return The outages that have ended.
+     */
+    public synchronized List<Outage> drainOutages( final int _path ) {
+        var state = paths.get( _path );
+        var result = List.copyOf( state.outages );
+        state.outages.clear();
+        return result;
+    }
+
+
+    /**
+     * Return the status of all the paths, as a JSON object keyed by path name.
+     *
+     * @return The status of all the paths.
+     */
+    public synchronized JSONObject toJSON() {
+        var result = new JSONObject();
+        for( int i = 0; i < paths.size(); i++ ) {
+            var status = status( i );
+            var path = new JSONObject();
+            path.put( "state",     (status.up == null) ? "unknown" : (status.up ? "up" : "down") );
+            path.put( "changedAt", (status.changedAt == null) ? 0 : status.changedAt.toEpochMilli() );
+            path.put( "lossPct",   status.lossPct );
+            path.put( "p50Ms",     status.p50Ms   );
+            path.put( "p95Ms",     status.p95Ms   );
+            path.put( "samples",   status.samples );
+            if( status.lastError != null ) path.put( "lastError", status.lastError );
+            result.put( status.name, path );
+        }
+        return result;
+    }
+
+
+    /**
+     * The watcher's thread: launch a probe of every path once per interval, and collect the results as they come in.
+     */
+    private void watch() {
+
+        try( Selector selector = Selector.open() ) {
+
+            var nextRoundAt = System.nanoTime();
+            while( !Thread.currentThread().isInterrupted() ) {
+
+                // if it's time, launch the next round of probes...
+                var now = System.nanoTime();
+                if( now >= nextRoundAt ) {
+                    for( PathState state : paths ) launch( selector, state );
+
+                    // if we fell behind (say, the machine was suspended), don't try to catch up...
+                    nextRoundAt += intervalNanos;
+                    if( nextRoundAt <= now ) nextRoundAt = now + intervalNanos;
+                }
+
+                // wait for a probe to connect, a probe to time out, or the next round...
+                var wakeAt = nextRoundAt;
+                for( PathState state : paths ) if( state.channel != null ) wakeAt = Math.min( wakeAt, state.timeoutAt );
+                selector.select( Math.max( 1, (wakeAt - System.nanoTime() + 999_999) / 1_000_000 ) );
+
+                // handle the probes that completed...
+                for( SelectionKey key : selector.selectedKeys() ) {
+                    var state = (PathState) key.attachment();
+                    String error = null;
+                    try {
+                        if( !state.channel.finishConnect() ) continue;
+                    }
+                    catch( ConnectException _e ) {
+                        // naught to do; the far end refused us, but it answered, so the path works...
+                    }
+                    catch( IOException _e ) {
+                        error = _e.getClass().getSimpleName() + ": " + _e.getMessage();
+                    }
+                    var rttNanos = System.nanoTime() - state.startedAt;
+                    close( state );
+                    record( state, error == null, rttNanos, error );
+                }
+                selector.selectedKeys().clear();
+
+                // handle the probes that timed out...
+                now = System.nanoTime();
+                for( PathState state : paths ) {
+                    if( (state.channel == null) || (state.timeoutAt > now) ) continue;
+                    close( state );
+                    record( state, false, 0, null );
+                }
+            }
+        }
+        catch( IOException | RuntimeException _e ) {
+            LOGGER.log( Level.SEVERE, "Path watcher failed: " + _e.getMessage(), _e );
+        }
+        finally {
+            for( PathState state : paths ) close( state );
+        }
+    }
+
+
+    /**
+     * Launch a probe of the given path.  If it connects or fails immediately, its result is recorded right away.
+     *
+     * @param _selector The selector to register the probe with.
+     * @param _state The state of the path to probe.
+     */
+    private void launch( final Selector _selector, final PathState _state ) {
+
+        // a probe still in flight has had its whole interval, so it's lost...
+        if( _state.channel != null ) {
+            close( _state );
+            record( _state, false, 0, null );
+        }
+
+        _state.startedAt   = System.nanoTime();
+        _state.startedWhen = Instant.now();
+        _state.timeoutAt   = _state.startedAt + intervalNanos;
+        try {
+            var address = new InetSocketAddress( InetAddress.getByName( _state.path.ip.toString() ), _state.path.port );
+            _state.channel = SocketChannel.open();
+            _state.channel.configureBlocking( false );
+            if( _state.channel.connect( address ) ) {
+                close( _state );
+                record( _state, true, System.nanoTime() - _state.startedAt, null );
+                return;
+            }
+            _state.channel.register( _selector, SelectionKey.OP_CONNECT, _state );
+        }
+        catch( ConnectException _e ) {
+            close( _state );
+            record( _state, true, System.nanoTime() - _state.startedAt, null );  // refused, but answered, so the path works...
+        }
+        catch( IOException _e ) {
+            close( _state );
+            record( _state, false, 0, _e.getClass().getSimpleName() + ": " + _e.getMessage() );
+        }
+    }
+
+
+    /**
+     * Record the result of a probe, updating the path's statistics and state.  A probe that failed with an error (say, because there's no route) counts
+     * as lost, just like one that timed out; a refused probe was answered, so it's recorded as connected.
+     *
+     * @param _state The state of the path that was probed.
+     * @param _ok True if the probe connected.
+     * @param _rttNanos The time the probe took to connect, in nanoseconds; ignored if the probe didn't connect.
+     * @param _error The error the probe failed with, or null if it connected or timed out.
+     */
+    private synchronized void record( final PathState _state, final boolean _ok, final long _rttNanos, final String _error ) {
+
+        _state.window.record( _ok ? _rttNanos / 1000 : -1, 1 );
+        if( _error != null ) {
+            LOGGER.finest( "Probe of " + _state.path.name + " failed: " + _error );
+            _state.lastError = _error;
+        }
+
+        if( _ok ) {
+            _state.consecutiveLost = 0;
+            if( _state.consecutiveOk++ == 0 ) _state.firstOkAt = _state.startedWhen;
+            if( (_state.up != Boolean.TRUE) && (_state.consecutiveOk >= upAfter) ) {
+                if( _state.up != null ) {
+                    if( _state.outages.size() >= MAX_OUTAGES ) _state.outages.remove( 0 );
+                    _state.outages.add( new Outage( _state.changedAt, _state.firstOkAt ) );
+                }
+                _state.up        = true;
+                _state.changedAt = _state.firstOkAt;
+                LOGGER.info( "Path " + _state.path.name + " is up as of " + _state.changedAt );
+            }
+        }
+        else {
+            _state.consecutiveOk = 0;
+            if( _state.consecutiveLost++ == 0 ) _state.firstLostAt = _state.startedWhen;
+            if( (_state.up != Boolean.FALSE) && (_state.consecutiveLost >= downAfter) ) {
+                _state.up        = false;
+                _state.changedAt = _state.firstLostAt;
+                LOGGER.info( "Path " + _state.path.name + " is down as of " + _state.changedAt );
+            }
+        }
+    }
+
+
+    private static void close( final PathState _state ) {
+        if( _state.channel == null ) return;
+        try {
+            _state.channel.close();
+        }
+        catch( IOException _e ) {
+            LOGGER.finest( "Problem closing probe socket: " + _e.getMessage() );
+        }
+        _state.channel = null;
+    }
+
+
+    /**
+     * A path to watch.
+     *
+     * @param name The name of the path, for logs and status.
+     * @param ip The IP address to connect to; something that's only reachable over the path.
+     * @param port The TCP port to connect to.
+     */
+    public record Path( String name, IPAddress ip, int port ) {}
+
+
+    /**
+     * The status of a path.
+     *
+     * @param name The name of the path.
+     * @param up True if the path is up, false if it's down, or null if we don't know yet.
+     * @param changedAt When the path's state last changed, or null if we don't know its state yet.
+     * @param lossPct The percentage of probes lost in the window.
+     * @param p50Ms The median round-trip time in the window, in milliseconds.
+     * @param p95Ms The 95th percentile round-trip time in the window, in milliseconds.
+     * @param samples The number of successful probes in the window.
+     * @param lastError The last error a probe failed with, or null if there hasn't been one.
+     */
+    public record Status( String name, Boolean up, Instant changedAt, double lossPct, double p50Ms, double p95Ms, long samples, String lastError ) {}
+
+
+    /**
+     * An outage of a path that has ended.
+     *
+     * @param start When the outage started.
+     * @param end When the outage ended.
+     */
+    public record Outage( Instant start, Instant end ) {
+
+        /**
+         * Return how long the outage lasted.
+         *
+         * @return How long the outage lasted.
+         */
+        public Duration duration() {
+            return Duration.between( start, end );
+        }
+    }
+
+
+    /**
+     * The state of a single path.  The fields used only by the watcher's thread are unsynchronized; the rest are guarded by the watcher's lock.
+     */
+    private static class PathState {
+
+        private final Path          path;
+        private final LatencyWindow window;
+        private final List<Outage>  outages = new ArrayList<>();
+
+        private SocketChannel channel;          // the probe in flight, or null if there is none...
+        private long          startedAt;        // System.nanoTime() when the probe in flight started...
+        private Instant       startedWhen;      // wall clock time when the probe in flight started...
+        private long          timeoutAt;        // System.nanoTime() when the probe in flight times out...
+
+        private Boolean       up;               // true if the path is up, false if down, null if we don't know yet...
+        private Instant       changedAt;        // when the path's state last changed...
+        private int           consecutiveOk;    // number of consecutive successful probes...
+        private int           consecutiveLost;  // number of consecutive lost probes...
+        private Instant       firstOkAt;        // when the first of the consecutive successful probes started...
+        private Instant       firstLostAt;      // when the first of the consecutive lost probes started...
+        private String        lastError;        // the last error a probe failed with...
+
+
+        private PathState( final Path _path, final LatencyWindow _window ) {
+            path   = _path;
+            window = _window;
+        }
+    }
+}
@@ -0,0 +1,877 @@
+package com.dilatush.monitor.monitors;
+
+import com.dilatush.util.ip.IPAddress;
+
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Probes services on hosts at the protocol level, rather than just testing whether a TCP connection can be established.  There are three kinds of probe:
+ * an HTTP (or HTTPS) GET, checking the response's status and optionally its body; a TLS handshake, checking the server's certificate and recording when it
+ * expires; and a UDP request, checking that a response arrives and optionally what it starts with.  Each probe records how long each phase took
+ * (connecting, the TLS handshake, and waiting for the first byte of the response), and is bounded by its own timeout.
+ * <p>Like {@link TCPProber}, this runs many probes at once with non-blocking channels on a single selector in the calling thread: each probe is a little
+ * state machine (connect, TLS handshake through an {@link SSLEngine}, send the request, read the response) that advances whenever its channel is ready.
+ * At most a given number of probes are in flight at once, and the whole run is bounded by a deadline.  An HTTP probe asks the server to close the
+ * connection, and stops reading as soon as it has what it needs (the status line, or the body up to a match), so a server that keeps the connection alive
+ * anyway doesn't hold the probe open until it times out.</p>
+ * <p>TLS certificates are checked against the JVM's trusted certificate authorities, and, if the probe names the server, against that name.  Most devices
+ * on a LAN have self-signed certificates, though, so a probe may instead give the SHA-256 fingerprint of the certificate it expects, which is then the
+ * only one trusted.  Either way, a certificate problem doesn't stop the handshake (so its timing and the certificate's expiry are still recorded); it
+ * fails the probe, with the problem as the reason.</p>
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class ProtocolProber {
+
+    private static final int    MAX_RESPONSE_BYTES = 64 * 1024;  // the most of an HTTP response (or UDP datagram) we'll read...
+    private static final String DEADLINE_EXPIRED   = "run deadline expired";
+
+    private static final Pattern STATUS_PAT         = Pattern.compile( "^HTTP/\\d\\.\\d (\\d{3})" );
+    private static final Pattern CONTENT_LENGTH_PAT = Pattern.compile( "(?im)^Content-Length:\\s*(\\d+)\\s*$" );
+
+    private static X509ExtendedTrustManager systemTrust;  // the JVM's default trust manager, or null if it hasn't been needed yet...
+
+
+    private ProtocolProber() {}
+
+
+    /**
+     * Run the given probe against the given host and port.  This method never throws; any problem is reported in the result.
+     *
+     * @param _probe The probe to run.
+     * @param _ip The IP address of the host.
+     * @param _port The port of the service.
+     * @param _timeoutMs The maximum time for the whole probe, in milliseconds.
+     * @return The result of the probe.
+     */
+    public static Result probe( final Probe _probe, final IPAddress _ip, final int _port, final int _timeoutMs ) {
+        var results = new Result[1];
+        try {
+            probe( List.of( new Job( _probe, _ip, _port, _timeoutMs ) ), 1, Duration.ofMillis( _timeoutMs + 1000L ), (index, result) -> results[0] = result );
+            return results[0];
+        }
+        catch( IOException _e ) {
+            return new Timing( _timeoutMs ).fail( "could not open selector: " + _e.getMessage() );
+        }
+    }
+
+
+    /**
+     * Run all the given probes, calling the given handler (on the calling thread) with each result as it completes.  This method returns when every probe
+     * has a result.  Any probe that hasn't completed when the deadline expires gets a failed result with {@link Result#expired()} true.  If the calling
+     * thread is interrupted, the run ends as if the deadline had expired.
+     *
+     * @param _jobs The probes to run.
+     * @param _maxInFlight The maximum number of probes in flight at once.
+     * @param _deadline The maximum time for the whole run.
+     * @param _handler The handler for the results.
+     * @throws IOException If the selector can't be opened.
+     */
+    public static void probe( final List<Job> _jobs, final int _maxInFlight, final Duration _deadline, final ResultHandler _handler ) throws IOException {
+
+        if( _maxInFlight < 1 ) throw new IllegalArgumentException( "_maxInFlight must be at least 1: " + _maxInFlight );
+
+        var deadlineAt = System.nanoTime() + _deadline.toNanos();
+        var nextIndex  = 0;               // index of the next probe to start...
+        var active     = new ArrayList<Session>();
+
+        try( Selector selector = Selector.open() ) {
+            try {
+                while( (nextIndex < _jobs.size()) || !active.isEmpty() ) {
+
+                    // if we've run out of time (or been interrupted), everything that's left fails...
+                    if( (System.nanoTime() >= deadlineAt) || Thread.currentThread().isInterrupted() ) {
+                        for( Session session : active ) {
+                            session.close();
+                            _handler.onResult( session.index, session.timing.expired( DEADLINE_EXPIRED ) );
+                        }
+                        active.clear();
+                        for( int i = nextIndex; i < _jobs.size(); i++ )
+                            _handler.onResult( i, new Timing( 0 ).expired( DEADLINE_EXPIRED + " before probing" ) );
+                        return;
+                    }
+
+                    // start as many probes as we're allowed to...
+                    while( (active.size() < _maxInFlight) && (nextIndex < _jobs.size()) ) {
+                        var index   = nextIndex++;
+                        var job     = _jobs.get( index );
+                        var session = (job.probe() instanceof UDPProbe) ? new UDPSession( index, job ) : new TCPSession( index, job );
+                        var result  = session.start( selector );
+                        if( result == null )
+                            active.add( session );
+                        else {
+                            session.close();
+                            _handler.onResult( index, result );
+                        }
+                    }
+                    if( active.isEmpty() ) continue;
+
+                    // wait for a channel to be ready, or for the next timeout...
+                    var wakeAt = deadlineAt;
+                    for( Session session : active ) wakeAt = Math.min( wakeAt, session.timing.timeoutAt );
+                    selector.select( Math.max( 1, (wakeAt - System.nanoTime() + 999_999) / 1_000_000 ) );
+
+                    // advance the probes whose channels are ready...
+                    for( SelectionKey key : selector.selectedKeys() ) {
+                        var session = (Session) key.attachment();
+                        var result  = session.step();
+                        if( result == null ) continue;
+                        session.close();
+                        active.remove( session );
+                        _handler.onResult( session.index, result );
+                    }
+                    selector.selectedKeys().clear();
+
+                    // fail the probes that timed out...
+                    var now = System.nanoTime();
+                    for( Iterator<Session> it = active.iterator(); it.hasNext(); ) {
+                        var session = it.next();
+                        if( session.timing.timeoutAt > now ) continue;
+                        session.close();
+                        it.remove();
+                        _handler.onResult( session.index, session.timing.fail( "timed out after " + session.job.timeoutMs() + " ms" ) );
+                    }
+                }
+            }
+            finally {
+                // make sure no channels leak, whether we finished, ran out of time, or the handler threw...
+                for( Session session : active ) session.close();
+            }
+        }
+    }
+
+
+    /**
+     * Return the JVM's default trust manager, which trusts the certificate authorities in the JVM's trust store.
+     *
+     * @return The JVM's default trust manager.
+     * @throws GeneralSecurityException If there isn't one.
+     */
+    private static synchronized X509ExtendedTrustManager systemTrust() throws GeneralSecurityException {
+        if( systemTrust != null ) return systemTrust;
+        var factory = TrustManagerFactory.getInstance( TrustManagerFactory.getDefaultAlgorithm() );
+        factory.init( (KeyStore) null );
+        for( TrustManager manager : factory.getTrustManagers() )
+            if( manager instanceof X509ExtendedTrustManager x509 ) return systemTrust = x509;
+        throw new GeneralSecurityException( "no X.509 trust manager" );
+    }
+
+
+    /**
+     * The state of a probe in progress.  Its channel is registered with the selector, with the probe as its attachment.
+     */
+    private abstract static class Session {
+
+        protected final int    index;    // the index of the probe in the list of probes run...
+        protected final Job    job;
+        protected final Timing timing;
+        protected SelectableChannel channel;
+        protected SelectionKey      key;
+
+
+        protected Session( final int _index, final Job _job ) {
+            index  = _index;
+            job    = _job;
+            timing = new Timing( _job.timeoutMs() );
+        }
+
+
+        /**
+         * Start the probe.
+         *
+         * @param _selector The selector to register the probe's channel with.
+         * @return The result if the probe is already finished (most likely, it failed to start), or null if it's in progress.
+         */
+        protected final Result start( final Selector _selector ) {
+            try {
+                var address = new InetSocketAddress( InetAddress.getByName( job.ip().toString() ), job.port() );
+                return begin( _selector, address );
+            }
+            catch( IOException | GeneralSecurityException | RuntimeException _e ) {
+                return failure( _e );
+            }
+        }
+
+
+        /**
+         * Advance the probe, now that its channel is ready.
+         *
+         * @return The result if the probe is finished, or null if it's still in progress.
+         */
+        protected final Result step() {
+            try {
+                return advance();
+            }
+            catch( IOException | GeneralSecurityException | RuntimeException _e ) {
+                return failure( _e );
+            }
+        }
+
+
+        protected abstract Result begin( final Selector _selector, final InetSocketAddress _address ) throws IOException, GeneralSecurityException;
+
+        protected abstract Result advance() throws IOException, GeneralSecurityException;
+
+
+        protected final void interest( final int _ops ) {
+            key.interestOps( _ops );
+        }
+
+
+        protected Result failure( final Exception _e ) {
+            if( _e instanceof ConnectException )         return timing.refused( "connection refused" );
+            if( _e instanceof PortUnreachableException ) return timing.refused( "port unreachable" );
+            return timing.fail( _e.getClass().getSimpleName() + ((_e.getMessage() == null) ? "" : ": " + _e.getMessage()) );
+        }
+
+
+        protected void close() {
+            if( channel == null ) return;
+            try {
+                channel.close();
+            }
+            catch( IOException _e ) {
+                // naught to do; we're done with it anyway...
+            }
+            channel = null;
+        }
+    }
+
+
+    /**
+     * An HTTP, HTTPS, or TLS probe, over a TCP connection.
+     */
+    private static final class TCPSession extends Session {
+
+        private enum Phase { CONNECTING, HANDSHAKING, WRITING, READING }
+
+        private final boolean tls;                   // true if there's a TLS handshake...
+        private final ByteArrayOutputStream response = new ByteArrayOutputStream();
+        private Phase             phase;
+        private SSLEngine         engine;            // the TLS engine, or null if there's no TLS...
+        private CertificateCheck  certificateCheck;  // what the TLS handshake found wrong with the server's certificate...
+        private ByteBuffer        netIn;             // TLS records received, not yet unwrapped...
+        private ByteBuffer        netOut;            // TLS records wrapped, not yet sent...
+        private ByteBuffer        appIn;             // plain bytes received...
+        private ByteBuffer        request;           // the HTTP request, as much of it as hasn't been sent yet...
+
+
+        private TCPSession( final int _index, final Job _job ) {
+            super( _index, _job );
+            tls = (_job.probe() instanceof TLSProbe) || ((_job.probe() instanceof HTTPProbe http) && http.https());
+        }
+
+
+        @Override
+        protected Result begin( final Selector _selector, final InetSocketAddress _address ) throws IOException, GeneralSecurityException {
+            var socketChannel = SocketChannel.open();
+            channel = socketChannel;
+            socketChannel.configureBlocking( false );
+            phase = Phase.CONNECTING;
+            key   = socketChannel.register( _selector, SelectionKey.OP_CONNECT, this );
+            return socketChannel.connect( _address ) ? connected() : null;
+        }
+
+
+        @Override
+        protected Result advance() throws IOException, GeneralSecurityException {
+            return switch( phase ) {
+                case CONNECTING  -> ((SocketChannel) channel).finishConnect() ? connected() : null;
+                case HANDSHAKING -> handshake();
+                case WRITING     -> write();
+                case READING     -> read();
+            };
+        }
+
+
+        /**
+         * The connection is established; start the TLS handshake, or send the HTTP request.
+         */
+        private Result connected() throws IOException, GeneralSecurityException {
+
+            timing.connected();
+            if( !tls ) return sendRequest();
+
+            // set up our TLS engine, checking certificates our way...
+            var serverName = (job.probe() instanceof TLSProbe tlsProbe) ? tlsProbe.serverName() : null;
+            var pin        = (job.probe() instanceof TLSProbe tlsProbe) ? tlsProbe.certSHA256() : ((HTTPProbe) job.probe()).certSHA256();
+            certificateCheck = new CertificateCheck( pin );
+            var context = SSLContext.getInstance( "TLS" );
+            context.init( null, new TrustManager[] { certificateCheck }, null );
+            engine = context.createSSLEngine( (serverName == null) ? job.ip().toString() : serverName, job.port() );
+            engine.setUseClientMode( true );
+            if( serverName != null ) {
+                var parameters = engine.getSSLParameters();
+                parameters.setServerNames( List.of( new SNIHostName( serverName ) ) );
+                parameters.setEndpointIdentificationAlgorithm( "HTTPS" );
+                engine.setSSLParameters( parameters );
+            }
+            var session = engine.getSession();
+            netIn  = ByteBuffer.allocate( session.getPacketBufferSize() );
+            netOut = ByteBuffer.allocate( session.getPacketBufferSize() );
+            appIn  = ByteBuffer.allocate( session.getApplicationBufferSize() );
+            engine.beginHandshake();
+            phase = Phase.HANDSHAKING;
+            return handshake();
+        }
+
+
+        /**
+         * Carry the TLS handshake as far as we can without blocking.
+         */
+        private Result handshake() throws IOException, GeneralSecurityException {
+
+            while( true ) {
+                switch( engine.getHandshakeStatus() ) {
+
+                    case NEED_TASK -> runTasks();
+
+                    case NEED_WRAP -> {
+                        if( !flush() ) return null;
+                        var result = engine.wrap( ByteBuffer.allocate( 0 ), netOut );
+                        if( result.getStatus() == SSLEngineResult.Status.CLOSED ) return timing.fail( "TLS closed during handshake" );
+                        if( !flush() ) return null;
+                    }
+
+                    case NEED_UNWRAP, NEED_UNWRAP_AGAIN -> {
+                        var status = unwrap();
+                        if( status == SSLEngineResult.Status.CLOSED ) return timing.fail( "TLS closed during handshake" );
+                        if( status == SSLEngineResult.Status.BUFFER_UNDERFLOW ) {
+                            var n = ((SocketChannel) channel).read( netIn );
+                            if( n < 0 ) return timing.fail( "connection closed during TLS handshake" );
+                            if( n == 0 ) {
+                                interest( SelectionKey.OP_READ );
+                                return null;
+                            }
+                        }
+                    }
+
+                    default -> {
+                        if( !flush() ) return null;
+                        return handshaken();
+                    }
+                }
+            }
+        }
+
+
+        /**
+         * The TLS handshake is complete; check the server's certificate, then either we're done (for a TLS probe) or we send the HTTP request.
+         */
+        private Result handshaken() throws IOException, GeneralSecurityException {
+
+            timing.handshaken();
+            var certificates = engine.getSession().getPeerCertificates();
+            if( (certificates.length > 0) && (certificates[0] instanceof X509Certificate cert) )
+                timing.certNotAfter = cert.getNotAfter().toInstant();
+            if( certificateCheck.problem != null )
+                return timing.fail( "certificate problem: " + certificateCheck.problem );
+            if( (timing.certNotAfter != null) && timing.certNotAfter.isBefore( Instant.now() ) )
+                return timing.fail( "certificate expired at " + timing.certNotAfter );
+            return (job.probe() instanceof TLSProbe) ? timing.pass() : sendRequest();
+        }
+
+
+        /**
+         * Start sending the HTTP request.  We ask the server to close the connection when it's done, and use HTTP/1.0 so the body is never chunked.
+         */
+        private Result sendRequest() throws IOException, GeneralSecurityException {
+            var http = (HTTPProbe) job.probe();
+            var path = (http.path() == null) ? "/" : http.path();
+            var text = "GET " + path + " HTTP/1.0\r\nHost: " + job.ip() + "\r\nUser-Agent: Monitor\r\nAccept: */*\r\nConnection: close\r\n\r\n";
+            request = ByteBuffer.wrap( text.getBytes( StandardCharsets.US_ASCII ) );
+            phase = Phase.WRITING;
+            return write();
+        }
+
+
+        /**
+         * Send as much of the HTTP request as we can without blocking; when it's all gone, start reading the response.
+         */
+        private Result write() throws IOException, GeneralSecurityException {
+
+            if( tls ) {
+                while( true ) {
+                    if( !flush() ) return null;
+                    if( !request.hasRemaining() ) break;
+                    var result = engine.wrap( request, netOut );
+                    if( result.getStatus() == SSLEngineResult.Status.CLOSED ) return timing.fail( "TLS closed while sending request" );
+                }
+            }
+            else {
+                ((SocketChannel) channel).write( request );
+                if( request.hasRemaining() ) {
+                    interest( SelectionKey.OP_WRITE );
+                    return null;
+                }
+            }
+
+            phase = Phase.READING;
+            interest( SelectionKey.OP_READ );
+            return read();
+        }
+
+
+        /**
+         * Read as much of the response as we can without blocking, and see whether we've got enough of it to decide.
+         */
+        private Result read() throws IOException, GeneralSecurityException {
+
+            while( true ) {
+
+                // get whatever bytes are available...
+                var before = response.size();
+                var eof    = false;
+                if( tls ) {
+                    var n = ((SocketChannel) channel).read( netIn );
+                    if( unwrap() == SSLEngineResult.Status.CLOSED ) eof = true;
+                    appIn.flip();
+                    response.write( appIn.array(), appIn.position(), appIn.remaining() );
+                    appIn.clear();
+                    if( n < 0 ) eof = true;
+                }
+                else {
+                    var buffer = ByteBuffer.allocate( 4096 );
+                    var n = ((SocketChannel) channel).read( buffer );
+                    if( n < 0 ) eof = true;
+                    response.write( buffer.array(), 0, buffer.position() );
+                }
+                if( (before == 0) && (response.size() > 0) ) timing.firstByte();
+
+                // see if we've got enough to decide...
+                var result = evaluate( eof || (response.size() >= MAX_RESPONSE_BYTES) );
+                if( result != null ) return result;
+                if( response.size() == before ) return null;  // nothing more for now; wait for the channel to be ready again...
+            }
+        }
+
+
+        /**
+         * Decide the HTTP probe from the response so far, if we can: the status line decides it unless there's a body pattern, and then the body decides it
+         * once the pattern is found, or once the body is all here.
+         *
+         * @param _complete True if there won't be any more of the response.
+         * @return The result, or null if we need more of the response to decide.
+         */
+        private Result evaluate( final boolean _complete ) {
+
+            var http  = (HTTPProbe) job.probe();
+            var bytes = response.toByteArray();
+            var text  = new String( bytes, StandardCharsets.ISO_8859_1 );
+
+            // first the status line...
+            var lineEnd = text.indexOf( "\r\n" );
+            if( lineEnd < 0 ) return _complete ? timing.fail( "response is not HTTP" ) : null;
+            var matcher = STATUS_PAT.matcher( text );
+            if( !matcher.find() ) return timing.fail( "response is not HTTP" );
+            var status = Integer.parseInt( matcher.group( 1 ) );
+            timing.status = status;
+            if( status != http.expectedStatus() ) return timing.fail( "expected status " + http.expectedStatus() + ", got " + status );
+            if( http.bodyPattern() == null ) return timing.pass();
+
+            // then the headers...
+            var headersEnd = text.indexOf( "\r\n\r\n" );
+            if( headersEnd < 0 ) return _complete ? timing.fail( "response headers are incomplete" ) : null;
+            var length = CONTENT_LENGTH_PAT.matcher( text.substring( 0, headersEnd ) );
+            var contentLength = length.find() ? Long.parseLong( length.group( 1 ) ) : -1;
+
+            // and the body...
+            var bodyStart = headersEnd + 4;
+            var body = new String( bytes, bodyStart, bytes.length - bodyStart, StandardCharsets.UTF_8 );
+            if( Pattern.compile( http.bodyPattern() ).matcher( body ).find() ) return timing.pass();
+            if( _complete || ((contentLength >= 0) && (bytes.length - bodyStart >= contentLength)) )
+                return timing.fail( "body does not match \"" + http.bodyPattern() + "\"" );
+            return null;
+        }
+
+
+        /**
+         * Unwrap as many TLS records as we've received into plain bytes.
+         *
+         * @return The status of the last unwrap: BUFFER_UNDERFLOW if we need more bytes from the network, CLOSED if the server closed TLS, or OK.
+         */
+        private SSLEngineResult.Status unwrap() throws SSLException {
+            while( true ) {
+                netIn.flip();
+                var result = engine.unwrap( netIn, appIn );
+                netIn.compact();
+                switch( result.getStatus() ) {
+                    case BUFFER_OVERFLOW -> {
+                        var bigger = ByteBuffer.allocate( appIn.capacity() * 2 );
+                        appIn.flip();
+                        bigger.put( appIn );
+                        appIn = bigger;
+                    }
+                    case OK -> {
+                        if( (result.bytesConsumed() == 0) && (result.bytesProduced() == 0) ) return SSLEngineResult.Status.OK;
+
+                        // during the handshake, we go back to the handshake as soon as it wants something other than more unwrapping...
+                        var handshakeStatus = result.getHandshakeStatus();
+                        if( handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_TASK ) runTasks();
+                        if( (phase == Phase.HANDSHAKING) && (handshakeStatus != SSLEngineResult.HandshakeStatus.NEED_UNWRAP)
+                                && (handshakeStatus != SSLEngineResult.HandshakeStatus.NEED_UNWRAP_AGAIN) ) return SSLEngineResult.Status.OK;
+                    }
+                    default -> {
+                        return result.getStatus();
+                    }
+                }
+            }
+        }
+
+
+        /**
+         * Run the TLS engine's delegated tasks (mostly certificate checking and key computations) right here, as probes are quick and few.
+         */
+        private void runTasks() {
+            for( Runnable task = engine.getDelegatedTask(); task != null; task = engine.getDelegatedTask() ) task.run();
+        }
+
+
+        /**
+         * Send as much of the wrapped TLS records as we can without blocking.  If any are left, we wait for the channel to be writable.
+         *
+         * @return True if everything was sent.
+         */
+        private boolean flush() throws IOException {
+            netOut.flip();
+            ((SocketChannel) channel).write( netOut );
+            var done = !netOut.hasRemaining();
+            netOut.compact();
+            if( !done ) interest( SelectionKey.OP_WRITE );
+            return done;
+        }
+    }
+
+
+    /**
+     * A UDP request/response probe.
+     */
+    private static final class UDPSession extends Session {
+
+        private ByteBuffer request;   // the request, until it's been sent...
+
+
+        private UDPSession( final int _index, final Job _job ) {
+            super( _index, _job );
+        }
+
+
+        @Override
+        protected Result begin( final Selector _selector, final InetSocketAddress _address ) throws IOException {
+            var datagramChannel = DatagramChannel.open();
+            channel = datagramChannel;
+            datagramChannel.configureBlocking( false );
+            datagramChannel.connect( _address );  // only local socket setup, so not timed; the round trip is timed from the send...
+            request = ByteBuffer.wrap( HexFormat.of().parseHex( ((UDPProbe) job.probe()).requestHex() ) );
+            key = datagramChannel.register( _selector, SelectionKey.OP_WRITE, this );
+            return advance();
+        }
+
+
+        @Override
+        protected Result advance() throws IOException {
+
+            var datagramChannel = (DatagramChannel) channel;
+
+            // send our request, if we haven't yet...
+            if( request != null ) {
+                if( datagramChannel.write( request ) == 0 ) return null;
+                timing.sent();
+                request = null;
+                interest( SelectionKey.OP_READ );
+            }
+
+            // see if the response is here...
+            var buffer = ByteBuffer.allocate( MAX_RESPONSE_BYTES );
+            if( datagramChannel.read( buffer ) <= 0 ) return null;
+            timing.firstByte();
+
+            // check that it starts the way it should...
+            var udp = (UDPProbe) job.probe();
+            if( udp.responseHexPrefix() != null ) {
+                var prefix = HexFormat.of().parseHex( udp.responseHexPrefix() );
+                if( (buffer.position() < prefix.length) || !Arrays.equals( buffer.array(), 0, prefix.length, prefix, 0, prefix.length ) )
+                    return timing.fail( "response does not start with " + udp.responseHexPrefix() );
+            }
+            return timing.pass();
+        }
+    }
+
+
+    /**
+     * Checks a server's certificate during a TLS handshake, recording any problem rather than failing the handshake.  If we were given a fingerprint, the
+     * certificate must have it; otherwise it must be trusted by the JVM's trust store (and match the server's name, if the engine has one to check).
+     */
+    private static final class CertificateCheck extends X509ExtendedTrustManager {
+
+        private final String pin;      // the SHA-256 fingerprint of the only certificate to trust, in lower-case hexadecimal, or null for none...
+        private String       problem;  // what's wrong with the server's certificate, or null if nothing is...
+
+
+        private CertificateCheck( final String _pin ) {
+            pin = (_pin == null) ? null : _pin.replaceAll( "[:\\s]", "" ).toLowerCase();
+        }
+
+
+        @Override
+        public void checkServerTrusted( final X509Certificate[] _chain, final String _authType, final SSLEngine _engine ) {
+            try {
+                if( pin == null )
+                    systemTrust().checkServerTrusted( _chain, _authType, _engine );
+                else {
+                    var fingerprint = HexFormat.of().formatHex( MessageDigest.getInstance( "SHA-256" ).digest( _chain[0].getEncoded() ) );
+                    if( !fingerprint.equals( pin ) ) problem = "fingerprint is " + fingerprint + ", not the expected " + pin;
+                }
+            }
+            catch( GeneralSecurityException | RuntimeException _e ) {
+                problem = _e.getMessage();
+            }
+        }
+
+
+        @Override
+        public void checkServerTrusted( final X509Certificate[] _chain, final String _authType, final Socket _socket ) {
+            checkServerTrusted( _chain, _authType, (SSLEngine) null );
+        }
+
+
+        @Override
+        public void checkServerTrusted( final X509Certificate[] _chain, final String _authType ) {
+            checkServerTrusted( _chain, _authType, (SSLEngine) null );
+        }
+
+
+        @Override
+        public void checkClientTrusted( final X509Certificate[] _chain, final String _authType, final SSLEngine _engine ) throws CertificateException {
+            throw new CertificateException( "probes don't accept client connections" );
+        }
+
+
+        @Override
+        public void checkClientTrusted( final X509Certificate[] _chain, final String _authType, final Socket _socket ) throws CertificateException {
+            throw new CertificateException( "probes don't accept client connections" );
+        }
+
+
+        @Override
+        public void checkClientTrusted( final X509Certificate[] _chain, final String _authType ) throws CertificateException {
+            throw new CertificateException( "probes don't accept client connections" );
+        }
+
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+
+
+    /**
+     * The timing of the phases of a probe in progress, and what the probe has learned so far.
+     */
+    private static final class Timing {
+
+        private final long startedAt;        // System.nanoTime() when the probe started...
+        private final long timeoutAt;        // System.nanoTime() when the probe times out...
+        private long       connectNanos;     // time to connect, or zero if it didn't happen...
+        private long       tlsNanos;         // time for the TLS handshake, or zero if it didn't happen...
+        private long       firstByteNanos;   // time from sending the request to the first byte of the response, or zero if it didn't happen...
+        private long       phaseAt;          // System.nanoTime() when the current phase started...
+        private int        status;           // the HTTP status, or zero if there wasn't one...
+        private Instant    certNotAfter;     // when the server's certificate expires, or null if there wasn't one...
+
+
+        private Timing( final int _timeoutMs ) {
+            startedAt = System.nanoTime();
+            phaseAt   = startedAt;
+            timeoutAt = startedAt + 1_000_000L * _timeoutMs;
+        }
+
+
+        private void connected() {
+            var now = System.nanoTime();
+            connectNanos = now - phaseAt;
+            phaseAt = now;
+        }
+
+
+        private void sent() {
+            phaseAt = System.nanoTime();
+        }
+
+
+        private void handshaken() {
+            var now = System.nanoTime();
+            tlsNanos = now - phaseAt;
+            phaseAt = now;
+        }
+
+
+        private void firstByte() {
+            var now = System.nanoTime();
+            firstByteNanos = now - phaseAt;
+            phaseAt = now;
+        }
+
+
+        private Result pass() {
+            return new Result( true, false, false, null, connectNanos, tlsNanos, firstByteNanos, System.nanoTime() - startedAt, status, certNotAfter );
+        }
+
+
+        private Result fail( final String _reason ) {
+            return new Result( false, false, false, _reason, connectNanos, tlsNanos, firstByteNanos, System.nanoTime() - startedAt, status, certNotAfter );
+        }
+
+
+        private Result refused( final String _reason ) {
+            return new Result( false, true, false, _reason, connectNanos, tlsNanos, firstByteNanos, System.nanoTime() - startedAt, status, certNotAfter );
+        }
+
+
+        private Result expired( final String _reason ) {
+            return new Result( false, false, true, _reason, connectNanos, tlsNanos, firstByteNanos, System.nanoTime() - startedAt, status, certNotAfter );
+        }
+    }
+
+
+    /**
+     * A probe to run against a host and port.
+     *
+     * @param probe The probe to run.
+     * @param ip The IP address of the host.
+     * @param port The port of the service.
+     * @param timeoutMs The maximum time for the probe, in milliseconds.
+     */
+    public record Job( Probe probe, IPAddress ip, int port, int timeoutMs ) {}
+
+
+    /**
+     * Implemented by anything that wants to receive probe results.
+     */
+    public interface ResultHandler {
+
+        /**
+         * Called on the probing thread with the result for a probe.
+         *
+         * @param _index The index of the probe in the list of probes run.
+         * @param _result The result.
+         */
+        void onResult( int _index, Result _result );
+    }
+
+
+    /**
+     * Implemented by the kinds of probe.
+     */
+    public sealed interface Probe permits HTTPProbe, TLSProbe, UDPProbe {}
+
+
+    /**
+     * An HTTP GET probe.
+     *
+     * @param path The path to get, like "/index.html"; "/" if null.
+     * @param https True if the request should be made over TLS.
+     * @param expectedStatus The HTTP status the response must have to pass, usually 200.
+     * @param bodyPattern If not null, a regular expression that must be found in the response's body for the probe to pass.
+     * @param certSHA256 For HTTPS, if not null, the SHA-256 fingerprint (in hexadecimal, colons optional) of the only server certificate to trust; if null,
+     *                   the server's certificate must be trusted by the JVM's trust store.
+     */
+    public record HTTPProbe( String path, boolean https, int expectedStatus, String bodyPattern, String certSHA256 ) implements Probe {
+
+        /**
+         * Creates a new instance of this class, trusting the server certificates the JVM's trust store does.
+         *
+         * @param path The path to get, like "/index.html"; "/" if null.
+         * @param https True if the request should be made over TLS.
+         * @param expectedStatus The HTTP status the response must have to pass, usually 200.
+         * @param bodyPattern If not null, a regular expression that must be found in the response's body for the probe to pass.
+         */
+        public HTTPProbe( String path, boolean https, int expectedStatus, String bodyPattern ) {
+            this( path, https, expectedStatus, bodyPattern, null );
+        }
+    }
+
+
+    /**
+     * A TLS handshake probe; it passes if the handshake completes, the server's certificate is trusted, and it hasn't expired.
+     *
+     * @param serverName If not null, the server name to send in the handshake (SNI), which the certificate must match.
+     * @param certSHA256 If not null, the SHA-256 fingerprint (in hexadecimal, colons optional) of the only server certificate to trust; if null, the
+     *                   server's certificate must be trusted by the JVM's trust store.
+     */
+    public record TLSProbe( String serverName, String certSHA256 ) implements Probe {
+
+        /**
+         * Creates a new instance of this class, trusting the server certificates the JVM's trust store does.
+         *
+         * @param serverName If not null, the server name to send in the handshake (SNI), which the certificate must match.
+         */
+        public TLSProbe( String serverName ) {
+            this( serverName, null );
+        }
+    }
+
+
+    /**
+     * A UDP request/response probe; it passes if a response arrives (and starts with the given bytes, if there are any).
+     *
+     * @param requestHex The request datagram, in hexadecimal.
+     * @param responseHexPrefix If not null, the bytes (in hexadecimal) that the response must start with to pass.
+     */
+    public record UDPProbe( String requestHex, String responseHexPrefix ) implements Probe {}
+
+
+    /**
+     * The result of a probe.  Phases that didn't happen (for instance, the TLS handshake in a plain HTTP probe, or everything after a failed connect) have
+     * zero times.  A UDP probe has no connect time; its round trip time is the time to the first byte.
+     *
+     * @param passed True if the probe passed.
+     * @param refused True if the host refused the connection (or for a UDP probe, said the port was unreachable): the host is up, but nothing is listening
+     *                on the port.
+     * @param expired True if the run's deadline expired before the probe completed, so nothing is known about the service.
+     * @param reason If the probe didn't pass, why not.
+     * @param connectNanos The time to connect, in nanoseconds; zero for a UDP probe.
+     * @param tlsNanos The time for the TLS handshake, in nanoseconds.
+     * @param firstByteNanos The time from sending the request to receiving the first byte of the response, in nanoseconds.
+     * @param totalNanos The time for the whole probe, in nanoseconds.
+     * @param status The HTTP status of the response, or zero if there wasn't one.
+     * @param certNotAfter When the server's certificate expires, or null if there wasn't one.
+     */
+    public record Result( boolean passed, boolean refused, boolean expired, String reason, long connectNanos, long tlsNanos, long firstByteNanos,
+                          long totalNanos, int status, Instant certNotAfter ) {}
+}
@@ -0,0 +1,31 @@
+package com.dilatush.monitor.monitors;
+
+import com.dilatush.util.Outcome;
+import com.dilatush.util.ip.IPAddress;
+
+/**
+ * Implemented by classes that can find the public IP address of this machine: the address that hosts on the Internet see our requests coming from.
+ * Implementations must be threadsafe, as resolvers are raced against each other on separate threads.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public interface PublicIPResolver {
+
+    /**
+     * Return the name of this resolver, for logs and statistics.
+     *
+     * @return The name of this resolver.
+     */
+    String name();
+
+
+    /**
+     * Find the public IP address of this machine, blocking until it is found or the given timeout expires.  Implementations should respond to interruption
+     * where they can, as resolvers that lose a race are cancelled.
+     *
+     * @param _timeoutMs The maximum time to take, in milliseconds.
+     * @return The outcome of the attempt.  If ok, contains the public IP address.  If not ok, contains an explanatory message and possibly the exception that
+     * caused the problem.
+     */
+    Outcome<IPAddress> resolve( int _timeoutMs );
+}
@@ -0,0 +1,615 @@
+package com.dilatush.monitor.monitors;
+
+import com.dilatush.util.Outcome;
+import com.dilatush.util.ip.IPAddress;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import static com.dilatush.util.General.getLogger;
+
+/**
+ * Finds the public IP address of this machine by racing several {@link PublicIPResolver}s against each other: the first valid answer wins, and the losers
+ * are cancelled.  Answers are cached for a while, as the public IP address rarely changes, and there's no need to ask the Internet every few seconds.  The
+ * latency and failures of each resolver are tracked; only the best few resolvers are raced each time, and a resolver that fails is left out of the races
+ * for a while, backing off exponentially while it keeps failing.  Three kinds of resolver are provided here: HTTP services that echo the caller's address,
+ * DNS servers that answer a "myip" query with it, and a router that reports its WAN address through UPnP.  Each is configured with the address of its
+ * server, so any of them can be pointed at a local stand-in.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class PublicIPResolvers {
+
+    private static final Logger LOGGER = getLogger();
+
+    private static final Outcome.Forge<IPAddress> FORGE_IP = new Outcome.Forge<>();
+
+    private static final Duration MIN_BACKOFF = Duration.ofSeconds( 30 );
+    private static final Duration MAX_BACKOFF = Duration.ofHours( 1 );
+    private static final double   LATENCY_SMOOTHING = 0.2;  // weight of each new latency in a resolver's smoothed latency...
+
+    private static final Pattern DOTTED_QUAD_PAT = Pattern.compile( "(\\d{1,3})\\.(\\d{1,3})\\.(\\d{1,3})\\.(\\d{1,3})" );
+
+    private final List<Contender> contenders;
+    private final int             raceWidth;   // the number of resolvers raced each time...
+    private final Duration        cacheTTL;    // how long an answer is good for...
+    private final ExecutorService executor;    // the threads the resolvers race on...
+
+    private volatile Cached cached;            // the last answer, or null if there isn't one...
+
+
+    /**
+     * Creates a new instance of this class with the given resolvers.
+     *
+     * @param _resolvers The resolvers to race.
+     * @param _raceWidth The number of resolvers to race each time; the ones with the lowest latency (that aren't backed off) are chosen.
+     * @param _cacheTTL How long an answer is good for.
+     */
+    public PublicIPResolvers( final List<PublicIPResolver> _resolvers, final int _raceWidth, final Duration _cacheTTL ) {
+
+        if( _resolvers.isEmpty() ) throw new IllegalArgumentException( "At least one public IP resolver is required" );
+        contenders = new ArrayList<>();
+        for( PublicIPResolver resolver : _resolvers ) contenders.add( new Contender( resolver ) );
+        raceWidth = Math.max( 1, _raceWidth );
+        cacheTTL  = _cacheTTL;
+        executor  = Executors.newCachedThreadPool( (r) -> {
+            var thread = new Thread( r, "public IP resolver" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+    }
+
+
+    /**
+     * Return the default resolvers: Amazon's "checkip" HTTP service, and the OpenDNS and Google "myip" DNS queries.  The DNS servers are ones that are
+     * reachable through either ISP.
+     *
+     * @return The default resolvers.
+     */
+    public static List<PublicIPResolver> defaults() {
+        return List.of(
+                new HTTPEcho( "checkip", "http://checkip.amazonaws.com" ),
+                new DNS( "OpenDNS", IPAddress.fromString( "208.67.222.220" ).info(), 53, "myip.opendns.com", DNS.TYPE_A ),
+                new DNS( "Google",  IPAddress.fromString( "216.239.32.10"  ).info(), 53, "o-o.myaddr.l.google.com", DNS.TYPE_TXT ) );
+    }
+
+
+    /**
+     * Return the public IP address of this machine: the cached answer if it is still good, or otherwise the first valid answer from a race between the best
+     * resolvers.
+     *
+     * @param _timeout The maximum time to take.
+     * @return The outcome of the attempt.  If ok, contains the public IP address.  If not ok, contains an explanatory message.
+     */
+    public Outcome<IPAddress> resolve( final Duration _timeout ) {
+
+        // if we have a good answer already, we're done...
+        var last = cached;
+        if( (last != null) && (System.currentTimeMillis() - last.at < cacheTTL.toMillis()) ) return FORGE_IP.ok( last.ip );
+
+        // pick our contenders...
+        var racers = pickRacers();
+
+        // start the race...
+        var deadlineAt = System.nanoTime() + _timeout.toNanos();
+        var timeoutMs  = (int) Math.max( 1, _timeout.toMillis() );
+        var completion = new ExecutorCompletionService<Attempt>( executor );
+        var futures    = new ArrayList<Future<Attempt>>();
+        for( Contender racer : racers )
+            futures.add( completion.submit( () -> {
+                var startedAt = System.nanoTime();
+                Outcome<IPAddress> outcome;
+                try {
+                    outcome = racer.resolver.resolve( timeoutMs );
+                }
+                catch( RuntimeException _e ) {
+                    outcome = FORGE_IP.notOk( "Resolver threw " + _e, _e );
+                }
+                return new Attempt( racer, outcome, System.nanoTime() - startedAt );
+            } ) );
+
+        // wait for the first valid answer...
+        var problems = new ArrayList<String>();
+        var finished = new ArrayList<Contender>();
+        try {
+            for( int i = 0; i < racers.size(); i++ ) {
+                var future = completion.poll( Math.max( 0, deadlineAt - System.nanoTime() ), TimeUnit.NANOSECONDS );
+                if( future == null ) break;
+                Attempt attempt;
+                try {
+                    attempt = future.get();
+                }
+                catch( ExecutionException _e ) {
+                    // can't happen, as the task catches anything the resolver throws...
+                    continue;
+                }
+                finished.add( attempt.contender );
+                var problem = validate( attempt.outcome );
+                if( problem == null ) {
+                    attempt.contender.succeeded( attempt.nanos );
+                    cached = new Cached( attempt.outcome.info(), System.currentTimeMillis() );
+                    return attempt.outcome;
+                }
+                attempt.contender.failed();
+                problems.add( attempt.contender.resolver.name() + ": " + problem );
+            }
+        }
+        catch( InterruptedException _e ) {
+            Thread.currentThread().interrupt();
+            return FORGE_IP.notOk( "Interrupted while resolving public IP address" );
+        }
+        finally {
+            // cancel the losers...
+            futures.forEach( (future) -> future.cancel( true ) );
+        }
+
+        // if we get here, nobody won; anyone who didn't finish just ran out of time (the run's, not theirs), so they aren't backed off...
+        for( Contender racer : racers ) {
+            if( finished.contains( racer ) ) continue;
+            problems.add( racer.resolver.name() + ": no answer in time" );
+        }
+        return FORGE_IP.notOk( "No public IP resolver succeeded: " + String.join( "; ", problems ) );
+    }
+
+
+    /**
+     * Forget the cached answer, so that the next call to {@link #resolve(Duration)} races the resolvers.  This should be called whenever there's reason to
+     * think the public IP address might have changed, for instance when an ISP goes up or down.
+     */
+    public void invalidate() {
+        cached = null;
+    }
+
+
+    /**
+     * Forget the cached answer if it was obtained before the given time, so that the next call to {@link #resolve(Duration)} races the resolvers.  This
+     * should be called when the active path may have switched ISPs since the given time, as the cached answer may then be the old ISP's address.
+     *
+     * @param _time The time before which a cached answer can't be trusted.
+     * @return True if a cached answer was forgotten.
+     */
+    public boolean invalidateBefore( final Instant _time ) {
+        var last = cached;
+        if( (last == null) || (last.at >= _time.toEpochMilli()) ) return false;
+        cached = null;
+        return true;
+    }
+
+
+    /**
+     * Return the statistics for each resolver, for a status message.
+     *
+     * @return A JSON object with the statistics for each resolver, by name.
+     */
+    public JSONObject toJSON() {
+        var result = new JSONObject();
+        for( Contender contender : contenders ) result.put( contender.resolver.name(), contender.toJSON() );
+        return result;
+    }
+
+
+    /**
+     * Pick the resolvers to race: the ones with the lowest latency that aren't backed off, with resolvers that have never answered first (so they get a
+     * chance to show how fast they are).  If every resolver is backed off, the one whose backoff ends first is raced alone.
+     *
+     * @return The resolvers to race.
+     */
+    private List<Contender> pickRacers() {
+
+        var now = System.currentTimeMillis();
+        var eligible = new ArrayList<Contender>();
+        for( Contender contender : contenders ) if( contender.backoffUntil() <= now ) eligible.add( contender );
+        if( eligible.isEmpty() )
+            return List.of( contenders.stream().min( Comparator.comparingLong( Contender::backoffUntil ) ).orElseThrow() );
+        eligible.sort( Comparator.comparingDouble( Contender::latencyMs ) );
+        return eligible.subList( 0, Math.min( raceWidth, eligible.size() ) );
+    }
+
+
+    /**
+     * Check that the given outcome is a valid public IP address: that is, an IPv4 address that isn't private, shared (carrier grade NAT), loopback, or
+     * link local.
+     *
+     * @param _outcome The outcome to check.
+     * @return Null if the outcome is valid, otherwise an explanation of what's wrong.
+     */
+    private static String validate( final Outcome<IPAddress> _outcome ) {
+
+        if( _outcome.notOk() ) return _outcome.msg();
+        if( _outcome.info() == null ) return "no address";
+        var matcher = DOTTED_QUAD_PAT.matcher( _outcome.info().toString() );
+        if( !matcher.matches() ) return "not an IPv4 address: " + _outcome.info();
+        var a = Integer.parseInt( matcher.group( 1 ) );
+        var b = Integer.parseInt( matcher.group( 2 ) );
+        if( (a == 10) || (a == 127) || (a == 0) || (a >= 224)
+                || ((a == 172) && (b >= 16) && (b < 32))
+                || ((a == 192) && (b == 168))
+                || ((a == 169) && (b == 254))
+                || ((a == 100) && (b >= 64) && (b < 128)) )
+            return "not a public address: " + _outcome.info();
+        return null;
+    }
+
+
+    /**
+     * Parse the given text (with any surrounding whitespace) as an IP address.
+     *
+     * @param _text The text to parse.
+     * @return The outcome of parsing.
+     */
+    private static Outcome<IPAddress> parse( final String _text ) {
+        var text = _text.trim();
+        return text.isEmpty() ? FORGE_IP.notOk( "empty answer" ) : IPAddress.fromString( text );
+    }
+
+
+    /**
+     * A resolver that gets the public IP address from an HTTP service that returns the caller's address as plain text, like Amazon's checkip.
+     */
+    public static class HTTPEcho implements PublicIPResolver {
+
+        private final String name;
+        private final String url;
+
+
+        /**
+         * Creates a new instance of this class.
+         *
+         * @param _name The name of this resolver.
+         * @param _url The URL of the service.
+         */
+        public HTTPEcho( final String _name, final String _url ) {
+            name = _name;
+            url  = _url;
+        }
+
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+
+        @Override
+        public Outcome<IPAddress> resolve( final int _timeoutMs ) {
+            try {
+                HttpURLConnection con = (HttpURLConnection) new URL( url ).openConnection();
+                con.setConnectTimeout( _timeoutMs );
+                con.setReadTimeout( _timeoutMs );
+                con.setInstanceFollowRedirects( false );
+                try {
+                    var status = con.getResponseCode();
+                    if( status != 200 ) return FORGE_IP.notOk( "HTTP status was not ok (200): " + status );
+                    return parse( readAll( con.getInputStream() ) );
+                }
+                finally {
+                    con.disconnect();
+                }
+            }
+            catch( IOException _e ) {
+                return FORGE_IP.notOk( "Problem querying " + url + ": " + _e.getMessage(), _e );
+            }
+        }
+    }
+
+
+    /**
+     * A resolver that gets the public IP address by asking a DNS server for a special name that it answers with the address the query came from, like
+     * OpenDNS's "myip.opendns.com" (an A record) or Google's "o-o.myaddr.l.google.com" (a TXT record).  It takes a single UDP datagram each way, so it's
+     * the cheapest kind of resolver.
+     */
+    public static class DNS implements PublicIPResolver {
+
+        public static final int TYPE_A   = 1;
+        public static final int TYPE_TXT = 16;
+
+        private static final int MAX_NAME_BYTES = 255;  // the longest a DNS name may be (RFC 1035)...
+
+        private final String    name;
+        private final IPAddress server;
+        private final int       port;
+        private final String    query;
+        private final int       type;
+
+
+        /**
+         * Creates a new instance of this class.
+         *
+         * @param _name The name of this resolver.
+         * @param _server The IP address of the DNS server to ask.
+         * @param _port The UDP port of the DNS server (normally 53).
+         * @param _query The name to ask for.
+         * @param _type The type of record to ask for, either {@link #TYPE_A} or {@link #TYPE_TXT}.
+         */
+        public DNS( final String _name, final IPAddress _server, final int _port, final String _query, final int _type ) {
+            if( (_type != TYPE_A) && (_type != TYPE_TXT) ) throw new IllegalArgumentException( "Unsupported DNS record type: " + _type );
+            name   = _name;
+            server = _server;
+            port   = _port;
+            query  = _query;
+            type   = _type;
+        }
+
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+
+        @Override
+        public Outcome<IPAddress> resolve( final int _timeoutMs ) {
+
+            try( DatagramSocket socket = new DatagramSocket() ) {
+
+                // send our query...
+                var id = ThreadLocalRandom.current().nextInt( 0x10000 );
+                var request = request( id );
+                socket.connect( new InetSocketAddress( InetAddress.getByName( server.toString() ), port ) );
+                socket.setSoTimeout( _timeoutMs );
+                socket.send( new DatagramPacket( request, request.length ) );
+
+                // wait for our answer, ignoring anything that isn't...
+                var buffer = new byte[ 512 ];
+                var deadlineAt = System.currentTimeMillis() + _timeoutMs;
+                while( true ) {
+                    var packet = new DatagramPacket( buffer, buffer.length );
+                    socket.receive( packet );
+                    if( (packet.getLength() >= 12) && (u16( buffer, 0 ) == id) ) return answer( buffer, packet.getLength() );
+                    var remaining = deadlineAt - System.currentTimeMillis();
+                    if( remaining <= 0 ) return FORGE_IP.notOk( "No answer from " + server );
+                    socket.setSoTimeout( (int) remaining );
+                }
+            }
+            catch( IOException _e ) {
+                return FORGE_IP.notOk( "Problem querying " + server + ": " + _e.getMessage(), _e );
+            }
+        }
+
+
+        /**
+         * Return a DNS query for our name and type, with the given id.
+         *
+         * @param _id The query id.
+         * @return The query datagram.
+         */
+        private byte[] request( final int _id ) {
+            var out = new ByteArrayOutputStream();
+            out.writeBytes( new byte[] { (byte) (_id >> 8), (byte) _id, 0x01, 0x00, 0, 1, 0, 0, 0, 0, 0, 0 } );  // header: recursion desired, one question...
+            for( String label : query.split( "\\." ) ) {
+                var bytes = label.getBytes( StandardCharsets.US_ASCII );
+                out.write( bytes.length );
+                out.writeBytes( bytes );
+            }
+            out.writeBytes( new byte[] { 0, 0, (byte) type, 0, 1 } );  // end of name, type, class IN...
+            return out.toByteArray();
+        }
+
+
+        /**
+         * Return the public IP address in the given DNS response: the first A or TXT record (whichever we asked for) in the answers.
+         *
+         * @param _response The response datagram.
+         * @param _length The length of the response.
+         * @return The outcome of reading the answer.
+         */
+        private Outcome<IPAddress> answer( final byte[] _response, final int _length ) {
+
+            var flags = u16( _response, 2 );
+            if( (flags & 0x8000) == 0 ) return FORGE_IP.notOk( "DNS response is not a response" );
+            if( (flags & 0x000F) != 0 ) return FORGE_IP.notOk( "DNS response code: " + (flags & 0x000F) );
+
+            try {
+                // skip the questions...
+                var offset    = 12;
+                var questions = u16( _response, 4 );
+                var answers   = u16( _response, 6 );
+                for( int i = 0; i < questions; i++ ) offset = skipName( _response, _length, offset ) + 4;
+
+                // look for our answer...
+                for( int i = 0; i < answers; i++ ) {
+                    offset = skipName( _response, _length, offset );
+                    var answerType = u16( _response, offset );
+                    var length     = u16( _response, offset + 8 );
+                    var data       = offset + 10;
+                    if( data + length > _length ) break;
+                    if( (answerType == TYPE_A) && (type == TYPE_A) && (length == 4) )
+                        return parse( (_response[data] & 0xFF) + "." + (_response[data + 1] & 0xFF) + "." + (_response[data + 2] & 0xFF) + "."
+                                + (_response[data + 3] & 0xFF) );
+                    if( (answerType == TYPE_TXT) && (type == TYPE_TXT) && (length > 1) )
+                        return parse( new String( _response, data + 1, Math.min( _response[data] & 0xFF, length - 1 ), StandardCharsets.US_ASCII ) );
+                    offset = data + length;
+                }
+            }
+            catch( ArrayIndexOutOfBoundsException _e ) {
+                return FORGE_IP.notOk( "DNS response is malformed" );
+            }
+            return FORGE_IP.notOk( "DNS response has no answer" );
+        }
+
+
+        /**
+         * Return the offset just past the name at the given offset in the given DNS response.  We never follow compression pointers (we only need to get
+         * past the name, and a pointer always ends one), so a malicious response can't loop us; but a name may be no longer than the 255 bytes RFC 1035
+         * allows, and must end within the response, or it's malformed.
+         *
+         * @param _response The response datagram.
+         * @param _length The length of the response.
+         * @param _offset The offset of the name.
+         * @return The offset just past the name.
+         * @throws ArrayIndexOutOfBoundsException If the name is malformed.
+         */
+        private static int skipName( final byte[] _response, final int _length, final int _offset ) {
+            var offset = _offset;
+            while( (offset < _length) && (offset - _offset < MAX_NAME_BYTES) ) {
+                var length = _response[offset] & 0xFF;
+                if( (length & 0xC0) == 0xC0 ) return offset + 2;   // a compression pointer ends the name...
+                if( length == 0 ) return offset + 1;
+                offset += length + 1;
+            }
+            throw new ArrayIndexOutOfBoundsException( "DNS name at " + _offset + " is too long, or runs past the end of the response" );
+        }
+
+
+        private static int u16( final byte[] _bytes, final int _offset ) {
+            return ((_bytes[_offset] & 0xFF) << 8) | (_bytes[_offset + 1] & 0xFF);
+        }
+    }
+
+
+    /**
+     * A resolver that asks a router for its WAN address through UPnP's WANIPConnection service.  This only gives the public IP address if the router has it
+     * on its WAN interface; behind carrier grade NAT, the router's address is a shared one, and the answer is rejected as invalid.
+     */
+    public static class UPnP implements PublicIPResolver {
+
+        private static final String SERVICE = "urn:schemas-upnp-org:service:WANIPConnection:1";
+        private static final Pattern ADDRESS_PAT = Pattern.compile( "<NewExternalIPAddress>\\s*([^<]*?)\\s*</NewExternalIPAddress>" );
+
+        private final String name;
+        private final String controlURL;
+
+
+        /**
+         * Creates a new instance of this class.
+         *
+         * @param _name The name of this resolver.
+         * @param _controlURL The control URL of the router's WANIPConnection service, from its UPnP device description.
+         */
+        public UPnP( final String _name, final String _controlURL ) {
+            name       = _name;
+            controlURL = _controlURL;
+        }
+
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+
+        @Override
+        public Outcome<IPAddress> resolve( final int _timeoutMs ) {
+
+            var body = "<?xml version=\"1.0\"?>" +
+                    "<s:Envelope xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\" s:encodingStyle=\"http://schemas.xmlsoap.org/soap/encoding/\">" +
+                    "<s:Body><u:GetExternalIPAddress xmlns:u=\"" + SERVICE + "\"/></s:Body></s:Envelope>";
+            try {
+                HttpURLConnection con = (HttpURLConnection) new URL( controlURL ).openConnection();
+                con.setConnectTimeout( _timeoutMs );
+                con.setReadTimeout( _timeoutMs );
+                con.setRequestMethod( "POST" );
+                con.setRequestProperty( "Content-Type", "text/xml; charset=\"utf-8\"" );
+                con.setRequestProperty( "SOAPAction", "\"" + SERVICE + "#GetExternalIPAddress\"" );
+                con.setDoOutput( true );
+                try {
+                    con.getOutputStream().write( body.getBytes( StandardCharsets.UTF_8 ) );
+                    var status = con.getResponseCode();
+                    if( status != 200 ) return FORGE_IP.notOk( "HTTP status was not ok (200): " + status );
+                    var matcher = ADDRESS_PAT.matcher( readAll( con.getInputStream() ) );
+                    if( !matcher.find() ) return FORGE_IP.notOk( "UPnP response has no external IP address" );
+                    return parse( matcher.group( 1 ) );
+                }
+                finally {
+                    con.disconnect();
+                }
+            }
+            catch( IOException _e ) {
+                return FORGE_IP.notOk( "Problem querying " + controlURL + ": " + _e.getMessage(), _e );
+            }
+        }
+    }
+
+
+    private static String readAll( final InputStream _in ) throws IOException {
+        try( _in ) {
+            return new String( _in.readNBytes( 16 * 1024 ), StandardCharsets.UTF_8 );
+        }
+    }
+
+
+    /**
+     * A resolver and its statistics.  The statistics are updated by the racing thread and read by whatever thread reports them, so access is synchronized.
+     */
+    private static final class Contender {
+
+        private final PublicIPResolver resolver;
+        private long   successes;
+        private long   failures;
+        private int    consecutiveFailures;
+        private double latencyMs;      // smoothed latency of successful answers, or zero if there haven't been any...
+        private long   backoffUntil;   // System.currentTimeMillis() until which this resolver is left out of races...
+
+
+        private Contender( final PublicIPResolver _resolver ) {
+            resolver = _resolver;
+        }
+
+
+        private synchronized void succeeded( final long _nanos ) {
+            var ms = _nanos / 1e6;
+            latencyMs = (successes == 0) ? ms : latencyMs + LATENCY_SMOOTHING * (ms - latencyMs);
+            successes++;
+            consecutiveFailures = 0;
+            backoffUntil = 0;
+        }
+
+
+        private synchronized void failed() {
+            failures++;
+            consecutiveFailures++;
+            var backoff = MIN_BACKOFF.toMillis() << Math.min( 20, consecutiveFailures - 1 );
+            backoffUntil = System.currentTimeMillis() + Math.min( backoff, MAX_BACKOFF.toMillis() );
+            LOGGER.info( "Public IP resolver " + resolver.name() + " failed " + consecutiveFailures + " times in a row; backing off until "
+                    + Instant.ofEpochMilli( backoffUntil ) );
+        }
+
+
+        private synchronized double latencyMs() {
+            return latencyMs;
+        }
+
+
+        private synchronized long backoffUntil() {
+            return backoffUntil;
+        }
+
+
+        private synchronized JSONObject toJSON() {
+            var result = new JSONObject();
+            result.put( "successes", successes );
+            result.put( "failures",  failures  );
+            result.put( "latencyMs", latencyMs );
+            result.put( "backoffSeconds", Math.max( 0, (backoffUntil - System.currentTimeMillis()) / 1000 ) );
+            return result;
+        }
+    }
+
+
+    private record Attempt( Contender contender, Outcome<IPAddress> outcome, long nanos ) {}
+
+    private record Cached( IPAddress ip, long at ) {}
+}
@@ -0,0 +1,161 @@
+package com.dilatush.monitor.monitors;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Keeps running totals of some quantity (say, milliseconds a path was up) over rolling windows of the last hour, day, week, and month, in fixed memory.
+ * Each window is a ring of time buckets plus a running sum; adding to the totals adds to the current bucket of each window, and when a window's current
+ * bucket moves on, the bucket that falls out of the window is subtracted from its sum and cleared.  Adding and reading are both O(1) (apart from clearing
+ * the buckets skipped over after an idle period, which is bounded by the number of buckets).  Totals are exact to within one bucket at the trailing edge of
+ * each window.  Instances of this class are not threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class RollingTotals {
+
+    private final long[][] buckets;   // the buckets for each window, as a ring...
+    private final long[]   sums;      // the sum of the buckets for each window...
+    private final long[]   current;   // the number (time / bucket size) of the current bucket for each window...
+
+
+    /**
+     * Creates a new instance of this class, with all totals zero.
+     */
+    public RollingTotals() {
+        var windows = Window.values();
+        buckets = new long[windows.length][];
+        sums    = new long[windows.length];
+        current = new long[windows.length];
+        for( Window window : windows ) buckets[window.ordinal()] = new long[window.buckets];
+    }
+
+
+    /**
+     * Add the given amount to the totals, as of the given time.
+     *
+     * @param _atMs The time of the addition, in milliseconds since the epoch.
+     * @param _amount The amount to add.
+     */
+    public void add( final long _atMs, final long _amount ) {
+        for( Window window : Window.values() ) {
+            var w = window.ordinal();
+            advance( window, _atMs );
+            buckets[w][(int) (current[w] % window.buckets)] += _amount;
+            sums[w] += _amount;
+        }
+    }
+
+
+    /**
+     * Return the total over the given window ending at the given time.
+     *
+     * @param _window The window to return the total for.
+     * @param _nowMs The time the window ends, in milliseconds since the epoch.
+     * @return The total over the window.
+     */
+    public long total( final Window _window, final long _nowMs ) {
+        advance( _window, _nowMs );
+        return sums[_window.ordinal()];
+    }
+
+
+    /**
+     * Return the number of bytes {@link #write(ByteBuffer)} writes.
+     *
+     * @return The number of bytes written.
+     */
+    public static int bytes() {
+        var result = 0;
+        for( Window window : Window.values() ) result += 8 + 8 * window.buckets;
+        return result;
+    }
+
+
+    /**
+     * Write these totals to the given buffer, at its position.
+     *
+     * @param _buffer The buffer to write to.
+     */
+    public void write( final ByteBuffer _buffer ) {
+        for( Window window : Window.values() ) {
+            var w = window.ordinal();
+            _buffer.putLong( current[w] );
+            for( long bucket : buckets[w] ) _buffer.putLong( bucket );
+        }
+    }
+
+
+    /**
+     * Read totals written by {@link #write(ByteBuffer)} from the given buffer, at its position, replacing these totals.
+     *
+     * @param _buffer The buffer to read from.
+     */
+    public void read( final ByteBuffer _buffer ) {
+        for( Window window : Window.values() ) {
+            var w = window.ordinal();
+            current[w] = _buffer.getLong();
+            sums[w] = 0;
+            for( int i = 0; i < window.buckets; i++ ) {
+                buckets[w][i] = _buffer.getLong();
+                sums[w] += buckets[w][i];
+            }
+        }
+    }
+
+
+    /**
+     * Move the given window's current bucket up to the given time, clearing the buckets that fall out of the window.
+     *
+     * @param _window The window to advance.
+     * @param _nowMs The time to advance to, in milliseconds since the epoch.
+     */
+    private void advance( final Window _window, final long _nowMs ) {
+
+        var w = _window.ordinal();
+        var now = _nowMs / _window.bucketMs;
+        if( now <= current[w] ) return;  // the clock went backwards, or we're still in the current bucket...
+
+        // if the whole window has gone by, just clear it...
+        if( now - current[w] >= _window.buckets ) {
+            Arrays.fill( buckets[w], 0 );
+            sums[w] = 0;
+        }
+
+        // otherwise, clear just the buckets we're moving past...
+        else {
+            for( long b = current[w] + 1; b <= now; b++ ) {
+                var i = (int) (b % _window.buckets);
+                sums[w] -= buckets[w][i];
+                buckets[w][i] = 0;
+            }
+        }
+        current[w] = now;
+    }
+
+
+    /**
+     * The rolling windows totals are kept for, with the number of buckets each is divided into.
+     */
+    public enum Window {
+
+        HOUR(  "1h",  Duration.ofHours( 1 ),  60  ),
+        DAY(   "24h", Duration.ofDays( 1 ),   96  ),
+        WEEK(  "7d",  Duration.ofDays( 7 ),   168 ),
+        MONTH( "30d", Duration.ofDays( 30 ),  120 );
+
+        /** The label for the window, for status messages. */
+        public final String label;
+
+        private final long bucketMs;
+        private final int  buckets;
+
+
+        Window( final String _label, final Duration _length, final int _buckets ) {
+            label    = _label;
+            bucketMs = _length.toMillis() / _buckets;
+            buckets  = _buckets;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.dilatush.monitor.monitors;
+
+import com.dilatush.util.Outcome;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Measures the time service an NTP server actually provides, as an SNTP client would see it: a burst of NTP client packets is sent to the server over UDP,
+ * and each reply gives the four timestamps (our transmit, the server's receive, the server's transmit, our receive) from which the clock offset and the
+ * round-trip delay are computed in the standard way (RFC 5905).  As in NTP's clock filter, the sample with the lowest delay is taken as the best estimate
+ * of the offset (a longer round trip means more room for asymmetry), and the jitter is the RMS difference between its offset and those of the better half
+ * of the samples.  Replies that don't match the request we sent, come from an unsynchronized server, or are a kiss-of-death are discarded.  Instances of
+ * this class are threadsafe, as each probe uses its own socket.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class SNTPProbe {
+
+    private static final Outcome.Forge<Result> FORGE_RESULT = new Outcome.Forge<>();
+
+    /** The standard NTP port. */
+    public static final int DEFAULT_PORT = 123;
+
+    private static final long   NTP_EPOCH_OFFSET_S  = 2_208_988_800L;  // seconds from 1900 (NTP's epoch) to 1970 (Java's)...
+    private static final int    PACKET_SIZE         = 48;
+    private static final byte   CLIENT_REQUEST      = 0x23;            // leap indicator 0, version 4, mode 3 (client)...
+    private static final int    MODE_SERVER         = 4;
+    private static final int    LEAP_UNSYNCHRONIZED = 3;
+    private static final int    ORIGINATE_OFF       = 24;              // offsets of the timestamps within a packet...
+    private static final int    RECEIVE_OFF         = 32;
+    private static final int    TRANSMIT_OFF        = 40;
+    private static final double FRACTION            = 0x1p32;          // the units of an NTP timestamp, per second...
+
+    private final String   server;
+    private final String   host;
+    private final int      port;
+    private final int      burst;
+    private final Duration spacing;
+    private final Duration timeout;
+
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param _server The server to probe, as "host" or "host:port".
+     * @param _burst The number of requests sent on each probe.
+     * @param _spacing The time between the requests of a burst.
+     * @param _timeout The maximum time to wait for the reply to each request.
+     */
+    public SNTPProbe( final String _server, final int _burst, final Duration _spacing, final Duration _timeout ) {
+
+        if( _burst < 1 ) throw new IllegalArgumentException( "SNTP burst must be at least 1: " + _burst );
+
+        server  = _server;
+        var colon = _server.lastIndexOf( ':' );
+        host    = (colon < 0) ? _server : _server.substring( 0, colon );
+        port    = (colon < 0) ? DEFAULT_PORT : Integer.parseInt( _server.substring( colon + 1 ) );
+        burst   = _burst;
+        spacing = _spacing;
+        timeout = _timeout;
+    }
+
+
+    /**
+     * Return the servers named in the given list as probes.
+     *
+     * @param _servers The servers, each as "host" or "host:port".
+     * @param _burst The number of requests sent on each probe.
+     * @param _spacing The time between the requests of a burst.
+     * @param _timeout The maximum time to wait for the reply to each request.
+     * @return The probes.
+     */
+    public static List<SNTPProbe> of( final List<String> _servers, final int _burst, final Duration _spacing, final Duration _timeout ) {
+        var result = new ArrayList<SNTPProbe>( _servers.size() );
+        for( String server : _servers ) result.add( new SNTPProbe( server, _burst, _spacing, _timeout ) );
+        return result;
+    }
+
+
+    /**
+     * Return the server this instance probes, as given to the constructor.
+     *
+     * @return The server this instance probes.
+     */
+    public String server() {
+        return server;
+    }
+
+
+    /**
+     * Probe the server with a burst of requests, and return the filtered result.
+     *
+     * @return The outcome of the probe.  If ok, contains the result.  If not ok (because the server couldn't be resolved, or no valid reply was received),
+     * contains an explanatory message.
+     */
+    public Outcome<Result> probe() {
+
+        var address = new InetSocketAddress( host, port );
+        if( address.isUnresolved() ) return FORGE_RESULT.notOk( "Could not resolve SNTP server: " + host );
+
+        var samples = new ArrayList<Sample>( burst );
+        String lastProblem = "no reply";
+        try( DatagramSocket socket = new DatagramSocket() ) {
+            socket.connect( address );
+            for( int i = 0; i < burst; i++ ) {
+                if( i > 0 ) Thread.sleep( spacing.toMillis() );
+                try {
+                    var sample = exchange( socket );
+                    if( sample != null ) samples.add( sample );
+                    else lastProblem = "no valid reply";
+                }
+                catch( IOException _e ) {
+                    lastProblem = _e.toString();
+                }
+            }
+        }
+        catch( IOException _e ) {
+            return FORGE_RESULT.notOk( "Problem probing SNTP server " + server + ": " + _e, _e );
+        }
+        catch( InterruptedException _e ) {
+            Thread.currentThread().interrupt();
+            return FORGE_RESULT.notOk( "Interrupted while probing SNTP server " + server );
+        }
+        if( samples.isEmpty() ) return FORGE_RESULT.notOk( "No reply from SNTP server " + server + " to " + burst + " requests: " + lastProblem );
+
+        // the lowest-delay sample is our best estimate; jitter is how far the better half of the samples stray from it...
+        samples.sort( Comparator.comparingDouble( Sample::delayS ) );
+        var best = samples.get( 0 );
+        var kept = Math.max( 1, (samples.size() + 1) / 2 );
+        var sumSquares = 0D;
+        for( int i = 1; i < kept; i++ ) {
+            var diff = samples.get( i ).offsetS - best.offsetS;
+            sumSquares += diff * diff;
+        }
+        var jitterS = (kept > 1) ? Math.sqrt( sumSquares / (kept - 1) ) : 0;
+        return FORGE_RESULT.ok( new Result( server, burst, samples.size(), best.offsetS * 1000, best.delayS * 1000, jitterS * 1000, best.stratum,
+                best.refID ) );
+    }
+
+
+    /**
+     * Send one request on the given (connected) socket, and wait for its reply.
+     *
+     * @param _socket The socket to use.
+     * @return The sample from the reply, or null if no valid reply came within the timeout.
+     * @throws IOException On any problem sending or receiving.
+     */
+    private Sample exchange( final DatagramSocket _socket ) throws IOException {
+
+        // build and send our request, with our transmit time in it...
+        var request = new byte[PACKET_SIZE];
+        request[0] = CLIENT_REQUEST;
+        var t1 = toNTP( Instant.now() );
+        ByteBuffer.wrap( request ).putLong( TRANSMIT_OFF, t1 );
+        _socket.send( new DatagramPacket( request, request.length ) );
+
+        // wait for the reply to this request, ignoring any others (like late replies to earlier requests)...
+        var reply = new byte[PACKET_SIZE];
+        var deadline = System.nanoTime() + timeout.toNanos();
+        while( true ) {
+            var remainingMs = (deadline - System.nanoTime()) / 1_000_000;
+            if( remainingMs <= 0 ) return null;
+            _socket.setSoTimeout( (int) remainingMs );
+            var packet = new DatagramPacket( reply, reply.length );
+            try {
+                _socket.receive( packet );
+            }
+            catch( SocketTimeoutException _e ) {
+                return null;
+            }
+            var t4 = toNTP( Instant.now() );
+            if( packet.getLength() < PACKET_SIZE ) continue;
+            var buffer = ByteBuffer.wrap( reply );
+            if( buffer.getLong( ORIGINATE_OFF ) != t1 ) continue;  // not the reply to this request...
+
+            // if the server isn't in a state to be giving us the time, this reply is no good...
+            var leap    = (reply[0] >> 6) & 3;
+            var mode    = reply[0] & 7;
+            var stratum = reply[1] & 0xFF;
+            if( (mode != MODE_SERVER) || (leap == LEAP_UNSYNCHRONIZED) || (stratum == 0) || (stratum > 15) ) return null;
+
+            // compute the offset and delay, in seconds, from the differences of the timestamps (which handles their wrapping correctly)...
+            var t2 = buffer.getLong( RECEIVE_OFF );
+            var t3 = buffer.getLong( TRANSMIT_OFF );
+            var offset = ((t2 - t1) + (t3 - t4)) / 2D / FRACTION;
+            var delay  = ((t4 - t1) - (t3 - t2)) / FRACTION;
+            return new Sample( offset, Math.max( 0, delay ), stratum, refID( stratum, buffer.getInt( 12 ) ) );
+        }
+    }
+
+
+    /**
+     * Return the given time as an NTP timestamp: seconds since 1900 in the upper 32 bits, and the fraction of a second in the lower 32 bits.
+     *
+     * @param _time The time to convert.
+     * @return The NTP timestamp.
+     */
+    static long toNTP( final Instant _time ) {
+        var seconds  = _time.getEpochSecond() + NTP_EPOCH_OFFSET_S;
+        var fraction = (long) (_time.getNano() * FRACTION / 1e9);
+        return (seconds << 32) | fraction;
+    }
+
+
+    /**
+     * Return the reference ID of a reply in readable form: for stratum 1, a four character code naming the reference clock (like "GPS"); otherwise, the
+     * IPv4 address (or hash) of the server's upstream server.
+     *
+     * @param _stratum The stratum of the reply.
+     * @param _refID The raw reference ID.
+     * @return The readable reference ID.
+     */
+    private static String refID( final int _stratum, final int _refID ) {
+        if( _stratum != 1 ) return ((_refID >>> 24) & 0xFF) + "." + ((_refID >>> 16) & 0xFF) + "." + ((_refID >>> 8) & 0xFF) + "." + (_refID & 0xFF);
+        var code = new StringBuilder( 4 );
+        for( int shift = 24; shift >= 0; shift -= 8 ) {
+            var c = (char) ((_refID >>> shift) & 0xFF);
+            if( (c >= ' ') && (c <= '~') ) code.append( c );
+        }
+        return code.toString();
+    }
+
+
+    private record Sample( double offsetS, double delayS, int stratum, String refID ) {}
+
+
+    /**
+     * The result of probing a server.
+     *
+     * @param server The server probed.
+     * @param sent The number of requests sent.
+     * @param received The number of valid replies received.
+     * @param offsetMs The offset of the server's clock from ours, in milliseconds (positive if the server is ahead).
+     * @param delayMs The round-trip delay to the server, in milliseconds.
+     * @param jitterMs The jitter of the offset, in milliseconds.
+     * @param stratum The server's stratum.
+     * @param refID The server's reference ID.
+     */
+    public record Result( String server, int sent, int received, double offsetMs, double delayMs, double jitterMs, int stratum, String refID ) {
+
+        /**
+         * Return this result as a JSON object, for status messages.
+         *
+         * @return This result as a JSON object.
+         */
+        public JSONObject toJSON() {
+            var result = new JSONObject();
+            result.put( "offsetMs", offsetMs );
+            result.put( "delayMs",  delayMs  );
+            result.put( "jitterMs", jitterMs );
+            result.put( "received", received );
+            result.put( "sent",     sent     );
+            result.put( "stratum",  stratum  );
+            result.put( "refID",    refID    );
+            return result;
+        }
+    }
+}
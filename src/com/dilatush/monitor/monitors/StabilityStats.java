@@ -0,0 +1,441 @@
+package com.dilatush.monitor.monitors;
+
+import org.json.JSONObject;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Keeps rolling clock-stability statistics for a series of phase (time error) samples taken at a fixed interval (tau0): the Allan deviation (ADEV) and
+ * the maximum time interval error (MTIE) at several averaging times (each a multiple of tau0), over a window of the most recent samples, and over a
+ * shorter recent window within it.  Both are kept incrementally, in fixed memory, at O(1) cost per sample per averaging time:
+ * <ul>
+ *     <li>ADEV(n tau0) comes from the second differences x[i] - 2 x[i-n] + x[i-2n] of the phase; each new sample yields one new second difference per
+ *     averaging time, whose square goes into a ring (with running sums over the window and the recent window) holding the window's worth of them.</li>
+ *     <li>MTIE(n tau0) is the largest peak-to-peak phase excursion over any n tau0 span in the window.  The extremes of the latest span are kept with
+ *     monotonic deques (amortized O(1)), and the largest of the spans' excursions over the window and the recent window with two more.</li>
+ * </ul>
+ * Samples are numbered by when they were taken, so a missed sample (say, because a scrape failed) leaves a gap in the numbering rather than breaking the
+ * spacing.  The terms whose spans include a gap are skipped, and the rest of the history is kept; only a clock that goes backwards, or a gap longer than
+ * the whole history, starts the history again.  To see stability getting worse, the recent window's statistics are compared with the long-run baseline:
+ * the series is degraded when the recent ADEV at any averaging time is more than a given factor above the ADEV over the whole window, or the recent MTIE
+ * is more than that factor above its slow moving average (whose time constant is the window).  A short problem stands out against the baseline, and a
+ * lasting one does until the baseline catches up with it.  Instances of this class are not threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class StabilityStats {
+
+    private static final int MIN_TERMS = 30;  // the fewest terms in a statistic before we consider it meaningful...
+
+    private final long     tau0Ms;
+    private final int[]    taus;         // the averaging times, as multiples of tau0...
+    private final int      window;       // the number of terms each statistic covers...
+    private final int      recent;       // the number of terms each recent statistic covers...
+    private final double   factor;       // how far above its baseline a recent statistic must be to be degraded...
+    private final double   resolution;   // the resolution of the phase samples, in seconds...
+    private final double   alpha;        // the weight of each new term in the recent MTIE's moving average...
+
+    // the most recent phase samples, in seconds (NaN for missed samples), as a ring indexed by sample number...
+    private final double[] phase;
+    private long           count;        // the number of sample times (including missed ones) since the history was last cleared...
+    private long           lastGap;      // the number of the most recent missed sample, or -1 if none...
+    private long           lastAtMs;     // when the last sample was taken...
+
+    // per averaging time: the squared second differences, and the spans' excursions, in the window...
+    private final Terms[] squares;
+    private final Terms[] spans;
+
+    // per averaging time: the extremes of the latest span, and the largest excursions over the window and the recent window...
+    private final MonotonicDeque[] spanMax;
+    private final MonotonicDeque[] spanMin;
+    private final MonotonicDeque[] excursions;
+    private final MonotonicDeque[] recentExcursions;
+
+    // per averaging time: the moving average of the recent MTIE, NaN until it has a value...
+    private final double[] averageMTIE;
+
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param _tau0 The interval between samples.
+     * @param _taus The averaging times to keep statistics for, as multiples of the interval between samples.
+     * @param _window The number of terms each statistic covers (the long-run baseline); also the time constant (in samples) of the recent MTIE's moving
+     *                average.
+     * @param _recent The number of terms each recent statistic covers; at most the window.
+     * @param _factor How many times its baseline a recent statistic must be for the series to be degraded.
+     * @param _resolution The resolution of the phase samples, in seconds; differences smaller than this are noise, and never count as degradation.
+     */
+    public StabilityStats( final Duration _tau0, final int[] _taus, final int _window, final int _recent, final double _factor,
+                           final double _resolution ) {
+
+        if( (_taus.length == 0) || (_window < 1) ) throw new IllegalArgumentException( "Need at least one averaging time and a window of at least one" );
+        if( (_recent < 1) || (_recent > _window) ) throw new IllegalArgumentException( "The recent window must be from one term to the whole window" );
+
+        tau0Ms     = _tau0.toMillis();
+        taus       = _taus.clone();
+        window     = _window;
+        recent     = _recent;
+        factor     = _factor;
+        resolution = _resolution;
+        alpha      = 1D / _window;
+
+        var maxTau = Arrays.stream( taus ).max().orElseThrow();
+        phase            = new double[2 * maxTau + 1];
+        squares          = new Terms[taus.length];
+        spans            = new Terms[taus.length];
+        spanMax          = new MonotonicDeque[taus.length];
+        spanMin          = new MonotonicDeque[taus.length];
+        excursions       = new MonotonicDeque[taus.length];
+        recentExcursions = new MonotonicDeque[taus.length];
+        averageMTIE      = new double[taus.length];
+        for( int t = 0; t < taus.length; t++ ) {
+            squares[t]          = new Terms( window, recent );
+            spans[t]            = new Terms( window, recent );
+            spanMax[t]          = new MonotonicDeque( taus[t] + 1 );
+            spanMin[t]          = new MonotonicDeque( taus[t] + 1 );
+            excursions[t]       = new MonotonicDeque( window );
+            recentExcursions[t] = new MonotonicDeque( recent );
+        }
+        clear();
+    }
+
+
+    /**
+     * Add a phase sample.  If samples were missed since the last one, they're marked as a gap.
+     *
+     * @param _atMs When the sample was taken, in milliseconds since the epoch.
+     * @param _x The phase (time error), in seconds.
+     */
+    public void add( final long _atMs, final double _x ) {
+
+        // mark any samples we've missed as a gap; if the clock went backwards, or the gap is longer than our history, start again...
+        if( count > 0 ) {
+            var steps = Math.round( (double) (_atMs - lastAtMs) / tau0Ms );
+            if( (steps < 1) || (steps > phase.length + window) ) clear();
+            else
+                for( long m = 1; m < steps; m++ ) record( Double.NaN );
+        }
+        lastAtMs = _atMs;
+        record( _x );
+    }
+
+
+    /**
+     * Record the phase at the next sample number, updating the statistics, or NaN if the sample was missed.
+     *
+     * @param _x The phase, in seconds, or NaN if the sample was missed.
+     */
+    private void record( final double _x ) {
+
+        var i = count++;
+        phase[(int) (i % phase.length)] = _x;
+        var missed = Double.isNaN( _x );
+        if( missed ) lastGap = i;
+        for( int t = 0; t < taus.length; t++ ) {
+            var n = taus[t];
+
+            // the second difference at this averaging time, if we have enough history for it, and it doesn't span a gap...
+            if( i >= 2L * n ) {
+                var d = _x - 2 * phase[(int) ((i - n) % phase.length)] + phase[(int) ((i - 2L * n) % phase.length)];
+                squares[t].put( i - 2L * n, (i - 2L * n > lastGap) ? d * d : Double.NaN );
+            }
+
+            // the extremes of the span ending here, and its excursion, if the span's complete...
+            spanMax[t].evictBefore( i - n );
+            spanMin[t].evictBefore( i - n );
+            if( !missed ) {
+                spanMax[t].push( i, _x, true );
+                spanMin[t].push( i, _x, false );
+            }
+            if( i >= n ) {
+                excursions[t].evictBefore( i - window + 1 );
+                recentExcursions[t].evictBefore( i - recent + 1 );
+                var complete = (i - n > lastGap);
+                spans[t].put( i - n, complete ? 0 : Double.NaN );
+                if( complete ) {
+                    var excursion = spanMax[t].front() - spanMin[t].front();
+                    excursions[t].push( i, excursion, true );
+                    recentExcursions[t].push( i, excursion, true );
+                }
+            }
+
+            // and track the recent MTIE's average...
+            var mtie = recentMTIE( t );
+            if( !missed && !Double.isNaN( mtie ) )
+                averageMTIE[t] = Double.isNaN( averageMTIE[t] ) ? mtie : averageMTIE[t] + alpha * (mtie - averageMTIE[t]);
+        }
+    }
+
+
+    /**
+     * Return the Allan deviation at the averaging time with the given index, over the whole window.
+     *
+     * @param _tau The index of the averaging time (in the array given to the constructor).
+     * @return The Allan deviation (dimensionless), or NaN if there aren't yet enough terms for it to be meaningful.
+     */
+    public double adev( final int _tau ) {
+        var terms = squares[_tau].count;
+        if( terms < Math.min( window, MIN_TERMS ) ) return Double.NaN;
+        var tau = taus[_tau] * tau0Ms / 1000D;
+        return Math.sqrt( Math.max( 0, squares[_tau].sum ) / (2 * terms) ) / tau;
+    }
+
+
+    /**
+     * Return the Allan deviation at the averaging time with the given index, over the recent window.
+     *
+     * @param _tau The index of the averaging time (in the array given to the constructor).
+     * @return The Allan deviation (dimensionless), or NaN if there aren't yet enough recent terms for it to be meaningful.
+     */
+    public double recentADEV( final int _tau ) {
+        var terms = squares[_tau].recentCount;
+        if( terms < Math.min( recent, MIN_TERMS ) ) return Double.NaN;
+        var tau = taus[_tau] * tau0Ms / 1000D;
+        return Math.sqrt( Math.max( 0, squares[_tau].recentSum ) / (2 * terms) ) / tau;
+    }
+
+
+    /**
+     * Return the maximum time interval error at the averaging time with the given index, over the whole window.
+     *
+     * @param _tau The index of the averaging time (in the array given to the constructor).
+     * @return The MTIE, in seconds, or NaN if there aren't yet enough terms for it to be meaningful.
+     */
+    public double mtie( final int _tau ) {
+        if( spans[_tau].count < Math.min( window, MIN_TERMS ) ) return Double.NaN;
+        return excursions[_tau].front();
+    }
+
+
+    /**
+     * Return the maximum time interval error at the averaging time with the given index, over the recent window.
+     *
+     * @param _tau The index of the averaging time (in the array given to the constructor).
+     * @return The MTIE, in seconds, or NaN if there aren't yet enough recent terms for it to be meaningful.
+     */
+    public double recentMTIE( final int _tau ) {
+        if( spans[_tau].recentCount < Math.min( recent, MIN_TERMS ) ) return Double.NaN;
+        return recentExcursions[_tau].front();
+    }
+
+
+    /**
+     * Return whether the series' stability has degraded: true if, at any averaging time, the recent ADEV is more than the factor given to the constructor
+     * above the ADEV over the whole window, or the recent MTIE is more than that factor above its moving average (and either is above the resolution of
+     * the samples); false if none is, or null if we don't have enough history to say.
+     *
+     * @return Whether the series' stability has degraded, or null if unknown.
+     */
+    public Boolean degraded() {
+        Boolean result = null;
+        for( int t = 0; t < taus.length; t++ ) {
+            var adev       = adev( t );
+            var recentADEV = recentADEV( t );
+            var recentMTIE = recentMTIE( t );
+            if( Double.isNaN( adev ) || Double.isNaN( recentADEV ) || Double.isNaN( recentMTIE ) || Double.isNaN( averageMTIE[t] ) ) continue;
+            var tau = taus[t] * tau0Ms / 1000D;
+            if( (recentADEV > factor * Math.max( adev, resolution / tau )) || (recentMTIE > factor * Math.max( averageMTIE[t], resolution ) ) )
+                return true;
+            result = false;
+        }
+        return result;
+    }
+
+
+    /**
+     * Return the label for the averaging time with the given index, like "1m" or "1h".
+     *
+     * @param _tau The index of the averaging time (in the array given to the constructor).
+     * @return The label.
+     */
+    public String label( final int _tau ) {
+        var ms = taus[_tau] * tau0Ms;
+        if( ms % 3_600_000 == 0 ) return (ms / 3_600_000) + "h";
+        if( ms %    60_000 == 0 ) return (ms /    60_000) + "m";
+        return (ms / 1000) + "s";
+    }
+
+
+    /**
+     * Return the number of averaging times statistics are kept for.
+     *
+     * @return The number of averaging times.
+     */
+    public int taus() {
+        return taus.length;
+    }
+
+
+    /**
+     * Return these statistics as a JSON object, for status messages, with MTIE scaled to the given units.
+     *
+     * @param _units The number of MTIE units per second (for instance, 1e9 for nanoseconds).
+     * @return The statistics.
+     */
+    public JSONObject toJSON( final double _units ) {
+        var adev       = new JSONObject();
+        var mtie       = new JSONObject();
+        var recentADEV = new JSONObject();
+        var recentMTIE = new JSONObject();
+        for( int t = 0; t < taus.length; t++ ) {
+            if( !Double.isNaN( adev( t ) ) )       adev.put(       label( t ), adev( t )                );
+            if( !Double.isNaN( mtie( t ) ) )       mtie.put(       label( t ), mtie( t ) * _units       );
+            if( !Double.isNaN( recentADEV( t ) ) ) recentADEV.put( label( t ), recentADEV( t )          );
+            if( !Double.isNaN( recentMTIE( t ) ) ) recentMTIE.put( label( t ), recentMTIE( t ) * _units );
+        }
+        var result = new JSONObject();
+        result.put( "adev",       adev       );
+        result.put( "mtie",       mtie       );
+        result.put( "recentAdev", recentADEV );
+        result.put( "recentMtie", recentMTIE );
+        var degraded = degraded();
+        result.put( "degraded", (degraded == null) ? "unknown" : degraded.toString() );
+        return result;
+    }
+
+
+    /**
+     * Clear the history, as if no samples had been added.  The recent MTIE's moving average is kept, as the clock is no different.
+     */
+    private void clear() {
+        count   = 0;
+        lastGap = -1;
+        for( int t = 0; t < taus.length; t++ ) {
+            squares[t].clear();
+            spans[t].clear();
+            spanMax[t].clear();
+            spanMin[t].clear();
+            excursions[t].clear();
+            recentExcursions[t].clear();
+            if( lastAtMs == 0 ) averageMTIE[t] = Double.NaN;
+        }
+    }
+
+
+    /**
+     * The terms of a statistic, numbered consecutively, as a ring holding the window's worth of them, with their running sums and counts over the window
+     * and over the recent window.  A term that was skipped (because its span included a gap) is NaN, and isn't counted.
+     */
+    private static class Terms {
+
+        private final double[] values;
+        private final int      recent;
+        private double         sum;
+        private double         recentSum;
+        private int            count;
+        private int            recentCount;
+
+
+        private Terms( final int _window, final int _recent ) {
+            values = new double[_window];
+            recent = _recent;
+            clear();
+        }
+
+
+        /**
+         * Put the term with the given number, which must be the one after the last one put, dropping the terms that leave the window and the recent
+         * window.
+         *
+         * @param _number The number of the term.
+         * @param _value The value of the term, or NaN if it was skipped.
+         */
+        private void put( final long _number, final double _value ) {
+
+            // the term leaving the recent window (read before it's overwritten, in case the recent window is the whole window)...
+            if( _number >= recent ) {
+                var leaving = values[(int) ((_number - recent) % values.length)];
+                if( !Double.isNaN( leaving ) ) {
+                    recentSum -= leaving;
+                    recentCount--;
+                }
+            }
+
+            // the term leaving the window...
+            var slot = (int) (_number % values.length);
+            if( !Double.isNaN( values[slot] ) ) {
+                sum -= values[slot];
+                count--;
+            }
+
+            // and the new one...
+            values[slot] = _value;
+            if( !Double.isNaN( _value ) ) {
+                sum         += _value;
+                recentSum   += _value;
+                count++;
+                recentCount++;
+            }
+        }
+
+
+        private void clear() {
+            Arrays.fill( values, Double.NaN );
+            sum         = 0;
+            recentSum   = 0;
+            count       = 0;
+            recentCount = 0;
+        }
+    }
+
+
+    /**
+     * A deque of (sample number, value) pairs, in a fixed-size ring, kept monotonic so that its front is always the maximum (or minimum) of the values
+     * pushed since the oldest sample number not yet evicted.
+     */
+    private static class MonotonicDeque {
+
+        private final long[]   numbers;
+        private final double[] values;
+        private int            head;
+        private int            size;
+
+
+        private MonotonicDeque( final int _capacity ) {
+            numbers = new long[_capacity];
+            values  = new double[_capacity];
+        }
+
+
+        /**
+         * Push the given value, first dropping from the back any values it makes irrelevant.
+         *
+         * @param _number The sample number of the value.
+         * @param _value The value.
+         * @param _max True if this deque tracks the maximum, false for the minimum.
+         */
+        private void push( final long _number, final double _value, final boolean _max ) {
+            while( size > 0 ) {
+                var back = values[(head + size - 1) % values.length];
+                if( _max ? (back > _value) : (back < _value) ) break;
+                size--;
+            }
+            if( size == values.length ) evictBefore( numbers[head] + 1 );  // can't happen if evicting as we should, but never overflow...
+            var tail = (head + size) % values.length;
+            numbers[tail] = _number;
+            values[tail]  = _value;
+            size++;
+        }
+
+
+        private void evictBefore( final long _number ) {
+            while( (size > 0) && (numbers[head] < _number) ) {
+                head = (head + 1) % values.length;
+                size--;
+            }
+        }
+
+
+        private double front() {
+            return values[head];
+        }
+
+
+        private void clear() {
+            head = 0;
+            size = 0;
+        }
+    }
+}
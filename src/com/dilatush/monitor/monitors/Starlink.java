@@ -0,0 +1,255 @@
+package com.dilatush.monitor.monitors;
+
+import com.dilatush.mop.Mailbox;
+import com.dilatush.mop.Message;
+import com.dilatush.util.Time;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import static com.dilatush.util.General.getLogger;
+
+/**
+ * Monitors the telemetry of a Starlink dish: its link quality (obstruction, latency and ping drops to the point of presence, signal to noise), its
+ * throughput, the outages it reports, and its alerts.  The dish is polled over its local gRPC-web API (see {@link StarlinkDish}) each run.  Outages are
+ * taken from the ring of recent outages in the dish's history, so that the usual outages of a few seconds are seen even though they start and end
+ * between polls; the outages that ended since the last run are reported together, and an outage still going on is reported when it's first seen.  Alerts
+ * are reported when they're raised, and an obstruction or ping drop rate above its threshold is reported at most daily.  The latest telemetry is also
+ * put in a {@link Telemetry}, which the configuration can share with the ISP monitor so that it can include it in its own status.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class Starlink extends AMonitor {
+
+    private static final Logger LOGGER = getLogger();
+
+    private static final Duration DEFAULT_TIMEOUT           = Duration.ofSeconds( 5 );
+    private static final double   DEFAULT_OBSTRUCTED_HIGH   = 2.0;   // percent of the sky...
+    private static final double   DEFAULT_DROP_RATE_HIGH    = 5.0;   // percent of pings...
+    private static final Duration THRESHOLD_EVENT_INTERVAL  = Duration.ofDays( 1 );
+    private static final Duration UNREACHABLE_EVENT_INTERVAL = Duration.ofHours( 1 );
+
+    private final StarlinkDish dish;
+    private final Telemetry    telemetry;
+    private final double       obstructedHighPct;
+    private final double       dropRateHighPct;
+
+    private StarlinkDish.DishStatus last;                    // the status from our last successful poll, or null if none...
+    private Long                    lastOutageNs;            // the start of the newest outage in the history we've dealt with, or null before the first...
+    private long                    reportedOngoingNs = -1;  // the start of the ongoing outage we've reported, or -1 if none...
+
+
+    /**
+     * Creates a new instance of this class with the given Mailbox.
+     *
+     * @param _mailbox  The mailbox for this monitor to use.
+     * @param _params The parameters for this monitor: optionally "url" (the dish's gRPC-web endpoint, default {@link StarlinkDish#DEFAULT_URL}),
+     *                "timeout" (a Duration, the maximum time for a poll, default 5 seconds), "obstructedHighPct" (a Double, the percentage of the sky
+     *                obstructed above which an event is sent, default 2), and "dropRateHighPct" (a Double, the percentage of pings dropped above which an
+     *                event is sent, default 5), and "telemetry" (a {@link Telemetry} to put the latest telemetry in, for the ISP monitor).
+     * @param _interval The interval between runs for this monitor.
+     */
+    public Starlink( final Mailbox _mailbox, final Map<String,Object> _params, final Duration _interval ) {
+        super( _mailbox, _interval );
+
+        var ur = (String) _params.get( "url" );
+        var to = (Duration) _params.get( "timeout" );
+        dish = new StarlinkDish( (ur == null) ? StarlinkDish.DEFAULT_URL : ur, (to == null) ? DEFAULT_TIMEOUT : to );
+        var oh = (Double) _params.get( "obstructedHighPct" );
+        obstructedHighPct = (oh == null) ? DEFAULT_OBSTRUCTED_HIGH : oh;
+        var dh = (Double) _params.get( "dropRateHighPct" );
+        dropRateHighPct = (dh == null) ? DEFAULT_DROP_RATE_HIGH : dh;
+        var te = (Telemetry) _params.get( "telemetry" );
+        telemetry = (te == null) ? new Telemetry() : te;
+    }
+
+
+    /**
+     * Perform the periodic monitoring.
+     */
+    @Override
+    protected void runImpl() {
+
+        // get the dish's status...
+        var outcome = dish.getStatus();
+        if( outcome.notOk() ) {
+            LOGGER.warning( outcome.msg() );
+            sendEvent( UNREACHABLE_EVENT_INTERVAL, "Starlink.unreachable", "Starlink.unreachable", "Starlink dish is unreachable",
+                    "Could not get the Starlink dish's status: " + outcome.msg(), 6 );
+            return;
+        }
+        var status = outcome.info();
+        telemetry.update( status );
+
+        // report an outage that's going on now, once...
+        var ongoingNs = (status.outage() == null) ? -1 : status.outage().startNs();
+        if( (status.outage() != null) && (ongoingNs != reportedOngoingNs) )
+            sendEvent( "Starlink.outage", "Starlink.outage", "Starlink outage: " + status.outage().cause(),
+                    "The Starlink dish reports an outage (" + status.outage().cause() + ")" + (status.outage().didSwitch() ? ", switching satellites." : "."), 8 );
+        reportedOngoingNs = ongoingNs;
+
+        // report the outages that ended since our last run, from the dish's history...
+        var ended = endedOutages( ongoingNs );
+
+        // report any newly raised alerts...
+        var previousAlerts = (last == null) ? List.<String>of() : last.alerts();
+        for( String alert : status.alerts() ) {
+            if( previousAlerts.contains( alert ) ) continue;
+            sendEvent( "Starlink.alert", "Starlink.alert", "Starlink alert: " + alert, "The Starlink dish raised an alert: " + alert + ".", 7 );
+        }
+
+        // report poor link quality, at most daily...
+        var obstructedPct = status.fractionObstructed() * 100;
+        if( obstructedPct > obstructedHighPct )
+            sendEvent( THRESHOLD_EVENT_INTERVAL, "Starlink.obstructed", "Starlink.obstructed", "Starlink dish is obstructed",
+                    String.format( "The Starlink dish's view of the sky is %.1f%% obstructed (threshold %.1f%%).", obstructedPct, obstructedHighPct ), 6 );
+        var dropPct = status.popPingDropRate() * 100;
+        if( dropPct > dropRateHighPct )
+            sendEvent( THRESHOLD_EVENT_INTERVAL, "Starlink.pingDrops", "Starlink.pingDrops", "Starlink ping drops are high",
+                    String.format( "The Starlink dish is dropping %.1f%% of its pings (threshold %.1f%%).", dropPct, dropRateHighPct ), 6 );
+
+        last = status;
+        sendStatus( status );
+        sendDbUpdate( status, ended );
+    }
+
+
+    /**
+     * Get the dish's outage history, and report the outages in it that have ended since our last run.  They're reported together, as a troubled link can
+     * have dozens of short outages a minute.  On the first run the outages already in the history are just noted, so that a restart doesn't report them
+     * all again.  If the history can't be had, its outages are left for the next run.
+     *
+     * @param _ongoingNs The start of the outage the dish is in now, or -1 if none; it isn't counted until it has ended.
+     * @return The outages that ended since our last run, or null if the history couldn't be had.
+     */
+    private List<StarlinkDish.Outage> endedOutages( final long _ongoingNs ) {
+
+        var outcome = dish.getOutages();
+        if( outcome.notOk() ) {
+            LOGGER.warning( "Could not get the Starlink dish's outage history: " + outcome.msg() );
+            return null;
+        }
+
+        // find the outages newer than those we've already dealt with...
+        var ended = new ArrayList<StarlinkDish.Outage>();
+        var newest = (lastOutageNs == null) ? Long.MIN_VALUE : lastOutageNs;
+        for( StarlinkDish.Outage outage : outcome.info() ) {
+            if( (outage.startNs() == _ongoingNs) || ((lastOutageNs != null) && (outage.startNs() <= lastOutageNs)) ) continue;
+            ended.add( outage );
+            newest = Math.max( newest, outage.startNs() );
+        }
+        var first = (lastOutageNs == null);
+        lastOutageNs = newest;
+        if( first ) return List.of();
+        if( ended.isEmpty() ) return ended;
+
+        // report them...
+        var totalNs = 0L;
+        var longest = ended.get( 0 );
+        for( StarlinkDish.Outage outage : ended ) {
+            totalNs += outage.durationNs();
+            if( outage.durationNs() > longest.durationNs() ) longest = outage;
+        }
+        if( ended.size() == 1 )
+            sendEvent( "Starlink.outageEnded", "Starlink.outageEnded", "Starlink outage: " + longest.cause(),
+                    "The Starlink dish had an outage (" + longest.cause() + ") lasting " + formatNs( longest.durationNs() )
+                            + (longest.didSwitch() ? ", switching satellites." : "."), 7 );
+        else
+            sendEvent( "Starlink.outageEnded", "Starlink.outageEnded", "Starlink had " + ended.size() + " outages",
+                    "The Starlink dish had " + ended.size() + " outages totaling " + formatNs( totalNs ) + "; the longest (" + longest.cause()
+                            + ") lasted " + formatNs( longest.durationNs() ) + ".", 7 );
+        return ended;
+    }
+
+
+    private static String formatNs( final long _ns ) {
+        return (_ns < 60_000_000_000L) ? String.format( "%.1f seconds", _ns / 1e9 ) : Time.formatDuration( _ns / 1_000_000 );
+    }
+
+
+    private void sendStatus( final StarlinkDish.DishStatus _status ) {
+
+        var uptime = Time.formatDuration( _status.uptimeS() * 1000 );
+
+        Message msg = mailbox.createPublishMessage( "starlink.monitor" );
+
+        // send the message interval...
+        msg.putDotted( "monitor.starlink.messageIntervalMs",   interval.toMillis()                     );
+
+        // fill in our collected data...
+        msg.putDotted( "monitor.starlink.id",                  _status.id()                            );
+        msg.putDotted( "monitor.starlink.hardwareVersion",     _status.hardwareVersion()               );
+        msg.putDotted( "monitor.starlink.softwareVersion",     _status.softwareVersion()               );
+        msg.putDotted( "monitor.starlink.uptime",              uptime                                  );
+        msg.putDotted( "monitor.starlink.downlinkMbps",        _status.downlinkBps() / 1e6             );
+        msg.putDotted( "monitor.starlink.uplinkMbps",          _status.uplinkBps() / 1e6               );
+        msg.putDotted( "monitor.starlink.link",                _status.toJSON()                        );
+
+        // send it!
+        mailbox.send( msg );
+        LOGGER.info( "Sent Starlink monitor message" );
+    }
+
+
+    private void sendDbUpdate( final StarlinkDish.DishStatus _status, final List<StarlinkDish.Outage> _ended ) {
+
+        var outageMs = 0L;
+        if( _ended != null )
+            for( StarlinkDish.Outage outage : _ended ) outageMs += outage.durationNs() / 1_000_000;
+
+        Message msg = mailbox.createDirectMessage( "events.post", "event.post", false );
+
+        msg.putDotted( "tag",                        "Starlink_stats"                     );
+        msg.putDotted( "timestamp",                  System.currentTimeMillis()           );
+        msg.putDotted( "fields.obstructedPct",       _status.fractionObstructed() * 100   );
+        msg.putDotted( "fields.currentlyObstructed", _status.currentlyObstructed()        );
+        msg.putDotted( "fields.popPingLatencyMs",    _status.popPingLatencyMs()           );
+        msg.putDotted( "fields.popPingDropPct",      _status.popPingDropRate() * 100      );
+        msg.putDotted( "fields.downlinkBps",         _status.downlinkBps()                );
+        msg.putDotted( "fields.uplinkBps",           _status.uplinkBps()                  );
+        msg.putDotted( "fields.snrAboveNoiseFloor",  _status.snrAboveNoiseFloor()         );
+        msg.putDotted( "fields.inOutage",            _status.outage() != null             );
+        if( _ended != null ) {
+            msg.putDotted( "fields.outages",         _ended.size()                        );
+            msg.putDotted( "fields.outageMs",        outageMs                             );
+        }
+
+        // send it!
+        mailbox.send( msg );
+        LOGGER.info( "Sent Starlink statistics message" );
+    }
+
+
+    /**
+     * Holds the latest telemetry from a Starlink dish, so that another monitor can use it.  The configuration makes one, and gives it to the Starlink
+     * monitor (which updates it) as its "telemetry" parameter, and to the ISP monitor (which reads it) as its "starlink" parameter.
+     */
+    public static final class Telemetry {
+
+        private volatile Sample latest;
+
+
+        private void update( final StarlinkDish.DishStatus _status ) {
+            latest = new Sample( Instant.now(), _status );
+        }
+
+
+        /**
+         * Return the latest telemetry from the dish, if it's no older than the given maximum age.
+         *
+         * @param _maxAge The maximum age of the telemetry.
+         * @return The latest telemetry, or null if there is none recent enough.
+         */
+        public StarlinkDish.DishStatus latest( final Duration _maxAge ) {
+            var sample = latest;
+            return ((sample == null) || sample.at.plus( _maxAge ).isBefore( Instant.now() )) ? null : sample.status;
+        }
+    }
+
+
+    private record Sample( Instant at, StarlinkDish.DishStatus status ) {}
+}
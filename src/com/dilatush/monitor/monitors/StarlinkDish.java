@@ -0,0 +1,509 @@
+package com.dilatush.monitor.monitors;
+
+import com.dilatush.util.Outcome;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A client for the status API that a Starlink dish serves on the LAN.  The dish speaks gRPC; this client uses the gRPC-web flavor of it (which the dish
+ * also serves, for its own web page), because that runs over plain HTTP/1.1 and needs no gRPC or protobuf libraries.  The request is a tiny hand-encoded
+ * protobuf message, and the response is decoded by a minimal protobuf reader that picks out just the fields we want and skips the rest, so that fields
+ * the dish's firmware adds or drops don't break it.  A single HTTP client is kept for the life of the instance, so its connection to the dish is kept
+ * alive between polls.
+ * <p>The field numbers below come from the dish's published protobuf reflection data; if a firmware update renumbers anything, they are the only thing
+ * that needs to change.</p>
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class StarlinkDish {
+
+    private static final Outcome.Forge<DishStatus>   FORGE_STATUS  = new Outcome.Forge<>();
+    private static final Outcome.Forge<List<Outage>> FORGE_HISTORY = new Outcome.Forge<>();
+    private static final Outcome.Forge<byte[]>       FORGE_BYTES   = new Outcome.Forge<>();
+
+    /** The dish's gRPC-web endpoint, at the address every Starlink dish answers on. */
+    public static final String DEFAULT_URL = "http://192.168.100.1:9201/SpaceX.API.Device.Device/Handle";
+
+    // Request { get_status (1004): GetStatusRequest {} }, in a gRPC-web data frame...
+    private static final byte[] GET_STATUS_FRAME = { 0, 0, 0, 0, 3, (byte) 0xE2, (byte) 0x3E, 0 };
+
+    // Request { get_history (1007): GetHistoryRequest {} }, in a gRPC-web data frame...
+    private static final byte[] GET_HISTORY_FRAME = { 0, 0, 0, 0, 3, (byte) 0xFA, (byte) 0x3E, 0 };
+
+    private static final int FRAME_TRAILERS = 0x80;  // flag bit marking a gRPC-web trailers frame...
+
+    // Response fields...
+    private static final int RESPONSE_DISH_GET_STATUS  = 2004;
+    private static final int RESPONSE_DISH_GET_HISTORY = 2006;
+
+    // DishGetHistoryResponse fields...
+    private static final int HISTORY_OUTAGES = 1009;
+
+    // DishGetStatusResponse fields...
+    private static final int STATUS_DEVICE_INFO            = 1;
+    private static final int STATUS_DEVICE_STATE           = 2;
+    private static final int STATUS_POP_PING_DROP_RATE     = 1003;
+    private static final int STATUS_OBSTRUCTION_STATS      = 1004;
+    private static final int STATUS_ALERTS                 = 1005;
+    private static final int STATUS_DOWNLINK_BPS           = 1007;
+    private static final int STATUS_UPLINK_BPS             = 1008;
+    private static final int STATUS_POP_PING_LATENCY_MS    = 1009;
+    private static final int STATUS_OUTAGE                 = 1014;
+    private static final int STATUS_SNR_ABOVE_NOISE_FLOOR  = 1018;
+    private static final int STATUS_SNR_PERSISTENTLY_LOW   = 1022;
+
+    // DeviceInfo, DeviceState, DishObstructionStats, and DishOutage fields...
+    private static final int INFO_ID                       = 1;
+    private static final int INFO_HARDWARE_VERSION         = 2;
+    private static final int INFO_SOFTWARE_VERSION         = 3;
+    private static final int STATE_UPTIME_S                = 1;
+    private static final int OBSTRUCTION_FRACTION          = 1;
+    private static final int OBSTRUCTION_CURRENTLY         = 5;
+    private static final int OUTAGE_CAUSE                  = 1;
+    private static final int OUTAGE_START_NS               = 2;
+    private static final int OUTAGE_DURATION_NS            = 3;
+    private static final int OUTAGE_DID_SWITCH             = 4;
+
+    // DishAlerts fields (each a bool), by name...
+    private static final Map<Integer,String> ALERTS = Map.of(
+            1, "motorsStuck",
+            2, "thermalShutdown",
+            3, "thermalThrottle",
+            4, "unexpectedLocation",
+            5, "mastNotNearVertical",
+            6, "slowEthernetSpeeds",
+            7, "roaming",
+            8, "installPending",
+            9, "isHeating",
+            10, "powerSupplyThermalThrottle" );
+
+    // DishOutage causes, by value...
+    private static final String[] OUTAGE_CAUSES = { "unknown", "booting", "stowed", "thermal shutdown", "no schedule", "no satellites", "obstructed",
+            "no downlink", "no pings", "actuator activity", "cable test", "sleeping" };
+
+    private final URI        uri;
+    private final Duration   timeout;
+    private final HttpClient client;
+
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param _url The URL of the dish's gRPC-web endpoint (see {@link #DEFAULT_URL}).
+     * @param _timeout The maximum time for a poll, including connecting.
+     */
+    public StarlinkDish( final String _url, final Duration _timeout ) {
+        uri     = URI.create( _url );
+        timeout = _timeout;
+        client  = HttpClient.newBuilder().version( HttpClient.Version.HTTP_1_1 ).connectTimeout( _timeout ).build();
+    }
+
+
+    /**
+     * Get the dish's status.
+     *
+     * @return The outcome of the query.  If ok, contains the dish's status.  If not ok, contains an explanatory message and possibly the exception that
+     * caused the problem.
+     */
+    public Outcome<DishStatus> getStatus() {
+        var body = query( GET_STATUS_FRAME );
+        return body.ok() ? parse( body.info() ) : FORGE_STATUS.notOk( body.msg(), body.cause() );
+    }
+
+
+    /**
+     * Get the outages in the dish's history.  The dish keeps a ring of its recent outages, each with its start and duration, so outages of just a few
+     * seconds are seen even if they start and end between polls.
+     *
+     * @return The outcome of the query.  If ok, contains the outages, oldest first.  If not ok, contains an explanatory message and possibly the exception
+     * that caused the problem.
+     */
+    public Outcome<List<Outage>> getOutages() {
+        var body = query( GET_HISTORY_FRAME );
+        return body.ok() ? parseHistory( body.info() ) : FORGE_HISTORY.notOk( body.msg(), body.cause() );
+    }
+
+
+    /**
+     * Send the given gRPC-web request frame to the dish, returning the body of its response.
+     *
+     * @param _frame The request frame.
+     * @return The outcome of the query.  If ok, contains the response body.  If not ok, contains an explanatory message and possibly the exception that
+     * caused the problem.
+     */
+    private Outcome<byte[]> query( final byte[] _frame ) {
+
+        try {
+            var request = HttpRequest.newBuilder( uri )
+                    .timeout( timeout )
+                    .header( "Content-Type", "application/grpc-web+proto" )
+                    .header( "X-Grpc-Web", "1" )
+                    .POST( HttpRequest.BodyPublishers.ofByteArray( _frame ) )
+                    .build();
+            var response = client.send( request, HttpResponse.BodyHandlers.ofByteArray() );
+            if( response.statusCode() != 200 ) return FORGE_BYTES.notOk( "Dish HTTP status was not ok (200): " + response.statusCode() );
+            var headerStatus = response.headers().firstValue( "grpc-status" );
+            if( headerStatus.isPresent() && !"0".equals( headerStatus.get() ) )
+                return FORGE_BYTES.notOk( "Dish gRPC status " + headerStatus.get() + ": " + response.headers().firstValue( "grpc-message" ).orElse( "" ) );
+            return FORGE_BYTES.ok( response.body() );
+        }
+        catch( IOException _e ) {
+            return FORGE_BYTES.notOk( "Problem querying dish at " + uri + ": " + _e, _e );
+        }
+        catch( InterruptedException _e ) {
+            Thread.currentThread().interrupt();
+            return FORGE_BYTES.notOk( "Interrupted while querying dish" );
+        }
+    }
+
+
+    /**
+     * Parse the given gRPC-web response body to a status request: a data frame holding the response message, followed by a trailers frame.
+     *
+     * @param _body The response body.
+     * @return The outcome of the parse.  If ok, contains the dish's status.  If not ok, contains an explanatory message.
+     */
+    static Outcome<DishStatus> parse( final byte[] _body ) {
+
+        var message = unframe( _body );
+        if( message.notOk() ) return FORGE_STATUS.notOk( message.msg() );
+
+        try {
+            var response = new ProtoReader( message.info(), 0, message.info().length );
+            while( response.next() ) {
+                if( response.field == RESPONSE_DISH_GET_STATUS ) return FORGE_STATUS.ok( parseStatus( response.message() ) );
+                response.skip();
+            }
+            return FORGE_STATUS.notOk( "Dish response has no status" );
+        }
+        catch( IllegalStateException _e ) {
+            return FORGE_STATUS.notOk( "Malformed response from dish: " + _e.getMessage(), _e );
+        }
+    }
+
+
+    /**
+     * Parse the given gRPC-web response body to a history request, picking out just the outage ring.
+     *
+     * @param _body The response body.
+     * @return The outcome of the parse.  If ok, contains the outages, oldest first.  If not ok, contains an explanatory message.
+     */
+    static Outcome<List<Outage>> parseHistory( final byte[] _body ) {
+
+        var message = unframe( _body );
+        if( message.notOk() ) return FORGE_HISTORY.notOk( message.msg() );
+
+        try {
+            var response = new ProtoReader( message.info(), 0, message.info().length );
+            while( response.next() ) {
+                if( response.field != RESPONSE_DISH_GET_HISTORY ) {
+                    response.skip();
+                    continue;
+                }
+                var outages = new ArrayList<Outage>();
+                var history = response.message();
+                while( history.next() ) {
+                    if( history.field == HISTORY_OUTAGES ) outages.add( parseOutage( history.message() ) );
+                    else history.skip();
+                }
+                outages.sort( Comparator.comparingLong( Outage::startNs ) );
+                return FORGE_HISTORY.ok( List.copyOf( outages ) );
+            }
+            return FORGE_HISTORY.notOk( "Dish response has no history" );
+        }
+        catch( IllegalStateException _e ) {
+            return FORGE_HISTORY.notOk( "Malformed response from dish: " + _e.getMessage(), _e );
+        }
+    }
+
+
+    /**
+     * Return the response message in the given gRPC-web response body, checking the status in its trailers frame (if it has one).
+     *
+     * @param _body The response body.
+     * @return The outcome of the unframing.  If ok, contains the response message.  If not ok, contains an explanatory message.
+     */
+    private static Outcome<byte[]> unframe( final byte[] _body ) {
+
+        byte[] message = null;
+        var pos = 0;
+        while( pos + 5 <= _body.length ) {
+            var flags  = _body[pos] & 0xFF;
+            var length = ((_body[pos + 1] & 0xFF) << 24) | ((_body[pos + 2] & 0xFF) << 16) | ((_body[pos + 3] & 0xFF) << 8) | (_body[pos + 4] & 0xFF);
+            pos += 5;
+            if( (length < 0) || (pos + length > _body.length) ) return FORGE_BYTES.notOk( "Truncated gRPC-web frame from dish" );
+            if( (flags & FRAME_TRAILERS) != 0 ) {
+                var trailers = new String( _body, pos, length, StandardCharsets.US_ASCII );
+                for( String line : trailers.split( "\r\n" ) ) {
+                    var colon = line.indexOf( ':' );
+                    if( (colon < 0) || !"grpc-status".equalsIgnoreCase( line.substring( 0, colon ).trim() ) ) continue;
+                    var status = line.substring( colon + 1 ).trim();
+                    if( !"0".equals( status ) ) return FORGE_BYTES.notOk( "Dish gRPC status " + status + ": " + trailers.trim() );
+                }
+            }
+            else if( message == null ) {
+                message = new byte[length];
+                System.arraycopy( _body, pos, message, 0, length );
+            }
+            pos += length;
+        }
+        return (message == null) ? FORGE_BYTES.notOk( "No response message from dish" ) : FORGE_BYTES.ok( message );
+    }
+
+
+    private static DishStatus parseStatus( final ProtoReader _status ) {
+
+        String  id = "";
+        String  hardwareVersion = "";
+        String  softwareVersion = "";
+        long    uptimeS = 0;
+        double  dropRate = 0;
+        double  latencyMs = 0;
+        double  fractionObstructed = 0;
+        boolean currentlyObstructed = false;
+        double  downlinkBps = 0;
+        double  uplinkBps = 0;
+        boolean snrAboveNoiseFloor = false;
+        boolean snrPersistentlyLow = false;
+        Outage  outage = null;
+        var     alerts = new ArrayList<String>();
+
+        while( _status.next() ) {
+            switch( _status.field ) {
+                case STATUS_DEVICE_INFO -> {
+                    var info = _status.message();
+                    while( info.next() ) {
+                        switch( info.field ) {
+                            case INFO_ID               -> id              = info.string();
+                            case INFO_HARDWARE_VERSION -> hardwareVersion = info.string();
+                            case INFO_SOFTWARE_VERSION -> softwareVersion = info.string();
+                            default                    -> info.skip();
+                        }
+                    }
+                }
+                case STATUS_DEVICE_STATE -> {
+                    var state = _status.message();
+                    while( state.next() ) {
+                        if( state.field == STATE_UPTIME_S ) uptimeS = state.varint();
+                        else state.skip();
+                    }
+                }
+                case STATUS_OBSTRUCTION_STATS -> {
+                    var obstruction = _status.message();
+                    while( obstruction.next() ) {
+                        switch( obstruction.field ) {
+                            case OBSTRUCTION_FRACTION  -> fractionObstructed  = obstruction.float32();
+                            case OBSTRUCTION_CURRENTLY -> currentlyObstructed = obstruction.varint() != 0;
+                            default                    -> obstruction.skip();
+                        }
+                    }
+                }
+                case STATUS_ALERTS -> {
+                    var alertsMsg = _status.message();
+                    while( alertsMsg.next() ) {
+                        var name = ALERTS.get( alertsMsg.field );
+                        if( (name != null) && (alertsMsg.wireType == ProtoReader.VARINT) ) {
+                            if( alertsMsg.varint() != 0 ) alerts.add( name );
+                        }
+                        else
+                            alertsMsg.skip();
+                    }
+                }
+                case STATUS_OUTAGE                -> outage             = parseOutage( _status.message() );
+                case STATUS_POP_PING_DROP_RATE    -> dropRate           = _status.float32();
+                case STATUS_POP_PING_LATENCY_MS   -> latencyMs          = _status.float32();
+                case STATUS_DOWNLINK_BPS          -> downlinkBps        = _status.float32();
+                case STATUS_UPLINK_BPS            -> uplinkBps          = _status.float32();
+                case STATUS_SNR_ABOVE_NOISE_FLOOR -> snrAboveNoiseFloor = _status.varint() != 0;
+                case STATUS_SNR_PERSISTENTLY_LOW  -> snrPersistentlyLow = _status.varint() != 0;
+                default                           -> _status.skip();
+            }
+        }
+        return new DishStatus( id, hardwareVersion, softwareVersion, uptimeS, dropRate, latencyMs, fractionObstructed, currentlyObstructed, downlinkBps,
+                uplinkBps, snrAboveNoiseFloor, snrPersistentlyLow, outage, List.copyOf( alerts ) );
+    }
+
+
+    private static Outage parseOutage( final ProtoReader _outage ) {
+
+        var cause = 0L;
+        var startNs = 0L;
+        var durationNs = 0L;
+        var didSwitch = false;
+        while( _outage.next() ) {
+            switch( _outage.field ) {
+                case OUTAGE_CAUSE       -> cause      = _outage.varint();
+                case OUTAGE_START_NS    -> startNs    = _outage.varint();
+                case OUTAGE_DURATION_NS -> durationNs = _outage.varint();
+                case OUTAGE_DID_SWITCH  -> didSwitch  = _outage.varint() != 0;
+                default                 -> _outage.skip();
+            }
+        }
+        return new Outage( ((cause >= 0) && (cause < OUTAGE_CAUSES.length)) ? OUTAGE_CAUSES[(int) cause] : "cause " + cause,
+                startNs, durationNs, didSwitch );
+    }
+
+
+    /**
+     * A minimal reader for protobuf messages: enough to walk the fields of a message, read the scalar types the dish uses, and descend into nested
+     * messages.  Malformed input results in an IllegalStateException.
+     */
+    private static class ProtoReader {
+
+        private static final int VARINT  = 0;
+        private static final int FIXED64 = 1;
+        private static final int LENGTH  = 2;
+        private static final int FIXED32 = 5;
+
+        private final byte[] buffer;
+        private final int    end;
+        private int          pos;
+        private int          field;     // the field number of the current field...
+        private int          wireType;  // the wire type of the current field...
+
+
+        private ProtoReader( final byte[] _buffer, final int _start, final int _end ) {
+            buffer = _buffer;
+            pos    = _start;
+            end    = _end;
+        }
+
+
+        /**
+         * Advance to the next field, returning false if there are no more.
+         *
+         * @return True if there is another field.
+         */
+        private boolean next() {
+            if( pos >= end ) return false;
+            var tag = varint();
+            field    = (int) (tag >>> 3);
+            wireType = (int) (tag & 7);
+            return true;
+        }
+
+
+        private long varint() {
+            long result = 0;
+            for( int shift = 0; shift < 64; shift += 7 ) {
+                if( pos >= end ) throw new IllegalStateException( "truncated varint" );
+                var b = buffer[pos++];
+                result |= (long) (b & 0x7F) << shift;
+                if( (b & 0x80) == 0 ) return result;
+            }
+            throw new IllegalStateException( "varint too long" );
+        }
+
+
+        private float float32() {
+            if( wireType != FIXED32 ) throw new IllegalStateException( "field " + field + " is not a 32 bit value" );
+            if( pos + 4 > end ) throw new IllegalStateException( "truncated fixed32" );
+            var bits = (buffer[pos] & 0xFF) | ((buffer[pos + 1] & 0xFF) << 8) | ((buffer[pos + 2] & 0xFF) << 16) | ((buffer[pos + 3] & 0xFF) << 24);
+            pos += 4;
+            return Float.intBitsToFloat( bits );
+        }
+
+
+        private ProtoReader message() {
+            var length = length();
+            var result = new ProtoReader( buffer, pos, pos + length );
+            pos += length;
+            return result;
+        }
+
+
+        private String string() {
+            var length = length();
+            var result = new String( buffer, pos, length, StandardCharsets.UTF_8 );
+            pos += length;
+            return result;
+        }
+
+
+        private int length() {
+            if( wireType != LENGTH ) throw new IllegalStateException( "field " + field + " is not length delimited" );
+            var length = varint();
+            if( (length < 0) || (pos + length > end) ) throw new IllegalStateException( "truncated field " + field );
+            return (int) length;
+        }
+
+
+        private void skip() {
+            switch( wireType ) {
+                case VARINT  -> varint();
+                case FIXED64 -> pos += 8;
+                case LENGTH  -> {
+                    var length = length();  // not "pos += length()", as reading the length moves pos...
+                    pos += length;
+                }
+                case FIXED32 -> pos += 4;
+                default      -> throw new IllegalStateException( "unsupported wire type " + wireType );
+            }
+            if( pos > end ) throw new IllegalStateException( "truncated field " + field );
+        }
+    }
+
+
+    /**
+     * The status of the dish.
+     *
+     * @param id The dish's ID.
+     * @param hardwareVersion The dish's hardware version.
+     * @param softwareVersion The dish's software version.
+     * @param uptimeS The dish's uptime, in seconds.
+     * @param popPingDropRate The fraction of pings to the point of presence that were dropped, recently.
+     * @param popPingLatencyMs The round-trip time of pings to the point of presence, recently, in milliseconds.
+     * @param fractionObstructed The fraction of the dish's view of the sky that's obstructed.
+     * @param currentlyObstructed True if the dish is obstructed right now.
+     * @param downlinkBps The dish's current downlink throughput, in bits per second.
+     * @param uplinkBps The dish's current uplink throughput, in bits per second.
+     * @param snrAboveNoiseFloor True if the signal is above the noise floor.
+     * @param snrPersistentlyLow True if the signal to noise ratio has been persistently low.
+     * @param outage The outage the dish is in now, or null if it isn't in one.
+     * @param alerts The names of the alerts that are active.
+     */
+    public record DishStatus( String id, String hardwareVersion, String softwareVersion, long uptimeS, double popPingDropRate, double popPingLatencyMs,
+                              double fractionObstructed, boolean currentlyObstructed, double downlinkBps, double uplinkBps, boolean snrAboveNoiseFloor,
+                              boolean snrPersistentlyLow, Outage outage, List<String> alerts ) {
+
+        /**
+         * Return the link quality figures of this status as a JSON object, for status messages.
+         *
+         * @return The link quality figures.
+         */
+        public JSONObject toJSON() {
+            var result = new JSONObject();
+            result.put( "obstructedPct",       fractionObstructed * 100 );
+            result.put( "currentlyObstructed", currentlyObstructed      );
+            result.put( "popPingLatencyMs",    popPingLatencyMs         );
+            result.put( "popPingDropPct",      popPingDropRate * 100    );
+            result.put( "snrAboveNoiseFloor",  snrAboveNoiseFloor       );
+            result.put( "outage",              (outage == null) ? "none" : outage.cause );
+            result.put( "alerts",              new JSONArray( alerts )  );
+            return result;
+        }
+    }
+
+
+    /**
+     * An outage the dish is in, or one from its history.
+     *
+     * @param cause The cause of the outage.
+     * @param startNs When the outage started, in the dish's nanosecond clock.
+     * @param durationNs How long the outage lasted (or has lasted, if it's still going), in nanoseconds.
+     * @param didSwitch True if the outage involved switching satellites.
+     */
+    public record Outage( String cause, long startNs, long durationNs, boolean didSwitch ) {}
+}
@@ -0,0 +1,286 @@
+package com.dilatush.monitor.monitors;
+
+import com.dilatush.util.ip.IPAddress;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The endpoints of a {@link LAN.Sweep} (every host address in its CIDR ranges, on each of its ports), and which of them were reachable on the last two
+ * sweeps.  Endpoints are identified by index, with the ports for each host adjacent, so the whole set is described by the ranges and ports alone, and the
+ * reachable endpoints are kept in bitmaps (a /16 on three ports takes 24 kilobytes per bitmap).  Instances of this class are not threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class SweepSet {
+
+    private static final int MAX_ENDPOINTS = 1 << 24;  // a sanity limit; a /8 on a single port...
+
+    private final LAN.Sweep sweep;
+    private final long[]    rangeBases;    // the first host address in each range...
+    private final long[]    rangeStarts;   // the host index of the first host in each range...
+    private final int[]     ports;
+    private final int       hosts;         // the number of hosts in all the ranges...
+    private final int       size;          // the number of endpoints...
+
+    private final BitSet    reachable;     // endpoints reachable on the sweep in progress (or the last one, once finished)...
+    private final BitSet    unknown;       // endpoints whose probes didn't complete on the sweep in progress...
+    private final BitSet    previous;      // endpoints reachable on the previous sweep...
+    private final BitSet    appeared;      // endpoints reachable on the last sweep but not the one before it...
+    private final BitSet    vanished;      // endpoints reachable on the sweep before last, but not on the last one...
+    private boolean         swept;         // true if at least one sweep has finished...
+
+
+    /**
+     * Creates a new instance of this class for the given sweep.
+     *
+     * @param _sweep The sweep.
+     * @throws IllegalArgumentException If a CIDR range is malformed, or if the sweep has no ports or too many endpoints.
+     */
+    public SweepSet( final LAN.Sweep _sweep ) {
+
+        sweep = _sweep;
+        if( (_sweep.ports() == null) || _sweep.ports().isEmpty() ) throw new IllegalArgumentException( "Sweep " + _sweep.name() + " has no ports" );
+
+        // figure out our ranges...
+        var cidrs  = _sweep.cidrs();
+        rangeBases  = new long[ cidrs.size() ];
+        rangeStarts = new long[ cidrs.size() ];
+        long hostCount = 0;
+        for( int i = 0; i < cidrs.size(); i++ ) {
+            var range = parseCIDR( cidrs.get( i ) );
+            rangeBases[i]  = range[0];
+            rangeStarts[i] = hostCount;
+            hostCount     += range[1];
+        }
+
+        // and our ports...
+        ports = new int[ _sweep.ports().size() ];
+        for( int i = 0; i < ports.length; i++ ) ports[i] = _sweep.ports().get( i );
+
+        if( hostCount * ports.length > MAX_ENDPOINTS )
+            throw new IllegalArgumentException( "Sweep " + _sweep.name() + " has too many endpoints: " + hostCount * ports.length );
+        hosts = (int) hostCount;
+        size  = hosts * ports.length;
+
+        reachable = new BitSet( size );
+        unknown   = new BitSet( size );
+        previous  = new BitSet( size );
+        appeared  = new BitSet( size );
+        vanished  = new BitSet( size );
+    }
+
+
+    /**
+     * Parse the given CIDR range into its first host address and number of hosts.  For prefixes of /30 or shorter, the network and broadcast addresses are
+     * excluded.
+     *
+     * @param _cidr The CIDR range, like "10.1.0.0/16".
+     * @return A two element array with the first host address (as an unsigned 32 bit value) and the number of hosts.
+     */
+    private static long[] parseCIDR( final String _cidr ) {
+
+        var slash = _cidr.indexOf( '/' );
+        var parts = ((slash < 0) ? _cidr : _cidr.substring( 0, slash )).trim().split( "\\." );
+        if( parts.length != 4 ) throw new IllegalArgumentException( "Malformed CIDR range: " + _cidr );
+        long address = 0;
+        int prefix;
+        try {
+            for( String part : parts ) {
+                var octet = Integer.parseInt( part );
+                if( (octet < 0) || (octet > 255) ) throw new IllegalArgumentException( "Malformed CIDR range: " + _cidr );
+                address = (address << 8) | octet;
+            }
+            prefix = (slash < 0) ? 32 : Integer.parseInt( _cidr.substring( slash + 1 ).trim() );
+        }
+        catch( NumberFormatException _e ) {
+            throw new IllegalArgumentException( "Malformed CIDR range: " + _cidr );
+        }
+        if( (prefix < 0) || (prefix > 32) ) throw new IllegalArgumentException( "Malformed CIDR range: " + _cidr );
+
+        // mask off the host bits, and skip the network and broadcast addresses if there are any...
+        long count = 1L << (32 - prefix);
+        address &= ~(count - 1) & 0xFFFFFFFFL;
+        return (prefix <= 30) ? new long[] { address + 1, count - 2 } : new long[] { address, count };
+    }
+
+
+    /**
+     * Return the sweep this set is for.
+     *
+     * @return The sweep.
+     */
+    public LAN.Sweep sweep() {
+        return sweep;
+    }
+
+
+    /**
+     * Return the number of endpoints in this set.
+     *
+     * @return The number of endpoints.
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Return the probe target for the endpoint with the given index.
+     *
+     * @param _index The index of the endpoint, in [0..size()).
+     * @return The probe target.
+     */
+    public TCPProber.Target target( final int _index ) {
+        var ip = IPAddress.fromString( address( _index / ports.length ) ).info();
+        return new TCPProber.Target( ip, ports[ _index % ports.length ], sweep.timeoutMs(), sweep.tries() );
+    }
+
+
+    /**
+     * Return a readable description of the endpoint with the given index, like "10.1.4.1:443".
+     *
+     * @param _index The index of the endpoint, in [0..size()).
+     * @return The description of the endpoint.
+     */
+    public String endpoint( final int _index ) {
+        return address( _index / ports.length ) + ":" + ports[ _index % ports.length ];
+    }
+
+
+    private String address( final int _host ) {
+
+        // find the range this host is in...
+        var range = rangeStarts.length - 1;
+        while( rangeStarts[range] > _host ) range--;
+
+        var address = rangeBases[range] + (_host - rangeStarts[range]);
+        return ((address >>> 24) & 0xFF) + "." + ((address >>> 16) & 0xFF) + "." + ((address >>> 8) & 0xFF) + "." + (address & 0xFF);
+    }
+
+
+    /**
+     * Start a new sweep.
+     */
+    public void begin() {
+        reachable.clear();
+        unknown.clear();
+    }
+
+
+    /**
+     * Record the result of probing the endpoint with the given index on the sweep in progress.
+     *
+     * @param _index The index of the endpoint.
+     * @param _result The result of probing it.
+     */
+    public void record( final int _index, final TCPProber.Result _result ) {
+        if( _result.connected() )
+            reachable.set( _index );
+        else if( _result.expired() )
+            unknown.set( _index );
+    }
+
+
+    /**
+     * Finish the sweep in progress, figuring out which endpoints appeared and vanished since the previous sweep.  Endpoints whose probes didn't complete
+     * (because the run's deadline expired) are assumed to be unchanged.
+     *
+     * @return True if the set of reachable endpoints changed, and this wasn't the first sweep.
+     */
+    public boolean finish() {
+
+        // endpoints we know nothing about keep their previous state...
+        var carried = (BitSet) previous.clone();
+        carried.and( unknown );
+        reachable.or( carried );
+
+        // figure out what changed...
+        appeared.clear();
+        appeared.or( reachable );
+        appeared.andNot( previous );
+        vanished.clear();
+        vanished.or( previous );
+        vanished.andNot( reachable );
+
+        previous.clear();
+        previous.or( reachable );
+        var first = !swept;
+        swept = true;
+        if( first ) {
+            appeared.clear();
+            vanished.clear();
+        }
+        return !appeared.isEmpty() || !vanished.isEmpty();
+    }
+
+
+    /**
+     * Return the number of endpoints reachable on the last sweep.
+     *
+     * @return The number of endpoints reachable.
+     */
+    public int reachableCount() {
+        return reachable.cardinality();
+    }
+
+
+    /**
+     * Return the number of endpoints whose probes didn't complete on the last sweep.
+     *
+     * @return The number of endpoints not probed.
+     */
+    public int unknownCount() {
+        return unknown.cardinality();
+    }
+
+
+    /**
+     * Return descriptions of up to the given number of endpoints that appeared on the last sweep.
+     *
+     * @param _max The maximum number of endpoints to return.
+     * @return The endpoints that appeared.
+     */
+    public List<String> appeared( final int _max ) {
+        return describe( appeared, _max );
+    }
+
+
+    /**
+     * Return descriptions of up to the given number of endpoints that vanished on the last sweep.
+     *
+     * @param _max The maximum number of endpoints to return.
+     * @return The endpoints that vanished.
+     */
+    public List<String> vanished( final int _max ) {
+        return describe( vanished, _max );
+    }
+
+
+    /**
+     * Return the number of endpoints that appeared on the last sweep.
+     *
+     * @return The number of endpoints that appeared.
+     */
+    public int appearedCount() {
+        return appeared.cardinality();
+    }
+
+
+    /**
+     * Return the number of endpoints that vanished on the last sweep.
+     *
+     * @return The number of endpoints that vanished.
+     */
+    public int vanishedCount() {
+        return vanished.cardinality();
+    }
+
+
+    private List<String> describe( final BitSet _bits, final int _max ) {
+        var result = new ArrayList<String>();
+        for( int i = _bits.nextSetBit( 0 ); (i >= 0) && (result.size() < _max); i = _bits.nextSetBit( i + 1 ) ) result.add( endpoint( i ) );
+        return result;
+    }
+}
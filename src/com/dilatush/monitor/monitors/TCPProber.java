@@ -0,0 +1,301 @@
+package com.dilatush.monitor.monitors;
+
+import com.dilatush.util.ip.IPAddress;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.logging.Logger;
+
+import static com.dilatush.util.General.getLogger;
+
+/**
+ * Tests whether TCP connections can be established to many targets at once, using non-blocking connects on a single selector in the calling thread.  At
+ * most a given number of connects are in flight at once (which bounds the number of sockets open), and the whole run is bounded by a deadline.  Each
+ * target is tried up to a given number of times, with the timeout growing linearly on each try (the same schedule the monitors used with
+ * {@code TCPConnectionTest}), except that a refused connection isn't retried: the host answered, so we know it's up and that nothing is listening on
+ * the port.  Results are delivered as each target completes, so the wall time of a run is about that of the slowest target, not the sum
+ * of them all.  An optional rate limit on connect starts lets the same machinery sweep very large sets of targets politely.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class TCPProber {
+
+    private static final Logger LOGGER = getLogger();
+
+    private static final String DEADLINE_EXPIRED = "run deadline expired";
+    private static final long   RATE_SLACK_NANOS = 10_000_000;  // how far behind the rate limiter may fall before it stops catching up...
+
+
+    private TCPProber() {}
+
+
+    /**
+     * Probe all the given targets, calling the given handler (on the calling thread) with each result as it completes.  This method returns when every
+     * target has a result.  Any target that hasn't completed when the deadline expires gets a result with an error, and {@link Result#expired()} true.
+     *
+     * @param _targets The targets to probe.
+     * @param _maxInFlight The maximum number of connects in flight at once.
+     * @param _deadline The maximum time for the whole run.
+     * @param _handler The handler for the results.
+     * @throws IOException If the selector can't be opened.
+     */
+    public static void probe( final List<Target> _targets, final int _maxInFlight, final Duration _deadline, final ResultHandler _handler )
+            throws IOException {
+        probe( _targets.size(), _targets::get, _maxInFlight, 0, _deadline, _handler );
+    }
+
+
+    /**
+     * Probe the given number of targets, calling the given handler (on the calling thread) with each result as it completes.  Targets are made by the given
+     * function only when they're about to be probed, so a very large set of targets (for instance, every address in a CIDR range on several ports) never
+     * needs to be held in memory at once.  At most the given number of connects (including retries) are started per second, so a large sweep doesn't flood
+     * the network or the hosts on it.  This method returns when every target has a result.  Any target that hasn't completed when the deadline expires gets
+     * a result with an error, and {@link Result#expired()} true.
+     *
+     * @param _count The number of targets to probe.
+     * @param _targets The function that makes the target with the given index, in [0.._count).
+     * @param _maxInFlight The maximum number of connects in flight at once.
+     * @param _maxPerSecond The maximum number of connects started per second, or zero for no limit.
+     * @param _deadline The maximum time for the whole run.
+     * @param _handler The handler for the results.
+     * @throws IOException If the selector can't be opened.
+     */
+    public static void probe( final int _count, final IntFunction<Target> _targets, final int _maxInFlight, final int _maxPerSecond,
+                              final Duration _deadline, final ResultHandler _handler ) throws IOException {
+
+        if( _maxInFlight < 1 ) throw new IllegalArgumentException( "_maxInFlight must be at least 1: " + _maxInFlight );
+
+        var deadlineAt    = System.nanoTime() + _deadline.toNanos();
+        var startInterval = (_maxPerSecond > 0) ? 1_000_000_000L / _maxPerSecond : 0;  // nanoseconds between connect starts...
+        var nextStartAt   = System.nanoTime();                                         // earliest time we can start another connect...
+        var retries       = new ArrayDeque<Attempt>();                                 // attempts waiting for their next try...
+        var nextIndex     = 0;                                                          // index of the next target to make...
+
+        try( Selector selector = Selector.open() ) {
+            try {
+                var remaining = _count;
+                var inFlight  = 0;
+                var expired   = new ArrayList<SelectionKey>();
+
+                while( remaining > 0 ) {
+
+                    // if we've run out of time, everything that's left fails...
+                    var now = System.nanoTime();
+                    if( now >= deadlineAt ) {
+                        for( SelectionKey key : selector.keys() ) {
+                            if( !key.isValid() ) continue;
+                            var attempt = (Attempt) key.attachment();
+                            close( attempt );
+                            _handler.onResult( attempt.index, attempt.expired( DEADLINE_EXPIRED + " after " + attempt.tries + " tries" ) );
+                        }
+                        for( Attempt attempt : retries )
+                            _handler.onResult( attempt.index, attempt.expired( DEADLINE_EXPIRED + " after " + attempt.tries + " tries" ) );
+                        for( int i = nextIndex; i < _count; i++ )
+                            _handler.onResult( i, new Result( false, false, true, 0, 0, DEADLINE_EXPIRED + " before probing" ) );
+                        return;
+                    }
+
+                    // start as many connects as we're allowed to, retries first...
+                    while( (inFlight < _maxInFlight) && (!retries.isEmpty() || (nextIndex < _count)) && (nextStartAt <= now) ) {
+                        var attempt = retries.isEmpty() ? new Attempt( nextIndex, _targets.apply( nextIndex++ ) ) : retries.poll();
+                        nextStartAt = Math.max( nextStartAt, now - RATE_SLACK_NANOS ) + startInterval;
+                        var error = start( selector, attempt );
+                        if( attempt.channel != null ) { inFlight++; continue; }
+                        _handler.onResult( attempt.index, attempt.result( (error == null) && !attempt.refused, attempt.refused, error ) );
+                        remaining--;
+                    }
+                    if( remaining == 0 ) break;
+
+                    // wait for something to connect, for the next timeout, or until we may start another connect...
+                    var wakeAt = deadlineAt;
+                    for( SelectionKey key : selector.keys() )
+                        if( key.isValid() ) wakeAt = Math.min( wakeAt, ((Attempt) key.attachment()).timeoutAt );
+                    if( (inFlight < _maxInFlight) && (!retries.isEmpty() || (nextIndex < _count)) )
+                        wakeAt = Math.min( wakeAt, nextStartAt );
+                    selector.select( Math.max( 1, (wakeAt - System.nanoTime() + 999_999) / 1_000_000 ) );
+
+                    // handle the connects that completed...
+                    for( SelectionKey key : selector.selectedKeys() ) {
+                        var attempt = (Attempt) key.attachment();
+                        String error = null;
+                        try {
+                            if( !attempt.channel.finishConnect() ) continue;
+                        }
+                        catch( ConnectException _e ) {
+                            attempt.refused = true;
+                        }
+                        catch( IOException _e ) {
+                            error = _e.getClass().getSimpleName() + ": " + _e.getMessage();
+                        }
+                        close( attempt );
+                        inFlight--;
+                        remaining--;
+                        _handler.onResult( attempt.index, attempt.result( (error == null) && !attempt.refused, attempt.refused, error ) );
+                    }
+                    selector.selectedKeys().clear();
+
+                    // handle the connects that timed out, retrying them if they have tries left...
+                    now = System.nanoTime();
+                    expired.clear();
+                    for( SelectionKey key : selector.keys() )
+                        if( key.isValid() && (((Attempt) key.attachment()).timeoutAt <= now) ) expired.add( key );
+                    for( SelectionKey key : expired ) {
+                        var attempt = (Attempt) key.attachment();
+                        close( attempt );
+                        inFlight--;
+                        if( attempt.tries < attempt.target.tries() )
+                            retries.add( attempt );
+                        else {
+                            remaining--;
+                            _handler.onResult( attempt.index, attempt.result( false, false, null ) );
+                        }
+                    }
+                }
+            }
+            finally {
+                // make sure no sockets leak, whether we finished, ran out of time, or the handler threw...
+                for( SelectionKey key : selector.keys() ) close( (Attempt) key.attachment() );
+            }
+        }
+    }
+
+
+    /**
+     * Start the next try of the given attempt.  If the connect is in progress, the attempt's channel is left open and registered with the selector.
+     * Otherwise, the channel is closed, and the return value tells what happened.
+     *
+     * @param _selector The selector to register the connect with.
+     * @param _attempt The attempt to start the next try of.
+     * @return An error message if the connect failed immediately, or null if it connected immediately, was refused (in which case the attempt is marked
+     *         refused), or is in progress.
+     */
+    private static String start( final Selector _selector, final Attempt _attempt ) {
+
+        _attempt.tries++;
+        _attempt.startedAt = System.nanoTime();
+        _attempt.timeoutAt = _attempt.startedAt + 1_000_000L * _attempt.target.initialTimeoutMs() * _attempt.tries;
+        try {
+            var address = new InetSocketAddress( InetAddress.getByName( _attempt.target.ip().toString() ), _attempt.target.port() );
+            _attempt.channel = SocketChannel.open();
+            _attempt.channel.configureBlocking( false );
+            if( _attempt.channel.connect( address ) ) {
+                close( _attempt );
+                return null;
+            }
+            _attempt.channel.register( _selector, SelectionKey.OP_CONNECT, _attempt );
+            return null;
+        }
+        catch( ConnectException _e ) {
+            close( _attempt );
+            _attempt.refused = true;
+            return null;
+        }
+        catch( IOException _e ) {
+            close( _attempt );
+            return _e.getClass().getSimpleName() + ": " + _e.getMessage();
+        }
+    }
+
+
+    private static void close( final Attempt _attempt ) {
+        if( _attempt.channel == null ) return;
+        try {
+            _attempt.channel.close();
+        }
+        catch( IOException _e ) {
+            LOGGER.finest( "Problem closing probe socket: " + _e.getMessage() );
+        }
+        _attempt.channel = null;
+    }
+
+
+    /**
+     * A target to probe.
+     *
+     * @param ip The IP address to connect to.
+     * @param port The TCP port to connect to.
+     * @param initialTimeoutMs The timeout for the first try; each subsequent try's timeout is longer by this much.
+     * @param tries The maximum number of tries.
+     */
+    public record Target( IPAddress ip, int port, int initialTimeoutMs, int tries ) {}
+
+
+    /**
+     * The result of probing a target.
+     *
+     * @param connected True if a connection was established.
+     * @param refused True if the connection was refused: the host is up, but nothing is listening on the port.
+     * @param expired True if the run's deadline expired before the probe completed, so nothing is known about the target.
+     * @param rttNanos If connected, the time from starting the successful try to the connection being established, in nanoseconds.
+     * @param tries The number of tries made.
+     * @param error If not null, the probe failed for some reason other than timing out or being refused (for instance, there was no route to the host, or
+     *              the run's deadline expired); this is an explanatory message.
+     */
+    public record Result( boolean connected, boolean refused, boolean expired, long rttNanos, int tries, String error ) {
+
+        /**
+         * Returns true if the probe connected, was refused, or timed out on all tries.
+         *
+         * @return True if the probe completed without error.
+         */
+        public boolean ok() {
+            return error == null;
+        }
+    }
+
+
+    /**
+     * Implemented by anything that wants to receive probe results.
+     */
+    public interface ResultHandler {
+
+        /**
+         * Called on the probing thread with the result for a target.
+         *
+         * @param _index The index of the target in the list of targets probed.
+         * @param _result The result.
+         */
+        void onResult( int _index, Result _result );
+    }
+
+
+    /**
+     * The state of probing a single target.
+     */
+    private static final class Attempt {
+
+        private final int    index;       // the index of the target in the list of targets probed...
+        private final Target target;
+        private SocketChannel channel;    // the channel for the try in progress, or null if there isn't one...
+        private boolean      refused;     // true if the connection was refused...
+        private int          tries;       // the number of tries started...
+        private long         startedAt;   // System.nanoTime() when the current try started...
+        private long         timeoutAt;   // System.nanoTime() when the current try times out...
+
+
+        private Attempt( final int _index, final Target _target ) {
+            index  = _index;
+            target = _target;
+        }
+
+
+        private Result result( final boolean _connected, final boolean _refused, final String _error ) {
+            return new Result( _connected, _refused, false, _connected ? System.nanoTime() - startedAt : 0, tries, _error );
+        }
+
+
+        private Result expired( final String _error ) {
+            return new Result( false, false, true, 0, tries, _error );
+        }
+    }
+}
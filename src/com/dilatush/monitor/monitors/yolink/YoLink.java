@@ -6,16 +6,20 @@ import com.dilatush.mop.Message;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,25 +29,50 @@ import static com.dilatush.util.General.isNull;
 
 
 /**
- * Instances of this class implement a monitor for YoLink temperature and humidity sensors.
+ * Instances of this class implement a monitor for YoLink temperature and humidity sensors.  The device list changes rarely, so it's cached for a while
+ * (and fetched again sooner if any device's state can't be read, as that's what a changed list looks like to us, or if a sensor named in a trigger isn't
+ * in it, as that's what a newly added sensor looks like).  The devices' states are fetched in
+ * parallel, a bounded number at once, over one shared HTTP client (HTTP/2 where the API offers it), so the requests share one kept-alive connection;
+ * a device whose state can't be read is left out of this run, without affecting the others.
  */
 public class YoLink extends AMonitor {
 
     private final Logger LOGGER = getLogger();
 
+    private static final String   API_URL                 = "https://api.yosmart.com/open/yolink/v2/api";
+    private static final String   TOKEN_URL               = "https://api.yosmart.com/open/yolink/token";
+    private static final Duration DEFAULT_DEVICE_LIST_TTL = Duration.ofHours( 6 );
+    private static final Duration MISSING_DEVICE_REFRESH  = Duration.ofMinutes( 15 );  // soonest refetch for a missing trigger sensor...
+    private static final int      DEFAULT_MAX_CONCURRENT  = 4;
+    private static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds( 10 );
+    private static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds( 30 );
+
     private final String clientID;
     private final String secret;
 
     private final List<YoLinkTriggerDef> triggers;
+    private final Set<String>            triggerNames;   // the sensors named in the triggers...
     private final Map<String,Boolean> previous;
 
+    private final HttpClient      client;          // shared by all our requests, so its connection is kept alive between them...
+    private final Duration        requestTimeout;  // the maximum time for any one request...
+    private final ExecutorService stateThreads;    // fetches the devices' states, at most the configured number at once...
+    private final Duration        deviceListTTL;   // how long we use a device list before fetching it again...
+
     private String  accessToken;
     private Instant accessTokenExpires;
 
+    private List<Device> devices;         // the cached device list, or null if we haven't fetched it yet...
+    private Instant      devicesFetched;  // when the cached device list was fetched...
+    private Instant      devicesExpire;   // when the cached device list should be fetched again...
+
 
     /**
      * Create a new instance of this class, with the given mailbox and parameters.  At a minimum, the parameters must include "clientID" and "secret".  The parameters may
-     * optionally include specifications for events triggered by reading from the sensors, as "triggers" mapped to a list of {@link YoLinkTriggerDef}s.
+     * optionally include specifications for events triggered by reading from the sensors, as "triggers" mapped to a list of {@link YoLinkTriggerDef}s,
+     * "deviceListTTL" (a Duration, how long to use the device list before fetching it again, default 6 hours), "maxConcurrent" (the most device states
+     * fetched at once, default 4), "connectTimeout" (a Duration, the maximum time to connect to the API, default 10 seconds), and "requestTimeout" (a
+     * Duration, the maximum time for any one request, default 30 seconds).
      *
      * @param _mailbox The MOP mailbox for this monitor to use.
      * @param _params The parameters for this monitor.
@@ -75,6 +104,26 @@ public class YoLink extends AMonitor {
                 triggers.add( trigger );
             }
         }
+        triggerNames = new HashSet<>();
+        for( YoLinkTriggerDef trigger : triggers )
+            if( !"?".equals( trigger.sensorName() ) ) triggerNames.addAll( Arrays.asList( trigger.sensorName().split( "," ) ) );
+
+        var dt = (Duration) _params.get( "deviceListTTL"  );
+        var mc = (Integer)  _params.get( "maxConcurrent"  );
+        var ct = (Duration) _params.get( "connectTimeout" );
+        var rt = (Duration) _params.get( "requestTimeout" );
+        deviceListTTL  = (dt == null) ? DEFAULT_DEVICE_LIST_TTL : dt;
+        requestTimeout = (rt == null) ? DEFAULT_REQUEST_TIMEOUT : rt;
+        client = HttpClient.newBuilder()
+                .version( HttpClient.Version.HTTP_2 )
+                .connectTimeout( (ct == null) ? DEFAULT_CONNECT_TIMEOUT : ct )
+                .followRedirects( HttpClient.Redirect.NEVER )
+                .build();
+        stateThreads = Executors.newFixedThreadPool( Math.max( 1, (mc == null) ? DEFAULT_MAX_CONCURRENT : mc ), (r) -> {
+            var thread = new Thread( r, "YoLink state" );
+            thread.setDaemon( true );
+            return thread;
+        } );
     }
 
 
@@ -87,14 +136,26 @@ public class YoLink extends AMonitor {
         try {
             ensureAccessToken();
             var devices = getDevices();
-            var states = getTempHumiditySensorsState( devices );
+            var failures = new HashMap<String,String>();
+            var states = getTempHumiditySensorsState( devices, failures );
+            if( states == null ) return;  // we were interrupted, so there's nothing to report...
+
+            // if we couldn't read some devices, report them, and get a fresh device list next time in case it's changed...
+            if( !failures.isEmpty() ) {
+                devicesExpire = Instant.now();
+                for( var failure : failures.entrySet() ) {
+                    LOGGER.warning( "Failed to read YoLink device " + failure.getKey() + ": " + failure.getValue() );
+                    sendEvent( Duration.ofHours( 6 ), "YoLink.deviceFail", failure.getKey(), "Failure reading YoLink device " + failure.getKey(),
+                            "Failure while reading the state of YoLink device " + failure.getKey() + ": " + failure.getValue(), 6 );
+                }
+            }
 
             // make a map of the sensors by name...
             var statesByName = new HashMap<String,THState>();
             for( var state : states ) statesByName.put( state.device.name, state );
 
             sendStatistics( states );
-            sendEvents( states, statesByName );
+            sendEvents( states, statesByName, failures.keySet() );
             sendStatus( states );
         }
         catch( Exception _e ) {
@@ -175,8 +236,9 @@ public class YoLink extends AMonitor {
      *
      * @param _states The current state of the YoLink sensors as reported by the YoLink API.
      * @param _statesByName The current states mapped by device name.
+     * @param _failed The names of the devices whose state couldn't be read on this run.
      */
-    private void sendEvents( final List<THState> _states, final Map<String,THState> _statesByName ) {
+    private void sendEvents( final List<THState> _states, final Map<String,THState> _statesByName, final Set<String> _failed ) {
 
         // iterate over all our triggers...
         for( YoLinkTriggerDef trigger : triggers ) {
@@ -194,9 +256,10 @@ public class YoLink extends AMonitor {
                 // attempt to get the sensor state...
                 var sensorState = _statesByName.get( sensorName );
 
-                // if we don't have a sensor state, then a name in a trigger doesn't exist in the YoLink data...
+                // if we don't have a sensor state, then either we couldn't read it, or a name in a trigger doesn't exist in the YoLink data...
                 if( sensorState == null ) {
-                    LOGGER.log( Level.WARNING, "Device name does not appear in YoLink data: " + sensorName );
+                    if( !_failed.contains( sensorName ) )
+                        LOGGER.log( Level.WARNING, "Device name does not appear in YoLink data: " + sensorName );
                     continue;
                 }
 
@@ -292,44 +355,116 @@ public class YoLink extends AMonitor {
 
 
     /**
-     * Use the YoLink API to retrieve the current state of the given devices, which must be temperature and humidity sensors.
+     * Use the YoLink API to retrieve the current state of the given devices, which must be temperature and humidity sensors.  The states are fetched in
+     * parallel, at most the configured number at once.  A device whose state can't be retrieved is left out of the result, and the problem is recorded in
+     * the given map.
      *
      * @param _devices The list of devices to retrieve the current state of.
-     * @return The list of the current states of the given devices.
+     * @param _failures The map to record the devices whose state couldn't be retrieved in, as device name -> problem.
+     * @return The list of the current states of the given devices, in the same order (less any that couldn't be retrieved), or null if interrupted
+     *         while waiting for them (in which case the fetches still running are cancelled, and the thread's interrupt is restored).
+     */
+    private List<THState> getTempHumiditySensorsState( final List<Device> _devices, final Map<String,String> _failures ) {
+
+        // start fetching all the states...
+        var fetches = new ArrayList<Future<THState>>( _devices.size() );
+        for( Device device : _devices ) fetches.add( stateThreads.submit( () -> getTempHumiditySensorState( device ) ) );
+
+        // then collect them (each request is limited by the request timeout)...
+        var result = new ArrayList<THState>( _devices.size() );
+        for( int i = 0; i < _devices.size(); i++ ) {
+            try {
+                result.add( fetches.get( i ).get() );
+            }
+            catch( ExecutionException _e ) {
+                var cause = _e.getCause();
+                _failures.put( _devices.get( i ).name, cause.getClass().getSimpleName() + ": " + cause.getMessage() );
+            }
+            catch( InterruptedException _e ) {
+
+                // cancel whatever's still running, so it can't outlive this run...
+                for( Future<THState> fetch : fetches ) fetch.cancel( true );
+                Thread.currentThread().interrupt();
+                LOGGER.warning( "Interrupted while reading YoLink devices" );
+                return null;
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Use the YoLink API to retrieve the current state of the given device, which must be a temperature and humidity sensor.
+     *
+     * @param _device The device to retrieve the current state of.
+     * @return The current state of the given device.
      * @throws IOException On any I/O problem.
      * @throws JSONException On any JSON problem.
      */
-    private List<THState> getTempHumiditySensorsState( final List<Device> _devices ) throws IOException, JSONException {
+    private THState getTempHumiditySensorState( final Device _device ) throws IOException, JSONException {
+
+        // get the state...
+        var req = new JSONObject();
+        req.put( "method", "THSensor.getState" );
+        req.put( "targetDevice", _device.id );
+        req.put( "token", _device.token );
+        var resp = post( API_URL, req.toString(), "application/json", true );
+
+        // if we don't see success, throw an exception...
+        if( !"Success".equals( resp.get( "desc" ) ) ) {
+            throw new IOException( "YoLink failed to return device state: " + resp.toString(4) );
+        }
 
-        var result = new ArrayList<THState>();
+        var dataObj = resp.getJSONObject( "data" );
+        var stateObj = dataObj.getJSONObject( "state" );
+        return new THState(
+                _device,
+                dataObj.getBoolean( "online" ),
+                stateObj.getInt( "battery" ),
+                fromCtoF( stateObj.getDouble( "temperature" ) + stateObj.getDouble( "tempCorrection" ) ),
+                stateObj.getDouble( "humidity" ) + stateObj.getDouble( "humidityCorrection" )
+        );
+    }
 
-        for( Device device : _devices ) {
 
-            // get the state...
-            var req = new JSONObject();
-            req.put( "method", "THSensor.getState" );
-            req.put( "targetDevice", device.id );
-            req.put( "token", device.token );
-            var resp = post( "https://api.yosmart.com/open/yolink/v2/api", req.toString(), "application/json", true );
+    /**
+     * Returns the list of devices belonging to the configured client: the cached list if we have one that hasn't expired, otherwise a fresh list from the
+     * YoLink API (which is then cached).  A list missing a sensor named in a trigger is fetched again too, though at most every 15 minutes (in case the
+     * name is just wrong).
+     *
+     * @return The list of devices.
+     * @throws IOException On any I/O problem.
+     * @throws JSONException On any JSON problem.
+     */
+    private List<Device> getDevices() throws IOException, JSONException {
 
-            // if we don't see success, throw an exception...
-            if( !"Success".equals( resp.get( "desc" ) ) ) {
-                throw new IOException( "YoLink failed to return device state: " + resp.toString(4) );
-            }
+        // if our cached list is still good, and has all the sensors our triggers name (or we fetched it recently), use it...
+        var now = Instant.now();
+        if( (devices != null) && now.isBefore( devicesExpire )
+                && (now.isBefore( devicesFetched.plus( MISSING_DEVICE_REFRESH ) ) || hasTriggerNames( devices )) )
+            return devices;
+
+        // otherwise, get a fresh one, noting any change from the one we had...
+        var fresh = fetchDevices();
+        if( (devices != null) && !devices.equals( fresh ) )
+            LOGGER.info( "YoLink device list changed: " + fresh.size() + " devices" );
+        devices = fresh;
+        devicesFetched = now;
+        devicesExpire = now.plus( deviceListTTL );
+        return devices;
+    }
 
-            var dataObj = resp.getJSONObject( "data" );
-            var stateObj = dataObj.getJSONObject( "state" );
-            var state = new THState(
-                    device,
-                    dataObj.getBoolean( "online" ),
-                    stateObj.getInt( "battery" ),
-                    fromCtoF( stateObj.getDouble( "temperature" ) + stateObj.getDouble( "tempCorrection" ) ),
-                    stateObj.getDouble( "humidity" ) + stateObj.getDouble( "humidityCorrection" )
-            );
-            result.add( state );
-        }
 
-        return result;
+    /**
+     * Returns true if every sensor named in our triggers is in the given list of devices.
+     *
+     * @param _devices The list of devices.
+     * @return True if the list has every sensor our triggers name.
+     */
+    private boolean hasTriggerNames( final List<Device> _devices ) {
+        var names = new HashSet<String>();
+        for( Device device : _devices ) names.add( device.name );
+        return names.containsAll( triggerNames );
     }
 
 
@@ -340,10 +475,10 @@ public class YoLink extends AMonitor {
      * @throws IOException On any I/O problem.
      * @throws JSONException On any JSON problem.
      */
-    private List<Device> getDevices() throws IOException, JSONException {
+    private List<Device> fetchDevices() throws IOException, JSONException {
 
         var req = "{\"method\":\"Home.getDeviceList\"}";
-        var resp = post( "https://api.yosmart.com/open/yolink/v2/api", req, "application/json", true );
+        var resp = post( API_URL, req, "application/json", true );
 
         // if the returned object doesn't say successful, throw an exception...
         if( !"Success".equals( resp.optString( "desc" ) ) ) throw new IOException( "YoLink didn't return a device list" );
@@ -385,7 +520,7 @@ public class YoLink extends AMonitor {
 
         // otherwise, request an access token from YoLink...
         var req = "grant_type=client_credentials&client_id=" + clientID + "&client_secret=" + secret;
-        var resp = post( "https://api.yosmart.com/open/yolink/token", req, "application/x-www-form-urlencoded", false );
+        var resp = post( TOKEN_URL, req, "application/x-www-form-urlencoded", false );
 
         // if we got a response, but no access token or expiration, throw an exception...
         if( !resp.has( "access_token" ) ) throw new IOException( "YoLink failed to return an access token" );
@@ -410,33 +545,28 @@ public class YoLink extends AMonitor {
      */
     private JSONObject post( final String _url, final String _request, final String _contentType, final boolean _authorize ) throws IOException, JSONException {
 
-        URL url = new URL( _url );
-        HttpURLConnection con = (HttpURLConnection) url.openConnection();
-        con.setRequestMethod( "POST" );
-        con.setRequestProperty( "Accept", "application/json" );
-        con.setRequestProperty( "Content-Type", _contentType );
+        var builder = HttpRequest.newBuilder( URI.create( _url ) )
+                .timeout( requestTimeout )
+                .header( "Accept", "application/json" )
+                .header( "Content-Type", _contentType )
+                .POST( HttpRequest.BodyPublishers.ofString( _request, StandardCharsets.UTF_8 ) );
 
         if( _authorize )
-            con.setRequestProperty( "Authorization", "Bearer " + accessToken );
+            builder.header( "Authorization", "Bearer " + accessToken );
 
-        con.setDoOutput( true );
-
-        try( OutputStream os = con.getOutputStream() ) {
-            byte[] input = _request.getBytes( StandardCharsets.UTF_8 );
-            os.write( input, 0, input.length );
+        HttpResponse<String> response;
+        try {
+            response = client.send( builder.build(), HttpResponse.BodyHandlers.ofString( StandardCharsets.UTF_8 ) );
+        }
+        catch( InterruptedException _e ) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while posting to YoLink API" );
         }
 
-        if( con.getResponseCode() != 200 )
-            throw new IOException( "Response not ok: " + con.getResponseCode() );
+        if( response.statusCode() != 200 )
+            throw new IOException( "Response not ok: " + response.statusCode() );
 
-        try( BufferedReader br = new BufferedReader( new InputStreamReader( con.getInputStream(), StandardCharsets.UTF_8 ) ) ) {
-            StringBuilder response = new StringBuilder();
-            String responseLine;
-            while ((responseLine = br.readLine()) != null) {
-                response.append(responseLine.trim());
-            }
-            return new JSONObject( response.toString() );
-        }
+        return new JSONObject( response.body() );
     }
 
 